@@ -6,22 +6,30 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import eu.fbk.utils.svm.Util;
 import eu.fbk.rdfpro.util.IO;
+import ixa.kaflib.BinaryFormat;
 import ixa.kaflib.KAFDocument;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -33,23 +41,52 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private static final Corpus EMPTY = new Corpus(new Path[0], null);
+    private static final int DEFAULT_READ_AHEAD_DOCUMENTS = 4;
+
+    private static final long DEFAULT_READ_AHEAD_BYTES = 64L * 1024 * 1024;
+
+    private static final Corpus EMPTY = new Corpus(new Path[0], new Path[0], null, null,
+            DEFAULT_READ_AHEAD_DOCUMENTS, DEFAULT_READ_AHEAD_BYTES);
+
+    @Nullable
+    private static ExecutorService ioExecutor;
 
     private final Path[] files;
 
+    private final Path[] packs;
+
     @Nullable
     private final BiConsumer<Path, KAFDocument> transformer;
 
+    @Nullable
+    private final Set<KAFDocument.Layer> layers;
+
+    private final int readAheadDocuments;
+
+    private final long readAheadBytes;
+
     @Nullable
     private transient Set<Path> fileSet;
 
+    @Nullable
+    private transient long[] cumulatedSizes;
+
     @Nullable
     private transient Path path;
 
+    /**
+     * Creates a corpus with the NAF files and the {@link CorpusPack} files found in the given files or folders.
+     * Packs are opened once per JVM and stay open and memory-mapped, shared by all the corpora that read them, until
+     * released with {@code CorpusPack.open(file).close()}; a released pack is opened again if a corpus reads it later.
+     */
     public static Corpus create(final boolean recursive, final Object... filesOrDirs) {
         return create(recursive, Arrays.asList(filesOrDirs));
     }
 
+    /**
+     * Creates a corpus with the NAF files and packs found in the given files or folders, see {@link #create(boolean,
+     * Object...)}.
+     */
     public static Corpus create(final boolean recursive, final Iterable<?> filesOrDirs) {
 
         final List<Path> paths = Lists.newArrayList();
@@ -65,22 +102,48 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
 
         // todo: this uses Util, a class included in utils-svm
         final List<Path> files = Util.fileMatch(paths, ImmutableList.of(".naf", ".naf.gz",
-                ".naf.bz2", ".naf.xz", ".xml", ".xml.gz", ".xml.bz2", ".xml.xz"), recursive);
+                ".naf.bz2", ".naf.xz", ".nafb", ".nafb.gz", ".nafb.bz2", ".nafb.xz", ".xml", ".xml.gz",
+                ".xml.bz2", ".xml.xz", CorpusPack.EXTENSION), recursive);
 
+        // Documents in packs are accessed as files inside the pack
+        final List<Path> packs = Lists.newArrayList();
         for (int i = 0; i < files.size(); ++i) {
-            files.set(i, files.get(i).toAbsolutePath().normalize());
+            final Path file = files.get(i).toAbsolutePath().normalize();
+            if (CorpusPack.isPack(file)) {
+                packs.add(file);
+                files.remove(i--);
+            } else {
+                files.set(i, file);
+            }
+        }
+        for (final Path pack : packs) {
+            for (final String name : CorpusPack.open(pack).names()) {
+                files.add(pack.resolve(name));
+            }
         }
 
         if (files.isEmpty()) {
             return EMPTY;
         } else {
-            return new Corpus(files.toArray(new Path[files.size()]), null);
+            final Path[] fileArray = files.toArray(new Path[files.size()]);
+            final Path[] packArray = packs.toArray(new Path[packs.size()]);
+            Arrays.sort(fileArray);
+            Arrays.sort(packArray);
+            return new Corpus(fileArray, packArray, null, null, DEFAULT_READ_AHEAD_DOCUMENTS,
+                    DEFAULT_READ_AHEAD_BYTES);
         }
     }
 
-    private Corpus(final Path[] files, @Nullable final BiConsumer<Path, KAFDocument> transformer) {
+    private Corpus(final Path[] files, final Path[] packs,
+            @Nullable final BiConsumer<Path, KAFDocument> transformer,
+            @Nullable final Set<KAFDocument.Layer> layers, final int readAheadDocuments,
+            final long readAheadBytes) {
         this.files = files;
+        this.packs = packs;
         this.transformer = transformer;
+        this.layers = layers;
+        this.readAheadDocuments = readAheadDocuments;
+        this.readAheadBytes = readAheadBytes;
     }
 
     public Path path() {
@@ -90,8 +153,8 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
                 prefix = Strings.commonPrefix(prefix, file.toString());
             }
             Path path = Paths.get(prefix);
-            if (!Files.exists(path) || !Files.isDirectory(path)) {
-                path = path.getParent();
+            while (!Files.isDirectory(path) && Arrays.binarySearch(this.packs, path) < 0) {
+                path = path.getParent(); // a pack is the root of the documents it contains
             }
             this.path = path.toAbsolutePath().normalize();
         }
@@ -143,14 +206,36 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
             if (index < 0 || index >= this.files.length) {
                 throw new IllegalArgumentException("No file in this corpus for " + key);
             }
+            byte[] bytes;
+            try {
+                bytes = bytes(index);
+            } catch (final Throwable ex) {
+                LOGGER.warn("Failed to parse document " + this.files[index], ex);
+                return null;
+            }
+            return parse(index, bytes);
+
+        } catch (final Throwable ex) {
+            throw Throwables.propagate(ex);
+        }
+    }
+
+    /**
+     * Parses the content of a document, returned by {@link #bytes(int)}; null if it cannot be parsed.
+     */
+    private KAFDocument parse(final int index, final byte[] bytes) {
+        try {
             final Path file = this.files[index].toAbsolutePath();
 
             KAFDocument document = null;
-            try (InputStream stream = IO.read(file.toString())) {
-                byte[] bytes;
-                bytes = ByteStreams.toByteArray(stream);
-                document = KAFDocument.createFromStream(IO.utf8Reader(new ByteArrayInputStream(
-                        bytes)));
+            try {
+                if (BinaryFormat.isBinary(new ByteArrayInputStream(bytes))) {
+                    document = KAFDocument.createFromStream(new ByteArrayInputStream(bytes),
+                            this.layers);
+                } else {
+                    document = KAFDocument.createFromStream(IO.utf8Reader(new ByteArrayInputStream(
+                            bytes)), this.layers);
+                }
             } catch (final Throwable ex) {
                 LOGGER.warn("Failed to parse document " + file, ex);
                 return null;
@@ -171,6 +256,63 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
         }
     }
 
+    /**
+     * Returns the content of a document, uncompressed but not parsed.
+     */
+    byte[] bytes(final int index) throws IOException {
+        final Path file = this.files[index];
+        final Path pack = pack(file);
+        if (pack != null) {
+            return CorpusPack.open(pack).read(pack.relativize(file).toString());
+        }
+        try (InputStream stream = IO.read(file.toString())) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+
+    /**
+     * Returns the size of a document as stored, used to estimate the time needed to process it.
+     */
+    private long size(final int index) {
+        final Path file = this.files[index];
+        final Path pack = pack(file);
+        try {
+            if (pack != null) {
+                final CorpusPack corpusPack = CorpusPack.open(pack);
+                return corpusPack.length(corpusPack.indexOf(pack.relativize(file).toString()));
+            }
+            return Files.size(file);
+        } catch (final Throwable ex) {
+            return 0; // will fail when read
+        }
+    }
+
+    @Nullable
+    private Path pack(final Path file) {
+        for (final Path pack : this.packs) {
+            if (file.startsWith(pack)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path of a document relative to the corpus path, without compression extensions.
+     */
+    String name(final int index) {
+        String name = this.files[index].toString().substring(path().toString().length());
+        while (name.startsWith(File.separator)) {
+            name = name.substring(1);
+        }
+        for (final String extension : new String[] { ".gz", ".bz2", ".xz" }) {
+            if (name.endsWith(extension)) {
+                name = name.substring(0, name.length() - extension.length());
+            }
+        }
+        return name;
+    }
+
     @Override
     public Iterator<KAFDocument> iterator() {
         return new UnmodifiableIterator<KAFDocument>() {
@@ -190,39 +332,129 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
         };
     }
 
+    /**
+     * Returns a spliterator that splits the corpus in parts of similar size in bytes, rather
+     * than in number of documents, and reads ahead the next documents of each part on a shared
+     * I/O thread pool, while the current one is parsed and processed.
+     */
     @Override
     public Spliterator<KAFDocument> spliterator() {
-        return spliteratorHelper(Arrays.spliterator(this.files));
+        return new DocumentSpliterator(0, this.files.length);
     }
 
-    private Spliterator<KAFDocument> spliteratorHelper(final Spliterator<Path> delegate) {
-        return new Spliterator<KAFDocument>() {
-
-            @Override
-            public boolean tryAdvance(final Consumer<? super KAFDocument> action) {
-                return delegate.tryAdvance(file -> {
-                    action.accept(get(file));
-                });
+    private long[] cumulatedSizes() {
+        if (this.cumulatedSizes == null) {
+            final long[] sizes = new long[this.files.length + 1];
+            for (int i = 0; i < this.files.length; ++i) {
+                sizes[i + 1] = sizes[i] + Math.max(1, size(i));
             }
+            this.cumulatedSizes = sizes;
+        }
+        return this.cumulatedSizes;
+    }
 
-            @Override
-            public Spliterator<KAFDocument> trySplit() {
-                final Spliterator<Path> splittedDelegate = delegate.trySplit();
-                return splittedDelegate == null ? null : spliteratorHelper(splittedDelegate);
+    private static synchronized ExecutorService getIOExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newFixedThreadPool(
+                    Math.max(4, Runtime.getRuntime().availableProcessors()),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("corpus-io-%d").build());
+        }
+        return ioExecutor;
+    }
+
+    private final class DocumentSpliterator implements Spliterator<KAFDocument> {
+
+        private final Deque<Future<byte[]>> prefetched = new ArrayDeque<>();
+
+        private int index; // next document to return
+
+        private int prefetchIndex; // next document to prefetch
+
+        private long prefetchedBytes;
+
+        private final int end;
+
+        DocumentSpliterator(final int start, final int end) {
+            this.index = start;
+            this.prefetchIndex = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super KAFDocument> action) {
+            if (this.index >= this.end) {
+                return false;
             }
+            final int documentIndex = this.index++;
+            byte[] bytes;
+            try {
+                if (Corpus.this.readAheadDocuments <= 0) {
+                    ++this.prefetchIndex;
+                    bytes = bytes(documentIndex);
+                } else {
+                    prefetch();
+                    final Future<byte[]> future = this.prefetched.removeFirst();
+                    final long[] sizes = cumulatedSizes();
+                    this.prefetchedBytes -= sizes[documentIndex + 1] - sizes[documentIndex];
+                    prefetch(); // keep I/O busy while this document is parsed
+                    bytes = future.get();
+                }
+            } catch (final Throwable ex) {
+                LOGGER.warn("Failed to parse document " + Corpus.this.files[documentIndex],
+                        ex instanceof ExecutionException ? ex.getCause() : ex);
+                action.accept(null);
+                return true;
+            }
+            action.accept(parse(documentIndex, bytes));
+            return true;
+        }
 
-            @Override
-            public long estimateSize() {
-                return delegate.estimateSize();
+        private void prefetch() {
+            // read at least the next document (the one to return if nothing is queued, even if
+            // larger than the byte limit), at most the configured documents and bytes
+            final long[] sizes = cumulatedSizes();
+            while (this.prefetchIndex < this.end
+                    && (this.prefetched.isEmpty() || this.prefetched.size() < Corpus.this.readAheadDocuments
+                            && this.prefetchedBytes + sizes[this.prefetchIndex + 1]
+                                    - sizes[this.prefetchIndex] <= Corpus.this.readAheadBytes)) {
+                final int documentIndex = this.prefetchIndex++;
+                this.prefetchedBytes += sizes[documentIndex + 1] - sizes[documentIndex];
+                this.prefetched.addLast(getIOExecutor().submit(() -> bytes(documentIndex)));
             }
+        }
 
-            @Override
-            public int characteristics() {
-                return Spliterator.IMMUTABLE | Spliterator.DISTINCT | Spliterator.NONNULL
-                        | Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        @Override
+        public Spliterator<KAFDocument> trySplit() {
+            // the returned part must precede this one, so splitting stops once reading started
+            if (this.prefetchIndex != this.index || this.end - this.index < 2) {
+                return null;
             }
+            final long[] sizes = cumulatedSizes();
+            final long half = sizes[this.index] + (sizes[this.end] - sizes[this.index]) / 2;
+            int middle = Arrays.binarySearch(sizes, this.index, this.end, half);
+            middle = middle >= 0 ? middle : -middle - 1;
+            middle = Math.max(this.index + 1, Math.min(this.end - 1, middle));
+            final DocumentSpliterator prefix = new DocumentSpliterator(this.index, middle);
+            this.index = middle;
+            this.prefetchIndex = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            // documents are weighted by size, so that parts of similar size are split alike
+            final long[] sizes = cumulatedSizes();
+            final long total = sizes[sizes.length - 1];
+            return total == 0 ? 0 : (long) Math.ceil((double) Corpus.this.files.length
+                    * (sizes[this.end] - sizes[this.index]) / total);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.IMMUTABLE | Spliterator.DISTINCT | Spliterator.NONNULL
+                    | Spliterator.ORDERED;
+        }
 
-        };
     }
 
     public Stream<KAFDocument> stream() {
@@ -270,8 +502,28 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
     }
 
     public Corpus transform(final BiConsumer<Path, KAFDocument> transformer) {
-        return new Corpus(this.files, this.transformer == null ? transformer
-                : this.transformer.andThen(transformer));
+        return new Corpus(this.files, this.packs, this.transformer == null ? transformer
+                : this.transformer.andThen(transformer), this.layers, this.readAheadDocuments,
+                this.readAheadBytes);
+    }
+
+    /**
+     * Returns a corpus that, when streamed, reads ahead up to the given number of documents (and
+     * bytes, as stored) for each part being processed in parallel; zero documents disables
+     * reading ahead, so that documents are read and parsed in the consuming thread.
+     */
+    public Corpus withReadAhead(final int documents, final long bytes) {
+        return new Corpus(this.files, this.packs, this.transformer, this.layers, documents, bytes);
+    }
+
+    /**
+     * Returns a corpus whose documents are loaded with the given layers only (plus the layers
+     * they refer to), skipping the others while parsing; null restores the loading of all the
+     * layers. Documents loaded this way should not be saved back, as skipped layers are lost.
+     */
+    public Corpus withLayers(@Nullable final Set<KAFDocument.Layer> layers) {
+        return new Corpus(this.files, this.packs, this.transformer, layers == null ? null
+                : Sets.immutableEnumSet(layers), this.readAheadDocuments, this.readAheadBytes);
     }
 
     public Corpus fixURIs() {
@@ -308,7 +560,8 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
             if (shuffleSeed != null) {
                 Arrays.sort(partition);
             }
-            corpora[i] = new Corpus(partition, this.transformer);
+            corpora[i] = new Corpus(partition, this.packs, this.transformer, this.layers,
+                    this.readAheadDocuments, this.readAheadBytes);
             index = endIndex;
         }
         return corpora;
@@ -324,12 +577,16 @@ public final class Corpus implements Iterable<KAFDocument>, Serializable {
         }
         final Corpus other = (Corpus) object;
         return Arrays.equals(this.files, other.files)
-                && Objects.equal(this.transformer, other.transformer);
+                && Objects.equal(this.transformer, other.transformer)
+                && Objects.equal(this.layers, other.layers)
+                && this.readAheadDocuments == other.readAheadDocuments
+                && this.readAheadBytes == other.readAheadBytes;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(Arrays.hashCode(this.files), this.transformer);
+        return Objects.hashCode(Arrays.hashCode(this.files), this.transformer, this.layers,
+                this.readAheadDocuments, this.readAheadBytes);
     }
 
     @Override
@@ -0,0 +1,333 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import com.google.common.base.Throwables;
+import eu.fbk.utils.core.CommandLine;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A corpus of NAF documents packed in a single file, so that millions of small documents can be stored and accessed
+ * without a file (and a directory entry) for each of them. Documents are compressed one by one and stored one after
+ * the other, followed by an index with their names (relative paths, sorted) and offsets; the file is memory-mapped,
+ * so that any document can be read in constant time by name or ordinal.
+ * <p>
+ * Pack files have extension {@code .nafpack} and are created with {@link #write(Corpus, Path)} or from the command
+ * line; {@link Corpus} reads them transparently, each document being accessed as a file inside the pack (e.g.,
+ * {@code corpus.nafpack/dir/doc.naf}).
+ */
+public final class CorpusPack implements Closeable {
+
+    private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(CorpusPack.class);
+
+    public static final String EXTENSION = ".nafpack";
+
+    private static final byte[] MAGIC = { 'N', 'A', 'F', 'P', 'A', 'C', 'K', 1 };
+
+    private static final int FOOTER_SIZE = 8 + 4 + MAGIC.length;
+
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final Map<Path, CorpusPack> OPEN_PACKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+
+    private final MappedByteBuffer[] segments;
+
+    private final String[] names;
+
+    private final long[] offsets;
+
+    private final int[] compressedLengths;
+
+    private final int[] lengths;
+
+    /**
+     * Returns the pack stored in the given file, opening it the first time it is requested. The pack is shared by
+     * all the callers and its file stays open and mapped until {@link #close()} is called, i.e., for the lifetime of
+     * the JVM otherwise.
+     */
+    public static CorpusPack open(final Path file) {
+        return OPEN_PACKS.computeIfAbsent(file.toAbsolutePath().normalize(), (final Path path) -> {
+            try {
+                return new CorpusPack(path);
+            } catch (final IOException ex) {
+                throw Throwables.propagate(ex);
+            }
+        });
+    }
+
+    public static boolean isPack(final Path file) {
+        return file.getFileName() != null && file.getFileName().toString().endsWith(EXTENSION)
+                && Files.isRegularFile(file);
+    }
+
+    private CorpusPack(final Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < this.segments.length; ++i) {
+                final long position = (long) i * SEGMENT_SIZE;
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_SIZE, size - position));
+            }
+
+            if (size < FOOTER_SIZE) {
+                throw new IOException("Not a NAF pack: " + file);
+            }
+            final byte[] footer = new byte[FOOTER_SIZE];
+            read(size - FOOTER_SIZE, footer, 0, FOOTER_SIZE);
+            final ByteBuffer footerBuffer = ByteBuffer.wrap(footer);
+            final long indexOffset = footerBuffer.getLong();
+            final int count = footerBuffer.getInt();
+            final byte[] magic = new byte[MAGIC.length];
+            footerBuffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a NAF pack (or unsupported version): " + file);
+            }
+
+            final byte[] index = new byte[(int) (size - FOOTER_SIZE - indexOffset)];
+            read(indexOffset, index, 0, index.length);
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+            this.names = new String[count];
+            this.offsets = new long[count];
+            this.compressedLengths = new int[count];
+            this.lengths = new int[count];
+            for (int i = 0; i < count; ++i) {
+                this.names[i] = in.readUTF();
+                this.offsets[i] = in.readLong();
+                this.compressedLengths[i] = in.readInt();
+                this.lengths[i] = in.readInt();
+            }
+        }
+    }
+
+    public Path file() {
+        return this.file;
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * Returns the names of the documents in the pack, i.e., their paths relative to the pack, in sorted order.
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(this.names));
+    }
+
+    /**
+     * Returns the ordinal of the document with the given name, or a negative number if there is no such document.
+     */
+    public int indexOf(final String name) {
+        return Arrays.binarySearch(this.names, name);
+    }
+
+    /**
+     * Returns the uncompressed length of the document with the given ordinal.
+     */
+    public int length(final int index) {
+        return this.lengths[index];
+    }
+
+    /**
+     * Returns the uncompressed content of the document with the given ordinal.
+     */
+    public byte[] read(final int index) throws IOException {
+        final byte[] bytes = new byte[this.lengths[index]];
+        if (this.compressedLengths[index] == this.lengths[index]) {
+            read(this.offsets[index], bytes, 0, bytes.length); // stored uncompressed
+            return bytes;
+        }
+        final byte[] compressed = new byte[this.compressedLengths[index]];
+        read(this.offsets[index], compressed, 0, compressed.length);
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < bytes.length) {
+                final int n = inflater.inflate(bytes, length, bytes.length - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != bytes.length) {
+                throw new IOException("Truncated document " + this.names[index] + " in " + this.file);
+            }
+            return bytes;
+        } catch (final DataFormatException ex) {
+            throw new IOException("Corrupted document " + this.names[index] + " in " + this.file, ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public byte[] read(final String name) throws IOException {
+        final int index = indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("No document " + name + " in " + this.file);
+        }
+        return read(index);
+    }
+
+    private void read(final long offset, final byte[] buffer, final int start, final int length) {
+        // documents may cross segment boundaries
+        int done = 0;
+        while (done < length) {
+            final long position = offset + done;
+            final ByteBuffer segment = this.segments[(int) (position / SEGMENT_SIZE)].duplicate();
+            final int segmentOffset = (int) (position % SEGMENT_SIZE);
+            final int n = Math.min(length - done, segment.capacity() - segmentOffset);
+            segment.position(segmentOffset);
+            segment.get(buffer, start + done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Releases the pack, which is opened again if requested later. Mapped memory is released by the garbage
+     * collector, once documents being read have been completed.
+     */
+    @Override
+    public void close() {
+        OPEN_PACKS.remove(this.file, this);
+    }
+
+    @Override
+    public String toString() {
+        return this.names.length + " document(s) pack (file: " + this.file + ")";
+    }
+
+    /**
+     * Writes all the documents of a corpus to a pack file, named after their path relative to the corpus (without
+     * compression extensions). Documents are stored as they are in the corpus, without parsing them.
+     */
+    public static void write(final Corpus corpus, final Path file) throws IOException {
+        final int count = corpus.size();
+        final String[] names = new String[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            names[i] = corpus.name(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (final Integer i, final Integer j) -> names[i].compareTo(names[j]));
+
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream indexOut = new DataOutputStream(index);
+        final Deflater deflater = new Deflater();
+        byte[] compressed = new byte[64 * 1024];
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            final DataOutputStream out = new DataOutputStream(stream);
+            long offset = 0;
+            String lastName = null;
+            for (int i = 0; i < count; ++i) {
+                final String name = names[order[i]];
+                if (name.equals(lastName)) {
+                    throw new IllegalArgumentException("Duplicate document " + name);
+                }
+                lastName = name;
+                final byte[] bytes = corpus.bytes(order[i]);
+
+                deflater.reset();
+                deflater.setInput(bytes);
+                deflater.finish();
+                int compressedLength = 0;
+                while (!deflater.finished() && compressedLength < bytes.length) {
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length
+                            - compressedLength);
+                }
+                if (deflater.finished() && compressedLength < bytes.length) {
+                    out.write(compressed, 0, compressedLength);
+                } else {
+                    compressedLength = bytes.length; // not worth compressing: store as is
+                    out.write(bytes);
+                }
+
+                indexOut.writeUTF(name);
+                indexOut.writeLong(offset);
+                indexOut.writeInt(compressedLength);
+                indexOut.writeInt(bytes.length);
+                offset += compressedLength;
+
+                if ((i + 1) % 10000 == 0) {
+                    LOGGER.info("{} documents packed", i + 1);
+                }
+            }
+            index.writeTo(out);
+            out.writeLong(offset);
+            out.writeInt(count);
+            out.write(MAGIC);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+        final CorpusPack open = OPEN_PACKS.get(file.toAbsolutePath().normalize());
+        if (open != null) {
+            open.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.info("{} documents packed in {}", count, file);
+    }
+
+    public static void main(final String[] args) {
+        try {
+            final CommandLine cmd = CommandLine
+                    .parser()
+                    .withName("pack-corpus")
+                    .withHeader("Packs the NAF files of one or more folders (or packs) in a single "
+                            + EXTENSION + " file")
+                    .withOption("i", "input", "the NAF files, folders or packs to include", "PATH",
+                            CommandLine.Type.FILE_EXISTING, true, true, true)
+                    .withOption("o", "output", "the pack file to create", "FILE",
+                            CommandLine.Type.FILE, true, false, true)
+                    .withOption("r", "recursive", "recurse into sub-folders")
+                    .withLogger(LoggerFactory.getLogger("eu.fbk")).parse(args);
+
+            final List<Path> inputs = new ArrayList<>();
+            for (final File input : cmd.getOptionValues("input", File.class)) {
+                inputs.add(input.toPath());
+            }
+            final Path output = cmd.getOptionValue("output", File.class).toPath();
+            if (!output.getFileName().toString().endsWith(EXTENSION)) {
+                throw new IllegalArgumentException("Pack file name must end with " + EXTENSION);
+            }
+
+            write(Corpus.create(cmd.hasOption("recursive"), inputs), output);
+
+        } catch (final Throwable ex) {
+            CommandLine.fail(ex);
+        }
+    }
+
+}
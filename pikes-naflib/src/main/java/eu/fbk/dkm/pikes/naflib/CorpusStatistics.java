@@ -1,11 +1,14 @@
 package eu.fbk.dkm.pikes.naflib;
 
 import eu.fbk.utils.core.CommandLine;
+import ixa.kaflib.KAFDocument;
 import ixa.kaflib.LinguisticProcessor;
+import ixa.kaflib.Term;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
@@ -27,6 +30,7 @@ public class CorpusStatistics {
 					.withHeader("Calculate statistics on a corpus")
 					.withOption("i", "input-folder", "the folder of the NAF corpus", "DIR", CommandLine.Type.DIRECTORY_EXISTING, true, false, true)
 					.withOption("r", "recursive", "parse folder recursively")
+					.withOption("m", "memory", "measure the heap retained by the loaded documents, before and after querying their indexes")
 					.withLogger(LoggerFactory.getLogger("eu.fbk")).parse(args);
 
 			File inputFolder = cmd.getOptionValue("input-folder", File.class);
@@ -34,6 +38,11 @@ public class CorpusStatistics {
 
 			Corpus corpus = Corpus.create(recursive, inputFolder);
 
+			if (cmd.hasOption("memory")) {
+				measureMemory(corpus);
+				return;
+			}
+
 			final AtomicLong tokens = new AtomicLong();
 			final AtomicLong documents = new AtomicLong();
 			final AtomicLong sentences = new AtomicLong();
@@ -110,4 +119,49 @@ public class CorpusStatistics {
 			CommandLine.fail(ex);
 		}
 	}
+
+	/**
+	 * Loads all the documents of the corpus, keeping them in memory, and reports the heap they retain as loaded and
+	 * after the sentence and term indexes have been used.
+	 */
+	private static void measureMemory(Corpus corpus) {
+		long before = usedMemory();
+		List<KAFDocument> documents = new ArrayList<>();
+		for (KAFDocument document : corpus) {
+			if (document != null) {
+				documents.add(document);
+			}
+		}
+		long loaded = usedMemory();
+
+		long queries = 0;
+		for (KAFDocument document : documents) {
+			for (int sent = 1; sent <= document.getNumSentences(); ++sent) {
+				queries += document.getTermsBySent(sent).size();
+				List<?> deps = document.getDepsBySent(sent);
+				queries += deps == null ? 0 : deps.size();
+				queries += document.getEntitiesBySent(sent).size();
+				queries += document.getPredicatesBySent(sent).size();
+			}
+			for (Term term : document.getTerms()) {
+				queries += document.getEntitiesByTerm(term).size();
+				queries += document.getPredicatesByTerm(term).size();
+				queries += document.getCorefsByTerm(term).size();
+			}
+		}
+		long indexed = usedMemory();
+
+		int n = Math.max(1, documents.size());
+		LOGGER.info("Documents: {} ({} annotations queried)", documents.size(), queries);
+		LOGGER.info("Heap per document, loaded: {} KB", (loaded - before) / n / 1024);
+		LOGGER.info("Heap per document, indexed: {} KB", (indexed - before) / n / 1024);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
 }
@@ -2,8 +2,11 @@ package ixa.kaflib;
 
 import org.jdom2.Element;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A container to keep all annotations of a document (word forms, terms, dependencies, chunks, entities and coreferences). There are different hash maps to index annotations by different properties as ID, sentence... It enables to retrieve annotations by different properties in an effective way. Performance is very important.
@@ -27,6 +30,17 @@ class AnnotationContainer implements Serializable {
 	 */
 	private List<Term> terms;
 
+	/**
+	 * Positions of word forms and terms in the lists above
+	 */
+	private PositionIndex<WF> wfPositions;
+	private PositionIndex<Term> termPositions;
+
+	/**
+	 * Dependency tree, computed when first needed and discarded when dependencies change
+	 */
+	private transient volatile DependencyIndex depIndex;
+
 	private Map<String, List<Mark>> marks;
 
 	/**
@@ -117,43 +131,68 @@ class AnnotationContainer implements Serializable {
 	private List<Element> unknownLayers;
 
 	/**
-	 * Hash map for mapping word forms to terms.
-	 */
-	private HashMap<String, List<Term>> termsIndexedByWF;
-	private HashMap<String, Map<String, List<Mark>>> marksIndexedByTerm;
-	private HashMap<String, List<Dep>> depsIndexedByTerm;
-	private HashMap<String, List<Chunk>> chunksIndexedByTerm;
-	private HashMap<String, List<Entity>> entitiesIndexedByTerm;
-	private HashMap<String, List<Coref>> corefsIndexedByTerm;
-	private HashMap<String, List<Timex3>> timeExsIndexedByWF;
-	private HashMap<String, List<Factuality>> factsIndexedByWF;
-	private HashMap<String, List<LinkedEntity>> linkedEntitiesIndexedByWF;
-	private HashMap<String, List<SSTspan>> sstSpansIndexedByTerm;
-	private HashMap<String, List<Feature>> propertiesIndexedByTerm;
-	private HashMap<String, List<Feature>> categoriesIndexedByTerm;
-	private HashMap<String, List<Opinion>> opinionsIndexedByTerm;
-	private HashMap<String, List<Relation>> relationsIndexedByRelational;
-	private HashMap<String, List<Predicate>> predicatesIndexedByTerm;
-
-	HashMap<Integer, List<WF>> textIndexedBySent;
-	HashMap<Integer, List<Term>> termsIndexedBySent;
-	HashMap<Integer, Map<String, List<Mark>>> marksIndexedBySent;
-	HashMap<Integer, List<Entity>> entitiesIndexedBySent;
-	HashMap<Integer, List<Dep>> depsIndexedBySent;
-	HashMap<Integer, List<Chunk>> chunksIndexedBySent;
-	HashMap<Integer, List<Coref>> corefsIndexedBySent;
-	HashMap<Integer, List<Timex3>> timeExsIndexedBySent;
-	HashMap<Integer, List<Factuality>> factsIndexedBySent;
-	HashMap<Integer, List<LinkedEntity>> linkedEntitiesIndexedBySent;
-	HashMap<Integer, List<SSTspan>> sstSpansIndexedBySent;
-	HashMap<Integer, List<Feature>> propertiesIndexedBySent;
-	HashMap<Integer, List<Feature>> categoriesIndexedBySent;
-	HashMap<Integer, List<Opinion>> opinionsIndexedBySent;
-	HashMap<Integer, List<Relation>> relationsIndexedBySent;
-	HashMap<Integer, List<Predicate>> predicatesIndexedBySent;
+	 * Indexes of annotations by sentence and by the term, word form or relational they refer to (see {@link
+	 * IndexType}). Each index is built from its layer the first time it is queried, and then kept up to date when
+	 * annotations are added or removed; insertions in the middle of the term list, layer removals and changes of the
+	 * dependencies, of the parts of opinions and of the spans of time expressions just drop the affected indexes.
+	 * Targets added to or removed from a span already attached to an annotation are not tracked. Documents that are
+	 * only loaded, iterated and saved never allocate them.
+	 */
+	private transient volatile AnnotationIndex<?>[] indexes;
+
+	/**
+	 * Integer keys assigned to the ids of terms, word forms and relationals, shared by all the indexes
+	 */
+	private transient volatile Map<String, Integer> idNumbers;
+
+	/**
+	 * Marks of each source indexed by term, built when first queried
+	 */
+	private transient volatile Map<String, AnnotationIndex<Mark>> marksIndexedByTerm;
+
+	/**
+	 * Sentences of each paragraph, built from the word forms when first queried
+	 */
+	private transient volatile Map<Integer, LinkedHashSet<Integer>> sentsIndexedByParagraphs;
+
+	/** Whether the container has been frozen, see {@link #freeze()} */
+	private volatile boolean frozen;
+
+	/**
+	 * Trees by sentence, allocated when the first tree is added
+	 */
 	HashMap<Integer, List<Tree>> treesIndexedBySent;
 
-	HashMap<Integer, LinkedHashSet<Integer>> sentsIndexedByParagraphs;
+	/**
+	 * The indexes of annotations, with the layer they are built from
+	 */
+	private enum IndexType {
+
+		WFS_BY_SENT(KAFDocument.Layer.text),
+		TERMS_BY_SENT(KAFDocument.Layer.terms),
+		TERMS_BY_WF(KAFDocument.Layer.terms),
+		DEPS_BY_SENT(KAFDocument.Layer.deps),
+		DEPS_BY_TERM(KAFDocument.Layer.deps),
+		CHUNKS_BY_SENT(KAFDocument.Layer.chunks),
+		CHUNKS_BY_TERM(KAFDocument.Layer.chunks),
+		ENTITIES_BY_SENT(KAFDocument.Layer.entities),
+		ENTITIES_BY_TERM(KAFDocument.Layer.entities),
+		COREFS_BY_TERM(KAFDocument.Layer.coreferences),
+		TIMEXES_BY_SENT(KAFDocument.Layer.timeExpressions),
+		TIMEXES_BY_WF(KAFDocument.Layer.timeExpressions),
+		PROPERTIES_BY_TERM(KAFDocument.Layer.properties),
+		CATEGORIES_BY_TERM(KAFDocument.Layer.categories),
+		OPINIONS_BY_TERM(KAFDocument.Layer.opinions),
+		RELATIONS_BY_RELATIONAL(KAFDocument.Layer.relations),
+		PREDICATES_BY_SENT(KAFDocument.Layer.srl),
+		PREDICATES_BY_TERM(KAFDocument.Layer.srl);
+
+		final KAFDocument.Layer layer;
+
+		IndexType(KAFDocument.Layer layer) {
+			this.layer = layer;
+		}
+	}
 
 	/**
 	 * This creates a new AnnotationContainer object
@@ -163,6 +202,8 @@ class AnnotationContainer implements Serializable {
 		text = new ArrayList();
 		nextOffset = 0;
 		terms = new ArrayList();
+		wfPositions = new PositionIndex<WF>(text);
+		termPositions = new PositionIndex<Term>(terms);
 		marks = new HashMap();
 		deps = new ArrayList();
 		chunks = new ArrayList();
@@ -183,83 +224,374 @@ class AnnotationContainer implements Serializable {
 		tLinks = new ArrayList();
 		cLinks = new ArrayList();
 
-		termsIndexedByWF = new HashMap<String, List<Term>>();
-		marksIndexedByTerm = new HashMap<String, Map<String, List<Mark>>>();
-		depsIndexedByTerm = new HashMap<String, List<Dep>>();
-		chunksIndexedByTerm = new HashMap<String, List<Chunk>>();
-		entitiesIndexedByTerm = new HashMap<String, List<Entity>>();
-		corefsIndexedByTerm = new HashMap<String, List<Coref>>();
-		timeExsIndexedByWF = new HashMap<String, List<Timex3>>();
-		linkedEntitiesIndexedByWF = new HashMap<String, List<LinkedEntity>>();
-		sstSpansIndexedByTerm = new HashMap();
-		factsIndexedByWF = new HashMap<String, List<Factuality>>();
-		propertiesIndexedByTerm = new HashMap<String, List<Feature>>();
-		categoriesIndexedByTerm = new HashMap<String, List<Feature>>();
-		opinionsIndexedByTerm = new HashMap<String, List<Opinion>>();
-		relationsIndexedByRelational = new HashMap<String, List<Relation>>();
-		predicatesIndexedByTerm = new HashMap<String, List<Predicate>>();
-
-		textIndexedBySent = new HashMap<Integer, List<WF>>();
-		termsIndexedBySent = new HashMap<Integer, List<Term>>();
-		marksIndexedBySent = new HashMap<Integer, Map<String, List<Mark>>>();
-		entitiesIndexedBySent = new HashMap<Integer, List<Entity>>();
-		depsIndexedBySent = new HashMap<Integer, List<Dep>>();
-		chunksIndexedBySent = new HashMap<Integer, List<Chunk>>();
-		corefsIndexedBySent = new HashMap<Integer, List<Coref>>();
-		timeExsIndexedBySent = new HashMap<Integer, List<Timex3>>();
-		linkedEntitiesIndexedBySent = new HashMap<Integer, List<LinkedEntity>>();
-		sstSpansIndexedBySent = new HashMap();
-		factsIndexedBySent = new HashMap<Integer, List<Factuality>>();
-		propertiesIndexedBySent = new HashMap<Integer, List<Feature>>();
-		categoriesIndexedBySent = new HashMap<Integer, List<Feature>>();
-		opinionsIndexedBySent = new HashMap<Integer, List<Opinion>>();
-		relationsIndexedBySent = new HashMap<Integer, List<Relation>>();
-		predicatesIndexedBySent = new HashMap<Integer, List<Predicate>>();
-		treesIndexedBySent = new HashMap<Integer, List<Tree>>();
-
-		sentsIndexedByParagraphs = new HashMap<Integer, LinkedHashSet<Integer>>();
 		constituencyStrings = new HashMap<>();
 
 	}
 
-	private <T> void indexBySent(T annotation, Integer sent, HashMap<Integer, List<T>> index) {
-		if (sent > 0) {
-			if (index.get(sent) == null) {
-				index.put(sent, new ArrayList<T>());
+	/**
+	 * Builds all the indexes and makes the layer lists read-only, so that the container can be
+	 * queried by concurrent threads without locking; any later change fails with an
+	 * IllegalStateException.
+	 */
+	synchronized void freeze() {
+		if (frozen) {
+			return;
+		}
+		for (IndexType type : IndexType.values()) {
+			getIndex(type);
+		}
+		getParagraphIndex();
+		getMarkIndex();
+		getDependencyIndex();
+		if (!text.isEmpty()) {
+			wfPositions.indexOf(text.get(0));
+		}
+		if (!terms.isEmpty()) {
+			termPositions.indexOf(terms.get(0));
+		}
+		text = Collections.unmodifiableList(text);
+		terms = Collections.unmodifiableList(terms);
+		Map<String, List<Mark>> frozenMarks = new HashMap<String, List<Mark>>();
+		for (Map.Entry<String, List<Mark>> entry : marks.entrySet()) {
+			frozenMarks.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+		}
+		marks = Collections.unmodifiableMap(frozenMarks);
+		deps = Collections.unmodifiableList(deps);
+		chunks = Collections.unmodifiableList(chunks);
+		entities = Collections.unmodifiableList(entities);
+		properties = Collections.unmodifiableList(properties);
+		categories = Collections.unmodifiableList(categories);
+		coreferences = Collections.unmodifiableList(coreferences);
+		timeExpressions = Collections.unmodifiableList(timeExpressions);
+		tLinks = Collections.unmodifiableList(tLinks);
+		cLinks = Collections.unmodifiableList(cLinks);
+		topics = Collections.unmodifiableList(topics);
+		factualities = Collections.unmodifiableList(factualities);
+		linkedEntities = Collections.unmodifiableList(linkedEntities);
+		sstSpans = Collections.unmodifiableList(sstSpans);
+		opinions = Collections.unmodifiableList(opinions);
+		relations = Collections.unmodifiableList(relations);
+		predicates = Collections.unmodifiableList(predicates);
+		trees = Collections.unmodifiableList(trees);
+		unknownLayers = Collections.unmodifiableList(unknownLayers);
+		if (treesIndexedBySent != null) {
+			for (Map.Entry<Integer, List<Tree>> entry : treesIndexedBySent.entrySet()) {
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
 			}
-			index.get(sent).add(annotation);
 		}
+		frozen = true;
 	}
 
-	private void indexMarkBySent(Mark mark, String source, Integer sent) {
-		if (sent > 0) {
-			if (marksIndexedBySent.get(sent) == null) {
-				marksIndexedBySent.put(sent, new HashMap<String, List<Mark>>());
+	boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkMutable() {
+		if (frozen) {
+			throw new IllegalStateException("The document is frozen and cannot be changed");
+		}
+	}
+
+	/**
+	 * Returns an index, building it if needed. Concurrent readers may build the same index, which is harmless.
+	 */
+	@SuppressWarnings("unchecked")
+	private AnnotationIndex<Object> getIndex(IndexType type) {
+		AnnotationIndex<?>[] current = indexes;
+		AnnotationIndex<?> index = current == null ? null : current[type.ordinal()];
+		if (index == null) {
+			index = buildIndex(type);
+		}
+		return (AnnotationIndex<Object>) index;
+	}
+
+	private synchronized AnnotationIndex<?> buildIndex(IndexType type) {
+		AnnotationIndex<?>[] current = indexes;
+		if (current != null && current[type.ordinal()] != null) {
+			return current[type.ordinal()];
+		}
+		AnnotationIndex<Object> index = new AnnotationIndex<Object>();
+		for (Object annotation : getLayer(type.layer)) {
+			updateIndex(type, index, annotation, true);
+		}
+		index.trim();
+		// publish a new array, so that readers never see an index being built
+		AnnotationIndex<?>[] updated = current == null ? new AnnotationIndex<?>[IndexType.values().length]
+				: current.clone();
+		updated[type.ordinal()] = index;
+		indexes = updated;
+		return index;
+	}
+
+	/**
+	 * Updates the built indexes of a layer after an annotation has been added or removed.
+	 */
+	@SuppressWarnings("unchecked")
+	private void updateIndexes(KAFDocument.Layer layer, Object annotation, boolean add) {
+		AnnotationIndex<?>[] current = indexes;
+		if (current != null) {
+			for (IndexType type : IndexType.values()) {
+				if (type.layer == layer && current[type.ordinal()] != null) {
+					updateIndex(type, (AnnotationIndex<Object>) current[type.ordinal()], annotation, add);
+				}
 			}
-			if (marksIndexedBySent.get(sent).get(source) == null) {
-				marksIndexedBySent.get(sent).put(source, new ArrayList<Mark>());
+		}
+	}
+
+	/**
+	 * Drops the indexes of a layer, which will be built again when queried.
+	 */
+	private void dropIndexes(KAFDocument.Layer layer) {
+		AnnotationIndex<?>[] current = indexes;
+		if (current != null) {
+			for (IndexType type : IndexType.values()) {
+				if (type.layer == layer) {
+					current[type.ordinal()] = null;
+				}
 			}
-			marksIndexedBySent.get(sent).get(source).add(mark);
 		}
 	}
 
-	void indexSentByPara(Integer sent, Integer para) {
-		if ((sent > 0) && (para > 0)) {
-			if (this.sentsIndexedByParagraphs.get(para) == null) {
-				this.sentsIndexedByParagraphs.put(para, new LinkedHashSet<Integer>());
+	private List<?> getLayer(KAFDocument.Layer layer) {
+		switch (layer) {
+			case text:
+				return text;
+			case terms:
+				return terms;
+			case deps:
+				return deps;
+			case chunks:
+				return chunks;
+			case entities:
+				return entities;
+			case coreferences:
+				return coreferences;
+			case timeExpressions:
+				return timeExpressions;
+			case properties:
+				return properties;
+			case categories:
+				return categories;
+			case opinions:
+				return opinions;
+			case relations:
+				return relations;
+			case srl:
+				return predicates;
+			default:
+				throw new IllegalArgumentException("Layer not indexed: " + layer);
+		}
+	}
+
+	private void updateIndex(IndexType type, AnnotationIndex<Object> index, Object annotation, boolean add) {
+		switch (type) {
+			case WFS_BY_SENT:
+				indexBySent(index, ((WF) annotation).getSent(), annotation, add);
+				break;
+			case TERMS_BY_SENT:
+				if (!((Term) annotation).isComponent()) {
+					indexBySent(index, ((Term) annotation).getSent(), annotation, add);
+				}
+				break;
+			case TERMS_BY_WF:
+				for (WF wf : ((Term) annotation).getWFs()) {
+					indexById(index, wf.getId(), annotation, add);
+				}
+				break;
+			case DEPS_BY_SENT:
+				if (((Dep) annotation).getFrom() != null) {
+					indexBySent(index, ((Dep) annotation).getFrom().getSent(), annotation, add);
+				}
+				break;
+			case DEPS_BY_TERM:
+				Dep dep = (Dep) annotation;
+				if (dep.getFrom() != null) {
+					indexById(index, dep.getFrom().getId(), dep, add);
+				}
+				if (dep.getTo() != null) {
+					indexById(index, dep.getTo().getId(), dep, add);
+				}
+				break;
+			case CHUNKS_BY_SENT:
+				indexBySent(index, ((Chunk) annotation).getSpan().getTargets().get(0).getSent(), annotation, add);
+				break;
+			case CHUNKS_BY_TERM:
+				indexByTerms(index, ((Chunk) annotation).getTerms(), annotation, add);
+				break;
+			case ENTITIES_BY_SENT:
+				indexBySent(index, ((Entity) annotation).getSpans().get(0).getTargets().get(0).getSent(), annotation,
+						add);
+				break;
+			case ENTITIES_BY_TERM:
+				indexByTerms(index, ((Entity) annotation).getTerms(), annotation, add);
+				break;
+			case COREFS_BY_TERM:
+				for (Span<Term> span : ((Coref) annotation).getSpans()) {
+					indexByTerms(index, span.getTargets(), annotation, add);
+				}
+				break;
+			case TIMEXES_BY_SENT:
+				Timex3 timex3 = (Timex3) annotation;
+				if (timex3.hasSpan() && !timex3.getSpan().getTargets().isEmpty()) {
+					indexBySent(index, timex3.getSpan().getTargets().get(0).getSent(), timex3, add);
+				}
+				break;
+			case TIMEXES_BY_WF:
+				if (((Timex3) annotation).hasSpan()) {
+					for (WF wf : ((Timex3) annotation).getSpan().getTargets()) {
+						indexById(index, wf.getId(), annotation, add);
+					}
+				}
+				break;
+			case PROPERTIES_BY_TERM:
+			case CATEGORIES_BY_TERM:
+				indexByTerms(index, ((Feature) annotation).getTerms(), annotation, add);
+				break;
+			case OPINIONS_BY_TERM:
+				Opinion opinion = (Opinion) annotation;
+				LinkedHashSet<Term> opinionTerms = new LinkedHashSet<Term>();
+				if (opinion.getOpinionHolder() != null) {
+					opinionTerms.addAll(opinion.getOpinionHolder().getTerms());
+				}
+				if (opinion.getOpinionTarget() != null) {
+					opinionTerms.addAll(opinion.getOpinionTarget().getTerms());
+				}
+				if (opinion.getOpinionExpression() != null) {
+					opinionTerms.addAll(opinion.getOpinionExpression().getTerms());
+				}
+				indexByTerms(index, opinionTerms, opinion, add);
+				break;
+			case RELATIONS_BY_RELATIONAL:
+				Relation relation = (Relation) annotation;
+				if (relation.getFrom() != null) {
+					indexById(index, relation.getFrom().getId(), relation, add);
+				}
+				if (relation.getTo() != null) {
+					indexById(index, relation.getTo().getId(), relation, add);
+				}
+				break;
+			case PREDICATES_BY_SENT:
+				indexBySent(index, ((Predicate) annotation).getSpan().getTargets().get(0).getSent(), annotation, add);
+				break;
+			case PREDICATES_BY_TERM:
+				indexByTerms(index, ((Predicate) annotation).getTerms(), annotation, add);
+				break;
+		}
+	}
+
+	private void indexBySent(AnnotationIndex<Object> index, int sent, Object annotation, boolean add) {
+		if (sent > 0) {
+			if (add) {
+				index.add(sent, annotation);
+			} else {
+				index.remove(sent, annotation);
+			}
+		}
+	}
+
+	private void indexById(AnnotationIndex<Object> index, String id, Object annotation, boolean add) {
+		if (add) {
+			index.add(idNumber(id, true), annotation);
+		} else {
+			index.remove(idNumber(id, false), annotation);
+		}
+	}
+
+	private void indexByTerms(AnnotationIndex<Object> index, Iterable<Term> terms, Object annotation, boolean add) {
+		for (Term term : terms) {
+			indexById(index, term.getId(), annotation, add);
+		}
+	}
+
+	/**
+	 * Returns the integer key of an id, assigning a new one if requested; -1 if the id has no key.
+	 */
+	private int idNumber(String id, boolean assign) {
+		Map<String, Integer> numbers = idNumbers;
+		if (numbers == null) {
+			if (!assign) {
+				return -1;
+			}
+			synchronized (this) {
+				if (idNumbers == null) {
+					idNumbers = new ConcurrentHashMap<String, Integer>();
+				}
+				numbers = idNumbers;
+			}
+		}
+		Integer number = numbers.get(id);
+		if (number == null && assign) {
+			synchronized (this) {
+				number = numbers.get(id);
+				if (number == null) {
+					number = numbers.size();
+					numbers.put(id, number);
+				}
 			}
-			this.sentsIndexedByParagraphs.get(para).add(sent);
 		}
+		return number == null ? -1 : number;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<T> getBySent(IndexType type, int sent) {
+		return (List<T>) getIndex(type).get(sent);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<T> getById(IndexType type, String id) {
+		AnnotationIndex<Object> index = getIndex(type); // assigns the keys, if built now
+		List<T> result = (List<T>) index.get(idNumber(id, false));
+		return result == null ? new ArrayList<T>() : result;
+	}
+
+	private Map<Integer, LinkedHashSet<Integer>> getParagraphIndex() {
+		Map<Integer, LinkedHashSet<Integer>> index = sentsIndexedByParagraphs;
+		if (index == null) {
+			index = new HashMap<Integer, LinkedHashSet<Integer>>();
+			for (WF wf : text) {
+				int sent = wf.getSent();
+				int para = wf.getPara();
+				if (sent > 0 && para > 0) {
+					LinkedHashSet<Integer> sents = index.get(para);
+					if (sents == null) {
+						sents = new LinkedHashSet<Integer>();
+						index.put(para, sents);
+					}
+					sents.add(sent);
+				}
+			}
+			sentsIndexedByParagraphs = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Records that the paragraph of a word form has been set, so that paragraphs are indexed again when queried.
+	 */
+	void indexSentByPara(Integer sent, Integer para) {
+		checkMutable();
+		this.sentsIndexedByParagraphs = null;
 	}
 
+	/**
+	 * Returns the sentences of a paragraph, or null if there is no such paragraph.
+	 */
 	public List<Integer> getSentsByParagraph(Integer para) {
-		return new ArrayList<Integer>(this.sentsIndexedByParagraphs.get(para));
+		LinkedHashSet<Integer> sents = getParagraphIndex().get(para);
+		return sents == null ? null : new ArrayList<Integer>(sents);
+	}
+
+	int getNumParagraphs() {
+		return getParagraphIndex().size();
 	}
 
-	<T> List<T> getLayerByPara(Integer para, HashMap<Integer, List<T>> index) {
+	private <T> List<T> getLayerByPara(Integer para, IndexType type) {
 		List<T> layer = new ArrayList<T>();
 		for (Integer sent : this.getSentsByParagraph(para)) {
-			layer.addAll(index.get(sent));
+			List<T> sentLayer = getBySent(type, sent);
+			if (sentLayer != null) {
+				layer.addAll(sentLayer);
+			}
 		}
 		return layer;
 	}
@@ -301,6 +633,16 @@ class AnnotationContainer implements Serializable {
 		return deps;
 	}
 
+	DependencyIndex getDependencyIndex() {
+		DependencyIndex index = depIndex;
+		if (index == null) {
+			// concurrent readers may build it twice, which is harmless
+			index = new DependencyIndex(deps);
+			depIndex = index;
+		}
+		return index;
+	}
+
 	/**
 	 * Returns all chunks
 	 */
@@ -411,6 +753,7 @@ class AnnotationContainer implements Serializable {
 	}
 
 	void setRawText(String str) {
+		checkMutable();
 		rawText = str;
 	}
 
@@ -418,122 +761,147 @@ class AnnotationContainer implements Serializable {
 	 * Adds a word form to the container
 	 */
 	void add(WF wf) {
+		checkMutable();
 		text.add(wf);
+		wfPositions.added(text.size() - 1);
 		//nextOffset += wf.getLength() + 1;
-		this.indexBySent(wf, wf.getSent(), this.textIndexedBySent);
-	}
-
-	private <T> void indexAnnotation(T annotation, String hashId, HashMap<String, List<T>> index) {
-		if (index.get(hashId) == null) {
-			index.put(hashId, new ArrayList<T>());
-		}
-		index.get(hashId).add(annotation);
-	}
-
-	private void indexMarkByTerm(Mark mark, String source, String tid) {
-		if (marksIndexedByTerm.get(tid) == null) {
-			marksIndexedByTerm.put(tid, new HashMap<String, List<Mark>>());
-		}
-		if (marksIndexedByTerm.get(tid).get(source) == null) {
-			marksIndexedByTerm.get(tid).put(source, new ArrayList<Mark>());
-		}
-		marksIndexedByTerm.get(tid).get(source).add(mark);
+		updateIndexes(KAFDocument.Layer.text, wf, true);
+		sentsIndexedByParagraphs = null;
 	}
 
 	/**
 	 * Adds a term to the container
 	 */
 	void add(Term term) {
+		checkMutable();
 		this.add(term, this.terms.size());
 	}
 
 	void add(Term term, int index) {
+		checkMutable();
 		terms.add(index, term);
-		for (WF wf : term.getWFs()) {
-			indexAnnotation(term, wf.getId(), termsIndexedByWF);
-		}
-		if (!term.isComponent()) {
-			this.indexBySent(term, term.getSent(), this.termsIndexedBySent);
+		termPositions.added(index);
+		if (index == terms.size() - 1) {
+			updateIndexes(KAFDocument.Layer.terms, term, true);
+		} else {
+			// indexes list terms in document order
+			dropIndexes(KAFDocument.Layer.terms);
 		}
 	}
 
 	void remove(Term term) {
-		this.terms.remove(term);
+		checkMutable();
+		int index = termPositions.indexOf(term);
+		if (index >= 0) {
+			terms.remove(index);
+			termPositions.removed(term, index);
+			updateIndexes(KAFDocument.Layer.terms, term, false);
+		}
 	}
 
 	void add(Mark mark, String source) {
+		checkMutable();
 		List<Mark> sourceMarks = marks.get(source);
 		if (sourceMarks == null) {
 			sourceMarks = new ArrayList<Mark>();
 		}
 		sourceMarks.add(mark);
 		marks.put(source, sourceMarks);
+		Map<String, AnnotationIndex<Mark>> index = marksIndexedByTerm;
+		if (index != null) {
+			indexMark(index, mark, source);
+		}
+	}
+
+	private void indexMark(Map<String, AnnotationIndex<Mark>> index, Mark mark, String source) {
+		AnnotationIndex<Mark> sourceIndex = index.get(source);
+		if (sourceIndex == null) {
+			sourceIndex = new AnnotationIndex<Mark>();
+			index.put(source, sourceIndex);
+		}
 		for (Term term : mark.getSpan().getTargets()) {
-			indexMarkByTerm(mark, source, term.getId());
+			sourceIndex.add(idNumber(term.getId(), true), mark);
+		}
+	}
+
+	private synchronized Map<String, AnnotationIndex<Mark>> getMarkIndex() {
+		Map<String, AnnotationIndex<Mark>> index = marksIndexedByTerm;
+		if (index == null) {
+			index = new HashMap<String, AnnotationIndex<Mark>>();
+			for (Map.Entry<String, List<Mark>> entry : marks.entrySet()) {
+				for (Mark mark : entry.getValue()) {
+					indexMark(index, mark, entry.getKey());
+				}
+			}
+			marksIndexedByTerm = index;
 		}
-		this.indexMarkBySent(mark, source, mark.getSpan().getTargets().get(0).getSent());
+		return index;
 	}
 
 	/**
 	 * Adds a dependency to the container
 	 */
 	void add(Dep dep) {
+		checkMutable();
 		deps.add(dep);
-	/* Index by 'from' and 'to' terms */
-		if (dep.getFrom() != null) {
-			String tId = dep.getFrom().getId();
-			indexAnnotation(dep, tId, depsIndexedByTerm);
+		dep.container = this;
+		depIndex = null;
+		updateIndexes(KAFDocument.Layer.deps, dep, true);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		for (Dep dep : deps) {
+			dep.container = this;
+		}
+		for (Timex3 timex3 : timeExpressions) {
+			timex3.container = this;
 		}
-		if (dep.getTo() != null) {
-			String tId = dep.getTo().getId();
-			indexAnnotation(dep, tId, depsIndexedByTerm);
+		for (Opinion opinion : opinions) {
+			opinion.container = this;
 		}
-		this.indexBySent(dep, dep.getFrom().getSent(), this.depsIndexedBySent);
+	}
+
+	/**
+	 * Drops the dependency tree and the dependency indexes before a dependency of the container is changed, as
+	 * they depend on its terms and function.
+	 */
+	void changing(Dep dep) {
+		checkMutable();
+		depIndex = null;
+		dropIndexes(KAFDocument.Layer.deps);
 	}
 
 	/**
 	 * Adds a chunk to the container
 	 */
 	void add(Chunk chunk) {
+		checkMutable();
 		chunks.add(chunk);
-	/* Index by terms */
-		for (Term term : chunk.getTerms()) {
-			indexAnnotation(chunk, term.getId(), chunksIndexedByTerm);
-		}
-		this.indexBySent(chunk, chunk.getSpan().getTargets().get(0).getSent(), this.chunksIndexedBySent);
+		updateIndexes(KAFDocument.Layer.chunks, chunk, true);
 	}
 
 	/**
 	 * Adds a named entity to the container
 	 */
 	void add(Entity entity) {
+		checkMutable();
 		entities.add(entity);
-	/* Index by terms */
-		for (Term term : entity.getTerms()) {
-			indexAnnotation(entity, term.getId(), entitiesIndexedByTerm);
-		}
-		this.indexBySent(entity, entity.getSpans().get(0).getTargets().get(0).getSent(), this.entitiesIndexedBySent);
+		updateIndexes(KAFDocument.Layer.entities, entity, true);
 	}
 
 	/**
 	 * Adds a feature to the container. It checks if it is a property or a category.
 	 */
 	void add(Feature feature) {
+		checkMutable();
 		if (feature.isAProperty()) {
 			properties.add(feature);
-		/* Index by terms */
-			for (Term term : feature.getTerms()) {
-				indexAnnotation(feature, term.getId(), propertiesIndexedByTerm);
-			}
-			//this.indexBySent(feature, feature.getSpans().get(0).getTargets().get(0).getSent(), this.propertiesIndexedBySent);
+			updateIndexes(KAFDocument.Layer.properties, feature, true);
 		}
 		else {
 			categories.add(feature);
-	    /* Index by terms */
-			for (Term term : feature.getTerms()) {
-				indexAnnotation(feature, term.getId(), categoriesIndexedByTerm);
-			}
-			//this.indexBySent(feature, feature.getSpans().get(0).getTargets().get(0).getSent(), this.categoriesIndexedBySent);
+			updateIndexes(KAFDocument.Layer.categories, feature, true);
 		}
 	}
 
@@ -541,35 +909,37 @@ class AnnotationContainer implements Serializable {
 	 * Adds a coreference to the container
 	 */
 	void add(Coref coref) {
+		checkMutable();
 		coreferences.add(coref);
-	/* Index by terms */
-		for (Span<Term> span : coref.getSpans()) {
-			for (Term term : span.getTargets()) {
-				indexAnnotation(coref, term.getId(), corefsIndexedByTerm);
-			}
-		}
-		//this.indexBySent(coref, coref.getSpans().get(0).getTargets().get(0).getSent(), this.corefsIndexedBySent);
+		updateIndexes(KAFDocument.Layer.coreferences, coref, true);
 	}
 
 	/** Adds a timeExpression to the container */
 	void add(Timex3 timex3) {
+		checkMutable();
 		timeExpressions.add(timex3);
-	/* Index by terms */
-		if(timex3.hasSpan()){
-			for (WF wf : timex3.getSpan().getTargets()) {
-				indexAnnotation(timex3, wf.getId(), timeExsIndexedByWF);
-			}
-		}
+		timex3.container = this;
+		updateIndexes(KAFDocument.Layer.timeExpressions, timex3, true);
+	}
+
+	/**
+	 * Drops the time expression indexes before the span of a time expression of the container is changed.
+	 */
+	void changing(Timex3 timex3) {
+		checkMutable();
+		dropIndexes(KAFDocument.Layer.timeExpressions);
 	}
 
 	/** Adds a tlink to the container */
 	void add(TLink tLink) {
+		checkMutable();
 		tLinks.add(tLink);
 	/* Index by from/to (???) */
 	}
 
 	/** Adds a clink to the container */
 	void add(CLink cLink) {
+		checkMutable();
 		cLinks.add(cLink);
 	/* Index by from/to (???) */
 	}
@@ -578,45 +948,31 @@ class AnnotationContainer implements Serializable {
 	 * Adds a factuality to the container
 	 */
 	void add(Factuality factuality) {
+		checkMutable();
 		factualities.add(factuality);
-	/* Index by terms */
-		if (factuality.getWFs() != null) {
-			for (WF wf : factuality.getWFs()) {
-				indexAnnotation(factuality, wf.getId(), factsIndexedByWF);
-			}
-		}
 	}
 
 	/**
 	 * Adds a linked entity to the container
 	 */
 	void add(LinkedEntity linkedEntity) {
+		checkMutable();
 		linkedEntities.add(linkedEntity);
-	/* Index by terms */
-		if (linkedEntity.getWFs() != null) {
-			for (WF wf : linkedEntity.getWFs().getTargets()) {
-				indexAnnotation(linkedEntity, wf.getId(), linkedEntitiesIndexedByWF);
-			}
-		}
 	}
 
 	/**
 	 * Adds a SST to the container
 	 */
 	void add(SSTspan sst) {
+		checkMutable();
 		sstSpans.add(sst);
-	/* Index by terms */
-		if (sst.getTerms() != null) {
-			for (Term t : sst.getTerms().getTargets()) {
-				indexAnnotation(sst, t.getId(), sstSpansIndexedByTerm);
-			}
-		}
 	}
 
 	/**
 	 * Adds a topic to the container
 	 */
 	void add(Topic t) {
+		checkMutable();
 		topics.add(t);
 	}
 
@@ -624,56 +980,48 @@ class AnnotationContainer implements Serializable {
 	 * Adds an opinion to the container
 	 */
 	void add(Opinion opinion) {
+		checkMutable();
 		opinions.add(opinion);
-	/* Index by terms */
-	/* Ezin hemen indexatu, terminoak oraindik ez baitira gehitu!!!
-	LinkedHashSet<Term> terms = new LinkedHashSet<Term>();
-	terms.addAll(opinion.getOpinionHolder().getTerms());
-	terms.addAll(opinion.getOpinionTarget().getTerms());
-	terms.addAll(opinion.getOpinionExpression().getTerms());	
-	for (Term term : terms) {
-	    indexAnnotation(opinion, term.getId(), opinionsIndexedByTerm);
+		opinion.container = this;
+		updateIndexes(KAFDocument.Layer.opinions, opinion, true);
 	}
-	*/
 
+	/**
+	 * Drops the opinion index before the holder, target or expression of an opinion of the container is changed.
+	 */
+	void changing(Opinion opinion) {
+		checkMutable();
+		dropIndexes(KAFDocument.Layer.opinions);
 	}
 
 	/**
 	 * Adds a relation to the container
 	 */
 	void add(Relation relation) {
+		checkMutable();
 		relations.add(relation);
-	/* Index by 'from' and 'to' terms */
-		if (relation.getFrom() != null) {
-			String rId = relation.getFrom().getId();
-			indexAnnotation(relation, rId, relationsIndexedByRelational);
-		}
-		if (relation.getTo() != null) {
-			String rId = relation.getTo().getId();
-			indexAnnotation(relation, rId, relationsIndexedByRelational);
-		}
+		updateIndexes(KAFDocument.Layer.relations, relation, true);
 	}
 
 	/**
 	 * Adds a predicate to the container
 	 */
 	void add(Predicate predicate) {
+		checkMutable();
 		predicates.add(predicate);
-	/* Index by terms */
-		for (Term term : predicate.getTerms()) {
-			indexAnnotation(predicate, term.getId(), predicatesIndexedByTerm);
-		}
-		this.indexBySent(predicate, predicate.getSpan().getTargets().get(0).getSent(), this.predicatesIndexedBySent);
+		updateIndexes(KAFDocument.Layer.srl, predicate, true);
 	}
 
 	/**
 	 * Adds a tree to the container
 	 */
 	void add(Tree tree) {
+		checkMutable();
 		add(tree, null);
 	}
 	
 	void add(Tree tree, Integer sent) {
+		checkMutable();
 		trees.add(tree);
 
 		if (sent == null) {
@@ -685,6 +1033,9 @@ class AnnotationContainer implements Serializable {
 		}
 
 		if (sent != null) {
+			if (treesIndexedBySent == null) {
+				treesIndexedBySent = new HashMap<Integer, List<Tree>>();
+			}
 			List<Tree> sentTrees = treesIndexedBySent.get(sent);
 			if (sentTrees == null) {
 				sentTrees = new ArrayList<Tree>();
@@ -698,6 +1049,7 @@ class AnnotationContainer implements Serializable {
 	 * Add constituencyString
 	 */
 	void add(String constituencyString, Integer sent) {
+		checkMutable();
 		constituencyStrings.put(sent, constituencyString);
 	}
 
@@ -705,6 +1057,7 @@ class AnnotationContainer implements Serializable {
 	 * Adds an unknown layer to the container in DOM format
 	 */
 	void add(Element layer) {
+		checkMutable();
 		unknownLayers.add(layer);
 	}
 
@@ -712,15 +1065,11 @@ class AnnotationContainer implements Serializable {
 	 * Index a Term by its sentence number
 	 */
 	void indexTermBySent(Term term, Integer sent) {
+		checkMutable();
 		if (sent == -1) {
 			throw new IllegalStateException("You can't call indexTermBySent not having defined the sentence for its WFs");
 		}
-		List<Term> sentTerms = termsIndexedBySent.get(sent);
-		if (sentTerms == null) {
-			sentTerms = new ArrayList<Term>();
-			termsIndexedBySent.put(sent, sentTerms);
-		}
-		sentTerms.add(term);
+		dropIndexes(KAFDocument.Layer.terms);
 	}
 
 	/**
@@ -728,45 +1077,87 @@ class AnnotationContainer implements Serializable {
 	 */
 	List<List<WF>> getSentences() {
 		List<List<WF>> sentences = new ArrayList<List<WF>>();
-		Set<Integer> sentNumsSet = this.textIndexedBySent.keySet();
-		List<Integer> sentNumsList = new ArrayList<Integer>(sentNumsSet);
-		Collections.sort(sentNumsList);
-		for (int i : sentNumsList) {
-			List<WF> wfs = this.textIndexedBySent.get(i);
+		AnnotationIndex<Object> index = getIndex(IndexType.WFS_BY_SENT);
+		for (int sent : index.keys()) {
+			List<WF> wfs = getBySent(IndexType.WFS_BY_SENT, sent);
 			sentences.add(wfs);
 		}
 		return sentences;
 	}
 
-	Integer termPosition(Term term) {
-		return this.terms.indexOf(term);
+	int termPosition(Term term) {
+		return this.termPositions.indexOf(term);
+	}
+
+	int wfPosition(WF wf) {
+		return this.wfPositions.indexOf(wf);
 	}
 
 	/**
 	 * Returns WFs from a sentence
 	 */
 	List<WF> getSentenceWFs(int sent) {
-		return this.textIndexedBySent.get(sent);
+		return getBySent(IndexType.WFS_BY_SENT, sent);
 	}
 
 	/**
 	 * Returns terms from a sentence
 	 */
 	List<Term> getSentenceTerms(int sent) {
-		return this.termsIndexedBySent.get(sent);
+		return getBySent(IndexType.TERMS_BY_SENT, sent);
+	}
+
+	List<Dep> getSentenceDeps(int sent) {
+		return getBySent(IndexType.DEPS_BY_SENT, sent);
+	}
+
+	List<Chunk> getSentenceChunks(int sent) {
+		return getBySent(IndexType.CHUNKS_BY_SENT, sent);
+	}
+
+	List<Entity> getSentenceEntities(int sent) {
+		return getBySent(IndexType.ENTITIES_BY_SENT, sent);
+	}
+
+	List<Timex3> getSentenceTimeExs(int sent) {
+		return getBySent(IndexType.TIMEXES_BY_SENT, sent);
+	}
+
+	List<Predicate> getSentencePredicates(int sent) {
+		return getBySent(IndexType.PREDICATES_BY_SENT, sent);
+	}
+
+	List<WF> getWFsByPara(Integer para) {
+		return getLayerByPara(para, IndexType.WFS_BY_SENT);
+	}
+
+	List<Term> getTermsByPara(Integer para) {
+		return getLayerByPara(para, IndexType.TERMS_BY_SENT);
+	}
+
+	List<Dep> getDepsByPara(Integer para) {
+		return getLayerByPara(para, IndexType.DEPS_BY_SENT);
+	}
+
+	List<Chunk> getChunksByPara(Integer para) {
+		return getLayerByPara(para, IndexType.CHUNKS_BY_SENT);
+	}
+
+	List<Entity> getEntitiesByPara(Integer para) {
+		return getLayerByPara(para, IndexType.ENTITIES_BY_SENT);
+	}
+
+	List<Predicate> getPredicatesByPara(Integer para) {
+		return getLayerByPara(para, IndexType.PREDICATES_BY_SENT);
 	}
 
 	Term getTermByWF(WF wf) {
-		List<Term> terms = this.termsIndexedByWF.get(wf.getId());
-		if (terms == null) {
-			return null;
-		}
-		return terms.get(0);
+		List<Term> terms = getById(IndexType.TERMS_BY_WF, wf.getId());
+		return terms.isEmpty() ? null : terms.get(0);
 	}
 
 	List<Term> getTermsByWF(WF wf) {
-		List<Term> terms = this.termsIndexedByWF.get(wf.getId());
-		return (terms == null) ? new ArrayList<Term>() : terms;
+		return getById(IndexType.TERMS_BY_WF, wf.getId());
 	}
 
 	/**
@@ -784,66 +1175,49 @@ class AnnotationContainer implements Serializable {
 	}
 
 	List<Mark> getMarksByTerm(Term term, String source) {
-		Map<String, List<Mark>> marks = this.marksIndexedByTerm.get(term.getId());
-		if (marks == null) {
-			return new ArrayList<Mark>();
-		}
-		List<Mark> sourceMarks = marks.get(source);
+		AnnotationIndex<Mark> index = getMarkIndex().get(source);
+		List<Mark> sourceMarks = index == null ? null : index.get(idNumber(term.getId(), false));
 		return (sourceMarks == null) ? new ArrayList<Mark>() : sourceMarks;
 	}
 
 	List<Dep> getDepsByTerm(Term term) {
-		List<Dep> deps = this.depsIndexedByTerm.get(term.getId());
-		return (deps == null) ? new ArrayList<Dep>() : deps;
+		return getById(IndexType.DEPS_BY_TERM, term.getId());
 	}
 
 	List<Chunk> getChunksByTerm(Term term) {
-		List<Chunk> chunks = this.chunksIndexedByTerm.get(term.getId());
-		return (chunks == null) ? new ArrayList<Chunk>() : chunks;
+		return getById(IndexType.CHUNKS_BY_TERM, term.getId());
 	}
 
 	List<Entity> getEntitiesByTerm(Term term) {
-		List<Entity> entities = null;
-		try {
-			entities = this.entitiesIndexedByTerm.get(term.getId());
-		} catch (Exception e) {
-		}
-		return (entities == null) ? new ArrayList<Entity>() : entities;
+		return getById(IndexType.ENTITIES_BY_TERM, term.getId());
 	}
 
 	List<Coref> getCorefsByTerm(Term term) {
-		List<Coref> corefs = this.corefsIndexedByTerm.get(term.getId());
-		return (corefs == null) ? new ArrayList<Coref>() : corefs;
+		return getById(IndexType.COREFS_BY_TERM, term.getId());
 	}
 
 	List<Timex3> getTimeExsByWF(WF wf) {
-		List<Timex3> timeExs = this.timeExsIndexedByWF.get(wf.getId());
-		return (timeExs == null) ? new ArrayList<Timex3>() : timeExs;
+		return getById(IndexType.TIMEXES_BY_WF, wf.getId());
 	}
 
 	List<Feature> getPropertiesByTerm(Term term) {
-		List<Feature> properties = this.propertiesIndexedByTerm.get(term.getId());
-		return (properties == null) ? new ArrayList<Feature>() : properties;
+		return getById(IndexType.PROPERTIES_BY_TERM, term.getId());
 	}
 
 	List<Feature> getCategoriesByTerm(Term term) {
-		List<Feature> categories = this.categoriesIndexedByTerm.get(term.getId());
-		return (categories == null) ? new ArrayList<Feature>() : categories;
+		return getById(IndexType.CATEGORIES_BY_TERM, term.getId());
 	}
 
 	List<Opinion> getOpinionsByTerm(Term term) {
-		List<Opinion> opinions = this.opinionsIndexedByTerm.get(term.getId());
-		return (opinions == null) ? new ArrayList<Opinion>() : opinions;
+		return getById(IndexType.OPINIONS_BY_TERM, term.getId());
 	}
 
 	List<Relation> getRelationsByRelational(Relational relational) {
-		List<Relation> relations = this.relationsIndexedByRelational.get(relational.getId());
-		return (relations == null) ? new ArrayList<Relation>() : relations;
+		return getById(IndexType.RELATIONS_BY_RELATIONAL, relational.getId());
 	}
 
 	List<Predicate> getPredicatesByTerm(Term term) {
-		List<Predicate> predicates = this.predicatesIndexedByTerm.get(term.getId());
-		return (predicates == null) ? new ArrayList<Predicate>() : predicates;
+		return getById(IndexType.PREDICATES_BY_TERM, term.getId());
 	}
 
 	List<Dep> getDepsByTerms(List<Term> terms) {
@@ -943,21 +1317,26 @@ class AnnotationContainer implements Serializable {
 	List<Term> getTermsByWFIds(List<String> wfIds) {
 		LinkedHashSet<Term> terms = new LinkedHashSet<Term>();
 		for (String wfId : wfIds) {
-			terms.addAll(this.termsIndexedByWF.get(wfId));
+			terms.addAll(this.<Term>getById(IndexType.TERMS_BY_WF, wfId));
 		}
 		return new ArrayList<Term>(terms);
 	}
 
 	void removeLayer(KAFDocument.Layer layer) {
+		checkMutable();
 		switch (layer) {
 			case text:
 				this.text.clear();
+				this.wfPositions.cleared();
+				this.sentsIndexedByParagraphs = null;
 				break;
 			case terms:
 				this.terms.clear();
+				this.termPositions.cleared();
 				break;
 			case deps:
 				this.deps.clear();
+				this.depIndex = null;
 				break;
 			case chunks:
 				this.chunks.clear();
@@ -989,111 +1368,66 @@ class AnnotationContainer implements Serializable {
 			default:
 				throw new IllegalArgumentException("Wrong layer");
 		}
+		dropIndexes(layer);
 	}
 
 
     void removeAnnotation(Object annotation) {
+        checkMutable();
         if (annotation instanceof Term) {
-            Term term = (Term) annotation;
-            terms.remove(term);
-            for (WF wf : term.getWFs()) {
-                unindexAnnotation(term, wf.getId(), termsIndexedByWF);
-            }
-            if (!term.isComponent()) {
-                unindexBySent(term, term.getSent(), this.termsIndexedBySent);
-            }
+            remove((Term) annotation);
+
         } else if (annotation instanceof Mark) {
             throw new UnsupportedOperationException();
 
         } else if (annotation instanceof Dep) {
-            Dep dep = (Dep) annotation;
-            deps.remove(dep);
-            if (dep.getFrom() != null) {
-                unindexAnnotation(dep, dep.getFrom().getId(), depsIndexedByTerm);
-            }
-            if (dep.getTo() != null) {
-                unindexAnnotation(dep, dep.getTo().getId(), depsIndexedByTerm);
-            }
-            unindexBySent(dep, dep.getFrom().getSent(), this.depsIndexedBySent);
+            deps.remove(annotation);
+            ((Dep) annotation).container = null;
+            depIndex = null;
+            updateIndexes(KAFDocument.Layer.deps, annotation, false);
 
         } else if (annotation instanceof Chunk) {
             throw new UnsupportedOperationException();
 
         } else if (annotation instanceof Entity) {
-            Entity entity = (Entity) annotation;
-            entities.remove(entity);
-            for (Term term : entity.getTerms()) {
-                unindexAnnotation(entity, term.getId(), entitiesIndexedByTerm);
-            }
-            this.unindexBySent(entity, entity.getSpans().get(0).getTargets().get(0).getSent(),
-                    this.entitiesIndexedBySent);
+            entities.remove(annotation);
+            updateIndexes(KAFDocument.Layer.entities, annotation, false);
 
         } else if (annotation instanceof Feature) {
             throw new UnsupportedOperationException();
 
         } else if (annotation instanceof Timex3) {
-            Timex3 timex3 = (Timex3) annotation;
-            timeExpressions.remove(timex3);
-            if (timex3.getSpan().getTargets() != null) {
-                for (WF wf : timex3.getSpan().getTargets()) {
-                    unindexAnnotation(timex3, wf.getId(), timeExsIndexedByWF);
-                }
-            }
-            unindexBySent(timex3, timex3.getSpan().getTargets().get(0).getSent(), timeExsIndexedBySent);
+            timeExpressions.remove(annotation);
+            ((Timex3) annotation).container = null;
+            updateIndexes(KAFDocument.Layer.timeExpressions, annotation, false);
 
         } else if (annotation instanceof Coref) {
-            Coref coref = (Coref) annotation;
-            coreferences.remove(coref);
-            for (Span<Term> span : coref.getSpans()) {
-                for (Term term : span.getTargets()) {
-                    unindexAnnotation(coref, term.getId(), corefsIndexedByTerm);
-                }
-            }
+            coreferences.remove(annotation);
+            updateIndexes(KAFDocument.Layer.coreferences, annotation, false);
 
         } else if (annotation instanceof Factuality) {
-            Factuality factuality = (Factuality) annotation;
-            factualities.remove(factuality);
-            if (factuality.getWFs() != null) {
-                for (WF wf : factuality.getWFs()) {
-                    unindexAnnotation(factuality, wf.getId(), factsIndexedByWF);
-                }
-            }
+            factualities.remove(annotation);
 
         } else if (annotation instanceof LinkedEntity) {
-            LinkedEntity entity = (LinkedEntity) annotation;
-            linkedEntities.remove(entity);
-            if (entity.getWFs() != null) {
-                for (WF wf : entity.getWFs().getTargets()) {
-                    unindexAnnotation(entity, wf.getId(), linkedEntitiesIndexedByWF);
-                }
-            }
+            linkedEntities.remove(annotation);
 
         } else if (annotation instanceof SSTspan) {
-            SSTspan sst = (SSTspan) annotation;
-            sstSpans.remove(sst);
-            if (sst.getTerms() != null) {
-                for (Term t : sst.getTerms().getTargets()) {
-                    unindexAnnotation(sst, t.getId(), sstSpansIndexedByTerm);
-                }
-            }
+            sstSpans.remove(annotation);
 
         } else if (annotation instanceof Topic) {
             throw new UnsupportedOperationException();
 
         } else if (annotation instanceof Opinion) {
             opinions.remove(annotation);
+            ((Opinion) annotation).container = null;
+            updateIndexes(KAFDocument.Layer.opinions, annotation, false);
 
         } else if (annotation instanceof Relation) {
             throw new UnsupportedOperationException();
 
         } else if (annotation instanceof Predicate) {
-            Predicate predicate = (Predicate) annotation;
-            predicates.remove(predicate);
-            for (Term term : predicate.getTerms()) {
-                unindexAnnotation(predicate, term.getId(), predicatesIndexedByTerm);
-            }
-            unindexBySent(predicate, predicate.getSpan().getTargets().get(0).getSent(),
-                    this.predicatesIndexedBySent);
+            predicates.remove(annotation);
+            updateIndexes(KAFDocument.Layer.srl, annotation, false);
 
         } else if (annotation instanceof Tree) {
             throw new UnsupportedOperationException();
@@ -1103,26 +1437,106 @@ class AnnotationContainer implements Serializable {
         }
     }
 
-    private <T> void unindexAnnotation(T annotation, String hashId, HashMap<String, List<T>> index) {
-        List<T> list = index.get(hashId);
-        if (list != null) {
-            list.remove(annotation);
-            if (list.isEmpty()) {
-                index.remove(hashId);
-            }
-        }
-    }
+	/**
+	 * Removes the given annotations, compared by identity, with a single pass over the list of
+	 * each layer involved, whose indexes are then rebuilt at the next query. Annotations
+	 * removeAnnotation() does not support are rejected before anything is removed.
+	 */
+	void removeAnnotations(Iterable<?> annotations) {
+		checkMutable();
+		Map<KAFDocument.Layer, Set<Object>> removed = new EnumMap<KAFDocument.Layer, Set<Object>>(
+				KAFDocument.Layer.class);
+		for (Object annotation : annotations) {
+			KAFDocument.Layer layer = getRemovableLayer(annotation.getClass());
+			if (layer != null) {
+				Set<Object> layerRemoved = removed.get(layer);
+				if (layerRemoved == null) {
+					layerRemoved = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+					removed.put(layer, layerRemoved);
+				}
+				layerRemoved.add(annotation);
+			}
+		}
+		for (Map.Entry<KAFDocument.Layer, Set<Object>> entry : removed.entrySet()) {
+			removeAll(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/** Removes the annotations of a type satisfying a condition, with a single pass over their layer */
+	<T> void removeAnnotations(Class<T> type, java.util.function.Predicate<? super T> condition) {
+		checkMutable();
+		KAFDocument.Layer layer = getRemovableLayer(type);
+		if (layer == null) {
+			throw new IllegalArgumentException("Not an annotation type: " + type.getName());
+		}
+		Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		for (Object annotation : getRemovableList(layer)) {
+			if (type.isInstance(annotation) && condition.test(type.cast(annotation))) {
+				removed.add(annotation);
+			}
+		}
+		removeAll(layer, removed);
+	}
+
+	private void removeAll(KAFDocument.Layer layer, Set<Object> annotations) {
+		if (annotations.isEmpty() || !getRemovableList(layer).removeIf(annotations::contains)) {
+			return;
+		}
+		if (layer == KAFDocument.Layer.terms) {
+			termPositions.cleared();
+		} else if (layer == KAFDocument.Layer.deps) {
+			depIndex = null;
+		}
+		dropIndexes(layer);
+	}
+
+	/**
+	 * Returns the layer of the annotations of a type that can be removed, or null if the type is
+	 * not an annotation type. Throws UnsupportedOperationException, naming the type, for the
+	 * annotation types removeAnnotation() does not support either.
+	 */
+	private static KAFDocument.Layer getRemovableLayer(Class<?> type) {
+		if (Term.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.terms;
+		} else if (Dep.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.deps;
+		} else if (Entity.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.entities;
+		} else if (Timex3.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.timeExpressions;
+		} else if (Coref.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.coreferences;
+		} else if (Factuality.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.factuality;
+		} else if (LinkedEntity.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.linkedEntities;
+		} else if (SSTspan.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.SSTspans;
+		} else if (Opinion.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.opinions;
+		} else if (Predicate.class.isAssignableFrom(type)) {
+			return KAFDocument.Layer.srl;
+		} else if (Mark.class.isAssignableFrom(type) || Chunk.class.isAssignableFrom(type)
+				|| Feature.class.isAssignableFrom(type) || Topic.class.isAssignableFrom(type)
+				|| Relation.class.isAssignableFrom(type) || Tree.class.isAssignableFrom(type)
+				|| Element.class.isAssignableFrom(type)) {
+			throw new UnsupportedOperationException("Removal of " + type.getSimpleName()
+					+ " annotations is not supported");
+		}
+		return null;
+	}
+
+	private List<?> getRemovableList(KAFDocument.Layer layer) {
+		switch (layer) {
+			case factuality:
+				return factualities;
+			case linkedEntities:
+				return linkedEntities;
+			case SSTspans:
+				return sstSpans;
+			default:
+				return getLayer(layer);
+		}
+	}
 
-    private <T> void unindexBySent(T annotation, Integer sent, HashMap<Integer, List<T>> index) {
-        if (sent > 0) {
-            List<T> list = index.get(sent);
-            if (list != null) {
-                list.remove(annotation);
-                if (list.isEmpty()) {
-                    index.remove(sent);
-                }
-            }
-        }
-    }
-    
 }
@@ -0,0 +1,115 @@
+package ixa.kaflib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of the annotations of a layer by an integer key: a sentence number, or the number {@link AnnotationContainer}
+ * assigns to the id of a term, word form or relational. The annotations of each key are kept in an array, in the
+ * order they were added; arrays and their sizes are in turn stored in arrays indexed by key, so that no map entry,
+ * boxed key or list object is allocated.
+ */
+final class AnnotationIndex<T> {
+
+    private Object[][] annotations = new Object[16][];
+
+    private int[] sizes = new int[16];
+
+    void add(int key, T annotation) {
+        if (key >= sizes.length) {
+            int length = Math.max(key + 1, sizes.length * 3 / 2);
+            annotations = Arrays.copyOf(annotations, length);
+            sizes = Arrays.copyOf(sizes, length);
+        }
+        Object[] keyAnnotations = annotations[key];
+        int size = sizes[key];
+        if (keyAnnotations == null) {
+            keyAnnotations = new Object[2];
+            annotations[key] = keyAnnotations;
+        } else if (size == keyAnnotations.length) {
+            keyAnnotations = Arrays.copyOf(keyAnnotations, size * 2);
+            annotations[key] = keyAnnotations;
+        }
+        keyAnnotations[size] = annotation;
+        sizes[key] = size + 1;
+    }
+
+    /**
+     * Removes the first occurrence of an annotation from the ones of a key, as {@link List#remove(Object)} would do.
+     */
+    void remove(int key, Object annotation) {
+        if (key < 0 || key >= sizes.length) {
+            return;
+        }
+        Object[] keyAnnotations = annotations[key];
+        int size = sizes[key];
+        for (int i = 0; i < size; ++i) {
+            if (annotation.equals(keyAnnotations[i])) {
+                System.arraycopy(keyAnnotations, i + 1, keyAnnotations, i, size - i - 1);
+                keyAnnotations[size - 1] = null;
+                sizes[key] = size - 1;
+                if (size == 1) {
+                    annotations[key] = null;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a new list with the annotations of a key, or null if there are none.
+     */
+    List<T> get(int key) {
+        if (key < 0 || key >= sizes.length || sizes[key] == 0) {
+            return null;
+        }
+        Object[] keyAnnotations = annotations[key];
+        int size = sizes[key];
+        List<T> result = new ArrayList<T>(size);
+        for (int i = 0; i < size; ++i) {
+            @SuppressWarnings("unchecked")
+            T annotation = (T) keyAnnotations[i];
+            result.add(annotation);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys having some annotation, in increasing order.
+     */
+    int[] keys() {
+        int count = 0;
+        for (int size : sizes) {
+            count += size > 0 ? 1 : 0;
+        }
+        int[] keys = new int[count];
+        count = 0;
+        for (int key = 0; key < sizes.length; ++key) {
+            if (sizes[key] > 0) {
+                keys[count++] = key;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Shrinks the arrays to the size of their content, once the index has been built.
+     */
+    void trim() {
+        int length = sizes.length;
+        while (length > 0 && sizes[length - 1] == 0) {
+            --length;
+        }
+        annotations = Arrays.copyOf(annotations, length);
+        sizes = Arrays.copyOf(sizes, length);
+        for (int key = 0; key < length; ++key) {
+            if (sizes[key] == 0) {
+                annotations[key] = null;
+            } else if (annotations[key].length > sizes[key]) {
+                annotations[key] = Arrays.copyOf(annotations[key], sizes[key]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,626 @@
+package ixa.kaflib;
+
+import org.jdom2.Attribute;
+import org.jdom2.CDATA;
+import org.jdom2.Comment;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.EntityRef;
+import org.jdom2.Namespace;
+import org.jdom2.ProcessingInstruction;
+import org.jdom2.Text;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary serialization of NAF documents, meant for caching documents between processing stages. It encodes
+ * the same XML elements {@link ReadWriteManager} reads and writes, hence it supports whatever the XML format does,
+ * but it is much smaller and faster to parse than pretty-printed XML.
+ * <p>
+ * A file starts with the magic bytes {@code NAFB} and a format version, followed by the root element attributes and
+ * by one section for each layer (header and raw text included), in document order. A section contains the name of
+ * the layer element, the length of its content and the content itself, so that layers that are not needed can be
+ * skipped without decoding them. Within a section:
+ * <ul>
+ * <li>strings (element and attribute names, lemmas, POS tags, ids, ...) are stored the first time they occur and
+ * referred by their position in a string table afterwards; the table is reset at each section;</li>
+ * <li>integers (offsets, lengths, sentence numbers, ...) are stored as variable length integers, and so are the
+ * numeric part of ids such as {@code t12} or {@code w_3} (whose prefix goes in the string table); span targets are
+ * thus usually encoded in two or three bytes;</li>
+ * <li>elements are stored as their name, namespace, attributes and content, ended by a zero byte.</li>
+ * </ul>
+ * Attribute values are only encoded as numbers if they can be decoded to the very same string, so that the encoding is
+ * lossless.
+ */
+public final class BinaryFormat {
+
+    static final int VERSION = 1;
+
+    private static final byte[] MAGIC = { 'N', 'A', 'F', 'B' };
+
+    // Section markers
+
+    private static final int END_OF_DOCUMENT = 0;
+
+    private static final int SECTION = 1;
+
+    // Node types
+
+    private static final int NODE_END = 0;
+
+    private static final int NODE_ELEMENT = 1;
+
+    private static final int NODE_ELEMENT_NS = 2;
+
+    private static final int NODE_TEXT = 3;
+
+    private static final int NODE_CDATA = 4;
+
+    private static final int NODE_COMMENT = 5;
+
+    private static final int NODE_PROCESSING_INSTRUCTION = 6;
+
+    private static final int NODE_ENTITY_REF = 7;
+
+    // Attribute value types; the NAMESPACE flag marks attributes with a namespace
+
+    private static final int VALUE_STRING = 0;
+
+    private static final int VALUE_NUMBER = 1;
+
+    private static final int VALUE_ID = 2;
+
+    private static final int NAMESPACE = 4;
+
+    // String references: a new string added to the table, a string not added, or (2 + index) for a table string
+
+    private static final int STRING_NEW = 0;
+
+    private static final int STRING_LITERAL = 1;
+
+    private static final int STRING_TABLE_OFFSET = 2;
+
+    /**
+     * Longer strings (e.g., raw text) are not added to the string table, as they are unlikely to be repeated.
+     */
+    private static final int MAX_TABLE_STRING_LENGTH = 64;
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Checks whether a stream contains a document in binary format, without consuming it. The stream must support
+     * {@link InputStream#mark(int)}.
+     */
+    public static boolean isBinary(InputStream stream) throws IOException {
+        byte[] bytes = new byte[MAGIC.length];
+        stream.mark(bytes.length);
+        try {
+            int length = 0;
+            while (length < bytes.length) {
+                int read = stream.read(bytes, length, bytes.length - length);
+                if (read < 0) {
+                    return false;
+                }
+                length += read;
+            }
+            return Arrays.equals(bytes, MAGIC);
+        } finally {
+            stream.reset();
+        }
+    }
+
+    /**
+     * Returns the position where the numeric suffix of a value starts (e.g., 1 for {@code t12}), or -1 if the value
+     * does not end with a number or if the number would not be decoded to the very same digits (leading zeros, too
+     * many digits).
+     */
+    private static int numericSuffix(String value) {
+        int length = value.length();
+        int begin = length;
+        while (begin > 0 && value.charAt(begin - 1) >= '0' && value.charAt(begin - 1) <= '9') {
+            --begin;
+        }
+        int digits = length - begin;
+        if (digits == 0 || digits > 9 || digits > 1 && value.charAt(begin) == '0') {
+            return -1;
+        }
+        return begin;
+    }
+
+    /**
+     * Writes a document one layer at a time, as it is produced by {@link ReadWriteManager}. As a layer may still be
+     * filled after being added, it is encoded when the next one is added (or at the end).
+     */
+    static final class Writer implements ReadWriteManager.LayerOutput {
+
+        private final OutputStream out;
+
+        private final Buffer section = new Buffer();
+
+        private final Buffer header = new Buffer();
+
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        private Element pending = null;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start(Element root) throws IOException {
+            header.reset();
+            header.write(MAGIC, 0, MAGIC.length);
+            header.writeVarint(VERSION);
+            out.write(header.bytes, 0, header.length);
+            section.reset();
+            strings.clear();
+            writeShallowElement(root);
+            writeBlock(section);
+        }
+
+        @Override
+        public void add(Element layer) throws IOException {
+            flush();
+            pending = layer;
+        }
+
+        @Override
+        public void end() throws IOException {
+            flush();
+            out.write(END_OF_DOCUMENT);
+            out.flush();
+        }
+
+        private void flush() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            section.reset();
+            strings.clear();
+            writeElement(pending);
+            header.reset();
+            header.write(SECTION);
+            header.writeString(pending.getName());
+            out.write(header.bytes, 0, header.length);
+            writeBlock(section);
+            pending = null;
+        }
+
+        private void writeBlock(Buffer buffer) throws IOException {
+            header.reset();
+            header.writeVarint(buffer.length);
+            out.write(header.bytes, 0, header.length);
+            out.write(buffer.bytes, 0, buffer.length);
+        }
+
+        private void writeElement(Element elem) {
+            writeShallowElement(elem);
+            for (Content content : elem.getContent()) {
+                switch (content.getCType()) {
+                case Element:
+                    writeElement((Element) content);
+                    break;
+                case CDATA:
+                    section.write(NODE_CDATA);
+                    writeString(((CDATA) content).getText());
+                    break;
+                case Text:
+                    section.write(NODE_TEXT);
+                    writeString(((Text) content).getText());
+                    break;
+                case Comment:
+                    section.write(NODE_COMMENT);
+                    writeString(((Comment) content).getText());
+                    break;
+                case ProcessingInstruction:
+                    section.write(NODE_PROCESSING_INSTRUCTION);
+                    writeString(((ProcessingInstruction) content).getTarget());
+                    writeString(((ProcessingInstruction) content).getData());
+                    break;
+                case EntityRef:
+                    section.write(NODE_ENTITY_REF);
+                    writeString(((EntityRef) content).getName());
+                    break;
+                default:
+                    // DocType content cannot occur in an element
+                    break;
+                }
+            }
+            section.write(NODE_END);
+        }
+
+        private void writeShallowElement(Element elem) {
+            Namespace namespace = elem.getNamespace();
+            if (namespace == Namespace.NO_NAMESPACE) {
+                section.write(NODE_ELEMENT);
+                writeString(elem.getName());
+            } else {
+                section.write(NODE_ELEMENT_NS);
+                writeString(elem.getName());
+                writeString(namespace.getPrefix());
+                writeString(namespace.getURI());
+            }
+            List<Namespace> declarations = elem.getAdditionalNamespaces();
+            section.writeVarint(declarations.size());
+            for (Namespace declaration : declarations) {
+                writeString(declaration.getPrefix());
+                writeString(declaration.getURI());
+            }
+            List<Attribute> attributes = elem.hasAttributes() ? elem.getAttributes()
+                    : Collections.<Attribute>emptyList();
+            section.writeVarint(attributes.size());
+            for (Attribute attribute : attributes) {
+                writeAttribute(attribute);
+            }
+        }
+
+        private void writeAttribute(Attribute attribute) {
+            String value = attribute.getValue();
+            int begin = numericSuffix(value);
+            int type = begin < 0 ? VALUE_STRING : begin == 0 ? VALUE_NUMBER : VALUE_ID;
+            Namespace namespace = attribute.getNamespace();
+            boolean hasNamespace = namespace != Namespace.NO_NAMESPACE;
+            section.write(type | (hasNamespace ? NAMESPACE : 0));
+            writeString(attribute.getName());
+            if (hasNamespace) {
+                writeString(namespace.getPrefix());
+                writeString(namespace.getURI());
+            }
+            if (type == VALUE_STRING) {
+                writeString(value);
+            } else {
+                if (type == VALUE_ID) {
+                    writeString(value.substring(0, begin));
+                }
+                section.writeVarint(Integer.parseInt(value.substring(begin)));
+            }
+        }
+
+        private void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                section.writeVarint(index + STRING_TABLE_OFFSET);
+            } else if (string.length() <= MAX_TABLE_STRING_LENGTH) {
+                strings.put(string, strings.size());
+                section.write(STRING_NEW);
+                section.writeString(string);
+            } else {
+                section.write(STRING_LITERAL);
+                section.writeString(string);
+            }
+        }
+
+    }
+
+    /**
+     * Reads a document one layer at a time. Layers can be either skipped, read as a whole or read one child element
+     * at a time; in the last case, the layer element is read first, and then each child.
+     */
+    static final class Reader {
+
+        private final InputStream in;
+
+        private final List<String> strings = new ArrayList<String>();
+
+        private byte[] bytes = new byte[4096];
+
+        private int pos;
+
+        private int length;
+
+        private boolean inLayer;
+
+        Reader(InputStream in) throws IOException {
+            this.in = in;
+            byte[] magic = new byte[MAGIC.length];
+            readFully(magic, magic.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new KAFNotValidException("Not a binary NAF document");
+            }
+            int version = readStreamVarint();
+            if (version != VERSION) {
+                throw new KAFNotValidException("Unsupported binary NAF version " + version);
+            }
+        }
+
+        /**
+         * Returns the root element, with its attributes but no content.
+         */
+        Element readRoot() throws IOException {
+            readBlock();
+            Element root = readShallowElement(next());
+            checkBlockEnd();
+            return root;
+        }
+
+        /**
+         * Moves to the next layer, returning the name of its element, or null at the end of the document.
+         */
+        String nextLayer() throws IOException {
+            if (inLayer) {
+                throw new IllegalStateException("Layer not completely read");
+            }
+            int marker = in.read();
+            if (marker == END_OF_DOCUMENT) {
+                return null;
+            } else if (marker != SECTION) {
+                throw new KAFNotValidException(marker < 0 ? "Unexpected end of binary NAF document"
+                        : "Invalid binary NAF section " + marker);
+            }
+            int nameLength = readStreamVarint();
+            ensureCapacity(nameLength);
+            readFully(bytes, nameLength);
+            inLayer = true;
+            return new String(bytes, 0, nameLength, StandardCharsets.UTF_8);
+        }
+
+        void skipLayer() throws IOException {
+            long remaining = readStreamVarint();
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("Unexpected end of binary NAF document");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            inLayer = false;
+        }
+
+        /**
+         * Reads the whole element of the current layer.
+         */
+        Element readLayer() throws IOException {
+            readBlock();
+            Element elem = readElement(next());
+            checkBlockEnd();
+            inLayer = false;
+            return elem;
+        }
+
+        /**
+         * Reads the element of the current layer without content, which can then be read with
+         * {@link #readLayerContent()}.
+         */
+        Element readShallowLayer() throws IOException {
+            readBlock();
+            return readShallowElement(next());
+        }
+
+        /**
+         * Returns the next child of the current layer element (elements, text, ...), or null after the last one.
+         */
+        Content readLayerContent() throws IOException {
+            Content content = readContent(next());
+            if (content == null) {
+                checkBlockEnd();
+                inLayer = false;
+            }
+            return content;
+        }
+
+        private Content readContent(int type) throws KAFNotValidException {
+            switch (type) {
+            case NODE_END:
+                return null;
+            case NODE_ELEMENT:
+            case NODE_ELEMENT_NS:
+                return readElement(type);
+            case NODE_TEXT:
+                return new Text(readString());
+            case NODE_CDATA:
+                return new CDATA(readString());
+            case NODE_COMMENT:
+                return new Comment(readString());
+            case NODE_PROCESSING_INSTRUCTION:
+                String target = readString();
+                return new ProcessingInstruction(target, readString());
+            case NODE_ENTITY_REF:
+                return new EntityRef(readString());
+            default:
+                throw new KAFNotValidException("Invalid binary NAF node type " + type);
+            }
+        }
+
+        private Element readElement(int type) throws KAFNotValidException {
+            Element elem = readShallowElement(type);
+            for (int next = next(); next != NODE_END; next = next()) {
+                elem.addContent(readContent(next));
+            }
+            return elem;
+        }
+
+        private Element readShallowElement(int type) throws KAFNotValidException {
+            Element elem;
+            if (type == NODE_ELEMENT) {
+                elem = new Element(readString());
+            } else if (type == NODE_ELEMENT_NS) {
+                String name = readString();
+                String prefix = readString();
+                elem = new Element(name, Namespace.getNamespace(prefix, readString()));
+            } else {
+                throw new KAFNotValidException("Invalid binary NAF element type " + type);
+            }
+            for (int i = readVarint(); i > 0; --i) {
+                String prefix = readString();
+                elem.addNamespaceDeclaration(Namespace.getNamespace(prefix, readString()));
+            }
+            for (int i = readVarint(); i > 0; --i) {
+                int flags = next();
+                String name = readString();
+                Namespace namespace = Namespace.NO_NAMESPACE;
+                if ((flags & NAMESPACE) != 0) {
+                    String prefix = readString();
+                    namespace = Namespace.getNamespace(prefix, readString());
+                }
+                String value;
+                switch (flags & ~NAMESPACE) {
+                case VALUE_STRING:
+                    value = readString();
+                    break;
+                case VALUE_NUMBER:
+                    value = Integer.toString(readVarint());
+                    break;
+                case VALUE_ID:
+                    String prefix = readString();
+                    value = prefix + readVarint();
+                    break;
+                default:
+                    throw new KAFNotValidException("Invalid binary NAF attribute type " + flags);
+                }
+                elem.setAttribute(name, value, namespace);
+            }
+            return elem;
+        }
+
+        private String readString() throws KAFNotValidException {
+            int ref = readVarint();
+            if (ref >= STRING_TABLE_OFFSET) {
+                int index = ref - STRING_TABLE_OFFSET;
+                if (index >= strings.size()) {
+                    throw new KAFNotValidException("Invalid binary NAF string reference " + ref);
+                }
+                return strings.get(index);
+            }
+            int stringLength = readVarint();
+            if (stringLength > length - pos) {
+                throw new KAFNotValidException("Truncated binary NAF section");
+            }
+            String string = new String(bytes, pos, stringLength, StandardCharsets.UTF_8);
+            pos += stringLength;
+            if (ref == STRING_NEW) {
+                strings.add(string);
+            }
+            return string;
+        }
+
+        private int next() throws KAFNotValidException {
+            if (pos >= length) {
+                throw new KAFNotValidException("Truncated binary NAF section");
+            }
+            return bytes[pos++] & 0xFF;
+        }
+
+        private int readVarint() throws KAFNotValidException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = next();
+                result |= (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return result;
+                }
+            }
+            throw new KAFNotValidException("Invalid binary NAF number");
+        }
+
+        private int readStreamVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Unexpected end of binary NAF document");
+                }
+                result |= (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return result;
+                }
+            }
+            throw new KAFNotValidException("Invalid binary NAF number");
+        }
+
+        private void readBlock() throws IOException {
+            int blockLength = readStreamVarint();
+            ensureCapacity(blockLength);
+            readFully(bytes, blockLength);
+            pos = 0;
+            length = blockLength;
+            strings.clear();
+        }
+
+        private void checkBlockEnd() throws KAFNotValidException {
+            if (pos != length) {
+                throw new KAFNotValidException("Unexpected data at the end of binary NAF section");
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (bytes.length < capacity) {
+                bytes = new byte[Math.max(capacity, bytes.length * 2)];
+            }
+        }
+
+        private void readFully(byte[] buffer, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                int read = in.read(buffer, offset, count - offset);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of binary NAF document");
+                }
+                offset += read;
+            }
+        }
+
+    }
+
+    /**
+     * Growable byte array, used to encode a section before writing its length.
+     */
+    private static final class Buffer {
+
+        byte[] bytes = new byte[4096];
+
+        int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        void write(int b) {
+            ensureCapacity(length + 1);
+            bytes[length++] = (byte) b;
+        }
+
+        void write(byte[] source, int offset, int count) {
+            ensureCapacity(length + count);
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(length + 5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeString(String string) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (bytes.length < capacity) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+    }
+
+}
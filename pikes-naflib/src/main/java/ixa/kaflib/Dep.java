@@ -19,6 +19,9 @@ public class Dep implements Serializable {
     /** Declension case (optional) */
     private String depcase;
 
+    /** Container of the dependency, whose dependency tree is dropped when the dependency changes */
+    transient AnnotationContainer container;
+
     Dep(Term from, Term to, String rfunc) {
 	this.from = from;
 	this.to = to;
@@ -43,6 +46,7 @@ public class Dep implements Serializable {
     }
 
     public void setFrom(Term term) {
+	changing();
 	this.from = term;
     }
 
@@ -51,6 +55,7 @@ public class Dep implements Serializable {
     }
 
     public void setTo(Term term) {
+	changing();
 	this.to = term;
     }
 
@@ -58,8 +63,15 @@ public class Dep implements Serializable {
 	return rfunc;
     }
 
-     public void setRfunc(String rfunc) {
-	 this.rfunc = rfunc;
+    public void setRfunc(String rfunc) {
+	changing();
+	this.rfunc = rfunc;
+    }
+
+    private void changing() {
+	if (container != null) {
+	    container.changing(this);
+	}
     }
 
     public boolean hasCase() {
@@ -0,0 +1,305 @@
+package ixa.kaflib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dependency path pattern compiled to a nondeterministic automaton, which is matched one dependency at a time while
+ * walking the dependency tree. Patterns are sequences of dependency labels combined with grouping and the
+ * {@code | ? * +} operators, e.g., {@code SUB? (COORD CONJ?)* (VC | IM)*}; a label prefixed by {@code -} matches a
+ * dependency traversed from the dependent to its head. A label matches a dependency if it is one of the
+ * {@code -}-separated parts of its function, ignoring case. As in the regular expressions previously used,
+ * {@code .*} matches any sequence of dependencies.
+ * <p>
+ * The automaton state is a bit mask, hence patterns with more than 64 states are not supported (the regular
+ * expression based matching of {@link KAFDocument} is used for them).
+ */
+final class DepPathPattern {
+
+    private static final int MAX_STATES = 64;
+
+    private final List<Character> stepLabels = new ArrayList<Character>();
+
+    private final List<Boolean> stepWildcards = new ArrayList<Boolean>();
+
+    private final List<Boolean> stepInverses = new ArrayList<Boolean>();
+
+    private final List<Integer> stepTargets = new ArrayList<Integer>();
+
+    private final List<List<Integer>> epsilons = new ArrayList<List<Integer>>();
+
+    private final String pattern;
+
+    private int pos;
+
+    // Computed at the end of the compilation
+
+    private char[] labels;
+
+    private boolean[] wildcards;
+
+    private boolean[] inverses;
+
+    private int[] targets;
+
+    private long[] closures;
+
+    private long start;
+
+    private long accept;
+
+    /**
+     * Compiles a pattern, throwing IllegalArgumentException if it uses a syntax not supported by the automaton.
+     */
+    static DepPathPattern compile(String pattern) {
+        return new DepPathPattern(pattern);
+    }
+
+    private DepPathPattern(String pattern) {
+        this.pattern = pattern;
+        this.pos = 0;
+        // A top level '|' is not supported, as in the regular expression the path start only precedes the first
+        // alternative (e.g., 'A|B' never matches through B)
+        int[] fragment = parseSequence();
+        skipWhitespace();
+        if (pos < pattern.length()) {
+            throw unsupported();
+        }
+        int size = epsilons.size();
+        if (size > MAX_STATES) {
+            throw new IllegalArgumentException("Dependency path pattern too complex: " + pattern);
+        }
+        labels = new char[size];
+        wildcards = new boolean[size];
+        inverses = new boolean[size];
+        targets = new int[size];
+        for (int i = 0; i < size; ++i) {
+            labels[i] = stepLabels.get(i);
+            wildcards[i] = stepWildcards.get(i);
+            inverses[i] = stepInverses.get(i);
+            targets[i] = stepTargets.get(i);
+        }
+        closures = new long[size];
+        for (int i = 0; i < size; ++i) {
+            closures[i] = closure(i);
+        }
+        start = closures[fragment[0]];
+        accept = 1L << fragment[1];
+    }
+
+    /**
+     * Returns the states the automaton is in before any dependency is traversed.
+     */
+    long start() {
+        return start;
+    }
+
+    /**
+     * Returns the states reached from the given ones by traversing a dependency, whose function has already been
+     * split in labels with {@link #getLabels(Dep)}; zero means the path can no longer match.
+     */
+    long step(long states, char[] depLabels, boolean inverse) {
+        long result = 0;
+        for (long remaining = states; remaining != 0; remaining &= remaining - 1) {
+            int state = Long.numberOfTrailingZeros(remaining);
+            int target = targets[state];
+            if (target >= 0 && wildcards[state]) {
+                result |= closures[target];
+            } else if (target >= 0 && inverses[state] == inverse) {
+                for (char label : depLabels) {
+                    if (label == labels[state]) {
+                        result |= closures[target];
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    boolean accepts(long states) {
+        return (states & accept) != 0;
+    }
+
+    /**
+     * Checks whether a path starting at term {@code from} matches the pattern.
+     */
+    boolean matches(Term from, Iterable<Dep> path) {
+        long states = start;
+        Term term = from;
+        for (Dep dep : path) {
+            boolean inverse = dep.getFrom() != term;
+            term = inverse ? dep.getFrom() : dep.getTo();
+            states = step(states, getLabels(dep), inverse);
+            if (states == 0) {
+                return false;
+            }
+        }
+        return accepts(states);
+    }
+
+    /**
+     * Returns the codes of the labels of a dependency function, as used by the pattern automaton.
+     */
+    static char[] getLabels(Dep dep) {
+        String rfunc = dep.getRfunc();
+        if (rfunc == null) {
+            return new char[0];
+        }
+        String[] parts = rfunc.split("-");
+        char[] result = new char[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            result[i] = KAFDocument.getDepPathChar(parts[i]);
+        }
+        return result;
+    }
+
+    private long closure(int state) {
+        long result = 0;
+        int[] stack = new int[epsilons.size()];
+        int size = 0;
+        stack[size++] = state;
+        result |= 1L << state;
+        while (size > 0) {
+            int current = stack[--size];
+            for (int next : epsilons.get(current)) {
+                if ((result & 1L << next) == 0) {
+                    result |= 1L << next;
+                    stack[size++] = next;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int newState() {
+        stepLabels.add('\0');
+        stepWildcards.add(false);
+        stepInverses.add(false);
+        stepTargets.add(-1);
+        epsilons.add(new ArrayList<Integer>(2));
+        return epsilons.size() - 1;
+    }
+
+    private void epsilon(int from, int to) {
+        epsilons.get(from).add(to);
+    }
+
+    // Each parse method returns a fragment of the automaton, as an array {start state, end state}
+
+    private int[] parseAlternatives() {
+        int[] first = parseSequence();
+        skipWhitespace();
+        if (pos >= pattern.length() || pattern.charAt(pos) != '|') {
+            return first;
+        }
+        int start = newState();
+        int end = newState();
+        epsilon(start, first[0]);
+        epsilon(first[1], end);
+        while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+            ++pos;
+            int[] next = parseSequence();
+            epsilon(start, next[0]);
+            epsilon(next[1], end);
+            skipWhitespace();
+        }
+        return new int[] { start, end };
+    }
+
+    private int[] parseSequence() {
+        int start = newState();
+        int end = start;
+        while (true) {
+            skipWhitespace();
+            if (pos >= pattern.length() || pattern.charAt(pos) == '|' || pattern.charAt(pos) == ')') {
+                return new int[] { start, end };
+            }
+            int[] item = parseRepetition();
+            epsilon(end, item[0]);
+            end = item[1];
+        }
+    }
+
+    private int[] parseRepetition() {
+        int[] atom = parseAtom();
+        skipWhitespace();
+        if (pos >= pattern.length()) {
+            return atom;
+        }
+        char ch = pattern.charAt(pos);
+        if (ch != '?' && ch != '*' && ch != '+') {
+            return atom;
+        }
+        ++pos;
+        skipWhitespace();
+        if (pos < pattern.length() && "?*+{".indexOf(pattern.charAt(pos)) >= 0) {
+            throw unsupported(); // reluctant / possessive quantifiers
+        }
+        int start = newState();
+        int end = newState();
+        epsilon(start, atom[0]);
+        epsilon(atom[1], end);
+        if (ch != '+') {
+            epsilon(start, end);
+        }
+        if (ch != '?') {
+            epsilon(atom[1], atom[0]);
+        }
+        return new int[] { start, end };
+    }
+
+    private int[] parseAtom() {
+        char ch = pattern.charAt(pos);
+        if (ch == '(') {
+            ++pos;
+            int[] fragment = parseAlternatives();
+            skipWhitespace();
+            if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                throw unsupported();
+            }
+            ++pos;
+            return fragment;
+        }
+        if (ch == '.') {
+            // only '.*' is supported: other uses of '.' may match part of the labels of a dependency
+            ++pos;
+            if (pos >= pattern.length() || pattern.charAt(pos) != '*') {
+                throw unsupported();
+            }
+            int start = newState();
+            int end = newState();
+            stepWildcards.set(start, true);
+            stepTargets.set(start, end);
+            return new int[] { start, end };
+        }
+        int begin = pos;
+        while (pos < pattern.length()
+                && (Character.isLetter(pattern.charAt(pos)) || pattern.charAt(pos) == '-')) {
+            ++pos;
+        }
+        if (pos == begin) {
+            throw unsupported();
+        }
+        boolean inverse = pattern.charAt(begin) == '-';
+        String label = pattern.substring(inverse ? begin + 1 : begin, pos);
+        int start = newState();
+        int end = newState();
+        stepLabels.set(start, KAFDocument.getDepPathChar(label));
+        stepInverses.set(start, inverse);
+        stepTargets.set(start, end);
+        return new int[] { start, end };
+    }
+
+    private void skipWhitespace() {
+        while (pos < pattern.length() && Character.isWhitespace(pattern.charAt(pos))) {
+            ++pos;
+        }
+    }
+
+    private IllegalArgumentException unsupported() {
+        return new IllegalArgumentException("Unsupported dependency path pattern syntax at position " + pos
+                + ": " + pattern);
+    }
+
+}
@@ -0,0 +1,231 @@
+package ixa.kaflib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Dependency tree of a document, computed once from its dependencies and discarded by {@link AnnotationContainer}
+ * when dependencies are added or removed. Each term involved in a dependency gets a number, used to access arrays
+ * with its head, depth and incoming / outgoing dependencies.
+ * <p>
+ * If a term has more than one head, the first dependency in document order is the one of the tree (as returned
+ * by {@link KAFDocument#getDepToTerm(Term)}); if heads form a cycle, the tree is cut at the term where the cycle is
+ * found. Instances are immutable and can be shared by multiple threads.
+ */
+final class DependencyIndex {
+
+    private static final Dep[] NO_DEPS = new Dep[0];
+
+    private final IdentityHashMap<Term, Integer> ids;
+
+    private final Term[] terms;
+
+    private final Dep[] headDeps;
+
+    private final int[] heads;
+
+    private final int[] depths;
+
+    private final Dep[][] outDeps;
+
+    private final Dep[][] inDeps;
+
+    private final char[][] headLabels;
+
+    private boolean forest = true;
+
+    DependencyIndex(List<Dep> deps) {
+        ids = new IdentityHashMap<Term, Integer>();
+        List<Term> termList = new ArrayList<Term>();
+        for (Dep dep : deps) {
+            for (Term term : new Term[] { dep.getFrom(), dep.getTo() }) {
+                if (term != null && !ids.containsKey(term)) {
+                    ids.put(term, termList.size());
+                    termList.add(term);
+                }
+            }
+        }
+        int size = termList.size();
+        terms = termList.toArray(new Term[size]);
+        headDeps = new Dep[size];
+        heads = new int[size];
+        depths = new int[size];
+        headLabels = new char[size][];
+        Arrays.fill(heads, -1);
+        List<List<Dep>> outLists = new ArrayList<List<Dep>>(size);
+        List<List<Dep>> inLists = new ArrayList<List<Dep>>(size);
+        for (int i = 0; i < size; ++i) {
+            outLists.add(null);
+            inLists.add(null);
+        }
+        for (Dep dep : deps) {
+            if (dep.getFrom() != null) {
+                add(outLists, ids.get(dep.getFrom()), dep);
+            }
+            if (dep.getTo() != null) {
+                int to = ids.get(dep.getTo());
+                add(inLists, to, dep);
+                if (headDeps[to] != null) {
+                    forest = false;
+                } else if (dep.getFrom() != null) {
+                    headDeps[to] = dep;
+                    heads[to] = ids.get(dep.getFrom());
+                    headLabels[to] = DepPathPattern.getLabels(dep);
+                }
+            }
+        }
+        outDeps = new Dep[size][];
+        inDeps = new Dep[size][];
+        for (int i = 0; i < size; ++i) {
+            outDeps[i] = outLists.get(i) == null ? NO_DEPS : outLists.get(i).toArray(NO_DEPS);
+            inDeps[i] = inLists.get(i) == null ? NO_DEPS : inLists.get(i).toArray(NO_DEPS);
+        }
+        computeDepths();
+    }
+
+    private static void add(List<List<Dep>> lists, int index, Dep dep) {
+        List<Dep> list = lists.get(index);
+        if (list == null) {
+            list = new ArrayList<Dep>(2);
+            lists.set(index, list);
+        }
+        list.add(dep);
+    }
+
+    private void computeDepths() {
+        Arrays.fill(depths, -1);
+        int[] stack = new int[terms.length];
+        for (int i = 0; i < terms.length; ++i) {
+            // Climb to a term with known depth (or to the root), then assign depths going down
+            int size = 0;
+            int node = i;
+            while (node >= 0 && depths[node] < 0) {
+                depths[node] = -2; // on the stack
+                stack[size++] = node;
+                node = heads[node];
+                if (node >= 0 && depths[node] == -2) {
+                    // cycle: cut the tree at the last term pushed
+                    int last = stack[size - 1];
+                    heads[last] = -1;
+                    node = -1;
+                    forest = false;
+                }
+            }
+            int depth = node < 0 ? -1 : depths[node];
+            while (size > 0) {
+                depths[stack[--size]] = ++depth;
+            }
+        }
+    }
+
+    /**
+     * Checks whether dependencies form a forest, i.e., each term has at most one head and there are no cycles. If
+     * so, the descendants of a term are the ones of its subtree, and their path from the term is made of tree
+     * dependencies only.
+     */
+    boolean isForest() {
+        return forest;
+    }
+
+    /**
+     * Returns the number of a term, or -1 if it is not involved in any dependency.
+     */
+    int id(Term term) {
+        Integer id = ids.get(term);
+        return id == null ? -1 : id;
+    }
+
+    Term term(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Returns the first dependency in document order having the given term as dependent.
+     */
+    Dep getHeadDep(Term term) {
+        int id = id(term);
+        return id < 0 ? null : headDeps[id];
+    }
+
+    /**
+     * Returns the head of a term in the tree, or -1 for roots.
+     */
+    int head(int id) {
+        return heads[id];
+    }
+
+    /**
+     * Returns the distance of a term from the root of its tree.
+     */
+    int depth(int id) {
+        return depths[id];
+    }
+
+    /**
+     * Returns the pattern labels of the tree dependency from the head of a term to the term.
+     */
+    char[] headLabels(int id) {
+        return headLabels[id];
+    }
+
+    Dep[] outDeps(int id) {
+        return outDeps[id];
+    }
+
+    Dep[] inDeps(int id) {
+        return inDeps[id];
+    }
+
+    /**
+     * Returns the lowest common ancestor of two terms in the tree, or -1 if they are in different trees.
+     */
+    int lca(int id1, int id2) {
+        while (depths[id1] > depths[id2]) {
+            id1 = heads[id1];
+        }
+        while (depths[id2] > depths[id1]) {
+            id2 = heads[id2];
+        }
+        while (id1 != id2) {
+            id1 = heads[id1];
+            id2 = heads[id2];
+            if (id1 < 0 || id2 < 0) {
+                return -1;
+            }
+        }
+        return id1;
+    }
+
+    /**
+     * Returns the dependencies from term {@code from} to term {@code to} in the tree, going up to their lowest common
+     * ancestor and then down; null if the terms are not connected.
+     */
+    List<Dep> path(Term from, Term to) {
+        int fromId = id(from);
+        int toId = id(to);
+        if (fromId < 0 || toId < 0) {
+            return null;
+        }
+        int lca = lca(fromId, toId);
+        if (lca < 0) {
+            return null;
+        }
+        int upLength = depths[fromId] - depths[lca];
+        int downLength = depths[toId] - depths[lca];
+        Dep[] path = new Dep[upLength + downLength];
+        int node = fromId;
+        for (int i = 0; i < upLength; ++i) {
+            path[i] = headDeps[node];
+            node = heads[node];
+        }
+        node = toId;
+        for (int i = path.length - 1; i >= upLength; --i) {
+            path[i] = headDeps[node];
+            node = heads[node];
+        }
+        return new ArrayList<Dep>(Arrays.asList(path));
+    }
+
+}
@@ -15,8 +15,10 @@ public class GenericId {
 	private String prefix;
 	private int counter = 0;
 	private boolean inconsistent = false;
+	private boolean frozen = false;
 
 	public String getNext() {
+		checkMutable();
 		if (inconsistent) {
 			throw new IllegalStateException("Inconsistent WF IDs. Can't create new WF IDs.");
 		}
@@ -24,6 +26,7 @@ public class GenericId {
 	}
 
 	public void update(String id) {
+		checkMutable();
 		try {
 			Integer idNum = extractCounterFromId(id);
 			if (counter < idNum) {
@@ -38,6 +41,17 @@ public class GenericId {
 		this.prefix = prefix;
 	}
 
+	/** Prevents the creation of new IDs, as the document they are for has been frozen */
+	void freeze() {
+		frozen = true;
+	}
+
+	private void checkMutable() {
+		if (frozen) {
+			throw new IllegalStateException("The document is frozen and cannot be changed");
+		}
+	}
+
 	private static int extractCounterFromId(String id) {
 		Matcher matcher = Pattern.compile("\\d+$").matcher(id);
 		if (!matcher.find()) {
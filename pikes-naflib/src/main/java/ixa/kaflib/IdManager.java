@@ -36,11 +36,25 @@ class IdManager implements Serializable {
 
 	private HashMap<String, Integer> componentCounter = new HashMap();
 	boolean inconsistentIdComponent = false;
+	private boolean frozen = false;
 	private static final String COMPONENT_PREFIX = ".";
 
+	/**
+	 * Makes any further ID creation fail, as the document has been frozen
+	 */
+	void freeze() {
+		for (GenericId id : new GenericId[] { wfs, terms, marks, mws, chunks, entities, corefs, timex3s,
+				linkedentities, properties, categories, opinions, relations, predicates, roles, terminals,
+				nonterminals, edges, ssts, topics, tlinks, clinks }) {
+			id.freeze();
+		}
+		frozen = true;
+	}
+
 	String getNextComponentId(String termId) {
 		String newId;
 		int nextIndex;
+		checkMutable();
 		if (this.inconsistentIdComponent) {
 			throw new IllegalStateException("Inconsistent component IDs. Can't create new component IDs.");
 		}
@@ -57,6 +71,7 @@ class IdManager implements Serializable {
 
 
 	void updateComponentCounter(String id, String termId) {
+		checkMutable();
 		int componentInd;
 		Matcher matcher = Pattern.compile("^" + terms.getPrefix() + "_?\\d+\\" + COMPONENT_PREFIX + "(\\d+)$").matcher(id);
 		if (!matcher.find()) {
@@ -67,4 +82,10 @@ class IdManager implements Serializable {
 		componentCounter.put(termId, componentInd);
 	}
 
+	private void checkMutable() {
+		if (frozen) {
+			throw new IllegalStateException("The document is frozen and cannot be changed");
+		}
+	}
+
 }
@@ -3,10 +3,19 @@ package ixa.kaflib;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
@@ -18,8 +27,13 @@ import java.util.regex.Pattern;
 
 public class KAFDocument implements Serializable {
 
+    /**
+     * Annotation layers, used to select the layers to be loaded from a file. Layers not known by the library are
+     * represented by {@link #unknown}.
+     */
     public enum Layer {
-        text, terms, marks, deps, chunks, entities, properties, categories, coreferences, opinions, relations, srl, constituency;
+        text, terms, marks, deps, chunks, entities, properties, categories, coreferences, opinions, relations, srl, constituency,
+        timeExpressions, temporalRelations, causalRelations, factuality, linkedEntities, SSTspans, topics, unknown;
     }
 
     public class FileDesc implements Serializable {
@@ -95,7 +109,8 @@ public class KAFDocument implements Serializable {
     }
 
     /**
-     * Creates a new KAFDocument and loads the contents of the file passed as argument
+     * Creates a new KAFDocument and loads the contents of the file passed as argument, either in XML or in the binary
+     * format written by {@link #saveBinary(OutputStream)}
      *
      * @param file an existing KAF file to be loaded into the library.
      */
@@ -105,6 +120,19 @@ public class KAFDocument implements Serializable {
         return kaf;
     }
 
+    /**
+     * Creates a new KAFDocument and loads only the given layers from the file passed as argument, together with the
+     * layers they refer to (e.g., terms and text for deps); the other layers are skipped while parsing. The
+     * header and the raw text are always loaded. The resulting document is meant for reading: saving it would
+     * drop the skipped layers.
+     *
+     * @param file an existing KAF file to be loaded into the library.
+     * @param layers the layers to load; null to load all of them.
+     */
+    public static KAFDocument createFromFile(File file, Set<Layer> layers) throws IOException, JDOMException {
+        return ReadWriteManager.load(file, layers);
+    }
+
     /**
      * Creates a new KAFDocument loading the content read from the reader given on argument.
      *
@@ -120,10 +148,66 @@ public class KAFDocument implements Serializable {
         return kaf;
     }
 
+    /**
+     * Creates a new KAFDocument loading the content read from the byte stream given on argument, whose encoding is
+     * detected from the XML declaration. Documents written with {@link #saveBinary(OutputStream)} are recognized and
+     * loaded as well. The stream is not closed.
+     *
+     * @param stream InputStream to read KAF content.
+     */
+    public static KAFDocument createFromStream(InputStream stream) throws IOException {
+        KAFDocument kaf = null;
+        try {
+            kaf = ReadWriteManager.load(markable(stream), null);
+        } catch (JDOMException e) {
+            throw new IOException(e);
+        }
+        return kaf;
+    }
+
+    /**
+     * Creates a new KAFDocument loading only the given layers (and the ones they refer to) from the reader given on
+     * argument. See {@link #createFromFile(File, Set)}.
+     *
+     * @param stream Reader to read KAF content.
+     * @param layers the layers to load; null to load all of them.
+     */
+    public static KAFDocument createFromStream(Reader stream, Set<Layer> layers) throws IOException {
+        KAFDocument kaf = null;
+        try {
+            kaf = ReadWriteManager.load(stream, layers);
+        } catch (JDOMException e) {
+            throw new IOException(e);
+        }
+        return kaf;
+    }
+
+    /**
+     * Creates a new KAFDocument loading only the given layers (and the ones they refer to) from the byte stream
+     * given on argument, either in XML or in binary format. See {@link #createFromFile(File, Set)}.
+     *
+     * @param stream InputStream to read KAF content.
+     * @param layers the layers to load; null to load all of them.
+     */
+    public static KAFDocument createFromStream(InputStream stream, Set<Layer> layers) throws IOException {
+        KAFDocument kaf = null;
+        try {
+            kaf = ReadWriteManager.load(markable(stream), null, layers);
+        } catch (JDOMException e) {
+            throw new IOException(e);
+        }
+        return kaf;
+    }
+
+    private static InputStream markable(InputStream stream) {
+        return stream.markSupported() ? stream : new BufferedInputStream(stream);
+    }
+
     /**
      * Sets the language of the processed document
      */
     public void setLang(String lang) {
+        checkMutable();
         this.lang = lang;
     }
 
@@ -138,6 +222,7 @@ public class KAFDocument implements Serializable {
      * Sets the KAF version
      */
     public void setVersion(String version) {
+        checkMutable();
         this.version = version;
     }
 
@@ -152,6 +237,7 @@ public class KAFDocument implements Serializable {
      * Adds a linguistic processor to the document header. The timestamp is added implicitly.
      */
     public LinguisticProcessor addLinguisticProcessor(String layer, String name) {
+        checkMutable();
         LinguisticProcessor lp = new LinguisticProcessor(layer, name);
         List<LinguisticProcessor> layerLps = lps.get(layer);
         if (layerLps == null) {
@@ -163,6 +249,7 @@ public class KAFDocument implements Serializable {
     }
 
     public LinguisticProcessor addLinguisticProcessor(String layer, LinguisticProcessor linguisticProcessor) {
+        checkMutable();
         List<LinguisticProcessor> layerLps = lps.get(layer);
         if (layerLps == null) {
             layerLps = new ArrayList<LinguisticProcessor>();
@@ -240,6 +327,7 @@ public class KAFDocument implements Serializable {
     }
 
     public FileDesc createFileDesc() {
+        checkMutable();
         this.fileDesc = new FileDesc();
         return this.fileDesc;
     }
@@ -249,6 +337,7 @@ public class KAFDocument implements Serializable {
     }
 
     public Public createPublic() {
+        checkMutable();
         this._public = new Public();
         return this._public;
     }
@@ -257,6 +346,38 @@ public class KAFDocument implements Serializable {
         return this._public;
     }
 
+    /**
+     * Freezes the document, so that any number of threads can read it without locking (once it has been safely
+     * published to them, e.g., through an executor). All the indexes are built, lists returned by getters become
+     * read-only and any method changing the layers or the header fails with an IllegalStateException. Annotation
+     * objects, the file description and the public header are not frozen, and must not be changed by readers.
+     * Returns this document.
+     */
+    public KAFDocument freeze() {
+        synchronized (this.annotationContainer) {
+            if (!this.annotationContainer.isFrozen()) {
+                this.idManager.freeze();
+                Map<String, List<LinguisticProcessor>> frozenLps = new LinkedHashMap<String, List<LinguisticProcessor>>();
+                for (Map.Entry<String, List<LinguisticProcessor>> entry : this.lps.entrySet()) {
+                    frozenLps.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+                }
+                this.lps = Collections.unmodifiableMap(frozenLps);
+                this.annotationContainer.freeze();
+            }
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return this.annotationContainer.isFrozen();
+    }
+
+    private void checkMutable() {
+        if (this.annotationContainer.isFrozen()) {
+            throw new IllegalStateException("The document is frozen and cannot be changed");
+        }
+    }
+
     /**
      * Returns the annotation container used by this object
      */
@@ -961,6 +1082,14 @@ public class KAFDocument implements Serializable {
         return annotationContainer.getText();
     }
 
+    /**
+     * Returns the position of a WF in the list returned by {@link #getWFs()}, or -1 if it is not there. Unlike
+     * {@code getWFs().indexOf(wf)}, it takes constant time.
+     */
+    public int getWFIndex(WF wf) {
+        return annotationContainer.wfPosition(wf);
+    }
+
     /**
      * Returns a list with all sentences. Each sentence is a list of WFs.
      */
@@ -980,10 +1109,11 @@ public class KAFDocument implements Serializable {
     }
 
     public List<Integer> getSentsByParagraph(Integer para) {
-        if (this.annotationContainer.sentsIndexedByParagraphs.get(para) == null) {
+        List<Integer> sents = this.annotationContainer.getSentsByParagraph(para);
+        if (sents == null) {
             System.out.println(para + ": 0");
         }
-        return new ArrayList<Integer>(this.annotationContainer.sentsIndexedByParagraphs.get(para));
+        return new ArrayList<Integer>(sents);
     }
 
     public Integer getFirstParagraph() {
@@ -991,7 +1121,7 @@ public class KAFDocument implements Serializable {
     }
 
     public Integer getNumParagraphs() {
-        return this.annotationContainer.sentsIndexedByParagraphs.keySet().size();
+        return this.annotationContainer.getNumParagraphs();
     }
 
     /**
@@ -1001,6 +1131,42 @@ public class KAFDocument implements Serializable {
         return annotationContainer.getTerms();
     }
 
+    /**
+     * Returns the position of a term in the list returned by {@link #getTerms()}, or -1 if it is not there (e.g.,
+     * for the components of a compound term). Unlike {@code getTerms().indexOf(term)}, it takes constant time.
+     */
+    public int getTermIndex(Term term) {
+        return annotationContainer.termPosition(term);
+    }
+
+    /**
+     * Returns the positions in {@link #getTerms()} of the given terms, sorted and without duplicates, so that
+     * sequences of consecutive terms can be found by comparing adjacent positions. Terms not in the document are
+     * ignored.
+     */
+    public int[] getTermIndexes(Iterable<Term> terms) {
+        int size = terms instanceof Collection ? ((Collection<Term>) terms).size() : 16;
+        int[] indexes = new int[size];
+        int count = 0;
+        for (Term term : terms) {
+            int index = annotationContainer.termPosition(term);
+            if (index >= 0) {
+                if (count == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, count * 2);
+                }
+                indexes[count++] = index;
+            }
+        }
+        Arrays.sort(indexes, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; ++i) {
+            if (distinct == 0 || indexes[i] != indexes[distinct - 1]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        return distinct == indexes.length ? indexes : Arrays.copyOf(indexes, distinct);
+    }
+
     /**
      * Returns a list of terms containing the word forms given on argument.
      *
@@ -1102,55 +1268,55 @@ public class KAFDocument implements Serializable {
     }
 
     public List<WF> getWFsBySent(Integer sent) {
-        List<WF> wfs = this.annotationContainer.textIndexedBySent.get(sent);
+        List<WF> wfs = this.annotationContainer.getSentenceWFs(sent);
         return (wfs == null) ? new ArrayList<WF>() : wfs;
     }
 
     public List<WF> getWFsByPara(Integer para) {
-        return this.annotationContainer.getLayerByPara(para, this.annotationContainer.textIndexedBySent);
+        return this.annotationContainer.getWFsByPara(para);
     }
 
     public List<Term> getTermsBySent(Integer sent) {
-        List<Term> terms = this.annotationContainer.termsIndexedBySent.get(sent);
+        List<Term> terms = this.annotationContainer.getSentenceTerms(sent);
         return (terms == null) ? new ArrayList<Term>() : terms;
     }
 
     public List<Term> getTermsByPara(Integer para) {
-        return this.annotationContainer.getLayerByPara(para, this.annotationContainer.termsIndexedBySent);
+        return this.annotationContainer.getTermsByPara(para);
     }
 
     public List<Entity> getEntitiesBySent(Integer sent) {
-        List<Entity> entities = this.annotationContainer.entitiesIndexedBySent.get(sent);
+        List<Entity> entities = this.annotationContainer.getSentenceEntities(sent);
         return (entities == null) ? new ArrayList<Entity>() : entities;
     }
 
     public List<Entity> getEntitiesByPara(Integer para) {
-        return this.annotationContainer.getLayerByPara(para, this.annotationContainer.entitiesIndexedBySent);
+        return this.annotationContainer.getEntitiesByPara(para);
     }
 
     public List<Dep> getDepsBySent(Integer sent) {
-        return this.annotationContainer.depsIndexedBySent.get(sent);
+        return this.annotationContainer.getSentenceDeps(sent);
     }
 
     public List<Dep> getDepsByPara(Integer para) {
-        return this.annotationContainer.getLayerByPara(para, this.annotationContainer.depsIndexedBySent);
+        return this.annotationContainer.getDepsByPara(para);
     }
 
     public List<Chunk> getChunksBySent(Integer sent) {
-        return this.annotationContainer.chunksIndexedBySent.get(sent);
+        return this.annotationContainer.getSentenceChunks(sent);
     }
 
     public List<Chunk> getChunksByPara(Integer para) {
-        return this.annotationContainer.getLayerByPara(para, this.annotationContainer.chunksIndexedBySent);
+        return this.annotationContainer.getChunksByPara(para);
     }
 
     public List<Predicate> getPredicatesBySent(Integer sent) {
-        List<Predicate> result = this.annotationContainer.predicatesIndexedBySent.get(sent);
+        List<Predicate> result = this.annotationContainer.getSentencePredicates(sent);
         return result != null ? result : Collections.<Predicate>emptyList();
     }
 
     public List<Predicate> getPredicatesByPara(Integer para) {
-        return this.annotationContainer.getLayerByPara(para, this.annotationContainer.predicatesIndexedBySent);
+        return this.annotationContainer.getPredicatesByPara(para);
     }
 
 	public List<Tree> getConstituentsBySent(Integer sent) {
@@ -1458,6 +1624,65 @@ public class KAFDocument implements Serializable {
 		ReadWriteManager.save(this, file);
 	}
 
+	/**
+	 * Writes the KAF document to the writer given on argument, without building its whole XML tree in memory.
+	 * The writer is flushed but not closed.
+	 *
+	 * @param out writer the document is written to.
+	 */
+	public void save(Writer out) throws IOException {
+		ReadWriteManager.write(this, out);
+	}
+
+	/**
+	 * Writes the KAF document to the stream given on argument in a compact binary format, which is faster to write
+	 * and read than XML and is meant for caching documents between processing stages. The document can be loaded
+	 * back with {@link #createFromStream(InputStream)} or {@link #createFromFile(File)}. The stream is flushed but
+	 * not closed.
+	 *
+	 * @param out stream the document is written to.
+	 */
+	public void saveBinary(OutputStream out) throws IOException {
+		ReadWriteManager.writeBinary(this, out);
+	}
+
+	/**
+	 * Writes the header and the given layers of the KAF document into an existing NAF file, read from a stream and
+	 * written to another. The elements of those layers are replaced (or added, if missing), while the other layers
+	 * are copied byte by byte, without parsing and serializing them again. Layers sharing an element with a given
+	 * layer are written as well: properties and categories are always written together. The document is typically
+	 * loaded with {@link #createFromFile(File, Set)}, including the layers to replace if their content has to be
+	 * kept. The input has to be in XML format and UTF-8 encoded. The output stream is flushed but not closed.
+	 *
+	 * @param in stream the existing NAF file is read from.
+	 * @param out stream the updated NAF file is written to.
+	 * @param layers the layers to write.
+	 */
+	public void saveLayers(InputStream in, OutputStream out, Set<Layer> layers) throws IOException {
+		ReadWriteManager.writeLayers(this, layers, in, out);
+	}
+
+	/**
+	 * Writes the header and the given layers of the KAF document into an existing NAF file, as done by
+	 * {@link #saveLayers(InputStream, OutputStream, Set)}. The target file may be the source file itself, which is
+	 * replaced once the new content has been written.
+	 *
+	 * @param source the existing NAF file.
+	 * @param target the file the updated document is written to.
+	 * @param layers the layers to write.
+	 */
+	public void saveLayers(File source, File target, Set<Layer> layers) throws IOException {
+		File tmp = new File(target.getPath() + ".tmp");
+		try (InputStream in = new BufferedInputStream(new FileInputStream(source));
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+			saveLayers(in, out, layers);
+		} catch (IOException | RuntimeException e) {
+			tmp.delete();
+			throw e;
+		}
+		Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
 	public String toString() {
 		return ReadWriteManager.kafToStr(this);
 	}
@@ -1797,10 +2022,21 @@ public class KAFDocument implements Serializable {
         this.annotationContainer.removeLayer(layer);
     }
 
+    /**
+     * Removes the given annotations (compared by identity) with a single pass over the layers they belong to, which
+     * on large documents is much faster than removing them one at a time. Marks, chunks, features, topics,
+     * relations, trees and tree nodes cannot be removed: an UnsupportedOperationException naming their type is
+     * thrown before anything is removed.
+     */
     public void removeAnnotations(Iterable<?> annotations) {
-        for (Object annotation : annotations) {
-            this.annotationContainer.removeAnnotation(annotation);
-        }
+        this.annotationContainer.removeAnnotations(annotations);
+    }
+
+    /**
+     * Removes all the annotations of the given type satisfying a condition, with a single pass over their layer.
+     */
+    public <T> void removeAnnotations(Class<T> type, java.util.function.Predicate<? super T> condition) {
+        this.annotationContainer.removeAnnotations(type, condition);
     }
 
     public void removeAnnotation(Object annotation) {
@@ -1877,7 +2113,12 @@ public class KAFDocument implements Serializable {
 
     private static final Map<String, Pattern> DEP_PATH_REGEXS = new ConcurrentHashMap<String, Pattern>();
 
-    private static char getDepPathChar(final String label) {
+    private static final Map<String, DepPathPattern> DEP_PATH_PATTERNS = new ConcurrentHashMap<String, DepPathPattern>();
+
+    // Marks the patterns that cannot be compiled to an automaton, and are matched with regular expressions
+    private static final DepPathPattern REGEX_DEP_PATH_PATTERN = DepPathPattern.compile("");
+
+    static char getDepPathChar(final String label) {
         final String key = label.toLowerCase();
         Character letter = DEP_PATH_CHARS.get(key);
         if (letter == null) {
@@ -1897,7 +2138,7 @@ public class KAFDocument implements Serializable {
         return letter;
     }
 
-    private static String getDepPathString(final Term from, final Iterable<Dep> path) {
+    static String getDepPathString(final Term from, final Iterable<Dep> path) {
         final StringBuilder builder = new StringBuilder("_");
         Term term = from; // current node in the path
         for (final Dep dep : path) {
@@ -1918,7 +2159,7 @@ public class KAFDocument implements Serializable {
         return builder.toString();
     }
 
-    private static Pattern getDepPathRegex(String pattern) {
+    static Pattern getDepPathRegex(String pattern) {
         Pattern regex = DEP_PATH_REGEXS.get(pattern);
         if (regex == null) {
             synchronized (DEP_PATH_REGEXS) {
@@ -1958,7 +2199,27 @@ public class KAFDocument implements Serializable {
         return regex;
     }
 
+    /**
+     * Returns the automaton of a pattern, or null if the pattern has to be matched with a regular expression.
+     */
+    private static DepPathPattern getDepPathPattern(final String pattern) {
+        DepPathPattern compiled = DEP_PATH_PATTERNS.get(pattern);
+        if (compiled == null) {
+            try {
+                compiled = DepPathPattern.compile(pattern);
+            } catch (final IllegalArgumentException ex) {
+                compiled = REGEX_DEP_PATH_PATTERN;
+            }
+            DEP_PATH_PATTERNS.put(pattern, compiled);
+        }
+        return compiled == REGEX_DEP_PATH_PATTERN ? null : compiled;
+    }
+
     public boolean matchDepPath(final Term from, final Iterable<Dep> path, final String pattern) {
+        final DepPathPattern compiled = getDepPathPattern(pattern);
+        if (compiled != null) {
+            return compiled.matches(from, path);
+        }
         final String pathString = getDepPathString(from, path);
         final Pattern pathRegex = getDepPathRegex(pattern);
         return pathRegex.matcher(pathString).matches();
@@ -1968,49 +2229,44 @@ public class KAFDocument implements Serializable {
         if (from == to) {
             return Collections.emptyList();
         }
-        final List<Dep> toPath = new ArrayList<Dep>();
-        for (Dep dep = getDepToTerm(to); dep != null; dep = getDepToTerm(dep.getFrom())) {
-            toPath.add(dep);
-            if (dep.getFrom() == from) {
-                Collections.reverse(toPath);
-                return toPath;
-            }
+        return this.annotationContainer.getDependencyIndex().path(from, to);
+    }
+
+    /**
+     * Returns the number of dependencies between a term and the root of its dependency tree (0 for roots and for
+     * terms without dependencies).
+     */
+    public int getDepDepth(final Term term) {
+        final DependencyIndex index = this.annotationContainer.getDependencyIndex();
+        final int id = index.id(term);
+        return id < 0 ? 0 : index.depth(id);
+    }
+
+    /**
+     * Returns the lowest common ancestor of two terms in the dependency tree, or null if they are not connected.
+     */
+    public Term getDepCommonAncestor(final Term term1, final Term term2) {
+        if (term1 == term2) {
+            return term1;
         }
-        final List<Dep> fromPath = new ArrayList<Dep>();
-        for (Dep dep = getDepToTerm(from); dep != null; dep = getDepToTerm(dep.getFrom())) {
-            fromPath.add(dep);
-            if (dep.getFrom() == to) {
-                return fromPath;
-            }
-            for (int i = 0; i < toPath.size(); ++i) {
-                if (dep.getFrom() == toPath.get(i).getFrom()) {
-                    for (int j = i; j >= 0; --j) {
-                        fromPath.add(toPath.get(j));
-                    }
-                    return fromPath;
-                }
-            }
+        final DependencyIndex index = this.annotationContainer.getDependencyIndex();
+        final int id1 = index.id(term1);
+        final int id2 = index.id(term2);
+        if (id1 < 0 || id2 < 0) {
+            return null;
         }
-        return null; // unconnected nodes
+        final int lca = index.lca(id1, id2);
+        return lca < 0 ? null : index.term(lca);
     }
 
     public Dep getDepToTerm(final Term term) {
-        for (final Dep dep : getDepsByTerm(term)) {
-            if (dep.getTo() == term) {
-                return dep;
-            }
-        }
-        return null;
+        return this.annotationContainer.getDependencyIndex().getHeadDep(term);
     }
 
     public List<Dep> getDepsFromTerm(final Term term) {
-        final List<Dep> result = new ArrayList<Dep>();
-        for (final Dep dep : getDepsByTerm(term)) {
-            if (dep.getFrom() == term) {
-                result.add(dep);
-            }
-        }
-        return result;
+        final DependencyIndex index = this.annotationContainer.getDependencyIndex();
+        final int id = index.id(term);
+        return id < 0 ? new ArrayList<Dep>() : new ArrayList<Dep>(Arrays.asList(index.outDeps(id)));
     }
 
     public List<Dep> getDepsByTerm(final Term term) {
@@ -2037,33 +2293,47 @@ public class KAFDocument implements Serializable {
     }
 
     public Set<Term> getTermsByDepAncestors(final Iterable<Term> ancestors) {
-        final Set<Term> terms = new HashSet<Term>();
-        final List<Term> queue = new LinkedList<Term>();
-        for (final Term term : ancestors) {
-            terms.add(term);
-            queue.add(term);
-        }
-        while (!queue.isEmpty()) {
-            final Term term = queue.remove(0);
-            final List<Dep> deps = getDepsByTerm(term);
-            for (final Dep dep : deps) {
-                if (dep.getFrom() == term) {
-                    if (terms.add(dep.getTo())) {
-                        queue.add(dep.getTo());
-                    }
-                }
-            }
-        }
-        return terms;
+        return getTermsByDeps(ancestors, true);
     }
 
     public Set<Term> getTermsByDepAncestors(final Iterable<Term> ancestors, final String pattern) {
+        final DependencyIndex index = this.annotationContainer.getDependencyIndex();
+        final DepPathPattern compiled = getDepPathPattern(pattern);
         final Set<Term> result = new HashSet<Term>();
         for (final Term term : ancestors) {
-            for (final Term descendent : getTermsByDepAncestors(Collections.singleton(term))) {
-                final List<Dep> path = getDepPath(term, descendent);
-                if (matchDepPath(term, path, pattern)) {
-                    result.add(descendent);
+            final int id = index.id(term);
+            if (compiled != null && index.isForest() && id >= 0) {
+                // Match while visiting the subtree, skipping the branches that can no longer match
+                int[] nodes = new int[16];
+                long[] states = new long[16];
+                int size = 0;
+                nodes[size] = id;
+                states[size++] = compiled.start();
+                while (size > 0) {
+                    final int node = nodes[--size];
+                    final long nodeStates = states[size];
+                    if (compiled.accepts(nodeStates)) {
+                        result.add(index.term(node));
+                    }
+                    for (final Dep dep : index.outDeps(node)) {
+                        final int child = index.id(dep.getTo());
+                        final long childStates = compiled.step(nodeStates, index.headLabels(child), false);
+                        if (childStates != 0) {
+                            if (size == nodes.length) {
+                                nodes = Arrays.copyOf(nodes, size * 2);
+                                states = Arrays.copyOf(states, size * 2);
+                            }
+                            nodes[size] = child;
+                            states[size++] = childStates;
+                        }
+                    }
+                }
+            } else {
+                for (final Term descendent : getTermsByDepAncestors(Collections.singleton(term))) {
+                    final List<Dep> path = getDepPath(term, descendent);
+                    if (path != null && matchDepPath(term, path, pattern)) {
+                        result.add(descendent);
+                    }
                 }
             }
         }
@@ -2071,37 +2341,59 @@ public class KAFDocument implements Serializable {
     }
 
     public Set<Term> getTermsByDepDescendants(Iterable<Term> descendents) {
-        final Set<Term> terms = new HashSet<Term>();
-        final List<Term> queue = new LinkedList<Term>();
+        return getTermsByDeps(descendents, false);
+    }
+
+    public Set<Term> getTermsByDepDescendants(Iterable<Term> descendents, String pattern) {
+        final DependencyIndex index = this.annotationContainer.getDependencyIndex();
+        final DepPathPattern compiled = getDepPathPattern(pattern);
+        final Set<Term> result = new HashSet<Term>();
         for (final Term term : descendents) {
-            terms.add(term);
-            queue.add(term);
-        }
-        while (!queue.isEmpty()) {
-            final Term term = queue.remove(0);
-            final List<Dep> deps = getDepsByTerm(term);
-            for (final Dep dep : deps) {
-                if (dep.getTo() == term) {
-                    if (terms.add(dep.getFrom())) {
-                        queue.add(dep.getFrom());
+            final int id = index.id(term);
+            if (compiled != null && index.isForest() && id >= 0) {
+                // Match while going up to the root, stopping when the path can no longer match
+                long states = compiled.start();
+                for (int node = id; node >= 0 && states != 0; node = index.head(node)) {
+                    if (compiled.accepts(states)) {
+                        result.add(index.term(node));
+                    }
+                    if (index.head(node) >= 0) {
+                        states = compiled.step(states, index.headLabels(node), true);
+                    }
+                }
+            } else {
+                for (final Term ancestor : getTermsByDepDescendants(Collections.singleton(term))) {
+                    final List<Dep> path = getDepPath(term, ancestor);
+                    if (path != null && matchDepPath(term, path, pattern)) {
+                        result.add(ancestor);
                     }
                 }
             }
         }
-        return terms;
+        return result;
     }
 
-    public Set<Term> getTermsByDepDescendants(Iterable<Term> descendents, String pattern) {
-        Set<Term> result = new HashSet<Term>();
-        for (final Term term : descendents) {
-            for (final Term ancestor : getTermsByDepDescendants(Collections.singleton(term))) {
-                final List<Dep> path = getDepPath(term, ancestor);
-                if (matchDepPath(term, path, pattern)) {
-                    result.add(ancestor);
+    private Set<Term> getTermsByDeps(final Iterable<Term> start, final boolean down) {
+        final DependencyIndex index = this.annotationContainer.getDependencyIndex();
+        final Set<Term> terms = new HashSet<Term>();
+        final Deque<Term> queue = new ArrayDeque<Term>();
+        for (final Term term : start) {
+            if (terms.add(term)) {
+                queue.add(term);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int id = index.id(queue.removeFirst());
+            if (id >= 0) {
+                for (final Dep dep : down ? index.outDeps(id) : index.inDeps(id)) {
+                    final Term next = down ? dep.getTo() : dep.getFrom();
+                    if (next != null && terms.add(next)) {
+                        queue.add(next);
+                    }
                 }
             }
         }
-        return result;
+        return terms;
     }
 
     public List<Entity> getEntitiesByTerm(Term term) {
@@ -2122,7 +2414,7 @@ public class KAFDocument implements Serializable {
     }
 
     public List<Timex3> getTimeExsBySent(Integer sent) {
-        List<Timex3> timexs = this.annotationContainer.timeExsIndexedBySent.get(sent);
+        List<Timex3> timexs = this.annotationContainer.getSentenceTimeExs(sent);
         return (timexs == null) ? new ArrayList<Timex3>() : timexs;
     }
 
@@ -0,0 +1,337 @@
+package ixa.kaflib;
+
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.util.NamespaceStack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes some layers of a document into an existing NAF file, copying the rest of the file as it is. The layers
+ * created by {@link ReadWriteManager} are collected and, once the document is complete, the input file is scanned
+ * at the byte level: top level elements whose name is among the replaced ones are dropped, the others are copied
+ * byte by byte without being parsed, and the new layers are printed where {@link ReadWriteManager} would place them,
+ * with the same formatting. Only the start and end tags of the copied elements are looked at, so patching a file
+ * costs little more than copying it.
+ * <p>
+ * The input has to be UTF-8 encoded XML, as the new layers are written in UTF-8.
+ */
+final class LayerSplicer extends AbstractXMLOutputProcessor implements ReadWriteManager.LayerOutput {
+
+    /**
+     * Top level elements in the order they are written by {@link ReadWriteManager}; new layers are placed before the
+     * first element of the input that comes after them in this order, or that is not in the list.
+     */
+    private static final List<String> LAYER_ORDER = Arrays.asList("nafHeader", "raw", "text", "terms", "markables",
+            "deps", "chunks", "entities", "coreferences", "timeExpressions", "factualitylayer", "linkedEntities",
+            "SSTspans", "topics", "features", "opinions", "relations", "srl", "constituencyStrings", "constituency",
+            "temporalRelations", "causalRelations");
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final Set<String> replaced;
+
+    private final FormatStack fstack;
+
+    private final NamespaceStack nstack = new NamespaceStack();
+
+    private final List<Element> layers = new ArrayList<Element>();
+
+    private int written = 0;
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private int copyStart = 0;
+
+    private OutputStream sink = null;
+
+    /**
+     * Creates a splicer copying the given input stream to the given output stream, replacing the top level elements
+     * with the given names (e.g., {@code opinions}) with the layers added to the splicer. Streams are not closed.
+     */
+    LayerSplicer(InputStream in, OutputStream out, Set<String> replaced, Format format) {
+        this.in = in;
+        this.out = out;
+        this.replaced = replaced;
+        this.fstack = new FormatStack(format);
+    }
+
+    @Override
+    public void start(Element root) throws IOException {
+        nstack.push(root);
+        fstack.push();
+    }
+
+    @Override
+    public void add(Element layer) throws IOException {
+        layers.add(layer);
+    }
+
+    @Override
+    public void end() throws IOException {
+        copyProlog();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        setSink(pending);
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unexpected end of NAF file");
+            } else if (c != '<') {
+                continue; // whitespace between layers
+            }
+            c = read();
+            if (c == '/') {
+                // end of the root element: the remaining layers go before it
+                writeLayers(Integer.MAX_VALUE);
+                copyTail(pending);
+                return;
+            } else if (c == '!') {
+                skipMarkup(); // comment between layers, kept with the next layer
+                continue;
+            } else if (c == '?') {
+                skipUntil("?>", null);
+                continue;
+            }
+            StringBuilder name = new StringBuilder();
+            while (!isNameEnd(c)) {
+                name.append((char) c);
+                c = read();
+            }
+            if (c >= 0) {
+                --position; // the byte after the name is part of the start tag
+            }
+            int rank = rank(name.toString());
+            if (replaced.contains(name.toString())) {
+                writeLayers(rank + 1);
+                setSink(null);
+                skipElement();
+                pending.reset();
+            } else {
+                writeLayers(rank);
+                setSink(null);
+                pending.writeTo(out);
+                pending.reset();
+                setSink(out);
+                skipElement();
+            }
+            setSink(pending);
+        }
+    }
+
+    /**
+     * Writes the new layers that come before the given rank in {@link #LAYER_ORDER} and have not been written yet.
+     */
+    private void writeLayers(int rank) throws IOException {
+        while (written < layers.size()) {
+            Element layer = layers.get(written);
+            if (rank != Integer.MAX_VALUE && rank(layer.getName()) >= rank) {
+                return;
+            }
+            StringWriter writer = new StringWriter();
+            textRaw(writer, fstack.getPadBetween());
+            printElement(writer, fstack, nstack, layer);
+            flushCopied();
+            out.write(writer.toString().getBytes(StandardCharsets.UTF_8));
+            ++written;
+        }
+    }
+
+    /**
+     * Copies everything up to the end of the start tag of the root element, checking the declared encoding.
+     */
+    private void copyProlog() throws IOException {
+        setSink(out);
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unexpected end of NAF file");
+            } else if (c != '<') {
+                continue;
+            }
+            c = read();
+            if (c == '?') {
+                StringBuilder declaration = new StringBuilder();
+                skipUntil("?>", declaration);
+                String encoding = getEncoding(declaration.toString());
+                if (encoding != null && !encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")) {
+                    throw new IOException("Cannot add layers to a NAF file encoded in " + encoding);
+                }
+            } else if (c == '!') {
+                skipMarkup();
+            } else if (c >= 0) {
+                if (skipTag()) {
+                    throw new IOException("Empty NAF file");
+                }
+                return;
+            }
+        }
+    }
+
+    private void copyTail(ByteArrayOutputStream pending) throws IOException {
+        setSink(null);
+        pending.writeTo(out);
+        setSink(out);
+        while (read() >= 0) {
+            // copy everything after the end of the root element
+        }
+        flushCopied();
+        out.flush();
+    }
+
+    /**
+     * Moves past the end of the element whose name has just been read, sending its bytes to the current sink.
+     */
+    private void skipElement() throws IOException {
+        if (skipTag()) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unexpected end of NAF file");
+            } else if (c != '<') {
+                continue;
+            }
+            c = read();
+            if (c == '/') {
+                skipUntil(">", null);
+                --depth;
+            } else if (c == '!') {
+                skipMarkup();
+            } else if (c == '?') {
+                skipUntil("?>", null);
+            } else if (!skipTag()) {
+                ++depth;
+            }
+        }
+    }
+
+    /**
+     * Moves past the end of a start tag, returning whether the element is empty.
+     */
+    private boolean skipTag() throws IOException {
+        int quote = 0;
+        int previous = 0;
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unexpected end of NAF file");
+            } else if (quote != 0) {
+                quote = c == quote ? 0 : quote;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return previous == '/';
+            }
+            previous = c;
+        }
+    }
+
+    /**
+     * Moves past the end of a comment, a CDATA section or a declaration, whose {@code <!} has just been read.
+     */
+    private void skipMarkup() throws IOException {
+        int c = read();
+        if (c == '-') {
+            skipUntil("-->", null);
+        } else if (c == '[') {
+            skipUntil("]]>", null);
+        } else {
+            int brackets = 0;
+            while (c != '>' || brackets > 0) {
+                if (c < 0) {
+                    throw new IOException("Unexpected end of NAF file");
+                }
+                brackets += c == '[' ? 1 : c == ']' ? -1 : 0;
+                c = read();
+            }
+        }
+    }
+
+    private void skipUntil(String end, StringBuilder content) throws IOException {
+        int matched = 0;
+        while (matched < end.length()) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unexpected end of NAF file");
+            }
+            if (content != null) {
+                content.append((char) c);
+            }
+            if (c == end.charAt(matched)) {
+                ++matched;
+            } else {
+                matched = c == end.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    private static int rank(String name) {
+        int rank = LAYER_ORDER.indexOf(name.equals("kafHeader") ? "nafHeader" : name);
+        return rank < 0 ? Integer.MAX_VALUE - 1 : rank;
+    }
+
+    private static boolean isNameEnd(int c) {
+        return c < 0 || c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static String getEncoding(String declaration) {
+        int index = declaration.indexOf("encoding");
+        if (!declaration.startsWith("xml") || index < 0) {
+            return null;
+        }
+        int start = index + "encoding".length();
+        while (start < declaration.length() && declaration.charAt(start) != '"' && declaration.charAt(start) != '\'') {
+            ++start;
+        }
+        int end = start + 1 < declaration.length() ? declaration.indexOf(declaration.charAt(start), start + 1) : -1;
+        return end < 0 ? null : declaration.substring(start + 1, end);
+    }
+
+    /**
+     * Sends the bytes read from now on to the given stream (none if null).
+     */
+    private void setSink(OutputStream sink) throws IOException {
+        flushCopied();
+        this.sink = sink;
+    }
+
+    private void flushCopied() throws IOException {
+        if (sink != null && position > copyStart) {
+            sink.write(buffer, copyStart, position - copyStart);
+        }
+        copyStart = position;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            flushCopied();
+            int n = in.read(buffer);
+            if (n <= 0) {
+                return -1;
+            }
+            position = 0;
+            limit = n;
+            copyStart = 0;
+        }
+        return buffer[position++] & 0xFF;
+    }
+}
@@ -1,6 +1,8 @@
 package ixa.kaflib;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -49,6 +51,7 @@ public class Opinion implements Serializable {
         private static final long serialVersionUID = -956906026133317235L;
         private String type;
         private Span<Term> span;
+        transient Opinion opinion;
         private final List<ExternalRef> externalReferences;
 
         OpinionHolder(final Span<Term> span) {
@@ -97,10 +100,12 @@ public class Opinion implements Serializable {
         }
 
         public void addTerm(final Term term) {
+            Opinion.changing(this.opinion);
             this.span.addTarget(term);
         }
 
         public void addTerm(final Term term, final boolean isHead) {
+            Opinion.changing(this.opinion);
             this.span.addTarget(term, isHead);
         }
 
@@ -109,6 +114,7 @@ public class Opinion implements Serializable {
         }
 
         public void setSpan(final Span<Term> span) {
+            Opinion.changing(this.opinion);
             this.span = span;
         }
 
@@ -165,6 +171,7 @@ public class Opinion implements Serializable {
          */
         private static final long serialVersionUID = -9128844215615857214L;
         private Span<Term> span;
+        transient Opinion opinion;
         private String type;
         private final List<ExternalRef> externalReferences;
 
@@ -214,10 +221,12 @@ public class Opinion implements Serializable {
         }
 
         public void addTerm(final Term term) {
+            Opinion.changing(this.opinion);
             this.span.addTarget(term);
         }
 
         public void addTerm(final Term term, final boolean isHead) {
+            Opinion.changing(this.opinion);
             this.span.addTarget(term, isHead);
         }
 
@@ -226,6 +235,7 @@ public class Opinion implements Serializable {
         }
 
         public void setSpan(final Span<Term> span) {
+            Opinion.changing(this.opinion);
             this.span = span;
         }
 
@@ -298,6 +308,7 @@ public class Opinion implements Serializable {
         private String sentimentProductFeature;
 
         private Span<Term> span;
+        transient Opinion opinion;
 
         private final List<ExternalRef> externalReferences;
 
@@ -401,10 +412,12 @@ public class Opinion implements Serializable {
         }
 
         public void addTerm(final Term term) {
+            Opinion.changing(this.opinion);
             this.span.addTarget(term);
         }
 
         public void addTerm(final Term term, final boolean isHead) {
+            Opinion.changing(this.opinion);
             this.span.addTarget(term, isHead);
         }
 
@@ -413,6 +426,7 @@ public class Opinion implements Serializable {
         }
 
         public void setSpan(final Span<Term> span) {
+            Opinion.changing(this.opinion);
             this.span = span;
         }
 
@@ -476,6 +490,9 @@ public class Opinion implements Serializable {
     private String label;
     private final List<ExternalRef> externalReferences;
 
+    /** Container of the opinion, whose indexes are dropped when the holder, target or expression change */
+    transient AnnotationContainer container;
+
     public String getLabel() {
         return this.label;
     }
@@ -493,12 +510,15 @@ public class Opinion implements Serializable {
         this.id = opinion.id;
         if (opinion.opinionHolder != null) {
             this.opinionHolder = new OpinionHolder(opinion.opinionHolder, terms);
+            this.opinionHolder.opinion = this;
         }
         if (opinion.opinionTarget != null) {
             this.opinionTarget = new OpinionTarget(opinion.opinionTarget, terms);
+            this.opinionTarget.opinion = this;
         }
         if (opinion.opinionExpression != null) {
             this.opinionExpression = new OpinionExpression(opinion.opinionExpression, terms);
+            this.opinionExpression.opinion = this;
         }
         this.externalReferences = new ArrayList<ExternalRef>();
         for (final ExternalRef externalRef : opinion.getExternalRefs()) {
@@ -522,8 +542,7 @@ public class Opinion implements Serializable {
         if (this.opinionExpression != null) {
             this.opinionExpression.setPolarity(polarity);
         } else if (polarity != null) {
-            this.opinionExpression = new Opinion.OpinionExpression(KAFDocument.newTermSpan());
-            this.opinionExpression.setPolarity(polarity);
+            createOpinionExpression(KAFDocument.newTermSpan()).setPolarity(polarity);
         }
     }
 
@@ -536,7 +555,7 @@ public class Opinion implements Serializable {
             this.opinionExpression.setSpan(expressionSpan != null ? expressionSpan //
                     : KAFDocument.newTermSpan());
         } else if (expressionSpan != null && !expressionSpan.isEmpty()) {
-            this.opinionExpression = new Opinion.OpinionExpression(expressionSpan);
+            createOpinionExpression(expressionSpan);
         }
     }
 
@@ -546,9 +565,9 @@ public class Opinion implements Serializable {
 
     public void setHolderSpan(final Span<Term> holderSpan) {
         if (holderSpan == null || holderSpan.isEmpty()) {
-            this.opinionHolder = null;
+            removeOpinionHolder();
         } else if (this.opinionHolder == null) {
-            this.opinionHolder = new Opinion.OpinionHolder(holderSpan);
+            createOpinionHolder(holderSpan);
         } else {
             this.opinionHolder.setSpan(holderSpan);
         }
@@ -560,9 +579,9 @@ public class Opinion implements Serializable {
 
     public void setTargetSpan(final Span<Term> targetSpan) {
         if (targetSpan == null || targetSpan.isEmpty()) {
-            this.opinionTarget = null;
+            removeOpinionTarget();
         } else if (this.opinionTarget == null) {
-            this.opinionTarget = new Opinion.OpinionTarget(targetSpan);
+            createOpinionTarget(targetSpan);
         } else {
             this.opinionTarget.setSpan(targetSpan);
         }
@@ -581,38 +600,85 @@ public class Opinion implements Serializable {
     }
 
     public OpinionHolder createOpinionHolder(final Span<Term> span) {
+        changing(this);
+        detach(this.opinionHolder);
         this.opinionHolder = new Opinion.OpinionHolder(span);
+        this.opinionHolder.opinion = this;
         return this.opinionHolder;
     }
 
     public OpinionTarget createOpinionTarget(final Span<Term> span) {
+        changing(this);
+        detach(this.opinionTarget);
         this.opinionTarget = new Opinion.OpinionTarget(span);
+        this.opinionTarget.opinion = this;
         return this.opinionTarget;
     }
 
     public OpinionExpression createOpinionExpression(final Span<Term> span) {
+        changing(this);
+        detach(this.opinionExpression);
         this.opinionExpression = new Opinion.OpinionExpression(span);
+        this.opinionExpression.opinion = this;
         return this.opinionExpression;
     }
 
     public OpinionHolder removeOpinionHolder() {
+        changing(this);
         final OpinionHolder result = this.opinionHolder;
+        detach(result);
         this.opinionHolder = null;
         return result;
     }
 
     public OpinionTarget removeOpinionTarget() {
+        changing(this);
         final OpinionTarget result = this.opinionTarget;
+        detach(result);
         this.opinionTarget = null;
         return result;
     }
 
     public OpinionExpression removeOpinionExpression() {
+        changing(this);
         final OpinionExpression result = this.opinionExpression;
+        detach(result);
         this.opinionExpression = null;
         return result;
     }
 
+    /**
+     * Notifies the container of an opinion, if any, that its holder, target or expression are going to change.
+     */
+    private static void changing(@Nullable final Opinion opinion) {
+        if (opinion != null && opinion.container != null) {
+            opinion.container.changing(opinion);
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.opinionHolder != null) {
+            this.opinionHolder.opinion = this;
+        }
+        if (this.opinionTarget != null) {
+            this.opinionTarget.opinion = this;
+        }
+        if (this.opinionExpression != null) {
+            this.opinionExpression.opinion = this;
+        }
+    }
+
+    private static void detach(@Nullable final Object part) {
+        if (part instanceof OpinionHolder) {
+            ((OpinionHolder) part).opinion = null;
+        } else if (part instanceof OpinionTarget) {
+            ((OpinionTarget) part).opinion = null;
+        } else if (part instanceof OpinionExpression) {
+            ((OpinionExpression) part).opinion = null;
+        }
+    }
+
     public String getSpanStr(final Span<Term> span) {
         String str = "";
         for (final Term term : span.getTargets()) {
@@ -0,0 +1,96 @@
+package ixa.kaflib;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Keeps the position of each element of a list (the word forms or the terms of a document), so that it can be
+ * found in constant time instead of with {@link List#indexOf(Object)}.
+ * <p>
+ * Positions are updated incrementally when elements are appended; insertions and removals only mark the positions
+ * after them as stale, and those are recomputed at the next lookup. As the list is also exposed to the users of
+ * the library, each position is checked against the list before being returned, and the index is rebuilt if the
+ * list was changed behind its back.
+ */
+class PositionIndex<T> implements Serializable {
+
+    private final List<T> list;
+
+    private transient IdentityHashMap<T, Integer> positions;
+
+    /**
+     * Positions of the elements before this index are up to date
+     */
+    private transient int valid;
+
+    PositionIndex(List<T> list) {
+        this.list = list;
+    }
+
+    /**
+     * Returns the position of an element in the list, or -1 if it is not in the list.
+     */
+    int indexOf(T element) {
+        if (positions == null) {
+            positions = new IdentityHashMap<T, Integer>(Math.max(16, list.size() * 4 / 3));
+            valid = 0;
+        }
+        Integer position = positions.get(element);
+        if (position != null && position < list.size() && list.get(position) == element) {
+            return position;
+        }
+        if (valid < list.size()) {
+            update(valid);
+            position = positions.get(element);
+            if (position != null && position < list.size() && list.get(position) == element) {
+                return position;
+            }
+        }
+        // Either not in the list, or the list was modified directly
+        int index = list.indexOf(element);
+        if (index >= 0 || position != null) {
+            positions.clear();
+            update(0);
+        }
+        return index;
+    }
+
+    /**
+     * Records that an element has been inserted at the given position of the list.
+     */
+    void added(int index) {
+        if (positions == null) {
+            return;
+        }
+        if (index == valid && index == list.size() - 1) {
+            positions.put(list.get(index), index);
+            valid = index + 1;
+        } else {
+            valid = Math.min(valid, index);
+        }
+    }
+
+    /**
+     * Records that an element has been removed from the given position of the list.
+     */
+    void removed(T element, int index) {
+        if (positions == null) {
+            return;
+        }
+        positions.remove(element);
+        valid = Math.min(valid, index);
+    }
+
+    void cleared() {
+        positions = null;
+    }
+
+    private void update(int from) {
+        for (int i = from; i < list.size(); ++i) {
+            positions.put(list.get(i), i);
+        }
+        valid = list.size();
+    }
+
+}
@@ -1,11 +1,16 @@
 package ixa.kaflib;
 
 import org.jdom2.*;
-import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.Format;
 import org.jdom2.output.LineSeparator;
-import org.jdom2.output.XMLOutputter;
-
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.util.NamespaceStack;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -16,27 +21,190 @@ import java.util.regex.Pattern;
 
 /**
  * Reads XML files in KAF format and loads the content in a KAFDocument object, and writes the content into XML files.
+ * Both reading and writing are streamed: the DOM of the whole document is never built, only the one of the layer (or
+ * of the layer element) being converted.
  */
 class ReadWriteManager {
 
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // Keep CDATA sections apart from text, as SAXBuilder does (supported by the JDK implementation only)
+        try {
+            XML_INPUT_FACTORY.setProperty("http://java.sun.com/xml/stream/properties/report-cdata-event", true);
+        } catch (IllegalArgumentException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Layers whose child elements can be loaded independently of each other, in document order.
+     */
+    private static final Set<String> STREAMED_LAYERS = new HashSet<String>(Arrays.asList("text", "terms",
+            "markables", "deps", "chunks", "entities", "coreferences", "timeExpressions", "temporalRelations",
+            "causalRelations", "opinions", "relations", "srl", "factualitylayer", "linkedEntities", "SSTspans",
+            "topics"));
+
+    /**
+     * Layers stored in each element; the features element contains both properties and categories, while the
+     * constituency layer is stored in both the constituency and constituencyStrings elements.
+     */
+    private static final Map<String, EnumSet<KAFDocument.Layer>> LAYER_ELEMENTS;
+
+    /**
+     * Layers whose elements refer to the ones of each layer (only direct dependencies).
+     */
+    private static final Map<KAFDocument.Layer, EnumSet<KAFDocument.Layer>> LAYER_DEPENDENCIES;
+
+    static {
+        Map<String, EnumSet<KAFDocument.Layer>> elements = new HashMap<String, EnumSet<KAFDocument.Layer>>();
+        for (KAFDocument.Layer layer : KAFDocument.Layer.values()) {
+            elements.put(layer.name(), EnumSet.of(layer));
+        }
+        elements.remove(KAFDocument.Layer.unknown.name());
+        elements.remove(KAFDocument.Layer.marks.name());
+        elements.remove(KAFDocument.Layer.factuality.name());
+        elements.remove(KAFDocument.Layer.properties.name());
+        elements.remove(KAFDocument.Layer.categories.name());
+        elements.put("markables", EnumSet.of(KAFDocument.Layer.marks));
+        elements.put("factualitylayer", EnumSet.of(KAFDocument.Layer.factuality));
+        elements.put("features", EnumSet.of(KAFDocument.Layer.properties, KAFDocument.Layer.categories));
+        elements.put("constituencyStrings", EnumSet.of(KAFDocument.Layer.constituency));
+        LAYER_ELEMENTS = elements;
+
+        Map<KAFDocument.Layer, EnumSet<KAFDocument.Layer>> dependencies =
+                new EnumMap<KAFDocument.Layer, EnumSet<KAFDocument.Layer>>(KAFDocument.Layer.class);
+        for (KAFDocument.Layer layer : KAFDocument.Layer.values()) {
+            dependencies.put(layer, EnumSet.of(KAFDocument.Layer.terms));
+        }
+        dependencies.put(KAFDocument.Layer.text, EnumSet.noneOf(KAFDocument.Layer.class));
+        dependencies.put(KAFDocument.Layer.topics, EnumSet.noneOf(KAFDocument.Layer.class));
+        dependencies.put(KAFDocument.Layer.terms, EnumSet.of(KAFDocument.Layer.text));
+        dependencies.put(KAFDocument.Layer.timeExpressions, EnumSet.of(KAFDocument.Layer.text));
+        dependencies.put(KAFDocument.Layer.factuality, EnumSet.of(KAFDocument.Layer.text));
+        dependencies.put(KAFDocument.Layer.linkedEntities, EnumSet.of(KAFDocument.Layer.text));
+        dependencies.put(KAFDocument.Layer.temporalRelations,
+                EnumSet.of(KAFDocument.Layer.timeExpressions, KAFDocument.Layer.srl));
+        dependencies.put(KAFDocument.Layer.causalRelations, EnumSet.of(KAFDocument.Layer.srl));
+        dependencies.put(KAFDocument.Layer.relations, EnumSet.of(KAFDocument.Layer.entities,
+                KAFDocument.Layer.properties, KAFDocument.Layer.categories));
+        // properties and categories share the features element
+        dependencies.put(KAFDocument.Layer.properties,
+                EnumSet.of(KAFDocument.Layer.terms, KAFDocument.Layer.categories));
+        dependencies.put(KAFDocument.Layer.categories,
+                EnumSet.of(KAFDocument.Layer.terms, KAFDocument.Layer.properties));
+        dependencies.put(KAFDocument.Layer.unknown, EnumSet.noneOf(KAFDocument.Layer.class));
+        LAYER_DEPENDENCIES = dependencies;
+    }
+
     /**
      * Loads the content of a KAF file into the given KAFDocument object
      */
     static KAFDocument load(File file) throws IOException, JDOMException, KAFNotValidException {
-        SAXBuilder builder = new SAXBuilder();
-        Document document = (Document) builder.build(file);
-        Element rootElem = document.getRootElement();
-        return DOMToKAF(document);
+        return load(file, null);
+    }
+
+    /**
+     * Loads the given layers (null for all) of a KAF file, and the layers they depend on
+     */
+    static KAFDocument load(File file, Set<KAFDocument.Layer> layers)
+            throws IOException, JDOMException, KAFNotValidException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return load(stream, file.toURI().toString(), layers);
+        }
+    }
+
+    /**
+     * Loads the content of a stream in KAF format, detecting its encoding, into the given KAFDocument object
+     */
+    static KAFDocument load(InputStream stream, String systemId)
+            throws IOException, JDOMException, KAFNotValidException {
+        return load(stream, systemId, null);
+    }
+
+    static KAFDocument load(InputStream stream, String systemId, Set<KAFDocument.Layer> layers)
+            throws IOException, JDOMException, KAFNotValidException {
+        if (stream.markSupported() && BinaryFormat.isBinary(stream)) {
+            return loadBinary(stream, layers);
+        }
+        try {
+            return load(XML_INPUT_FACTORY.createXMLStreamReader(systemId, stream), layers);
+        } catch (XMLStreamException e) {
+            throw new JDOMException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the given layers (null for all) of a stream in the binary format of {@link BinaryFormat}, and the layers
+     * they depend on
+     */
+    static KAFDocument loadBinary(InputStream stream, Set<KAFDocument.Layer> layers)
+            throws IOException, KAFNotValidException {
+        if (layers != null) {
+            layers = withRequiredLayers(layers);
+        }
+        BinaryFormat.Reader reader = new BinaryFormat.Reader(stream);
+        Indexes indexes = new Indexes();
+
+        Element rootElem = reader.readRoot();
+        String lang = getAttribute("lang", rootElem, Namespace.XML_NAMESPACE);
+        String kafVersion = getAttribute("version", rootElem);
+        KAFDocument kaf = new KAFDocument(lang, kafVersion);
+
+        String name;
+        while ((name = reader.nextLayer()) != null) {
+            if (layers != null && !isSelected(name, layers)) {
+                reader.skipLayer();
+            } else if (STREAMED_LAYERS.contains(name)) {
+                Element elem = reader.readShallowLayer();
+                Content content;
+                while ((content = reader.readLayerContent()) != null) {
+                    if (content instanceof Element) {
+                        elem.addContent(content);
+                        DOMToLayer(elem, kaf, indexes);
+                        elem.removeContent();
+                    }
+                }
+            } else {
+                DOMToLayer(reader.readLayer(), kaf, indexes);
+            }
+        }
+
+        return kaf;
     }
 
     /**
      * Loads the content of a String in KAF format into the given KAFDocument object
      */
     static KAFDocument load(Reader stream) throws IOException, JDOMException, KAFNotValidException {
-        SAXBuilder builder = new SAXBuilder();
-        Document document = (Document) builder.build(stream);
-        Element rootElem = document.getRootElement();
-        return DOMToKAF(document);
+        return load(stream, null);
+    }
+
+    static KAFDocument load(Reader stream, Set<KAFDocument.Layer> layers)
+            throws IOException, JDOMException, KAFNotValidException {
+        try {
+            return load(XML_INPUT_FACTORY.createXMLStreamReader(stream), layers);
+        } catch (XMLStreamException e) {
+            throw new JDOMException(e.getMessage(), e);
+        }
+    }
+
+    private static KAFDocument load(XMLStreamReader reader, Set<KAFDocument.Layer> layers)
+            throws IOException, JDOMException, KAFNotValidException {
+        try {
+            return StAXToKAF(reader, layers == null ? null : withRequiredLayers(layers));
+        } catch (XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                throw (IOException) e.getNestedException();
+            }
+            throw new JDOMException(e.getMessage(), e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // ignore
+            }
+        }
     }
 
     /**
@@ -53,7 +221,7 @@ class ReadWriteManager {
     static void save(KAFDocument kaf, File file) {
         try {
             Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF8"));
-            out.write(kafToStr(kaf));
+            write(kaf, out);
             out.flush();
             out.close();
         } catch (Exception e) {
@@ -67,7 +235,7 @@ class ReadWriteManager {
     static void print(KAFDocument kaf) {
         try {
             Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF8"));
-            out.write(kafToStr(kaf));
+            write(kaf, out);
             out.flush();
         } catch (Exception e) {
             e.printStackTrace();
@@ -78,258 +246,538 @@ class ReadWriteManager {
      * Returns a string containing the XML content of a KAFDocument object.
      */
     static String kafToStr(KAFDocument kaf) {
-        XMLOutputter out = new XMLOutputter(Format.getPrettyFormat().setLineSeparator(LineSeparator.UNIX));
-//		out.getFormat().setTextMode(Format.TextMode.PRESERVE);
-        Document jdom = KAFToDOM(kaf);
-        return out.outputString(jdom);
+        StringWriter out = new StringWriter();
+        try {
+            write(kaf, out);
+        } catch (IOException e) {
+            // not thrown by StringWriter
+            throw new Error(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the XML content of a KAFDocument object to a writer, one layer at a time. The writer is not closed.
+     */
+    static void write(KAFDocument kaf, Writer out) throws IOException {
+        Format format = Format.getPrettyFormat().setLineSeparator(LineSeparator.UNIX);
+//		format.setTextMode(Format.TextMode.PRESERVE);
+        LayerWriter writer = new LayerWriter(out, format);
+        KAFToDOM(kaf, null, writer);
+        out.flush();
+    }
+
+    /**
+     * Writes the content of a KAFDocument object to a stream in the binary format of {@link BinaryFormat}, one layer
+     * at a time. The stream is not closed.
+     */
+    static void writeBinary(KAFDocument kaf, OutputStream out) throws IOException {
+        KAFToDOM(kaf, null, new BinaryFormat.Writer(out));
     }
 
     /**
-     * Loads a KAFDocument object from XML content in DOM format
+     * Copies a NAF document from a stream to another, replacing its header and the elements of the given layers
+     * with the ones of a KAFDocument object; the other layers are copied as they are, without parsing them. The
+     * streams are not closed.
      */
-    private static KAFDocument DOMToKAF(Document dom) throws KAFNotValidException {
-        HashMap<String, WF> wfIndex = new HashMap<String, WF>();
-        HashMap<String, Term> termIndex = new HashMap<String, Term>();
-        HashMap<String, Relational> relationalIndex = new HashMap<String, Relational>();
-        HashMap<String, Timex3> timexIndex = new HashMap<String, Timex3>();
-        HashMap<String, Predicate> predicateIndex = new HashMap<String, Predicate>();
-
-        Element rootElem = dom.getRootElement();
+    static void writeLayers(KAFDocument kaf, Set<KAFDocument.Layer> layers, InputStream in, OutputStream out)
+            throws IOException {
+        if (layers.contains(KAFDocument.Layer.unknown)) {
+            throw new IllegalArgumentException("Layers unknown to the library cannot be written");
+        }
+        if (in.markSupported() && BinaryFormat.isBinary(in)) {
+            throw new IOException("Layers can only be written into NAF files in XML format");
+        }
+        // an element is replaced as a whole, so all the layers it contains are written (e.g. features)
+        Set<String> replaced = new HashSet<String>(Arrays.asList("nafHeader", "kafHeader"));
+        EnumSet<KAFDocument.Layer> written = EnumSet.noneOf(KAFDocument.Layer.class);
+        for (Map.Entry<String, EnumSet<KAFDocument.Layer>> entry : LAYER_ELEMENTS.entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), layers)) {
+                replaced.add(entry.getKey());
+                written.addAll(entry.getValue());
+            }
+        }
+        Format format = Format.getPrettyFormat().setLineSeparator(LineSeparator.UNIX);
+        KAFToDOM(kaf, written, new LayerSplicer(in, out, replaced, format));
+    }
+
+    /**
+     * Loads a KAFDocument object from a StAX stream, without building the DOM of the whole document. The layers
+     * made of independent elements (word forms, terms, dependencies, ...) are converted one element at a time;
+     * the header, the raw text, the other layers and the layers unknown to the library are read as a whole.
+     */
+    private static KAFDocument StAXToKAF(XMLStreamReader reader, Set<KAFDocument.Layer> layers)
+            throws XMLStreamException, KAFNotValidException {
+        Indexes indexes = new Indexes();
+
+        while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip prolog
+        }
+        Element rootElem = readShallowElement(reader);
         String lang = getAttribute("lang", rootElem, Namespace.XML_NAMESPACE);
         String kafVersion = getAttribute("version", rootElem);
         KAFDocument kaf = new KAFDocument(lang, kafVersion);
 
-        List<Element> rootChildrenElems = rootElem.getChildren();
-        for (Element elem : rootChildrenElems) {
-            if (elem.getName().equals("nafHeader") || elem.getName().equals("kafHeader")) {
-                List<Element> lpsElems = elem.getChildren("linguisticProcessors");
-                for (Element lpsElem : lpsElems) {
-                    String layer = getAttribute("layer", lpsElem);
-                    List<Element> lpElems = lpsElem.getChildren();
-                    for (Element lpElem : lpElems) {
-                        String name = getAttribute("name", lpElem);
-                        LinguisticProcessor newLp = kaf.addLinguisticProcessor(layer, name);
-                        String timestamp = getOptAttribute("timestamp", lpElem);
-                        if (timestamp != null) {
-                            newLp.setTimestamp(timestamp);
-                        }
-                        String beginTimestamp = getOptAttribute("beginTimestamp", lpElem);
-                        if (beginTimestamp != null) {
-                            newLp.setBeginTimestamp(beginTimestamp);
-                        }
-                        String endTimestamp = getOptAttribute("endTimestamp", lpElem);
-                        if (endTimestamp != null) {
-                            newLp.setEndTimestamp(endTimestamp);
-                        }
-                        String version = getOptAttribute("version", lpElem);
-                        if (version != null) {
-                            newLp.setVersion(version);
-                        }
+        while (nextChildElement(reader)) {
+            if (layers != null && !isSelected(reader.getLocalName(), layers)) {
+                skipElement(reader);
+            } else if (STREAMED_LAYERS.contains(reader.getLocalName())) {
+                Element elem = readShallowElement(reader);
+                while (nextChildElement(reader)) {
+                    elem.addContent(readElement(reader));
+                    DOMToLayer(elem, kaf, indexes);
+                    elem.removeContent();
+                }
+            } else {
+                DOMToLayer(readElement(reader), kaf, indexes);
+            }
+        }
+
+        return kaf;
+    }
+
+    /**
+     * Loads a layer from XML content in DOM format
+     */
+    private static void DOMToLayer(Element elem, KAFDocument kaf, Indexes indexes) throws KAFNotValidException {
+        HashMap<String, WF> wfIndex = indexes.wfIndex;
+        HashMap<String, Term> termIndex = indexes.termIndex;
+        HashMap<String, Relational> relationalIndex = indexes.relationalIndex;
+        HashMap<String, Timex3> timexIndex = indexes.timexIndex;
+        HashMap<String, Predicate> predicateIndex = indexes.predicateIndex;
+
+        if (elem.getName().equals("nafHeader") || elem.getName().equals("kafHeader")) {
+            List<Element> lpsElems = elem.getChildren("linguisticProcessors");
+            for (Element lpsElem : lpsElems) {
+                String layer = getAttribute("layer", lpsElem);
+                List<Element> lpElems = lpsElem.getChildren();
+                for (Element lpElem : lpElems) {
+                    String name = getAttribute("name", lpElem);
+                    LinguisticProcessor newLp = kaf.addLinguisticProcessor(layer, name);
+                    String timestamp = getOptAttribute("timestamp", lpElem);
+                    if (timestamp != null) {
+                        newLp.setTimestamp(timestamp);
+                    }
+                    String beginTimestamp = getOptAttribute("beginTimestamp", lpElem);
+                    if (beginTimestamp != null) {
+                        newLp.setBeginTimestamp(beginTimestamp);
+                    }
+                    String endTimestamp = getOptAttribute("endTimestamp", lpElem);
+                    if (endTimestamp != null) {
+                        newLp.setEndTimestamp(endTimestamp);
+                    }
+                    String version = getOptAttribute("version", lpElem);
+                    if (version != null) {
+                        newLp.setVersion(version);
                     }
                 }
-                Element fileDescElem = elem.getChild("fileDesc");
-                if (fileDescElem != null) {
-                    KAFDocument.FileDesc fd = kaf.createFileDesc();
-                    String author = getOptAttribute("author", fileDescElem);
-                    if (author != null) {
-                        fd.author = author;
-                    }
-                    String title = getOptAttribute("title", fileDescElem);
-                    if (title != null) {
-                        fd.title = title;
-                    }
-                    String filename = getOptAttribute("filename", fileDescElem);
-                    if (filename != null) {
-                        fd.filename = filename;
-                    }
-                    String filetype = getOptAttribute("filetype", fileDescElem);
-                    if (filetype != null) {
-                        fd.filetype = filetype;
-                    }
-                    String pages = getOptAttribute("pages", fileDescElem);
-                    if (pages != null) {
-                        fd.pages = Integer.parseInt(pages);
-                    }
-                    String creationtime = getOptAttribute("creationtime", fileDescElem);
-                    if (creationtime != null) {
-                        fd.creationtime = creationtime;
-                    }
-                }
-                Element publicElem = elem.getChild("public");
-                if (publicElem != null) {
-                    KAFDocument.Public pub = kaf.createPublic();
-                    String publicId = getOptAttribute("publicId", publicElem);
-                    if (publicId != null) {
-                        pub.publicId = publicId;
-                    }
-                    String uri = getOptAttribute("uri", publicElem);
-                    if (uri != null) {
-                        pub.uri = uri;
-                    }
-                }
-            } else if (elem.getName().equals("raw")) {
-                kaf.setRawText(elem.getText());
-            } else if (elem.getName().equals("text")) {
-                List<Element> wfElems = elem.getChildren();
-                for (Element wfElem : wfElems) {
-                    String wid;
-                    try {
-                        wid = getAttribute("id", wfElem);
-                    } catch (Exception e) {
-                        wid = getAttribute("wid", wfElem);
-                    }
-                    String wForm = wfElem.getText();
-                    String wSent = getAttribute("sent", wfElem);
-                    WF newWf = kaf.newWF(wid, wForm, Integer.valueOf(wSent));
-                    String wPara = getOptAttribute("para", wfElem);
-                    if (wPara != null) {
-                        newWf.setPara(Integer.valueOf(wPara));
-                    }
-                    String wPage = getOptAttribute("page", wfElem);
-                    if (wPage != null) {
-                        newWf.setPage(Integer.valueOf(wPage));
-                    }
-                    String wOffset = getOptAttribute("offset", wfElem);
-                    if (wOffset != null) {
-                        newWf.setOffset(Integer.valueOf(wOffset));
-                    }
-                    String wLength = getOptAttribute("length", wfElem);
-                    if (wLength != null) {
-                        newWf.setLength(Integer.valueOf(wLength));
-                    }
-                    String wXpath = getOptAttribute("xpath", wfElem);
-                    if (wXpath != null) {
-                        newWf.setXpath(wXpath);
-                    }
-                    wfIndex.put(newWf.getId(), newWf);
-                }
-            } else if (elem.getName().equals("terms")) {
-                List<Element> termElems = elem.getChildren();
-                for (Element termElem : termElems) {
-                    DOMToTerm(termElem, kaf, false, wfIndex, termIndex);
-                }
-            } else if (elem.getName().equals("markables")) {
-                String source = getAttribute("source", elem);
-                List<Element> markElems = elem.getChildren();
-                for (Element markElem : markElems) {
-                    String sid = getAttribute("id", markElem);
-                    Element spanElem = markElem.getChild("span");
-                    if (spanElem == null) {
-                        throw new IllegalStateException("Every mark must contain a span element");
-                    }
-                    List<Element> marksTermElems = spanElem.getChildren("target");
-                    Span<Term> span = kaf.newTermSpan();
-                    for (Element marksTermElem : marksTermElems) {
-                        String termId = getAttribute("id", marksTermElem);
-                        boolean isHead = isHead(marksTermElem);
-                        Term term = termIndex.get(termId);
-                        if (term == null) {
-                            throw new KAFNotValidException("Term " + termId + " not found when loading mark " + sid);
-                        }
-                        span.addTarget(term, isHead);
-                    }
-                    Mark newMark = kaf.newMark(sid, source, span);
-                    String type = getOptAttribute("type", markElem);
-                    if (type != null) {
-                        newMark.setType(type);
-                    }
-                    String lemma = getOptAttribute("lemma", markElem);
-                    if (lemma != null) {
-                        newMark.setLemma(lemma);
-                    }
-                    String pos = getOptAttribute("pos", markElem);
-                    if (pos != null) {
-                        newMark.setPos(pos);
-                    }
-                    String tMorphofeat = getOptAttribute("morphofeat", markElem);
-                    if (tMorphofeat != null) {
-                        newMark.setMorphofeat(tMorphofeat);
-                    }
-                    String markcase = getOptAttribute("case", markElem);
-                    if (markcase != null) {
-                        newMark.setCase(markcase);
-                    }
-                    List<Element> externalReferencesElems = markElem.getChildren("externalReferences");
-                    if (externalReferencesElems.size() > 0) {
-                        List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
-                        newMark.addExternalRefs(externalRefs);
-                    }
+            }
+            Element fileDescElem = elem.getChild("fileDesc");
+            if (fileDescElem != null) {
+                KAFDocument.FileDesc fd = kaf.createFileDesc();
+                String author = getOptAttribute("author", fileDescElem);
+                if (author != null) {
+                    fd.author = author;
+                }
+                String title = getOptAttribute("title", fileDescElem);
+                if (title != null) {
+                    fd.title = title;
+                }
+                String filename = getOptAttribute("filename", fileDescElem);
+                if (filename != null) {
+                    fd.filename = filename;
+                }
+                String filetype = getOptAttribute("filetype", fileDescElem);
+                if (filetype != null) {
+                    fd.filetype = filetype;
+                }
+                String pages = getOptAttribute("pages", fileDescElem);
+                if (pages != null) {
+                    fd.pages = Integer.parseInt(pages);
+                }
+                String creationtime = getOptAttribute("creationtime", fileDescElem);
+                if (creationtime != null) {
+                    fd.creationtime = creationtime;
+                }
+            }
+            Element publicElem = elem.getChild("public");
+            if (publicElem != null) {
+                KAFDocument.Public pub = kaf.createPublic();
+                String publicId = getOptAttribute("publicId", publicElem);
+                if (publicId != null) {
+                    pub.publicId = publicId;
+                }
+                String uri = getOptAttribute("uri", publicElem);
+                if (uri != null) {
+                    pub.uri = uri;
+                }
+            }
+        } else if (elem.getName().equals("raw")) {
+            kaf.setRawText(elem.getText());
+        } else if (elem.getName().equals("text")) {
+            List<Element> wfElems = elem.getChildren();
+            for (Element wfElem : wfElems) {
+                String wid;
+                try {
+                    wid = getAttribute("id", wfElem);
+                } catch (Exception e) {
+                    wid = getAttribute("wid", wfElem);
+                }
+                String wForm = wfElem.getText();
+                String wSent = getAttribute("sent", wfElem);
+                WF newWf = kaf.newWF(wid, wForm, Integer.valueOf(wSent));
+                String wPara = getOptAttribute("para", wfElem);
+                if (wPara != null) {
+                    newWf.setPara(Integer.valueOf(wPara));
+                }
+                String wPage = getOptAttribute("page", wfElem);
+                if (wPage != null) {
+                    newWf.setPage(Integer.valueOf(wPage));
+                }
+                String wOffset = getOptAttribute("offset", wfElem);
+                if (wOffset != null) {
+                    newWf.setOffset(Integer.valueOf(wOffset));
+                }
+                String wLength = getOptAttribute("length", wfElem);
+                if (wLength != null) {
+                    newWf.setLength(Integer.valueOf(wLength));
+                }
+                String wXpath = getOptAttribute("xpath", wfElem);
+                if (wXpath != null) {
+                    newWf.setXpath(wXpath);
+                }
+                wfIndex.put(newWf.getId(), newWf);
+            }
+        } else if (elem.getName().equals("terms")) {
+            List<Element> termElems = elem.getChildren();
+            for (Element termElem : termElems) {
+                DOMToTerm(termElem, kaf, false, wfIndex, termIndex);
+            }
+        } else if (elem.getName().equals("markables")) {
+            String source = getAttribute("source", elem);
+            List<Element> markElems = elem.getChildren();
+            for (Element markElem : markElems) {
+                String sid = getAttribute("id", markElem);
+                Element spanElem = markElem.getChild("span");
+                if (spanElem == null) {
+                    throw new IllegalStateException("Every mark must contain a span element");
+                }
+                List<Element> marksTermElems = spanElem.getChildren("target");
+                Span<Term> span = kaf.newTermSpan();
+                for (Element marksTermElem : marksTermElems) {
+                    String termId = getAttribute("id", marksTermElem);
+                    boolean isHead = isHead(marksTermElem);
+                    Term term = termIndex.get(termId);
+                    if (term == null) {
+                        throw new KAFNotValidException("Term " + termId + " not found when loading mark " + sid);
+                    }
+                    span.addTarget(term, isHead);
+                }
+                Mark newMark = kaf.newMark(sid, source, span);
+                String type = getOptAttribute("type", markElem);
+                if (type != null) {
+                    newMark.setType(type);
+                }
+                String lemma = getOptAttribute("lemma", markElem);
+                if (lemma != null) {
+                    newMark.setLemma(lemma);
+                }
+                String pos = getOptAttribute("pos", markElem);
+                if (pos != null) {
+                    newMark.setPos(pos);
+                }
+                String tMorphofeat = getOptAttribute("morphofeat", markElem);
+                if (tMorphofeat != null) {
+                    newMark.setMorphofeat(tMorphofeat);
+                }
+                String markcase = getOptAttribute("case", markElem);
+                if (markcase != null) {
+                    newMark.setCase(markcase);
+                }
+                List<Element> externalReferencesElems = markElem.getChildren("externalReferences");
+                if (externalReferencesElems.size() > 0) {
+                    List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
+                    newMark.addExternalRefs(externalRefs);
+                }
 
+            }
+        } else if (elem.getName().equals("deps")) {
+            List<Element> depElems = elem.getChildren();
+            for (Element depElem : depElems) {
+                String fromId = getAttribute("from", depElem);
+                String toId = getAttribute("to", depElem);
+                Term from = termIndex.get(fromId);
+                if (from == null) {
+                    throw new KAFNotValidException(
+                            "Term " + fromId + " not found when loading Dep (" + fromId + ", " + toId + ")");
+                }
+                Term to = termIndex.get(toId);
+                if (to == null) {
+                    throw new KAFNotValidException(
+                            "Term " + toId + " not found when loading Dep (" + fromId + ", " + toId + ")");
+                }
+                String rfunc = getAttribute("rfunc", depElem);
+                Dep newDep = kaf.newDep(from, to, rfunc);
+                String depcase = getOptAttribute("case", depElem);
+                if (depcase != null) {
+                    newDep.setCase(depcase);
                 }
-            } else if (elem.getName().equals("deps")) {
-                List<Element> depElems = elem.getChildren();
-                for (Element depElem : depElems) {
-                    String fromId = getAttribute("from", depElem);
-                    String toId = getAttribute("to", depElem);
-                    Term from = termIndex.get(fromId);
-                    if (from == null) {
-                        throw new KAFNotValidException(
-                                "Term " + fromId + " not found when loading Dep (" + fromId + ", " + toId + ")");
-                    }
-                    Term to = termIndex.get(toId);
-                    if (to == null) {
-                        throw new KAFNotValidException(
-                                "Term " + toId + " not found when loading Dep (" + fromId + ", " + toId + ")");
-                    }
-                    String rfunc = getAttribute("rfunc", depElem);
-                    Dep newDep = kaf.newDep(from, to, rfunc);
-                    String depcase = getOptAttribute("case", depElem);
-                    if (depcase != null) {
-                        newDep.setCase(depcase);
-                    }
-                }
-            } else if (elem.getName().equals("chunks")) {
-                //System.out.println("chunks");
-                List<Element> chunkElems = elem.getChildren();
-                for (Element chunkElem : chunkElems) {
-                    String chunkId = getAttribute("id", chunkElem);
-                    String headId = getAttribute("head", chunkElem);
-                    Term chunkHead = termIndex.get(headId);
-                    if (chunkHead == null) {
-                        throw new KAFNotValidException(
-                                "Term " + headId + " not found when loading chunk " + chunkId + " (head not found)");
+            }
+        } else if (elem.getName().equals("chunks")) {
+            //System.out.println("chunks");
+            List<Element> chunkElems = elem.getChildren();
+            for (Element chunkElem : chunkElems) {
+                String chunkId = getAttribute("id", chunkElem);
+                String headId = getAttribute("head", chunkElem);
+                Term chunkHead = termIndex.get(headId);
+                if (chunkHead == null) {
+                    throw new KAFNotValidException(
+                            "Term " + headId + " not found when loading chunk " + chunkId + " (head not found)");
+                }
+                Element spanElem = chunkElem.getChild("span");
+                if (spanElem == null) {
+                    throw new IllegalStateException("Every chunk must contain a span element");
+                }
+                List<Element> chunksTermElems = spanElem.getChildren("target");
+                Span<Term> span = kaf.newTermSpan();
+                for (Element chunksTermElem : chunksTermElems) {
+                    String termId = getAttribute("id", chunksTermElem);
+                    boolean isHead = isHead(chunksTermElem);
+                    Term targetTerm = termIndex.get(termId);
+                    if (targetTerm == null) {
+                        throw new KAFNotValidException("Term " + termId + " not found when loading chunk " + chunkId
+                                + " (target term not found)");
+                    }
+                    span.addTarget(targetTerm, ((targetTerm == chunkHead) || isHead));
+                }
+                if (!span.hasTarget(chunkHead)) {
+                    throw new KAFNotValidException("The head of the chunk is not in it's span.");
+                }
+                Chunk newChunk = kaf.newChunk(chunkId, span);
+                String chunkPhrase = getOptAttribute("phrase", chunkElem);
+                if (chunkPhrase != null) {
+                    newChunk.setPhrase(chunkPhrase);
+                }
+                String chunkCase = getOptAttribute("case", chunkElem);
+                if (chunkCase != null) {
+                    newChunk.setCase(chunkCase);
+                }
+            }
+        } else if (elem.getName().equals("entities")) {
+            List<Element> entityElems = elem.getChildren();
+            for (Element entityElem : entityElems) {
+                String entId = getAttribute("id", entityElem);
+                List<Element> referencesElem = entityElem.getChildren("references");
+                if (referencesElem.size() < 1) {
+                    throw new IllegalStateException("Every entity must contain a 'references' element");
+                }
+                List<Element> spanElems = referencesElem.get(0).getChildren();
+                if (spanElems.size() < 1) {
+                    throw new IllegalStateException(
+                            "Every entity must contain a 'span' element inside 'references'");
+                }
+                List<Span<Term>> references = new ArrayList<Span<Term>>();
+                for (Element spanElem : spanElems) {
+                    Span<Term> span = kaf.newTermSpan();
+                    List<Element> targetElems = spanElem.getChildren();
+                    if (targetElems.size() < 1) {
+                        throw new IllegalStateException(
+                                "Every span in an entity must contain at least one target inside");
                     }
-                    Element spanElem = chunkElem.getChild("span");
-                    if (spanElem == null) {
-                        throw new IllegalStateException("Every chunk must contain a span element");
+                    for (Element targetElem : targetElems) {
+                        String targetTermId = getAttribute("id", targetElem);
+                        Term targetTerm = termIndex.get(targetTermId);
+                        if (targetTerm == null) {
+                            throw new KAFNotValidException(
+                                    "Term " + targetTermId + " not found when loading entity " + entId);
+                        }
+                        boolean isHead = isHead(targetElem);
+                        span.addTarget(targetTerm, isHead);
                     }
-                    List<Element> chunksTermElems = spanElem.getChildren("target");
+                    references.add(span);
+                }
+                Entity newEntity = kaf.newEntity(entId, references);
+                String entType = getOptAttribute("type", entityElem);
+                if (entType != null) {
+                    newEntity.setType(entType);
+                }
+                if ("yes".equals(getOptAttribute("unnamed", entityElem))) {
+                    newEntity.setNamed(false);
+                }
+                List<Element> externalReferencesElems = entityElem.getChildren("externalReferences");
+                if (externalReferencesElems.size() > 0) {
+                    List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
+                    newEntity.addExternalRefs(externalRefs);
+                }
+                relationalIndex.put(newEntity.getId(), newEntity);
+            }
+        } else if (elem.getName().equals("coreferences")) {
+            List<Element> corefElems = elem.getChildren();
+            for (Element corefElem : corefElems) {
+                String coId = getAttribute("id", corefElem);
+                String clusterId = getOptAttribute("cluster", corefElem);
+                List<Element> spanElems = corefElem.getChildren("span");
+                if (spanElems.size() < 1) {
+                    throw new IllegalStateException(
+                            "Every coref must contain a 'span' element inside 'references'");
+                }
+                List<Span<Term>> mentions = new ArrayList<Span<Term>>();
+                for (Element spanElem : spanElems) {
                     Span<Term> span = kaf.newTermSpan();
-                    for (Element chunksTermElem : chunksTermElems) {
-                        String termId = getAttribute("id", chunksTermElem);
-                        boolean isHead = isHead(chunksTermElem);
-                        Term targetTerm = termIndex.get(termId);
+                    List<Element> targetElems = spanElem.getChildren();
+                    if (targetElems.size() < 1) {
+                        throw new IllegalStateException(
+                                "Every span in an entity must contain at least one target inside");
+                    }
+                    for (Element targetElem : targetElems) {
+                        String targetTermId = getAttribute("id", targetElem);
+                        Term targetTerm = termIndex.get(targetTermId);
                         if (targetTerm == null) {
-                            throw new KAFNotValidException("Term " + termId + " not found when loading chunk " + chunkId
-                                    + " (target term not found)");
+                            throw new KAFNotValidException(
+                                    "Term " + targetTermId + " not found when loading coref " + coId);
                         }
-                        span.addTarget(targetTerm, ((targetTerm == chunkHead) || isHead));
-                    }
-                    if (!span.hasTarget(chunkHead)) {
-                        throw new KAFNotValidException("The head of the chunk is not in it's span.");
+                        boolean isHead = isHead(targetElem);
+                        span.addTarget(targetTerm, isHead);
                     }
-                    Chunk newChunk = kaf.newChunk(chunkId, span);
-                    String chunkPhrase = getOptAttribute("phrase", chunkElem);
-                    if (chunkPhrase != null) {
-                        newChunk.setPhrase(chunkPhrase);
+                    mentions.add(span);
+                }
+                Coref newCoref = kaf.newCoref(coId, mentions);
+                String corefType = getOptAttribute("type", corefElem);
+                if (corefType != null) {
+                    newCoref.setType(corefType);
+                }
+                if (clusterId != null) {
+                    newCoref.setCluster(clusterId);
+                }
+                List<Element> externalReferencesElems = corefElem.getChildren("externalReferences");
+                if (externalReferencesElems.size() > 0) {
+                    List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
+                    newCoref.addExternalRefs(externalRefs);
+                }
+            }
+        } else if (elem.getName().equals("timeExpressions")) {
+            List<Element> timex3Elems = elem.getChildren();
+            for (Element timex3Elem : timex3Elems) {
+                String timex3Id = getAttribute("id", timex3Elem);
+                String timex3Type = getAttribute("type", timex3Elem);
+                Timex3 timex3 = kaf.newTimex3(timex3Id, timex3Type);
+                String timex3BeginPointId = getOptAttribute("beginPoint", timex3Elem);
+                if (timex3BeginPointId != null) {
+                    Timex3 beginPoint = timexIndex.get(timex3BeginPointId);
+                    if (beginPoint == null) {
+//                            uncompleteBeginPointRefs.put(timex3, timex3BeginPointId);
+                    } else {
+                        timex3.setBeginPoint(beginPoint);
                     }
-                    String chunkCase = getOptAttribute("case", chunkElem);
-                    if (chunkCase != null) {
-                        newChunk.setCase(chunkCase);
+                }
+                String timex3EndPointId = getOptAttribute("endPoint", timex3Elem);
+                if (timex3EndPointId != null) {
+                    Timex3 endPoint = timexIndex.get(timex3EndPointId);
+                    if (endPoint == null) {
+//                            uncompleteEndPointRefs.put(timex3, timex3EndPointId);
+                    } else {
+                        timex3.setEndPoint(endPoint);
                     }
                 }
-            } else if (elem.getName().equals("entities")) {
-                List<Element> entityElems = elem.getChildren();
-                for (Element entityElem : entityElems) {
-                    String entId = getAttribute("id", entityElem);
-                    List<Element> referencesElem = entityElem.getChildren("references");
-                    if (referencesElem.size() < 1) {
-                        throw new IllegalStateException("Every entity must contain a 'references' element");
+                String timex3Quant = getOptAttribute("quant", timex3Elem);
+                if (timex3Quant != null) {
+                    timex3.setQuant(timex3Quant);
+                }
+                String timex3Freq = getOptAttribute("freq", timex3Elem);
+                if (timex3Freq != null) {
+                    timex3.setFreq(timex3Freq);
+                }
+                String timex3FuncInDoc = getOptAttribute("functionInDocument", timex3Elem);
+                if (timex3FuncInDoc != null) {
+                    timex3.setFunctionInDocument(timex3FuncInDoc);
+                }
+                String timex3TempFunc = getOptAttribute("temporalFunction", timex3Elem);
+                if (timex3TempFunc != null) {
+                    Boolean tempFunc = timex3TempFunc.equals("true");
+                    timex3.setTemporalFunction(tempFunc);
+                }
+                String timex3Value = getOptAttribute("value", timex3Elem);
+                if (timex3Value != null) {
+                    timex3.setValue(timex3Value);
+                }
+                String timex3ValueFromFunction = getOptAttribute("valueFromFunction", timex3Elem);
+                if (timex3ValueFromFunction != null) {
+                    timex3.setValueFromFunction(timex3ValueFromFunction);
+                }
+                String timex3Mod = getOptAttribute("mod", timex3Elem);
+                if (timex3Mod != null) {
+                    timex3.setMod(timex3Mod);
+                }
+                String timex3AnchorTimeId = getOptAttribute("anchorTimeId", timex3Elem);
+                if (timex3AnchorTimeId != null) {
+                    timex3.setAnchorTimeId(timex3AnchorTimeId);
+                }
+                String timex3Comment = getOptAttribute("comment", timex3Elem);
+                if (timex3Comment != null) {
+                    timex3.setComment(timex3Comment);
+                }
+                Element spanElem = timex3Elem.getChild("span");
+                if (spanElem != null) {
+                    Span<WF> timex3Span = kaf.newWFSpan();
+                    for (Element targetElem : spanElem.getChildren("target")) {
+                        String targetId = getAttribute("id", targetElem);
+                        WF wf = wfIndex.get(targetId);
+                        if (wf == null) {
+                            throw new KAFNotValidException(
+                                    "Word form " + targetId + " not found when loading timex3 " + timex3Id);
+                        }
+                        boolean isHead = isHead(targetElem);
+                        timex3Span.addTarget(wf, isHead);
                     }
-                    List<Element> spanElems = referencesElem.get(0).getChildren();
+                    timex3.setSpan(timex3Span);
+                }
+                timexIndex.put(timex3.getId(), timex3);
+            }
+        } else if (elem.getName().equals("temporalRelations")) {
+            List<Element> tLinkElems = elem.getChildren("tlink");
+            for (Element tLinkElem : tLinkElems) {
+                String tlid = getAttribute("id", tLinkElem);
+                String fromId = getAttribute("from", tLinkElem);
+                String toId = getAttribute("to", tLinkElem);
+                String fromType = getAttribute("fromType", tLinkElem);
+                String toType = getAttribute("toType", tLinkElem);
+                String relType = getAttribute("relType", tLinkElem);
+                TLinkReferable from = fromType.equals("event")
+                        ? predicateIndex.get(fromId) : timexIndex.get(fromId);
+                TLinkReferable to = toType.equals("event")
+                        ? predicateIndex.get(toId) : timexIndex.get(toId);
+                TLink tLink = kaf.newTLink(tlid, from, to, relType);
+            }
+        } else if (elem.getName().equals("causalRelations")) {
+            List<Element> clinkElems = elem.getChildren("clink");
+            for (Element clinkElem : clinkElems) {
+                String clid = getAttribute("id", clinkElem);
+                String fromId = getAttribute("from", clinkElem);
+                String toId = getAttribute("to", clinkElem);
+                String relType = getOptAttribute("relType", clinkElem);
+                Predicate from = predicateIndex.get(fromId);
+                Predicate to = predicateIndex.get(toId);
+                CLink clink = kaf.newCLink(clid, from, to);
+                if (relType != null) {
+                    clink.setRelType(relType);
+                }
+            }
+        } else if (elem.getName().equals("features")) {
+            Element propertiesElem = elem.getChild("properties");
+            Element categoriesElem = elem.getChild("categories");
+            if (propertiesElem != null) {
+                List<Element> propertyElems = propertiesElem.getChildren("property");
+                for (Element propertyElem : propertyElems) {
+                    String pid = getAttribute("id", propertyElem);
+                    String lemma = getAttribute("lemma", propertyElem);
+                    Element referencesElem = propertyElem.getChild("references");
+                    if (referencesElem == null) {
+                        throw new IllegalStateException("Every property must contain a 'references' element");
+                    }
+                    List<Element> spanElems = referencesElem.getChildren("span");
                     if (spanElems.size() < 1) {
                         throw new IllegalStateException(
-                                "Every entity must contain a 'span' element inside 'references'");
+                                "Every property must contain a 'span' element inside 'references'");
                     }
                     List<Span<Term>> references = new ArrayList<Span<Term>>();
                     for (Element spanElem : spanElems) {
@@ -337,655 +785,455 @@ class ReadWriteManager {
                         List<Element> targetElems = spanElem.getChildren();
                         if (targetElems.size() < 1) {
                             throw new IllegalStateException(
-                                    "Every span in an entity must contain at least one target inside");
+                                    "Every span in a property must contain at least one target inside");
                         }
                         for (Element targetElem : targetElems) {
                             String targetTermId = getAttribute("id", targetElem);
                             Term targetTerm = termIndex.get(targetTermId);
                             if (targetTerm == null) {
                                 throw new KAFNotValidException(
-                                        "Term " + targetTermId + " not found when loading entity " + entId);
+                                        "Term " + targetTermId + " not found when loading property " + pid);
                             }
                             boolean isHead = isHead(targetElem);
                             span.addTarget(targetTerm, isHead);
                         }
                         references.add(span);
                     }
-                    Entity newEntity = kaf.newEntity(entId, references);
-                    String entType = getOptAttribute("type", entityElem);
-                    if (entType != null) {
-                        newEntity.setType(entType);
-                    }
-                    if ("yes".equals(getOptAttribute("unnamed", entityElem))) {
-                        newEntity.setNamed(false);
-                    }
-                    List<Element> externalReferencesElems = entityElem.getChildren("externalReferences");
+                    Feature newProperty = kaf.newProperty(pid, lemma, references);
+                    List<Element> externalReferencesElems = propertyElem.getChildren("externalReferences");
                     if (externalReferencesElems.size() > 0) {
                         List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
-                        newEntity.addExternalRefs(externalRefs);
+                        newProperty.addExternalRefs(externalRefs);
                     }
-                    relationalIndex.put(newEntity.getId(), newEntity);
+                    relationalIndex.put(newProperty.getId(), newProperty);
                 }
-            } else if (elem.getName().equals("coreferences")) {
-                List<Element> corefElems = elem.getChildren();
-                for (Element corefElem : corefElems) {
-                    String coId = getAttribute("id", corefElem);
-                    String clusterId = getOptAttribute("cluster", corefElem);
-                    List<Element> spanElems = corefElem.getChildren("span");
+            }
+            if (categoriesElem != null) {
+                List<Element> categoryElems = categoriesElem.getChildren("category");
+                for (Element categoryElem : categoryElems) {
+                    String cid = getAttribute("id", categoryElem);
+                    String lemma = getAttribute("lemma", categoryElem);
+                    Element referencesElem = categoryElem.getChild("references");
+                    if (referencesElem == null) {
+                        throw new IllegalStateException("Every category must contain a 'references' element");
+                    }
+                    List<Element> spanElems = referencesElem.getChildren("span");
                     if (spanElems.size() < 1) {
                         throw new IllegalStateException(
-                                "Every coref must contain a 'span' element inside 'references'");
+                                "Every category must contain a 'span' element inside 'references'");
                     }
-                    List<Span<Term>> mentions = new ArrayList<Span<Term>>();
+                    List<Span<Term>> references = new ArrayList<Span<Term>>();
                     for (Element spanElem : spanElems) {
                         Span<Term> span = kaf.newTermSpan();
                         List<Element> targetElems = spanElem.getChildren();
                         if (targetElems.size() < 1) {
                             throw new IllegalStateException(
-                                    "Every span in an entity must contain at least one target inside");
+                                    "Every span in a property must contain at least one target inside");
                         }
                         for (Element targetElem : targetElems) {
                             String targetTermId = getAttribute("id", targetElem);
                             Term targetTerm = termIndex.get(targetTermId);
                             if (targetTerm == null) {
                                 throw new KAFNotValidException(
-                                        "Term " + targetTermId + " not found when loading coref " + coId);
+                                        "Term " + targetTermId + " not found when loading category " + cid);
                             }
                             boolean isHead = isHead(targetElem);
                             span.addTarget(targetTerm, isHead);
                         }
-                        mentions.add(span);
-                    }
-                    Coref newCoref = kaf.newCoref(coId, mentions);
-                    String corefType = getOptAttribute("type", corefElem);
-                    if (corefType != null) {
-                        newCoref.setType(corefType);
-                    }
-                    if (clusterId != null) {
-                        newCoref.setCluster(clusterId);
+                        references.add(span);
                     }
-                    List<Element> externalReferencesElems = corefElem.getChildren("externalReferences");
+                    Feature newCategory = kaf.newCategory(cid, lemma, references);
+                    List<Element> externalReferencesElems = categoryElem.getChildren("externalReferences");
                     if (externalReferencesElems.size() > 0) {
                         List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
-                        newCoref.addExternalRefs(externalRefs);
-                    }
-                }
-            } else if (elem.getName().equals("timeExpressions")) {
-                List<Element> timex3Elems = elem.getChildren();
-                for (Element timex3Elem : timex3Elems) {
-                    String timex3Id = getAttribute("id", timex3Elem);
-                    String timex3Type = getAttribute("type", timex3Elem);
-                    Timex3 timex3 = kaf.newTimex3(timex3Id, timex3Type);
-                    String timex3BeginPointId = getOptAttribute("beginPoint", timex3Elem);
-                    if (timex3BeginPointId != null) {
-                        Timex3 beginPoint = timexIndex.get(timex3BeginPointId);
-                        if (beginPoint == null) {
-//                            uncompleteBeginPointRefs.put(timex3, timex3BeginPointId);
-                        } else {
-                            timex3.setBeginPoint(beginPoint);
-                        }
-                    }
-                    String timex3EndPointId = getOptAttribute("endPoint", timex3Elem);
-                    if (timex3EndPointId != null) {
-                        Timex3 endPoint = timexIndex.get(timex3EndPointId);
-                        if (endPoint == null) {
-//                            uncompleteEndPointRefs.put(timex3, timex3EndPointId);
-                        } else {
-                            timex3.setEndPoint(endPoint);
-                        }
-                    }
-                    String timex3Quant = getOptAttribute("quant", timex3Elem);
-                    if (timex3Quant != null) {
-                        timex3.setQuant(timex3Quant);
+                        newCategory.addExternalRefs(externalRefs);
                     }
-                    String timex3Freq = getOptAttribute("freq", timex3Elem);
-                    if (timex3Freq != null) {
-                        timex3.setFreq(timex3Freq);
-                    }
-                    String timex3FuncInDoc = getOptAttribute("functionInDocument", timex3Elem);
-                    if (timex3FuncInDoc != null) {
-                        timex3.setFunctionInDocument(timex3FuncInDoc);
-                    }
-                    String timex3TempFunc = getOptAttribute("temporalFunction", timex3Elem);
-                    if (timex3TempFunc != null) {
-                        Boolean tempFunc = timex3TempFunc.equals("true");
-                        timex3.setTemporalFunction(tempFunc);
-                    }
-                    String timex3Value = getOptAttribute("value", timex3Elem);
-                    if (timex3Value != null) {
-                        timex3.setValue(timex3Value);
-                    }
-                    String timex3ValueFromFunction = getOptAttribute("valueFromFunction", timex3Elem);
-                    if (timex3ValueFromFunction != null) {
-                        timex3.setValueFromFunction(timex3ValueFromFunction);
-                    }
-                    String timex3Mod = getOptAttribute("mod", timex3Elem);
-                    if (timex3Mod != null) {
-                        timex3.setMod(timex3Mod);
-                    }
-                    String timex3AnchorTimeId = getOptAttribute("anchorTimeId", timex3Elem);
-                    if (timex3AnchorTimeId != null) {
-                        timex3.setAnchorTimeId(timex3AnchorTimeId);
-                    }
-                    String timex3Comment = getOptAttribute("comment", timex3Elem);
-                    if (timex3Comment != null) {
-                        timex3.setComment(timex3Comment);
+                    relationalIndex.put(newCategory.getId(), newCategory);
+                }
+            }
+        } else if (elem.getName().equals("opinions")) {
+            List<Element> opinionElems = elem.getChildren("opinion");
+            for (Element opinionElem : opinionElems) {
+                String opinionId;
+                try {
+                    opinionId = getAttribute("id", opinionElem);
+                } catch (Exception e) {
+                    opinionId = getAttribute("oid", opinionElem);
+                }
+                Opinion opinion = kaf.newOpinion(opinionId);
+                try {
+                    String label = getAttribute("label", opinionElem);
+                    opinion.setLabel(label);
+                } catch (Exception e) {
+                    // ignored
+                }
+                List<Element> opinionExternalRefs = opinionElem.getChildren("externalReferences");
+                if (opinionExternalRefs.size() > 0) {
+                    opinion.addExternalRefs(getExternalReferences(opinionExternalRefs.get(0), kaf));
+                }
+                Element opinionHolderElem = opinionElem.getChild("opinion_holder");
+                if (opinionHolderElem != null) {
+                    Span<Term> span = kaf.newTermSpan();
+                    Opinion.OpinionHolder opinionHolder = opinion.createOpinionHolder(span);
+                    String ohType = getOptAttribute("type", opinionHolderElem);
+                    if (ohType != null) {
+                        opinionHolder.setType(ohType);
                     }
-                    Element spanElem = timex3Elem.getChild("span");
+                    Element spanElem = opinionHolderElem.getChild("span");
                     if (spanElem != null) {
-                        Span<WF> timex3Span = kaf.newWFSpan();
-                        for (Element targetElem : spanElem.getChildren("target")) {
-                            String targetId = getAttribute("id", targetElem);
-                            WF wf = wfIndex.get(targetId);
-                            if (wf == null) {
-                                throw new KAFNotValidException(
-                                        "Word form " + targetId + " not found when loading timex3 " + timex3Id);
-                            }
+                        List<Element> targetElems = spanElem.getChildren("target");
+                        for (Element targetElem : targetElems) {
+                            String refId = getOptAttribute("id", targetElem);
                             boolean isHead = isHead(targetElem);
-                            timex3Span.addTarget(wf, isHead);
-                        }
-                        timex3.setSpan(timex3Span);
-                    }
-                    timexIndex.put(timex3.getId(), timex3);
-                }
-            } else if (elem.getName().equals("temporalRelations")) {
-                List<Element> tLinkElems = elem.getChildren("tlink");
-                for (Element tLinkElem : tLinkElems) {
-                    String tlid = getAttribute("id", tLinkElem);
-                    String fromId = getAttribute("from", tLinkElem);
-                    String toId = getAttribute("to", tLinkElem);
-                    String fromType = getAttribute("fromType", tLinkElem);
-                    String toType = getAttribute("toType", tLinkElem);
-                    String relType = getAttribute("relType", tLinkElem);
-                    TLinkReferable from = fromType.equals("event")
-                            ? predicateIndex.get(fromId) : timexIndex.get(fromId);
-                    TLinkReferable to = toType.equals("event")
-                            ? predicateIndex.get(toId) : timexIndex.get(toId);
-                    TLink tLink = kaf.newTLink(tlid, from, to, relType);
-                }
-            } else if (elem.getName().equals("causalRelations")) {
-                List<Element> clinkElems = elem.getChildren("clink");
-                for (Element clinkElem : clinkElems) {
-                    String clid = getAttribute("id", clinkElem);
-                    String fromId = getAttribute("from", clinkElem);
-                    String toId = getAttribute("to", clinkElem);
-                    String relType = getOptAttribute("relType", clinkElem);
-                    Predicate from = predicateIndex.get(fromId);
-                    Predicate to = predicateIndex.get(toId);
-                    CLink clink = kaf.newCLink(clid, from, to);
-                    if (relType != null) {
-                        clink.setRelType(relType);
-                    }
-                }
-            } else if (elem.getName().equals("features")) {
-                Element propertiesElem = elem.getChild("properties");
-                Element categoriesElem = elem.getChild("categories");
-                if (propertiesElem != null) {
-                    List<Element> propertyElems = propertiesElem.getChildren("property");
-                    for (Element propertyElem : propertyElems) {
-                        String pid = getAttribute("id", propertyElem);
-                        String lemma = getAttribute("lemma", propertyElem);
-                        Element referencesElem = propertyElem.getChild("references");
-                        if (referencesElem == null) {
-                            throw new IllegalStateException("Every property must contain a 'references' element");
-                        }
-                        List<Element> spanElems = referencesElem.getChildren("span");
-                        if (spanElems.size() < 1) {
-                            throw new IllegalStateException(
-                                    "Every property must contain a 'span' element inside 'references'");
-                        }
-                        List<Span<Term>> references = new ArrayList<Span<Term>>();
-                        for (Element spanElem : spanElems) {
-                            Span<Term> span = kaf.newTermSpan();
-                            List<Element> targetElems = spanElem.getChildren();
-                            if (targetElems.size() < 1) {
-                                throw new IllegalStateException(
-                                        "Every span in a property must contain at least one target inside");
-                            }
-                            for (Element targetElem : targetElems) {
-                                String targetTermId = getAttribute("id", targetElem);
-                                Term targetTerm = termIndex.get(targetTermId);
-                                if (targetTerm == null) {
-                                    throw new KAFNotValidException(
-                                            "Term " + targetTermId + " not found when loading property " + pid);
-                                }
-                                boolean isHead = isHead(targetElem);
-                                span.addTarget(targetTerm, isHead);
+                            Term targetTerm = termIndex.get(refId);
+                            if (targetTerm == null) {
+                                throw new KAFNotValidException(
+                                        "Term " + refId + " not found when loading opinion " + opinionId);
                             }
-                            references.add(span);
-                        }
-                        Feature newProperty = kaf.newProperty(pid, lemma, references);
-                        List<Element> externalReferencesElems = propertyElem.getChildren("externalReferences");
-                        if (externalReferencesElems.size() > 0) {
-                            List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
-                            newProperty.addExternalRefs(externalRefs);
+                            span.addTarget(targetTerm, isHead);
                         }
-                        relationalIndex.put(newProperty.getId(), newProperty);
+                    }
+                    List<Element> holderExternalRefs = opinionHolderElem.getChildren("externalReferences");
+                    if (holderExternalRefs.size() > 0) {
+                        opinionHolder.addExternalRefs(getExternalReferences(holderExternalRefs.get(0), kaf));
                     }
                 }
-                if (categoriesElem != null) {
-                    List<Element> categoryElems = categoriesElem.getChildren("category");
-                    for (Element categoryElem : categoryElems) {
-                        String cid = getAttribute("id", categoryElem);
-                        String lemma = getAttribute("lemma", categoryElem);
-                        Element referencesElem = categoryElem.getChild("references");
-                        if (referencesElem == null) {
-                            throw new IllegalStateException("Every category must contain a 'references' element");
-                        }
-                        List<Element> spanElems = referencesElem.getChildren("span");
-                        if (spanElems.size() < 1) {
-                            throw new IllegalStateException(
-                                    "Every category must contain a 'span' element inside 'references'");
-                        }
-                        List<Span<Term>> references = new ArrayList<Span<Term>>();
-                        for (Element spanElem : spanElems) {
-                            Span<Term> span = kaf.newTermSpan();
-                            List<Element> targetElems = spanElem.getChildren();
-                            if (targetElems.size() < 1) {
-                                throw new IllegalStateException(
-                                        "Every span in a property must contain at least one target inside");
-                            }
-                            for (Element targetElem : targetElems) {
-                                String targetTermId = getAttribute("id", targetElem);
-                                Term targetTerm = termIndex.get(targetTermId);
-                                if (targetTerm == null) {
-                                    throw new KAFNotValidException(
-                                            "Term " + targetTermId + " not found when loading category " + cid);
-                                }
-                                boolean isHead = isHead(targetElem);
-                                span.addTarget(targetTerm, isHead);
-                            }
-                            references.add(span);
-                        }
-                        Feature newCategory = kaf.newCategory(cid, lemma, references);
-                        List<Element> externalReferencesElems = categoryElem.getChildren("externalReferences");
-                        if (externalReferencesElems.size() > 0) {
-                            List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
-                            newCategory.addExternalRefs(externalRefs);
-                        }
-                        relationalIndex.put(newCategory.getId(), newCategory);
-                    }
-                }
-            } else if (elem.getName().equals("opinions")) {
-                List<Element> opinionElems = elem.getChildren("opinion");
-                for (Element opinionElem : opinionElems) {
-                    String opinionId;
-                    try {
-                        opinionId = getAttribute("id", opinionElem);
-                    } catch (Exception e) {
-                        opinionId = getAttribute("oid", opinionElem);
-                    }
-                    Opinion opinion = kaf.newOpinion(opinionId);
-                    try {
-                        String label = getAttribute("label", opinionElem);
-                        opinion.setLabel(label);
-                    } catch (Exception e) {
-                        // ignored
-                    }
-                    List<Element> opinionExternalRefs = opinionElem.getChildren("externalReferences");
-                    if (opinionExternalRefs.size() > 0) {
-                        opinion.addExternalRefs(getExternalReferences(opinionExternalRefs.get(0), kaf));
-                    }
-                    Element opinionHolderElem = opinionElem.getChild("opinion_holder");
-                    if (opinionHolderElem != null) {
-                        Span<Term> span = kaf.newTermSpan();
-                        Opinion.OpinionHolder opinionHolder = opinion.createOpinionHolder(span);
-                        String ohType = getOptAttribute("type", opinionHolderElem);
-                        if (ohType != null) {
-                            opinionHolder.setType(ohType);
-                        }
-                        Element spanElem = opinionHolderElem.getChild("span");
-                        if (spanElem != null) {
-                            List<Element> targetElems = spanElem.getChildren("target");
-                            for (Element targetElem : targetElems) {
-                                String refId = getOptAttribute("id", targetElem);
-                                boolean isHead = isHead(targetElem);
-                                Term targetTerm = termIndex.get(refId);
-                                if (targetTerm == null) {
-                                    throw new KAFNotValidException(
-                                            "Term " + refId + " not found when loading opinion " + opinionId);
-                                }
-                                span.addTarget(targetTerm, isHead);
-                            }
-                        }
-                        List<Element> holderExternalRefs = opinionHolderElem.getChildren("externalReferences");
-                        if (holderExternalRefs.size() > 0) {
-                            opinionHolder.addExternalRefs(getExternalReferences(holderExternalRefs.get(0), kaf));
-                        }
+                Element opinionTargetElem = opinionElem.getChild("opinion_target");
+                if (opinionTargetElem != null) {
+                    Span<Term> span = kaf.newTermSpan();
+                    Opinion.OpinionTarget opinionTarget = opinion.createOpinionTarget(span);
+                    String otType = getOptAttribute("type", opinionTargetElem);
+                    if (otType != null) {
+                        opinionTarget.setType(otType);
                     }
-                    Element opinionTargetElem = opinionElem.getChild("opinion_target");
-                    if (opinionTargetElem != null) {
-                        Span<Term> span = kaf.newTermSpan();
-                        Opinion.OpinionTarget opinionTarget = opinion.createOpinionTarget(span);
-                        String otType = getOptAttribute("type", opinionTargetElem);
-                        if (otType != null) {
-                            opinionTarget.setType(otType);
-                        }
-                        Element spanElem = opinionTargetElem.getChild("span");
-                        if (spanElem != null) {
-                            List<Element> targetElems = spanElem.getChildren("target");
-                            for (Element targetElem : targetElems) {
-                                String refId = getOptAttribute("id", targetElem);
-                                boolean isHead = isHead(targetElem);
-                                Term targetTerm = termIndex.get(refId);
-                                if (targetTerm == null) {
-                                    throw new KAFNotValidException(
-                                            "Term " + refId + " not found when loading opinion " + opinionId);
-                                }
-                                span.addTarget(targetTerm, isHead);
+                    Element spanElem = opinionTargetElem.getChild("span");
+                    if (spanElem != null) {
+                        List<Element> targetElems = spanElem.getChildren("target");
+                        for (Element targetElem : targetElems) {
+                            String refId = getOptAttribute("id", targetElem);
+                            boolean isHead = isHead(targetElem);
+                            Term targetTerm = termIndex.get(refId);
+                            if (targetTerm == null) {
+                                throw new KAFNotValidException(
+                                        "Term " + refId + " not found when loading opinion " + opinionId);
                             }
-                        }
-                        List<Element> targetExternalRefs = opinionTargetElem.getChildren("externalReferences");
-                        if (targetExternalRefs.size() > 0) {
-                            opinionTarget.addExternalRefs(getExternalReferences(targetExternalRefs.get(0), kaf));
+                            span.addTarget(targetTerm, isHead);
                         }
                     }
-                    Element opinionExpressionElem = opinionElem.getChild("opinion_expression");
-                    if (opinionExpressionElem != null) {
-                        Span<Term> span = kaf.newTermSpan();
-                        String polarity = getOptAttribute("polarity", opinionExpressionElem);
-                        String strength = getOptAttribute("strength", opinionExpressionElem);
-                        String subjectivity = getOptAttribute("subjectivity", opinionExpressionElem);
-                        String sentimentSemanticType = getOptAttribute("sentiment_semantic_type",
-                                opinionExpressionElem);
-                        String sentimentProductFeature = getOptAttribute("sentiment_product_feature",
-                                opinionExpressionElem);
-                        Opinion.OpinionExpression opinionExpression = opinion.createOpinionExpression(span);
-                        if (polarity != null) {
-                            opinionExpression.setPolarity(polarity);
-                        }
-                        if (strength != null) {
-                            opinionExpression.setStrength(strength);
-                        }
-                        if (subjectivity != null) {
-                            opinionExpression.setSubjectivity(subjectivity);
-                        }
-                        if (sentimentSemanticType != null) {
-                            opinionExpression.setSentimentSemanticType(sentimentSemanticType);
-                        }
-                        if (sentimentProductFeature != null) {
-                            opinionExpression.setSentimentProductFeature(sentimentProductFeature);
-                        }
-
-                        Element spanElem = opinionExpressionElem.getChild("span");
-                        if (spanElem != null) {
-                            List<Element> targetElems = spanElem.getChildren("target");
-                            for (Element targetElem : targetElems) {
-                                String refId = getOptAttribute("id", targetElem);
-                                boolean isHead = isHead(targetElem);
-                                Term targetTerm = termIndex.get(refId);
-                                if (targetTerm == null) {
-                                    throw new KAFNotValidException(
-                                            "Term " + refId + " not found when loading opinion " + opinionId);
-                                }
-                                span.addTarget(targetTerm, isHead);
-                            }
-                        }
-
-                        List<Element> expressionExternalRefs = opinionExpressionElem.getChildren("externalReferences");
-                        if (expressionExternalRefs.size() > 0) {
-                            opinionExpression
-                                    .addExternalRefs(getExternalReferences(expressionExternalRefs.get(0), kaf));
-                        }
+                    List<Element> targetExternalRefs = opinionTargetElem.getChildren("externalReferences");
+                    if (targetExternalRefs.size() > 0) {
+                        opinionTarget.addExternalRefs(getExternalReferences(targetExternalRefs.get(0), kaf));
                     }
                 }
-            } else if (elem.getName().equals("relations")) {
-                List<Element> relationElems = elem.getChildren("relation");
-                for (Element relationElem : relationElems) {
-                    String id = getAttribute("id", relationElem);
-                    String fromId = getAttribute("from", relationElem);
-                    String toId = getAttribute("to", relationElem);
-                    String confidenceStr = getOptAttribute("confidence", relationElem);
-                    float confidence = -1.0f;
-                    if (confidenceStr != null) {
-                        confidence = Float.parseFloat(confidenceStr);
+                Element opinionExpressionElem = opinionElem.getChild("opinion_expression");
+                if (opinionExpressionElem != null) {
+                    Span<Term> span = kaf.newTermSpan();
+                    String polarity = getOptAttribute("polarity", opinionExpressionElem);
+                    String strength = getOptAttribute("strength", opinionExpressionElem);
+                    String subjectivity = getOptAttribute("subjectivity", opinionExpressionElem);
+                    String sentimentSemanticType = getOptAttribute("sentiment_semantic_type",
+                            opinionExpressionElem);
+                    String sentimentProductFeature = getOptAttribute("sentiment_product_feature",
+                            opinionExpressionElem);
+                    Opinion.OpinionExpression opinionExpression = opinion.createOpinionExpression(span);
+                    if (polarity != null) {
+                        opinionExpression.setPolarity(polarity);
                     }
-                    Relational from = relationalIndex.get(fromId);
-                    if (from == null) {
-                        throw new KAFNotValidException(
-                                "Entity/feature object " + fromId + " not found when loading relation " + id);
+                    if (strength != null) {
+                        opinionExpression.setStrength(strength);
                     }
-                    Relational to = relationalIndex.get(toId);
-                    if (to == null) {
-                        throw new KAFNotValidException(
-                                "Entity/feature object " + toId + " not found when loading relation " + id);
+                    if (subjectivity != null) {
+                        opinionExpression.setSubjectivity(subjectivity);
                     }
-                    Relation newRelation = kaf.newRelation(id, from, to);
-                    if (confidence >= 0) {
-                        newRelation.setConfidence(confidence);
+                    if (sentimentSemanticType != null) {
+                        opinionExpression.setSentimentSemanticType(sentimentSemanticType);
                     }
-                }
-            } else if (elem.getName().equals("srl")) {
-                List<Element> predicateElems = elem.getChildren("predicate");
-                for (Element predicateElem : predicateElems) {
-                    String id = getAttribute("id", predicateElem);
-                    Span<Term> span = kaf.newTermSpan();
-                    Element spanElem = predicateElem.getChild("span");
+                    if (sentimentProductFeature != null) {
+                        opinionExpression.setSentimentProductFeature(sentimentProductFeature);
+                    }
+
+                    Element spanElem = opinionExpressionElem.getChild("span");
                     if (spanElem != null) {
                         List<Element> targetElems = spanElem.getChildren("target");
                         for (Element targetElem : targetElems) {
-                            String targetId = getAttribute("id", targetElem);
+                            String refId = getOptAttribute("id", targetElem);
                             boolean isHead = isHead(targetElem);
-                            Term targetTerm = termIndex.get(targetId);
+                            Term targetTerm = termIndex.get(refId);
                             if (targetTerm == null) {
                                 throw new KAFNotValidException(
-                                        "Term object " + targetId + " not found when loading predicate " + id);
+                                        "Term " + refId + " not found when loading opinion " + opinionId);
                             }
                             span.addTarget(targetTerm, isHead);
                         }
                     }
-                    List<String> predTypes = new ArrayList<String>();
-                    List<Element> predTypeElems = predicateElem.getChildren("predType");
-                    for (Element predTypeElem : predTypeElems) {
-                        String ptUri = getAttribute("uri", predTypeElem);
-                        predTypes.add(ptUri);
-                    }
-                    Predicate newPredicate = kaf.newPredicate(id, span);
-                    String source = getOptAttribute("source", predicateElem);
-                    if (source != null) {
-                        newPredicate.setSource(source);
-                    }
-                    String uri = getOptAttribute("uri", predicateElem);
-                    if (uri != null) {
-                        newPredicate.setUri(uri);
+
+                    List<Element> expressionExternalRefs = opinionExpressionElem.getChildren("externalReferences");
+                    if (expressionExternalRefs.size() > 0) {
+                        opinionExpression
+                                .addExternalRefs(getExternalReferences(expressionExternalRefs.get(0), kaf));
                     }
-                    List<Element> externalReferencesElems = predicateElem.getChildren("externalReferences");
-                    if (externalReferencesElems.size() > 0) {
-                        List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
-                        newPredicate.addExternalRefs(externalRefs);
-                    }
-                    String confidence = getOptAttribute("confidence", predicateElem);
-                    if (confidence != null) {
-                        newPredicate.setConfidence(Float.valueOf(confidence));
-                    }
-                    List<Element> roleElems = predicateElem.getChildren("role");
-                    for (Element roleElem : roleElems) {
-                        String rid = getAttribute("id", roleElem);
-                        String semRole = getAttribute("semRole", roleElem);
-                        Span<Term> roleSpan = kaf.newTermSpan();
-                        Element roleSpanElem = roleElem.getChild("span");
-                        if (roleSpanElem != null) {
-                            List<Element> targetElems = roleSpanElem.getChildren("target");
-                            for (Element targetElem : targetElems) {
-                                String targetId = getAttribute("id", targetElem);
-                                boolean isHead = isHead(targetElem);
-                                Term targetTerm = termIndex.get(targetId);
-                                if (targetTerm == null) {
-                                    throw new KAFNotValidException(
-                                            "Term object " + targetId + " not found when loading role " + rid);
-                                }
-                                roleSpan.addTarget(targetTerm, isHead);
-                            }
+                }
+            }
+        } else if (elem.getName().equals("relations")) {
+            List<Element> relationElems = elem.getChildren("relation");
+            for (Element relationElem : relationElems) {
+                String id = getAttribute("id", relationElem);
+                String fromId = getAttribute("from", relationElem);
+                String toId = getAttribute("to", relationElem);
+                String confidenceStr = getOptAttribute("confidence", relationElem);
+                float confidence = -1.0f;
+                if (confidenceStr != null) {
+                    confidence = Float.parseFloat(confidenceStr);
+                }
+                Relational from = relationalIndex.get(fromId);
+                if (from == null) {
+                    throw new KAFNotValidException(
+                            "Entity/feature object " + fromId + " not found when loading relation " + id);
+                }
+                Relational to = relationalIndex.get(toId);
+                if (to == null) {
+                    throw new KAFNotValidException(
+                            "Entity/feature object " + toId + " not found when loading relation " + id);
+                }
+                Relation newRelation = kaf.newRelation(id, from, to);
+                if (confidence >= 0) {
+                    newRelation.setConfidence(confidence);
+                }
+            }
+        } else if (elem.getName().equals("srl")) {
+            List<Element> predicateElems = elem.getChildren("predicate");
+            for (Element predicateElem : predicateElems) {
+                String id = getAttribute("id", predicateElem);
+                Span<Term> span = kaf.newTermSpan();
+                Element spanElem = predicateElem.getChild("span");
+                if (spanElem != null) {
+                    List<Element> targetElems = spanElem.getChildren("target");
+                    for (Element targetElem : targetElems) {
+                        String targetId = getAttribute("id", targetElem);
+                        boolean isHead = isHead(targetElem);
+                        Term targetTerm = termIndex.get(targetId);
+                        if (targetTerm == null) {
+                            throw new KAFNotValidException(
+                                    "Term object " + targetId + " not found when loading predicate " + id);
                         }
-                        Predicate.Role newRole = kaf.newRole(rid, newPredicate, semRole, roleSpan);
-                        List<Element> rExternalReferencesElems = roleElem.getChildren("externalReferences");
-                        if (rExternalReferencesElems.size() > 0) {
-                            List<ExternalRef> externalRefs = getExternalReferences(rExternalReferencesElems.get(0),
-                                    kaf);
-                            newRole.addExternalRefs(externalRefs);
+                        span.addTarget(targetTerm, isHead);
+                    }
+                }
+                List<String> predTypes = new ArrayList<String>();
+                List<Element> predTypeElems = predicateElem.getChildren("predType");
+                for (Element predTypeElem : predTypeElems) {
+                    String ptUri = getAttribute("uri", predTypeElem);
+                    predTypes.add(ptUri);
+                }
+                Predicate newPredicate = kaf.newPredicate(id, span);
+                String source = getOptAttribute("source", predicateElem);
+                if (source != null) {
+                    newPredicate.setSource(source);
+                }
+                String uri = getOptAttribute("uri", predicateElem);
+                if (uri != null) {
+                    newPredicate.setUri(uri);
+                }
+                List<Element> externalReferencesElems = predicateElem.getChildren("externalReferences");
+                if (externalReferencesElems.size() > 0) {
+                    List<ExternalRef> externalRefs = getExternalReferences(externalReferencesElems.get(0), kaf);
+                    newPredicate.addExternalRefs(externalRefs);
+                }
+                String confidence = getOptAttribute("confidence", predicateElem);
+                if (confidence != null) {
+                    newPredicate.setConfidence(Float.valueOf(confidence));
+                }
+                List<Element> roleElems = predicateElem.getChildren("role");
+                for (Element roleElem : roleElems) {
+                    String rid = getAttribute("id", roleElem);
+                    String semRole = getAttribute("semRole", roleElem);
+                    Span<Term> roleSpan = kaf.newTermSpan();
+                    Element roleSpanElem = roleElem.getChild("span");
+                    if (roleSpanElem != null) {
+                        List<Element> targetElems = roleSpanElem.getChildren("target");
+                        for (Element targetElem : targetElems) {
+                            String targetId = getAttribute("id", targetElem);
+                            boolean isHead = isHead(targetElem);
+                            Term targetTerm = termIndex.get(targetId);
+                            if (targetTerm == null) {
+                                throw new KAFNotValidException(
+                                        "Term object " + targetId + " not found when loading role " + rid);
+                            }
+                            roleSpan.addTarget(targetTerm, isHead);
                         }
-                        newPredicate.addRole(newRole);
                     }
-                    predicateIndex.put(newPredicate.getId(), newPredicate);
+                    Predicate.Role newRole = kaf.newRole(rid, newPredicate, semRole, roleSpan);
+                    List<Element> rExternalReferencesElems = roleElem.getChildren("externalReferences");
+                    if (rExternalReferencesElems.size() > 0) {
+                        List<ExternalRef> externalRefs = getExternalReferences(rExternalReferencesElems.get(0),
+                                kaf);
+                        newRole.addExternalRefs(externalRefs);
+                    }
+                    newPredicate.addRole(newRole);
                 }
-            } else if (elem.getName().equals("constituency")) {
-                try {
-                    List<Element> treeElems = elem.getChildren("tree");
-                    for (Element treeElem : treeElems) {
-                        HashMap<String, TreeNode> treeNodes = new HashMap<String, TreeNode>();
-                        HashMap<String, Boolean> rootNodes = new HashMap<String, Boolean>();
-                        Integer sentence = null;
-                        if (treeElem.getAttribute("sentence") != null) {
-                            sentence = Integer.parseInt(treeElem.getAttribute("sentence").getValue());
+                predicateIndex.put(newPredicate.getId(), newPredicate);
+            }
+        } else if (elem.getName().equals("constituencyStrings")) {
+            List<Element> treeElems = elem.getChildren("tree");
+            for (Element treeElem : treeElems) {
+                String sentence = getAttribute("sentence", treeElem);
+                kaf.addConstituencyString(treeElem.getText(), Integer.valueOf(sentence));
+            }
+        } else if (elem.getName().equals("constituency")) {
+            try {
+                List<Element> treeElems = elem.getChildren("tree");
+                for (Element treeElem : treeElems) {
+                    HashMap<String, TreeNode> treeNodes = new HashMap<String, TreeNode>();
+                    HashMap<String, Boolean> rootNodes = new HashMap<String, Boolean>();
+                    Integer sentence = null;
+                    if (treeElem.getAttribute("sentence") != null) {
+                        sentence = Integer.parseInt(treeElem.getAttribute("sentence").getValue());
+                    }
+
+                    // Terminals
+                    List<Element> terminalElems = treeElem.getChildren("t");
+                    for (Element terminalElem : terminalElems) {
+                        String id = getAttribute("id", terminalElem);
+                        Element spanElem = terminalElem.getChild("span");
+                        if (spanElem == null) {
+                            throw new KAFNotValidException("Constituent non terminal nodes need a span");
                         }
-
-                        // Terminals
-                        List<Element> terminalElems = treeElem.getChildren("t");
-                        for (Element terminalElem : terminalElems) {
-                            String id = getAttribute("id", terminalElem);
-                            Element spanElem = terminalElem.getChild("span");
-                            if (spanElem == null) {
-                                throw new KAFNotValidException("Constituent non terminal nodes need a span");
-                            }
-                            Span<Term> span = loadTermSpan(spanElem, termIndex, id);
-                            treeNodes.put(id, kaf.newTerminal(id, span));
-                            rootNodes.put(id, true);
+                        Span<Term> span = loadTermSpan(spanElem, termIndex, id);
+                        treeNodes.put(id, kaf.newTerminal(id, span));
+                        rootNodes.put(id, true);
+                    }
+                    // NonTerminals
+                    List<Element> nonTerminalElems = treeElem.getChildren("nt");
+                    for (Element nonTerminalElem : nonTerminalElems) {
+                        String id = getAttribute("id", nonTerminalElem);
+                        String label = getAttribute("label", nonTerminalElem);
+                        treeNodes.put(id, kaf.newNonTerminal(id, label));
+                        rootNodes.put(id, true);
+                    }
+                    // Edges
+                    List<Element> edgeElems = treeElem.getChildren("edge");
+                    for (Element edgeElem : edgeElems) {
+                        String fromId = getAttribute("from", edgeElem);
+                        String toId = getAttribute("to", edgeElem);
+                        String edgeId = getOptAttribute("id", edgeElem);
+                        String head = getOptAttribute("head", edgeElem);
+                        boolean isHead = (head != null && head.equals("yes")) ? true : false;
+                        TreeNode parentNode = treeNodes.get(toId);
+                        TreeNode childNode = treeNodes.get(fromId);
+                        if ((parentNode == null) || (childNode == null)) {
+                            throw new KAFNotValidException(
+                                    "There is a problem with the edge(" + fromId + ", " + toId
+                                            + "). One of its targets doesn't exist.");
                         }
-                        // NonTerminals
-                        List<Element> nonTerminalElems = treeElem.getChildren("nt");
-                        for (Element nonTerminalElem : nonTerminalElems) {
-                            String id = getAttribute("id", nonTerminalElem);
-                            String label = getAttribute("label", nonTerminalElem);
-                            treeNodes.put(id, kaf.newNonTerminal(id, label));
-                            rootNodes.put(id, true);
+                        try {
+                            ((NonTerminal) parentNode).addChild(childNode);
+                        } catch (Exception e) {
                         }
-                        // Edges
-                        List<Element> edgeElems = treeElem.getChildren("edge");
-                        for (Element edgeElem : edgeElems) {
-                            String fromId = getAttribute("from", edgeElem);
-                            String toId = getAttribute("to", edgeElem);
-                            String edgeId = getOptAttribute("id", edgeElem);
-                            String head = getOptAttribute("head", edgeElem);
-                            boolean isHead = (head != null && head.equals("yes")) ? true : false;
-                            TreeNode parentNode = treeNodes.get(toId);
-                            TreeNode childNode = treeNodes.get(fromId);
-                            if ((parentNode == null) || (childNode == null)) {
-                                throw new KAFNotValidException(
-                                        "There is a problem with the edge(" + fromId + ", " + toId
-                                                + "). One of its targets doesn't exist.");
-                            }
-                            try {
-                                ((NonTerminal) parentNode).addChild(childNode);
-                            } catch (Exception e) {
-                            }
-                            rootNodes.put(fromId, false);
-                            if (edgeId != null) {
-                                childNode.setEdgeId(edgeId);
-                            }
-                            if (isHead) {
-                                ((NonTerminal) childNode).setHead(isHead);
-                            }
+                        rootNodes.put(fromId, false);
+                        if (edgeId != null) {
+                            childNode.setEdgeId(edgeId);
                         }
-                        // Constituent objects
-                        for (Map.Entry<String, Boolean> areRoot : rootNodes.entrySet()) {
-                            if (areRoot.getValue()) {
-                                TreeNode rootNode = treeNodes.get(areRoot.getKey());
-                                kaf.newConstituent(rootNode, sentence);
-                            }
+                        if (isHead) {
+                            ((NonTerminal) childNode).setHead(isHead);
                         }
                     }
-                } catch (Exception e) {
-                    // continue
-                }
-            } else if (elem.getName().equals("factualitylayer")) {
-                for (Element factElem : elem.getChildren("factvalue")) {
-                    String id = getAttribute("id", factElem);
-                    WF wf = wfIndex.get(id);
-                    List<Term> terms = kaf.getTermsByWFs(Collections.singletonList(wf));
-                    if (terms.isEmpty()) {
-                        System.err.println("Cannot detect term for factvalue ID " + id);
-                    } else {
-                        Factuality factuality = kaf.newFactuality(terms.get(0));
-                        for (Element partElem : factElem.getChildren("factuality")) {
-                            String prediction = getAttribute("prediction", partElem);
-                            double confidence = Double.parseDouble(getAttribute("confidence", partElem));
-                            factuality.addFactualityPart(prediction, confidence);
+                    // Constituent objects
+                    for (Map.Entry<String, Boolean> areRoot : rootNodes.entrySet()) {
+                        if (areRoot.getValue()) {
+                            TreeNode rootNode = treeNodes.get(areRoot.getKey());
+                            kaf.newConstituent(rootNode, sentence);
                         }
                     }
                 }
-            } else if (elem.getName().equals("linkedEntities")) {
-                for (Element entityElem : elem.getChildren("linkedEntity")) {
-                    String id = getAttribute("id", entityElem);
-                    Span<WF> span = KAFDocument.newWFSpan();
-                    List<Element> targetElems = entityElem.getChild("span").getChildren();
-                    if (targetElems.size() < 1) {
-                        throw new IllegalStateException(
-                                "Every span in an entity must contain at least one target inside");
+            } catch (Exception e) {
+                // continue
+            }
+        } else if (elem.getName().equals("factualitylayer")) {
+            for (Element factElem : elem.getChildren("factvalue")) {
+                String id = getAttribute("id", factElem);
+                WF wf = wfIndex.get(id);
+                List<Term> terms = kaf.getTermsByWFs(Collections.singletonList(wf));
+                if (terms.isEmpty()) {
+                    System.err.println("Cannot detect term for factvalue ID " + id);
+                } else {
+                    Factuality factuality = kaf.newFactuality(terms.get(0));
+                    for (Element partElem : factElem.getChildren("factuality")) {
+                        String prediction = getAttribute("prediction", partElem);
+                        double confidence = Double.parseDouble(getAttribute("confidence", partElem));
+                        factuality.addFactualityPart(prediction, confidence);
                     }
-                    for (Element targetElem : targetElems) {
-                        String targetWfId = getAttribute("id", targetElem);
-                        WF wf = wfIndex.get(targetWfId);
-                        if (wf == null) {
-                            throw new KAFNotValidException(
-                                    "WF " + targetWfId + " not found when loading linked entity " + id);
-                        }
-                        span.addTarget(wf);
+                }
+            }
+        } else if (elem.getName().equals("linkedEntities")) {
+            for (Element entityElem : elem.getChildren("linkedEntity")) {
+                String id = getAttribute("id", entityElem);
+                Span<WF> span = KAFDocument.newWFSpan();
+                List<Element> targetElems = entityElem.getChild("span").getChildren();
+                if (targetElems.size() < 1) {
+                    throw new IllegalStateException(
+                            "Every span in an entity must contain at least one target inside");
+                }
+                for (Element targetElem : targetElems) {
+                    String targetWfId = getAttribute("id", targetElem);
+                    WF wf = wfIndex.get(targetWfId);
+                    if (wf == null) {
+                        throw new KAFNotValidException(
+                                "WF " + targetWfId + " not found when loading linked entity " + id);
                     }
-                    LinkedEntity e = kaf.newLinkedEntity(id, span);
-                    e.setResource(getOptAttribute("resource", entityElem));
-                    e.setReference(getOptAttribute("reference", entityElem));
+                    span.addTarget(wf);
+                }
+                LinkedEntity e = kaf.newLinkedEntity(id, span);
+                e.setResource(getOptAttribute("resource", entityElem));
+                e.setReference(getOptAttribute("reference", entityElem));
 
-                    String spotted = getOptAttribute("spotted", entityElem);
-                    e.setSpotted(spotted != null && spotted.equals("true"));
+                String spotted = getOptAttribute("spotted", entityElem);
+                e.setSpotted(spotted != null && spotted.equals("true"));
 
-                    String confidence = getOptAttribute("confidence", entityElem);
-                    if (confidence != null) {
-                        e.setConfidence(Double.parseDouble(confidence));
-                    }
-                    Element typesElem = entityElem.getChild("types");
-                    if (typesElem != null) {
-                        for (Element topicElem : typesElem.getChildren("type")) {
-                            String category = getAttribute("source", topicElem);
-                            String label = getAttribute("label", topicElem);
-                            e.addType(category, label);
-                        }
-                    }
+                String confidence = getOptAttribute("confidence", entityElem);
+                if (confidence != null) {
+                    e.setConfidence(Double.parseDouble(confidence));
                 }
-            } else if (elem.getName().equals("SSTspans")) {
-                for (Element sstElem : elem.getChildren("sst")) {
-                    String id = getAttribute("id", sstElem);
-                    String type = getAttribute("type", sstElem);
-                    String label = getAttribute("label", sstElem);
-                    Span<Term> span = KAFDocument.newTermSpan();
-                    List<Element> targetElems = sstElem.getChild("span").getChildren();
-                    if (targetElems.size() < 1) {
-                        throw new IllegalStateException(
-                                "Every span in an entity must contain at least one target inside");
-                    }
-                    for (Element targetElem : targetElems) {
-                        String targetTermId = getAttribute("id", targetElem);
-                        Term term = termIndex.get(targetTermId);
-                        if (term == null) {
-                            throw new KAFNotValidException(
-                                    "Term " + targetTermId + " not found when loading sst " + id);
-                        }
-                        span.addTarget(term);
+                Element typesElem = entityElem.getChild("types");
+                if (typesElem != null) {
+                    for (Element topicElem : typesElem.getChildren("type")) {
+                        String category = getAttribute("source", topicElem);
+                        String label = getAttribute("label", topicElem);
+                        e.addType(category, label);
                     }
-                    kaf.newSST(span, type, label);
                 }
-            } else if (elem.getName().equals("topics")) {
-                for (Element topicElem : elem.getChildren("topic")) {
-                    String label = getAttribute("label", topicElem);
-                    float probability = Float.parseFloat(getAttribute("probability", topicElem));
-                    kaf.newTopic(label, probability);
+            }
+        } else if (elem.getName().equals("SSTspans")) {
+            for (Element sstElem : elem.getChildren("sst")) {
+                String id = getAttribute("id", sstElem);
+                String type = getAttribute("type", sstElem);
+                String label = getAttribute("label", sstElem);
+                Span<Term> span = KAFDocument.newTermSpan();
+                List<Element> targetElems = sstElem.getChild("span").getChildren();
+                if (targetElems.size() < 1) {
+                    throw new IllegalStateException(
+                            "Every span in an entity must contain at least one target inside");
+                }
+                for (Element targetElem : targetElems) {
+                    String targetTermId = getAttribute("id", targetElem);
+                    Term term = termIndex.get(targetTermId);
+                    if (term == null) {
+                        throw new KAFNotValidException(
+                                "Term " + targetTermId + " not found when loading sst " + id);
+                    }
+                    span.addTarget(term);
                 }
-            } else { // This layer is not recognised by the library
-                //elem.detach();
-                kaf.addUnknownLayer(elem);
+                kaf.newSST(span, type, label);
+            }
+        } else if (elem.getName().equals("topics")) {
+            for (Element topicElem : elem.getChildren("topic")) {
+                String label = getAttribute("label", topicElem);
+                float probability = Float.parseFloat(getAttribute("probability", topicElem));
+                kaf.newTopic(label, probability);
             }
+        } else { // This layer is not recognised by the library
+            //elem.detach();
+            kaf.addUnknownLayer(elem);
         }
-
-        return kaf;
     }
 
     private static void DOMToTerm(Element termElem, KAFDocument kaf, boolean isComponent, Map<String, WF> wfIndex,
@@ -1166,6 +1414,146 @@ class ReadWriteManager {
         return newExternalRef;
     }
 
+    /**
+     * Returns the given layers together with all the layers they (transitively) depend on.
+     */
+    static EnumSet<KAFDocument.Layer> withRequiredLayers(Set<KAFDocument.Layer> layers) {
+        EnumSet<KAFDocument.Layer> result = EnumSet.noneOf(KAFDocument.Layer.class);
+        Deque<KAFDocument.Layer> queue = new ArrayDeque<KAFDocument.Layer>(layers);
+        while (!queue.isEmpty()) {
+            KAFDocument.Layer layer = queue.removeFirst();
+            if (result.add(layer)) {
+                queue.addAll(LAYER_DEPENDENCIES.get(layer));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a top level element has to be loaded when only the given layers are requested.
+     */
+    private static boolean isSelected(String name, Set<KAFDocument.Layer> layers) {
+        if (name.equals("nafHeader") || name.equals("kafHeader") || name.equals("raw")) {
+            return true;
+        }
+        EnumSet<KAFDocument.Layer> elementLayers = LAYER_ELEMENTS.get(name);
+        if (elementLayers == null) {
+            return layers.contains(KAFDocument.Layer.unknown);
+        }
+        for (KAFDocument.Layer layer : elementLayers) {
+            if (layers.contains(layer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a layer has to be written when only the given layers (null for all) are requested.
+     */
+    private static boolean isWritten(KAFDocument.Layer layer, Set<KAFDocument.Layer> layers) {
+        return layers == null || layers.contains(layer);
+    }
+
+    /**
+     * Moves the reader past the end of the current element, without building anything.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++depth;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --depth;
+            }
+        }
+    }
+
+    /**
+     * Moves to the next child element of the current element, returning false if its end is reached instead.
+     */
+    private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Creates the element at the current START_ELEMENT event, with its namespaces and attributes but no content.
+     */
+    private static Element readShallowElement(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        String uri = reader.getNamespaceURI();
+        Element elem = new Element(reader.getLocalName(),
+                Namespace.getNamespace(prefix == null ? "" : prefix, uri == null ? "" : uri));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String nsPrefix = reader.getNamespacePrefix(i);
+            String nsUri = reader.getNamespaceURI(i);
+            Namespace ns = Namespace.getNamespace(nsPrefix == null ? "" : nsPrefix, nsUri == null ? "" : nsUri);
+            if (!ns.equals(elem.getNamespace())) {
+                elem.addNamespaceDeclaration(ns);
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attPrefix = reader.getAttributePrefix(i);
+            String attUri = reader.getAttributeNamespace(i);
+            Namespace ns = attUri == null || attUri.isEmpty() ? Namespace.NO_NAMESPACE
+                    : Namespace.getNamespace(attPrefix == null ? "" : attPrefix, attUri);
+            elem.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i), ns);
+        }
+        return elem;
+    }
+
+    /**
+     * Reads the element at the current START_ELEMENT event with all its content, as SAXBuilder would do, leaving
+     * the reader on the corresponding END_ELEMENT event.
+     */
+    private static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+        Element elem = readShallowElement(reader);
+        StringBuilder text = new StringBuilder();
+        boolean cdata = false;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE
+                    || event == XMLStreamConstants.CDATA) {
+                if (cdata != (event == XMLStreamConstants.CDATA)) {
+                    flushText(elem, text, cdata);
+                    cdata = !cdata;
+                }
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                continue;
+            }
+            flushText(elem, text, cdata);
+            cdata = false;
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                elem.addContent(readElement(reader));
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return elem;
+            } else if (event == XMLStreamConstants.COMMENT) {
+                elem.addContent(new org.jdom2.Comment(reader.getText()));
+            } else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+                elem.addContent(new ProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+            } else if (event == XMLStreamConstants.ENTITY_REFERENCE) {
+                elem.addContent(new EntityRef(reader.getLocalName()));
+            }
+        }
+    }
+
+    private static void flushText(Element elem, StringBuilder text, boolean cdata) {
+        if (cdata) {
+            elem.addContent(new CDATA(text.toString()));
+        } else if (text.length() > 0) {
+            elem.addContent(new Text(text.toString()));
+        }
+        text.setLength(0);
+    }
+
     private static String getAttribute(String attName, Element elem) {
         String value = elem.getAttributeValue(attName);
         if (value == null) {
@@ -1219,18 +1607,21 @@ class ReadWriteManager {
     }
 
     /**
-     * Returns the content of the given KAFDocument in a DOM document.
+     * Converts the content of the given KAFDocument to DOM elements, one layer at a time: the root element and
+     * then each layer element are passed to the given output, which can write them out as they are produced. If a
+     * set of layers is given, only the header and those layers are converted.
      */
-    private static Document KAFToDOM(KAFDocument kaf) {
+    private static void KAFToDOM(KAFDocument kaf, Set<KAFDocument.Layer> layers, LayerOutput out)
+            throws IOException {
         AnnotationContainer annotationContainer = kaf.getAnnotationContainer();
         Element root = new Element("NAF");
         root.setAttribute("lang", kaf.getLang(), Namespace.XML_NAMESPACE);
         root.setAttribute("version", kaf.getVersion());
 
-        Document doc = new Document(root);
+        out.start(root);
 
         Element kafHeaderElem = new Element("nafHeader");
-        root.addContent(kafHeaderElem);
+        out.add(kafHeaderElem);
 
         KAFDocument.FileDesc fd = kaf.getFileDesc();
         if (fd != null) {
@@ -1293,15 +1684,15 @@ class ReadWriteManager {
         }
 
         String rawText = annotationContainer.getRawText();
-        if (rawText.length() > 0) {
+        if (layers == null && rawText.length() > 0) {
             Element rawElem = new Element("raw");
             CDATA cdataElem = new CDATA(rawText);
             rawElem.addContent(cdataElem);
-            root.addContent(rawElem);
+            out.add(rawElem);
         }
 
         List<WF> text = annotationContainer.getText();
-        if (text.size() > 0) {
+        if (text.size() > 0 && isWritten(KAFDocument.Layer.text, layers)) {
             Element textElem = new Element("text");
             for (WF wf : text) {
                 Element wfElem = new Element("wf");
@@ -1325,19 +1716,20 @@ class ReadWriteManager {
                 wfElem.setText(wf.getForm());
                 textElem.addContent(wfElem);
             }
-            root.addContent(textElem);
+            out.add(textElem);
         }
 
         List<Term> terms = annotationContainer.getTerms();
-        if (terms.size() > 0) {
+        if (terms.size() > 0 && isWritten(KAFDocument.Layer.terms, layers)) {
             Element termsElem = new Element("terms");
             for (Term term : terms) {
                 termToDOM(term, false, termsElem);
             }
-            root.addContent(termsElem);
+            out.add(termsElem);
         }
 
-        List<String> markSources = annotationContainer.getMarkSources();
+        List<String> markSources = isWritten(KAFDocument.Layer.marks, layers) ? annotationContainer.getMarkSources()
+                : Collections.<String>emptyList();
         for (String source : markSources) {
             List<Mark> marks = annotationContainer.getMarks(source);
             if (marks.size() > 0) {
@@ -1381,12 +1773,12 @@ class ReadWriteManager {
                     }
                     marksElem.addContent(markElem);
                 }
-                root.addContent(marksElem);
+                out.add(marksElem);
             }
         }
 
         List<Dep> deps = annotationContainer.getDeps();
-        if (deps.size() > 0) {
+        if (deps.size() > 0 && isWritten(KAFDocument.Layer.deps, layers)) {
             Element depsElem = new Element("deps");
             for (Dep dep : deps) {
                 Comment depComment = new Comment(dep.getStr());
@@ -1400,11 +1792,11 @@ class ReadWriteManager {
                 }
                 depsElem.addContent(depElem);
             }
-            root.addContent(depsElem);
+            out.add(depsElem);
         }
 
         List<Chunk> chunks = annotationContainer.getChunks();
-        if (chunks.size() > 0) {
+        if (chunks.size() > 0 && isWritten(KAFDocument.Layer.chunks, layers)) {
             Element chunksElem = new Element("chunks");
             for (Chunk chunk : chunks) {
                 Comment chunkComment = new Comment(chunk.getStr());
@@ -1427,11 +1819,11 @@ class ReadWriteManager {
                 chunkElem.addContent(spanElem);
                 chunksElem.addContent(chunkElem);
             }
-            root.addContent(chunksElem);
+            out.add(chunksElem);
         }
 
         List<Entity> entities = annotationContainer.getEntities();
-        if (entities.size() > 0) {
+        if (entities.size() > 0 && isWritten(KAFDocument.Layer.entities, layers)) {
             Element entitiesElem = new Element("entities");
             for (Entity entity : entities) {
                 Element entityElem = new Element("entity");
@@ -1465,11 +1857,11 @@ class ReadWriteManager {
                 }
                 entitiesElem.addContent(entityElem);
             }
-            root.addContent(entitiesElem);
+            out.add(entitiesElem);
         }
 
         List<Coref> corefs = annotationContainer.getCorefs();
-        if (corefs.size() > 0) {
+        if (corefs.size() > 0 && isWritten(KAFDocument.Layer.coreferences, layers)) {
             Element corefsElem = new Element("coreferences");
             for (Coref coref : corefs) {
                 Element corefElem = new Element("coref");
@@ -1501,11 +1893,11 @@ class ReadWriteManager {
                 }
                 corefsElem.addContent(corefElem);
             }
-            root.addContent(corefsElem);
+            out.add(corefsElem);
         }
 
         List<Timex3> timeExs = annotationContainer.getTimeExs();
-        if (timeExs.size() > 0) {
+        if (timeExs.size() > 0 && isWritten(KAFDocument.Layer.timeExpressions, layers)) {
             Element timeExsElem = new Element("timeExpressions");
             for (Timex3 timex3 : timeExs) {
                 Element timex3Elem = new Element("timex3");
@@ -1578,11 +1970,11 @@ class ReadWriteManager {
 		*/
                 timeExsElem.addContent(timex3Elem);
             }
-            root.addContent(timeExsElem);
+            out.add(timeExsElem);
         }
 
         List<Factuality> factualities = annotationContainer.getFactualities();
-        if (factualities.size() > 0) {
+        if (factualities.size() > 0 && isWritten(KAFDocument.Layer.factuality, layers)) {
             Element factsElement = new Element("factualitylayer");
             for (Factuality f : factualities) {
                 try {
@@ -1603,11 +1995,11 @@ class ReadWriteManager {
                     // continue
                 }
             }
-            root.addContent(factsElement);
+            out.add(factsElement);
         }
 
         List<LinkedEntity> linkedEntities = annotationContainer.getLinkedEntities();
-        if (linkedEntities.size() > 0) {
+        if (linkedEntities.size() > 0 && isWritten(KAFDocument.Layer.linkedEntities, layers)) {
             Element linkedEntityElement = new Element("linkedEntities");
             for (LinkedEntity e : linkedEntities) {
                 Element lEnt = new Element("linkedEntity");
@@ -1642,11 +2034,11 @@ class ReadWriteManager {
 
                 linkedEntityElement.addContent(lEnt);
             }
-            root.addContent(linkedEntityElement);
+            out.add(linkedEntityElement);
         }
 
         List<SSTspan> ssts = annotationContainer.getSstSpans();
-        if (ssts.size() > 0) {
+        if (ssts.size() > 0 && isWritten(KAFDocument.Layer.SSTspans, layers)) {
             Element linkedEntityElement = new Element("SSTspans");
             for (SSTspan s : ssts) {
                 Element lEnt = new Element("sst");
@@ -1666,11 +2058,11 @@ class ReadWriteManager {
 
                 linkedEntityElement.addContent(lEnt);
             }
-            root.addContent(linkedEntityElement);
+            out.add(linkedEntityElement);
         }
 
         List<Topic> topics = annotationContainer.getTopics();
-        if (topics.size() > 0) {
+        if (topics.size() > 0 && isWritten(KAFDocument.Layer.topics, layers)) {
             Element topicLayer = new Element("topics");
             for (Topic t : topics) {
                 Element topicElement = new Element("topic");
@@ -1678,12 +2070,12 @@ class ReadWriteManager {
                 topicElement.setAttribute("probability", Float.toString(t.getProbability()));
                 topicLayer.addContent(topicElement);
             }
-            root.addContent(topicLayer);
+            out.add(topicLayer);
         }
 
         Element featuresElem = new Element("features");
         List<Feature> properties = annotationContainer.getProperties();
-        if (properties.size() > 0) {
+        if (properties.size() > 0 && isWritten(KAFDocument.Layer.properties, layers)) {
             Element propertiesElem = new Element("properties");
             for (Feature property : properties) {
                 Element propertyElem = new Element("property");
@@ -1711,7 +2103,7 @@ class ReadWriteManager {
             featuresElem.addContent(propertiesElem);
         }
         List<Feature> categories = annotationContainer.getCategories();
-        if (categories.size() > 0) {
+        if (categories.size() > 0 && isWritten(KAFDocument.Layer.categories, layers)) {
             Element categoriesElem = new Element("categories");
             for (Feature category : categories) {
                 Element categoryElem = new Element("category");
@@ -1739,11 +2131,11 @@ class ReadWriteManager {
             featuresElem.addContent(categoriesElem);
         }
         if (featuresElem.getChildren().size() > 0) {
-            root.addContent(featuresElem);
+            out.add(featuresElem);
         }
 
         List<Opinion> opinions = annotationContainer.getOpinions();
-        if (opinions.size() > 0) {
+        if (opinions.size() > 0 && isWritten(KAFDocument.Layer.opinions, layers)) {
             Element opinionsElem = new Element("opinions");
             for (Opinion opinion : opinions) {
                 Element opinionElem = new Element("opinion");
@@ -1852,11 +2244,11 @@ class ReadWriteManager {
 
                 opinionsElem.addContent(opinionElem);
             }
-            root.addContent(opinionsElem);
+            out.add(opinionsElem);
         }
 
         List<Relation> relations = annotationContainer.getRelations();
-        if (relations.size() > 0) {
+        if (relations.size() > 0 && isWritten(KAFDocument.Layer.relations, layers)) {
             Element relationsElem = new Element("relations");
             for (Relation relation : relations) {
                 Comment comment = new Comment(relation.getStr());
@@ -1870,11 +2262,11 @@ class ReadWriteManager {
                 }
                 relationsElem.addContent(relationElem);
             }
-            root.addContent(relationsElem);
+            out.add(relationsElem);
         }
 
         List<Predicate> predicates = annotationContainer.getPredicates();
-        if (predicates.size() > 0) {
+        if (predicates.size() > 0 && isWritten(KAFDocument.Layer.srl, layers)) {
             Element predicatesElem = new Element("srl");
             for (Predicate predicate : predicates) {
                 Comment predicateComment = new Comment(predicate.getStr());
@@ -1956,11 +2348,11 @@ class ReadWriteManager {
                 }
                 predicatesElem.addContent(predicateElem);
             }
-            root.addContent(predicatesElem);
+            out.add(predicatesElem);
         }
 
         HashMap<Integer, String> conStrings = annotationContainer.getConstituencyStrings();
-        if (conStrings.size() > 0) {
+        if (conStrings.size() > 0 && isWritten(KAFDocument.Layer.constituency, layers)) {
             Element constituentsElem = new Element("constituencyStrings");
             for (Integer sent : conStrings.keySet()) {
                 String constituencyString = conStrings.get(sent);
@@ -1969,11 +2361,11 @@ class ReadWriteManager {
                 treeElem.addContent(constituencyString);
                 constituentsElem.addContent(treeElem);
             }
-            root.addContent(constituentsElem);
+            out.add(constituentsElem);
         }
 
         List<Tree> constituents = annotationContainer.getConstituents();
-        if (constituents.size() > 0) {
+        if (constituents.size() > 0 && isWritten(KAFDocument.Layer.constituency, layers)) {
             Element constituentsElem = new Element("constituency");
             for (Tree tree : constituents) {
                 Element treeElem = new Element("tree");
@@ -2046,11 +2438,11 @@ class ReadWriteManager {
                     treeElem.addContent(edgeElem);
                 }
             }
-            root.addContent(constituentsElem);
+            out.add(constituentsElem);
         }
 
         List<TLink> tLinks = annotationContainer.getTLinks();
-        if (tLinks.size() > 0) {
+        if (tLinks.size() > 0 && isWritten(KAFDocument.Layer.temporalRelations, layers)) {
             Element tLinksElem = new Element("temporalRelations");
             for (TLink tLink : tLinks) {
                 Comment tLinkComment = new Comment
@@ -2065,11 +2457,11 @@ class ReadWriteManager {
                 tLinkElem.setAttribute("relType", tLink.getRelType());
                 tLinksElem.addContent(tLinkElem);
             }
-            root.addContent(tLinksElem);
+            out.add(tLinksElem);
         }
 
         List<CLink> cLinks = annotationContainer.getCLinks();
-        if (cLinks.size() > 0) {
+        if (cLinks.size() > 0 && isWritten(KAFDocument.Layer.causalRelations, layers)) {
             Element cLinksElem = new Element("causalRelations");
             for (CLink cLink : cLinks) {
                 String commentStr = "";
@@ -2088,16 +2480,17 @@ class ReadWriteManager {
                 }
                 cLinksElem.addContent(cLinkElem);
             }
-            root.addContent(cLinksElem);
+            out.add(cLinksElem);
         }
 
-        List<Element> unknownLayers = annotationContainer.getUnknownLayers();
+        List<Element> unknownLayers = isWritten(KAFDocument.Layer.unknown, layers)
+                ? annotationContainer.getUnknownLayers() : Collections.<Element>emptyList();
         for (Element layer : unknownLayers) {
             layer.detach();
-            root.addContent(layer);
+            out.add(layer);
         }
 
-        return doc;
+        out.end();
     }
 
     private static void termToDOM(Term term, boolean isComponent, Element termsElem) {
@@ -2252,4 +2645,97 @@ class ReadWriteManager {
         }
         return Integer.valueOf(matcher.group(1));
     }
+
+    private static final class Indexes {
+
+        final HashMap<String, WF> wfIndex = new HashMap<String, WF>();
+        final HashMap<String, Term> termIndex = new HashMap<String, Term>();
+        final HashMap<String, Relational> relationalIndex = new HashMap<String, Relational>();
+        final HashMap<String, Timex3> timexIndex = new HashMap<String, Timex3>();
+        final HashMap<String, Predicate> predicateIndex = new HashMap<String, Predicate>();
+    }
+
+    /**
+     * Receives the root and the layer elements of a document from {@link #KAFToDOM(KAFDocument, Set, LayerOutput)}.
+     * A layer element may still be filled after being added, until the next one is added or the document ends.
+     */
+    interface LayerOutput {
+
+        void start(Element root) throws IOException;
+
+        void add(Element layer) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    /**
+     * Prints the layers created by {@link #KAFToDOM(KAFDocument, Set, LayerOutput)} as soon as they are complete,
+     * with the same formatting XMLOutputter would use for the whole document. As a layer may still be filled after
+     * being added, it is printed when the next one is added (or at the end).
+     */
+    private static final class LayerWriter extends AbstractXMLOutputProcessor implements LayerOutput {
+
+        private final Writer out;
+        private final FormatStack fstack;
+        private final NamespaceStack nstack = new NamespaceStack();
+        private Element root = null;
+        private Element pending = null;
+        private boolean empty = true;
+
+        LayerWriter(Writer out, Format format) {
+            this.out = out;
+            this.fstack = new FormatStack(format);
+        }
+
+        @Override
+        public void start(Element root) throws IOException {
+            this.root = root;
+            printDeclaration(out, fstack);
+            nstack.push(root);
+            write(out, "<");
+            write(out, root.getQualifiedName());
+            for (Namespace ns : nstack.addedForward()) {
+                printNamespace(out, fstack, ns);
+            }
+            for (Attribute attribute : root.getAttributes()) {
+                printAttribute(out, fstack, attribute);
+            }
+            fstack.push();
+        }
+
+        @Override
+        public void add(Element layer) throws IOException {
+            flush();
+            pending = layer;
+        }
+
+        @Override
+        public void end() throws IOException {
+            flush();
+            fstack.pop();
+            if (empty) {
+                write(out, fstack.isExpandEmptyElements() ? "></" + root.getQualifiedName() + ">" : " />");
+            } else {
+                textRaw(out, fstack.getPadLast());
+                write(out, "</");
+                write(out, root.getQualifiedName());
+                write(out, ">");
+            }
+            nstack.pop();
+            write(out, fstack.getLineSeparator());
+        }
+
+        private void flush() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            if (empty) {
+                write(out, ">");
+                empty = false;
+            }
+            textRaw(out, fstack.getPadBetween());
+            printElement(out, fstack, nstack, pending);
+            pending = null;
+        }
+    }
 }
@@ -38,6 +38,9 @@ public class Timex3 implements TLinkReferable, Serializable {
 
     private Span<WF> span;
 
+    /** Container of the time expression, whose indexes are dropped when the span changes */
+    transient AnnotationContainer container;
+
     /** Mentions to the same entity (at least one required) */
     //private List<Span<WF>> mentions;
 
@@ -246,6 +249,9 @@ public class Timex3 implements TLinkReferable, Serializable {
     }
 
     public void setSpan(Span<WF> span) {
+	if (container != null) {
+	    container.changing(this);
+	}
 	this.span = span;
     }
 
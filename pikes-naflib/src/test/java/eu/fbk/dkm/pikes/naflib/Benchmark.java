@@ -0,0 +1,103 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Times alternative ways of doing the same work, for the benchmark mains of the tests of all the modules. Tasks are
+ * run in turn, first as many times as requested to warm up the JVM and then as many times again to time them; the
+ * best time of each task is kept. A task may have a set up step, run before each run of the task and not timed.
+ * <p>
+ * The result of the last run of each task is kept, so that it is not optimized away and it can be checked by the
+ * caller.
+ */
+
+public final class Benchmark {
+
+    /**
+     * A timed task, working on the value returned by its set up step (null if there is none).
+     */
+    public interface Task<T> {
+
+        Object run(T input) throws Exception;
+
+    }
+
+    private final List<String> labels = new ArrayList<String>();
+
+    private final List<Callable<?>> setUps = new ArrayList<Callable<?>>();
+
+    private final List<Task<Object>> tasks = new ArrayList<Task<Object>>();
+
+    private long[] nanos = new long[0];
+
+    private Object[] results = new Object[0];
+
+    /**
+     * Adds a task with no set up step.
+     */
+    public Benchmark add(String label, Callable<?> task) {
+        return add(label, null, (Object input) -> task.call());
+    }
+
+    /**
+     * Adds a task whose input is returned by a set up step, not included in its time.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Benchmark add(String label, Callable<? extends T> setUp, Task<? super T> task) {
+        this.labels.add(label);
+        this.setUps.add(setUp);
+        this.tasks.add((Task<Object>) task);
+        return this;
+    }
+
+    /**
+     * Runs the tasks {@code runs} times to warm up and {@code runs} times to time them.
+     */
+    public Benchmark run(int runs) throws Exception {
+        int size = this.tasks.size();
+        this.nanos = new long[size];
+        this.results = new Object[size];
+        for (int run = 0; run < 2 * runs; ++run) {
+            for (int i = 0; i < size; ++i) {
+                Object input = this.setUps.get(i) == null ? null : this.setUps.get(i).call();
+                long start = System.nanoTime();
+                this.results[i] = this.tasks.get(i).run(input);
+                long elapsed = System.nanoTime() - start;
+                if (run == runs || run > runs && elapsed < this.nanos[i]) {
+                    this.nanos[i] = elapsed;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the best time of a task, in milliseconds.
+     */
+    public double millis(int task) {
+        return this.nanos[task] / 1e6;
+    }
+
+    /**
+     * Returns the result of the last run of a task.
+     */
+    public Object result(int task) {
+        return this.results[task];
+    }
+
+    /**
+     * Returns the best times of the tasks, as in {@code label1 12.3 ms, label2 4.5 ms}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.labels.size(); ++i) {
+            builder.append(i == 0 ? "" : ", ").append(this.labels.get(i));
+            builder.append(String.format(" %.1f ms", millis(i)));
+        }
+        return builder.toString();
+    }
+
+}
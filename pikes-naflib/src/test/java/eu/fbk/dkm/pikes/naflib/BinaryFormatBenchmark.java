@@ -0,0 +1,51 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares size, reading and writing time of the XML and binary NAF formats, on the NAF files given on the command
+ * line. Correctness of the binary format is tested by {@link BinaryFormatTest}.
+ * <p>
+ * Usage: BinaryFormatBenchmark file.naf...
+ */
+
+public class BinaryFormatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            KAFDocument document = KAFDocument.createFromFile(new File(arg));
+            byte[] xml = document.toString().getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.saveBinary(out);
+            byte[] binary = out.toByteArray();
+
+            Benchmark benchmark = new Benchmark() //
+                    .add("read XML", () -> KAFDocument.createFromStream(new ByteArrayInputStream(xml))) //
+                    .add("read binary", () -> KAFDocument.createFromStream(new ByteArrayInputStream(binary))) //
+                    .add("write XML", () -> write(document, false)) //
+                    .add("write binary", () -> write(document, true)) //
+                    .run(5);
+
+            System.out.println(String.format("%s: size %d -> %d bytes (%.1f%%), %s", arg, xml.length,
+                    binary.length, 100.0 * binary.length / xml.length, benchmark));
+        }
+    }
+
+    private static Object write(KAFDocument document, boolean binary) throws Exception {
+        if (binary) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.saveBinary(out);
+            return out;
+        }
+        StringWriter writer = new StringWriter();
+        document.save(writer);
+        return writer;
+    }
+
+}
@@ -0,0 +1,123 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.BinaryFormat;
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import com.google.common.base.Strings;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the binary NAF format written by {@link KAFDocument#saveBinary} is lossless.
+ */
+
+public class BinaryFormatTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        assertLossless(TestDocuments.createXML(3));
+    }
+
+    @Test
+    public void idSuffixes() throws IOException {
+        // ids and values whose numeric suffix may or may not be encoded as a number without changing the string
+        String[] ids = { "w1", "w_3", "w007", "w0", "w2147483647", "12", "w-1", "w1a", "word" };
+        String[] values = { "1", "007", "0", "99999999999999999999", "-1", "1.5", "x1", "", " 1" };
+        KAFDocument document = new KAFDocument("en", "v3");
+        int offset = 0;
+        for (int i = 0; i < ids.length; ++i) {
+            WF wf = document.newWF(ids[i], "form" + i, 1);
+            wf.setOffset(offset);
+            wf.setLength(5);
+            offset += 6;
+            Term term = document.newTerm(ids[i].replace('w', 't'), KAFDocument.newWFSpan(Arrays.asList(wf)));
+            term.setLemma(values[i]);
+        }
+        String xml = document.toString();
+        for (int i = 0; i < ids.length; ++i) {
+            Assert.assertTrue(xml.contains("id=\"" + ids[i] + "\""));
+            Assert.assertTrue(xml.contains("lemma=\"" + values[i] + "\""));
+        }
+        assertLossless(xml);
+    }
+
+    @Test
+    public void emptyDocument() throws IOException {
+        assertLossless(new KAFDocument("en", "v3").toString());
+    }
+
+    @Test
+    public void emptyAndUnknownLayers() throws IOException {
+        String xml = TestDocuments.createXML(1);
+        int index = xml.lastIndexOf("</NAF>");
+        xml = xml.substring(0, index) + "<emptyLayer /><otherLayer xmlns:x=\"http://example.org/x#\" x:id=\"o1\">"
+                + "<!-- comment --><x:item value=\"007\"><![CDATA[a < b & c]]></x:item><?target data?>"
+                + "</otherLayer>" + xml.substring(index);
+        xml = KAFDocument.createFromStream(new StringReader(xml)).toString();
+        Assert.assertTrue(xml.contains("<emptyLayer />"));
+        Assert.assertTrue(xml.contains("<!-- comment -->"));
+        assertLossless(xml);
+    }
+
+    @Test
+    public void longAndNonAsciiStrings() throws IOException {
+        KAFDocument document = TestDocuments.create(1);
+        String text = Strings.repeat("perché – ", 200);
+        document.setRawText(text);
+        document.getTerms().get(0).setLemma(Strings.repeat("ü", 100));
+        assertLossless(document.toString());
+    }
+
+    @Test
+    public void selectedLayers() throws IOException {
+        String xml = TestDocuments.createXML(2);
+        byte[] binary = toBinary(xml);
+        for (KAFDocument.Layer layer : new KAFDocument.Layer[] { KAFDocument.Layer.deps,
+                KAFDocument.Layer.constituency, KAFDocument.Layer.categories, KAFDocument.Layer.unknown }) {
+            EnumSet<KAFDocument.Layer> layers = EnumSet.of(layer);
+            Assert.assertEquals(KAFDocument.createFromStream(new StringReader(xml), layers).toString(),
+                    KAFDocument.createFromStream(new ByteArrayInputStream(binary), layers).toString());
+        }
+    }
+
+    @Test
+    public void isBinary() throws IOException {
+        String xml = TestDocuments.createXML(1);
+        byte[] binary = toBinary(xml);
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(binary));
+        Assert.assertTrue(BinaryFormat.isBinary(stream));
+        Assert.assertEquals(binary[0], stream.read()); // not consumed
+        Assert.assertFalse(BinaryFormat.isBinary(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+        Assert.assertFalse(BinaryFormat.isBinary(new ByteArrayInputStream(Arrays.copyOf(binary, 3))));
+        Assert.assertFalse(BinaryFormat.isBinary(new ByteArrayInputStream(new byte[0])));
+    }
+
+    private static void assertLossless(String xml) throws IOException {
+        byte[] binary = toBinary(xml);
+        KAFDocument document = KAFDocument.createFromStream(new ByteArrayInputStream(binary));
+        Assert.assertEquals(xml, document.toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.saveBinary(out);
+        Assert.assertArrayEquals(binary, out.toByteArray());
+    }
+
+    private static byte[] toBinary(String xml) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KAFDocument.createFromStream(new StringReader(xml)).saveBinary(out);
+        return out.toByteArray();
+    }
+
+}
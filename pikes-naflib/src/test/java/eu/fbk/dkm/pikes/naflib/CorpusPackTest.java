@@ -0,0 +1,135 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a {@link Corpus} read from a {@link CorpusPack} returns the same documents of the corpus the pack was
+ * written from, by ordinal and by name.
+ */
+
+public class CorpusPackTest {
+
+    private static final int[] COPIES = { 1, 12, 2, 3, 1, 8, 5 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Corpus corpus;
+
+    private Path pack;
+
+    @Before
+    public void createCorpus() throws IOException {
+        File input = this.folder.newFolder("input");
+        File sub = new File(input, "sub");
+        sub.mkdir();
+        for (int i = 0; i < COPIES.length; ++i) {
+            File parent = i % 3 == 0 ? sub : input;
+            String xml = TestDocuments.createXML(COPIES[i]);
+            if (i % 3 == 1) {
+                try (OutputStream out = new FileOutputStream(new File(parent, String.format("doc%02d.nafb", i)))) {
+                    KAFDocument.createFromStream(new StringReader(xml)).saveBinary(out);
+                }
+            } else if (i % 3 == 2) {
+                try (OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(parent, String.format(
+                        "doc%02d.naf.gz", i))))) {
+                    out.write(xml.getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                Files.write(new File(parent, String.format("doc%02d.naf", i)).toPath(),
+                        xml.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        byte[] noise = new byte[1000]; // not compressible, hence stored as it is
+        new Random(0).nextBytes(noise);
+        Files.write(new File(input, "noise.naf").toPath(), noise);
+
+        this.corpus = Corpus.create(true, input);
+        this.pack = this.folder.getRoot().toPath().resolve("corpus" + CorpusPack.EXTENSION);
+        CorpusPack.write(this.corpus, this.pack);
+    }
+
+    @Test
+    public void documentsByOrdinal() throws IOException {
+        Corpus packed = Corpus.create(false, this.pack.toFile());
+        Assert.assertEquals(this.corpus.size(), packed.size());
+        Assert.assertEquals(this.pack, packed.path());
+        for (int i = 0; i < this.corpus.size(); ++i) {
+            int j = indexOf(packed, this.corpus.name(i));
+            Assert.assertArrayEquals(this.corpus.name(i), this.corpus.bytes(i), packed.bytes(j));
+            assertSameDocument(this.corpus.get(i), packed.get(j));
+        }
+    }
+
+    @Test
+    public void documentsByName() throws IOException {
+        Corpus packed = Corpus.create(false, this.pack.toFile());
+        CorpusPack corpusPack = CorpusPack.open(this.pack);
+        Assert.assertEquals(this.corpus.size(), corpusPack.size());
+        for (int i = 0; i < this.corpus.size(); ++i) {
+            String name = this.corpus.name(i);
+            Path file = this.pack.resolve(name);
+            Assert.assertEquals(file, packed.file(file));
+            Assert.assertArrayEquals(name, this.corpus.bytes(i), corpusPack.read(name));
+            assertSameDocument(this.corpus.get(i), packed.get(file));
+            assertSameDocument(this.corpus.get(i), packed.get(file.toString()));
+        }
+        Assert.assertTrue(corpusPack.indexOf("missing.naf") < 0);
+    }
+
+    @Test
+    public void packIsReopenedAfterClose() throws IOException {
+        Corpus packed = Corpus.create(false, this.pack.toFile());
+        CorpusPack corpusPack = CorpusPack.open(this.pack);
+        Assert.assertSame(corpusPack, CorpusPack.open(this.pack));
+        corpusPack.close();
+        Assert.assertNotSame(corpusPack, CorpusPack.open(this.pack));
+        int last = packed.size() - 1;
+        Assert.assertArrayEquals(this.corpus.bytes(indexOf(this.corpus, packed.name(last))), packed.bytes(last));
+
+        // writing a pack again replaces the open one
+        CorpusPack.write(Corpus.create(false, new File(this.folder.getRoot(), "input/sub")), this.pack);
+        Assert.assertEquals(3, CorpusPack.open(this.pack).size());
+        CorpusPack.open(this.pack).close();
+    }
+
+    private static int indexOf(Corpus corpus, String name) {
+        for (int i = 0; i < corpus.size(); ++i) {
+            if (corpus.name(i).equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No document " + name);
+    }
+
+    // Documents are compared after aligning their ids, which contain the compression extension of the original file
+    private static void assertSameDocument(KAFDocument expected, KAFDocument actual) {
+        if (expected == null || actual == null) {
+            Assert.assertSame(expected, actual);
+            return;
+        }
+        Assert.assertTrue(expected.getPublic().publicId.startsWith(actual.getPublic().publicId));
+        expected.getPublic().publicId = actual.getPublic().publicId;
+        expected.getPublic().uri = actual.getPublic().uri;
+        Assert.assertEquals(Objects.toString(expected), Objects.toString(actual));
+    }
+
+}
@@ -0,0 +1,98 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that streaming a {@link Corpus} returns each document with its own content and in order, sequentially and
+ * in parallel, whatever the read-ahead configuration.
+ */
+
+public class CorpusTest {
+
+    private static final int[] COPIES = { 1, 12, 2, 3, 1, 8, 5, 1, 2, 1, 16, 2 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Corpus corpus;
+
+    private List<String> expected;
+
+    @Before
+    public void createCorpus() throws IOException {
+        File sub = this.folder.newFolder("sub");
+        for (int i = 0; i < COPIES.length; ++i) {
+            File parent = i % 3 == 0 ? sub : this.folder.getRoot();
+            String xml = TestDocuments.createXML(COPIES[i]);
+            if (i % 4 == 0) {
+                try (OutputStream out = new FileOutputStream(new File(parent, String.format("doc%02d.nafb", i)))) {
+                    KAFDocument.createFromStream(new StringReader(xml)).saveBinary(out);
+                }
+            } else {
+                Files.write(new File(parent, String.format("doc%02d.naf", i)).toPath(),
+                        xml.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        this.corpus = Corpus.create(true, this.folder.getRoot());
+        this.expected = new ArrayList<String>();
+        for (int i = 0; i < this.corpus.size(); ++i) {
+            this.expected.add(Objects.toString(this.corpus.get(i)));
+        }
+        Assert.assertEquals(COPIES.length, this.corpus.size());
+        Assert.assertFalse(this.expected.contains("null"));
+    }
+
+    @Test
+    public void withoutReadAhead() {
+        assertStreamed(this.corpus.withReadAhead(0, 0));
+    }
+
+    @Test
+    public void readAheadSmallerThanDocuments() {
+        // every document is larger than the byte limit, so only the next one is read ahead
+        assertStreamed(this.corpus.withReadAhead(4, 1));
+    }
+
+    @Test
+    public void readAheadSmallerThanSomeDocuments() {
+        assertStreamed(this.corpus.withReadAhead(4, new File(this.folder.getRoot(), "doc01.naf").length() * 8));
+    }
+
+    @Test
+    public void readAheadWithoutByteLimit() {
+        assertStreamed(this.corpus.withReadAhead(4, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readAheadOneDocument() {
+        assertStreamed(this.corpus.withReadAhead(1, Long.MAX_VALUE));
+    }
+
+    private void assertStreamed(Corpus corpus) {
+        for (boolean parallel : new boolean[] { false, true }) {
+            Stream<KAFDocument> stream = parallel ? corpus.parallelStream() : corpus.stream();
+            List<String> actual = stream.map(Objects::toString).collect(Collectors.toList());
+            Assert.assertEquals(parallel ? "parallel" : "sequential", this.expected, actual);
+        }
+    }
+
+}
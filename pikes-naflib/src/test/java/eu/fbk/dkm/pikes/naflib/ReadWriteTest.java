@@ -0,0 +1,92 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.jdom2.Document;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.LineSeparator;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that NAF documents written one layer at a time are byte-identical to the output of {@link XMLOutputter} on
+ * the whole DOM document, and that reading and writing a document gives back the same XML. The document of
+ * {@link TestDocuments#createXML(int)} is also compared with {@code golden.naf}, written by the DOM reader and writer
+ * that preceded the StAX ones (commit 1047da3).
+ */
+
+public class ReadWriteTest {
+
+    @Test
+    public void writerMatchesXMLOutputter() throws Exception {
+        assertSameAsXMLOutputter(TestDocuments.createXML(3));
+    }
+
+    @Test
+    public void writerMatchesGoldenFile() throws Exception {
+        Assert.assertEquals(readGoldenFile(), TestDocuments.createXML(3));
+    }
+
+    @Test
+    public void goldenFileRoundTrip() throws Exception {
+        String xml = readGoldenFile();
+        Assert.assertEquals(xml, KAFDocument.createFromStream(new StringReader(xml)).toString());
+    }
+
+    @Test
+    public void writerMatchesXMLOutputterOnEscapedText() throws Exception {
+        KAFDocument document = new KAFDocument("it", "v3");
+        StringBuilder text = new StringBuilder();
+        for (String token : new String[] { "A&B", "<tag>", "\"quoted\"", "perché", "–" }) {
+            WF wf = document.newWF(token, text.length(), 1);
+            text.append(token).append(' ');
+            Term term = document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+            term.setLemma(token + "'");
+        }
+        document.setRawText(text.toString());
+        assertSameAsXMLOutputter(document.toString());
+    }
+
+    @Test
+    public void emptyDocument() throws Exception {
+        assertSameAsXMLOutputter(new KAFDocument("en", "v3").toString());
+    }
+
+    @Test
+    public void readWriteRoundTrip() throws Exception {
+        String xml = TestDocuments.createXML(3);
+        Assert.assertTrue(xml.contains(TestDocuments.UNKNOWN_LAYER));
+        Assert.assertEquals(xml, KAFDocument.createFromStream(new StringReader(xml)).toString());
+    }
+
+    @Test
+    public void saveMatchesToString() throws Exception {
+        KAFDocument document = TestDocuments.create(2);
+        StringWriter writer = new StringWriter();
+        document.save(writer);
+        Assert.assertEquals(document.toString(), writer.toString());
+    }
+
+    private static String readGoldenFile() throws Exception {
+        return new String(Files.readAllBytes(Paths.get(ReadWriteTest.class.getResource("golden.naf").toURI())),
+                StandardCharsets.UTF_8);
+    }
+
+    private static void assertSameAsXMLOutputter(String xml) throws Exception {
+        Document dom = new SAXBuilder().build(new StringReader(xml));
+        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat().setLineSeparator(LineSeparator.UNIX));
+        Assert.assertEquals(outputter.outputString(dom), xml);
+    }
+
+}
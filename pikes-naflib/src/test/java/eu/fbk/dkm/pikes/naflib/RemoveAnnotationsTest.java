@@ -0,0 +1,66 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.Chunk;
+import ixa.kaflib.Entity;
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the bulk removal of annotations with {@link KAFDocument#removeAnnotations}.
+ */
+
+public class RemoveAnnotationsTest {
+
+    @Test
+    public void removesAcrossLayers() {
+        KAFDocument document = TestDocuments.create(2);
+        String expected = document.toString();
+        Term term = document.getTerms().get(0);
+        Entity entity = document.getEntities().get(0);
+        document.removeAnnotations(Arrays.asList(entity, term, entity));
+        Assert.assertFalse(document.getTerms().contains(term));
+        Assert.assertFalse(document.getEntities().contains(entity));
+        Assert.assertEquals(TestDocuments.create(2).getTerms().size() - 1, document.getTerms().size());
+        Assert.assertNotEquals(expected, document.toString());
+    }
+
+    @Test
+    public void removesByCondition() {
+        KAFDocument document = TestDocuments.create(3);
+        List<Term> removed = document.getTermsBySent(1);
+        int size = document.getTerms().size();
+        document.removeAnnotations(Term.class, removed::contains);
+        Assert.assertTrue(document.getTermsBySent(1).isEmpty());
+        Assert.assertFalse(document.getTermsBySent(2).isEmpty());
+        Assert.assertEquals(size - removed.size(), document.getTerms().size());
+    }
+
+    @Test
+    public void unsupportedTypeIsNamed() {
+        KAFDocument document = TestDocuments.create(1);
+        Term term = document.getTerms().get(0);
+        Chunk chunk = document.newChunk("NP", TestDocuments.span(term));
+        chunk.setHead(term);
+        String expected = document.toString();
+        try {
+            document.removeAnnotations(Arrays.asList(term, chunk));
+            Assert.fail();
+        } catch (UnsupportedOperationException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("Chunk"));
+        }
+        Assert.assertEquals(expected, document.toString()); // nothing removed
+        try {
+            document.removeAnnotations(Chunk.class, c -> true);
+            Assert.fail();
+        } catch (UnsupportedOperationException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("Chunk"));
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Opinion;
+import ixa.kaflib.Term;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that writing layers into an existing NAF file with {@link KAFDocument#saveLayers} gives the same XML as
+ * loading and saving the whole document, and keeps the elements of the layers not written.
+ */
+
+public class SaveLayersTest {
+
+    @Test
+    public void addsMissingLayer() throws IOException {
+        String xml = TestDocuments.createXML(2);
+        Assert.assertFalse(xml.contains("<opinions>"));
+        assertSameAsFullRewrite(xml, EnumSet.of(KAFDocument.Layer.terms, KAFDocument.Layer.opinions),
+                EnumSet.of(KAFDocument.Layer.opinions), SaveLayersTest::addOpinion);
+    }
+
+    @Test
+    public void replacesExistingLayer() throws IOException {
+        KAFDocument document = KAFDocument.createFromStream(new StringReader(TestDocuments.createXML(2)));
+        addOpinion(document);
+        String xml = document.toString();
+        Assert.assertTrue(xml.contains("<opinions>"));
+        assertSameAsFullRewrite(xml, EnumSet.of(KAFDocument.Layer.terms, KAFDocument.Layer.opinions),
+                EnumSet.of(KAFDocument.Layer.opinions), SaveLayersTest::addOpinion);
+    }
+
+    @Test
+    public void propertiesKeepCategories() throws IOException {
+        String xml = TestDocuments.createXML(2);
+        String spliced = assertSameAsFullRewrite(xml, EnumSet.of(KAFDocument.Layer.properties),
+                EnumSet.of(KAFDocument.Layer.properties), d -> d.newProperty("added",
+                        TestDocuments.spans(d.getTerms().get(0))));
+        KAFDocument document = KAFDocument.createFromStream(new StringReader(spliced));
+        Assert.assertEquals(2, document.getCategories().size());
+        Assert.assertEquals(3, document.getProperties().size());
+    }
+
+    @Test
+    public void categoriesKeepProperties() throws IOException {
+        String xml = TestDocuments.createXML(2);
+        String spliced = assertSameAsFullRewrite(xml, EnumSet.of(KAFDocument.Layer.categories),
+                EnumSet.of(KAFDocument.Layer.categories), d -> d.newCategory("added",
+                        TestDocuments.spans(d.getTerms().get(0))));
+        KAFDocument document = KAFDocument.createFromStream(new StringReader(spliced));
+        Assert.assertEquals(3, document.getCategories().size());
+        Assert.assertEquals(2, document.getProperties().size());
+    }
+
+    @Test
+    public void constituencyKeepsConstituencyStrings() throws IOException {
+        String xml = TestDocuments.createXML(2);
+        Assert.assertTrue(xml.contains("<constituencyStrings>"));
+        String spliced = assertSameAsFullRewrite(xml, EnumSet.of(KAFDocument.Layer.constituency),
+                EnumSet.of(KAFDocument.Layer.constituency), d -> {
+                });
+        Assert.assertEquals(xml, spliced);
+    }
+
+    @Test
+    public void unknownLayersAreCopied() throws IOException {
+        String xml = TestDocuments.createXML(1);
+        String spliced = splice(xml, EnumSet.of(KAFDocument.Layer.terms), EnumSet.of(KAFDocument.Layer.terms),
+                d -> d.getTerms().get(0).setLemma("changed"));
+        Assert.assertTrue(spliced.contains(TestDocuments.UNKNOWN_LAYER));
+        Assert.assertTrue(spliced.contains("lemma=\"changed\""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownLayersCannotBeWritten() throws IOException {
+        String xml = TestDocuments.createXML(1);
+        splice(xml, EnumSet.of(KAFDocument.Layer.unknown), EnumSet.of(KAFDocument.Layer.unknown), d -> {
+        });
+    }
+
+    private static String assertSameAsFullRewrite(String xml, Set<KAFDocument.Layer> loaded,
+            Set<KAFDocument.Layer> saved, Annotator annotator) throws IOException {
+        KAFDocument full = KAFDocument.createFromStream(new StringReader(xml));
+        annotator.annotate(full);
+        String spliced = splice(xml, loaded, saved, annotator);
+        Assert.assertEquals(full.toString(), spliced);
+        return spliced;
+    }
+
+    private static String splice(String xml, Set<KAFDocument.Layer> loaded, Set<KAFDocument.Layer> saved,
+            Annotator annotator) throws IOException {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        KAFDocument document = KAFDocument.createFromStream(new ByteArrayInputStream(bytes), loaded);
+        annotator.annotate(document);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.saveLayers(new ByteArrayInputStream(bytes), out, saved);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void addOpinion(KAFDocument document) {
+        List<Term> terms = document.getTerms();
+        Opinion opinion = document.newOpinion();
+        opinion.setLabel("test");
+        opinion.createOpinionExpression(TestDocuments.span(terms.get(0), terms.get(1))).setPolarity("Positive");
+    }
+
+    private interface Annotator {
+
+        void annotate(KAFDocument document);
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the computation of term positions with {@code getTerms().indexOf()} and with the position index of
+ * {@link KAFDocument}, on synthetic documents of growing length. For each sentence, the positions of all its terms
+ * are computed, as done when computing the ranges of spans; some compounds are created in between, so that the
+ * index has to be updated after insertions and removals.
+ * <p>
+ * Usage: TermIndexBenchmark [max number of sentences]
+ */
+
+public class TermIndexBenchmark {
+
+    private static final int TERMS_PER_SENTENCE = 25;
+
+    public static void main(String[] args) throws Exception {
+        int maxSentences = args.length > 0 ? Integer.parseInt(args[0]) : 3200;
+        for (int sentences = 100; sentences <= maxSentences; sentences *= 2) {
+            KAFDocument document = createDocument(sentences);
+            Benchmark benchmark = new Benchmark() //
+                    .add("indexOf", () -> modify(document), (Object input) -> run(document, false)) //
+                    .add("index", () -> run(document, true)) //
+                    .run(3);
+            if (!benchmark.result(0).equals(benchmark.result(1))) {
+                throw new IllegalStateException("Different positions computed");
+            }
+            System.out.println(String.format("%6d terms: %s (%.0fx)", document.getTerms().size(), benchmark,
+                    benchmark.millis(0) / benchmark.millis(1)));
+        }
+    }
+
+    private static KAFDocument createDocument(int sentences) {
+        KAFDocument document = new KAFDocument("en", "v3");
+        int offset = 0;
+        for (int s = 1; s <= sentences; ++s) {
+            for (int i = 0; i < TERMS_PER_SENTENCE; ++i) {
+                WF wf = document.newWF("w" + s + "_" + i, offset, s);
+                wf.setLength(4);
+                offset += 5;
+                Term term = document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+                term.setLemma("word");
+            }
+        }
+        return document;
+    }
+
+    private static long run(KAFDocument document, boolean useIndex) {
+        long checksum = 0;
+        int numSentences = document.getNumSentences();
+        for (int s = 1; s <= numSentences; ++s) {
+            List<Term> terms = new ArrayList<Term>(document.getSentenceTerms(s));
+            if (useIndex) {
+                for (int index : document.getTermIndexes(terms)) {
+                    checksum += index;
+                }
+            } else {
+                int[] indexes = new int[terms.size()];
+                for (int i = 0; i < terms.size(); ++i) {
+                    indexes[i] = document.getTerms().indexOf(terms.get(i));
+                }
+                Arrays.sort(indexes);
+                for (int index : indexes) {
+                    // components of compound terms are not in the term list
+                    checksum += Math.max(0, index);
+                }
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Modifies the term list, to check that positions are kept up to date: creates a compound out of the first two
+     * terms of a sentence and replaces a term in the middle of the document.
+     */
+    private static Void modify(KAFDocument document) {
+        List<Term> terms = document.getTerms();
+        for (int s = 1; s <= document.getNumSentences(); ++s) {
+            List<Term> sentenceTerms = document.getSentenceTerms(s);
+            Term first = sentenceTerms.get(0);
+            if (first.getCompound() == null) {
+                document.newCompound(Arrays.asList(first, sentenceTerms.get(1)), "compound");
+                break;
+            }
+        }
+        int position = terms.size() / 2;
+        Term replaced = terms.get(position);
+        document.removeAnnotation(replaced);
+        document.newTerm(replaced.getId() + "b", KAFDocument.newWFSpan(replaced.getWFs()), position);
+        return null;
+    }
+
+}
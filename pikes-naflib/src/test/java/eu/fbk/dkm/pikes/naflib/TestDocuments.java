@@ -0,0 +1,186 @@
+package eu.fbk.dkm.pikes.naflib;
+
+import ixa.kaflib.Coref;
+import ixa.kaflib.Entity;
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Predicate;
+import ixa.kaflib.Span;
+import ixa.kaflib.Term;
+import ixa.kaflib.Timex3;
+import ixa.kaflib.WF;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Small NAF documents used by the tests, built through the public API of {@link KAFDocument}. Shared with the tests
+ * of the other modules through the test jar of this module.
+ */
+
+public final class TestDocuments {
+
+    public static final String UNKNOWN_LAYER = "<customLayer source=\"test\">";
+
+    private static final String[] PEOPLE = { "John", "Mary", "Paul" };
+
+    private static final String[] CITIES = { "York", "Orleans", "Haven" };
+
+    private TestDocuments() {
+    }
+
+    /**
+     * Returns a document of {@code copies} pairs of sentences "X likes New Y." and "He lives there.", with word
+     * forms, terms, dependencies, named entities, SRL predicates, a coreference between X and He (which spans the two
+     * sentences of the pair), properties, categories and constituency strings (no opinions).
+     */
+    public static KAFDocument create(String uri, int copies) {
+        KAFDocument document = new KAFDocument("en", "v3");
+        KAFDocument.Public header = document.createPublic();
+        header.uri = uri;
+        header.publicId = uri.substring(uri.lastIndexOf('/') + 1);
+        document.addLinguisticProcessor("text", "TestDocuments");
+        document.addLinguisticProcessor("terms", "TestDocuments");
+
+        StringBuilder text = new StringBuilder();
+        int sentence = 0;
+        for (int copy = 0; copy < copies; ++copy) {
+            String person = PEOPLE[copy % PEOPLE.length];
+            String city = CITIES[copy % CITIES.length];
+
+            List<Term> t1 = newSentence(document, text, ++sentence, //
+                    person, "NNP", "likes", "VBZ", "New", "NNP", city, "NNP", ".", ".");
+            newDeps(document, t1, 1, 0, "SBJ", 3, "OBJ", 4, "P");
+            document.newDep(t1.get(3), t1.get(2), "NAME");
+            newEntity(document, "PERSON", t1.get(0));
+            Entity place = newEntity(document, "LOCATION", t1.get(2), t1.get(3));
+            place.addExternalRef(document.newExternalRef("dbpedia-en", "http://dbpedia.org/resource/New_" + city));
+            document.newCategory("place", spans(t1.get(2), t1.get(3)));
+            Predicate likes = newPredicate(document, t1.get(1), "like.01");
+            likes.addRole(document.newRole(likes, "A0", headSpan(t1.get(0))));
+            likes.addRole(document.newRole(likes, "A1", headSpan(t1.get(3), t1.get(2), t1.get(3))));
+            document.addConstituencyString("(S (NP " + person + ") (VP likes (NP New " + city + ")))", sentence);
+
+            List<Term> t2 = newSentence(document, text, ++sentence, //
+                    "He", "PRP", "lives", "VBZ", "there", "RB", ".", ".");
+            newDeps(document, t2, 1, 0, "SBJ", 2, "LOC", 3, "P");
+            document.newProperty("residence", spans(t2.get(1)));
+            Predicate lives = newPredicate(document, t2.get(1), "live.01");
+            lives.addRole(document.newRole(lives, "A0", headSpan(t2.get(0))));
+            lives.addRole(document.newRole(lives, "AM-LOC", headSpan(t2.get(2))));
+            document.addConstituencyString("(S (NP He) (VP lives (ADVP there)))", sentence);
+
+            List<Span<Term>> mentions = new ArrayList<Span<Term>>();
+            mentions.add(headSpan(t1.get(0)));
+            mentions.add(headSpan(t2.get(0)));
+            Coref coref = document.newCoref(mentions);
+            coref.setType("PERSON");
+        }
+        document.setRawText(text.toString());
+        return document;
+    }
+
+    /**
+     * Returns a document of {@link #create(String, int)}, with URI {@code http://example.org/doc<copies>}.
+     */
+    public static KAFDocument create(int copies) {
+        return create("http://example.org/doc" + copies, copies);
+    }
+
+    /**
+     * Returns the XML of a document of {@link #create(int)}, with an unknown layer (starting with
+     * {@link #UNKNOWN_LAYER}) appended, as written by {@link KAFDocument#toString()}.
+     */
+    public static String createXML(int copies) {
+        String xml = create(copies).toString();
+        int index = xml.lastIndexOf("</NAF>");
+        xml = xml.substring(0, index) + UNKNOWN_LAYER + "<item id=\"c1\">kept as is</item></customLayer>"
+                + xml.substring(index);
+        return copy(xml).toString();
+    }
+
+    /**
+     * Returns a copy of the document, obtained by writing and parsing it.
+     */
+    public static KAFDocument copy(KAFDocument document) {
+        return copy(document.toString());
+    }
+
+    /**
+     * Adds a timex of the type and value specified to the document, spanning the word forms of the term supplied.
+     */
+    public static Timex3 newTimex(KAFDocument document, Term term, String type, String value) {
+        Timex3 timex = document.newTimex3(KAFDocument.newWFSpan(term.getWFs()), type);
+        timex.setValue(value);
+        return timex;
+    }
+
+    public static Span<Term> span(Term... terms) {
+        return KAFDocument.newTermSpan(Arrays.asList(terms));
+    }
+
+    public static List<Span<Term>> spans(Term... terms) {
+        return Arrays.asList(span(terms));
+    }
+
+    private static KAFDocument copy(String xml) {
+        try {
+            return KAFDocument.createFromStream(new StringReader(xml));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Returns the span of the terms supplied, or of the head alone if no term is supplied
+    private static Span<Term> headSpan(Term head, Term... terms) {
+        return KAFDocument.newTermSpan(Arrays.asList(terms.length == 0 ? new Term[] { head } : terms), head);
+    }
+
+    private static List<Term> newSentence(KAFDocument document, StringBuilder text, int sentence,
+            String... tokensAndTags) {
+        List<Term> terms = new ArrayList<Term>();
+        for (int i = 0; i < tokensAndTags.length; i += 2) {
+            String token = tokensAndTags[i];
+            String tag = tokensAndTags[i + 1];
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            WF wf = document.newWF(token, text.length(), sentence);
+            wf.setLength(token.length());
+            text.append(token);
+            Term term = document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+            term.setLemma(token.equals("likes") ? "like" : token.equals("lives") ? "live" : token.toLowerCase());
+            term.setMorphofeat(tag);
+            term.setPos(tag.startsWith("NN") ? "R" : tag.startsWith("VB") ? "V" : "O");
+            term.setType(tag.equals(".") ? "close" : "open");
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    private static void newDeps(KAFDocument document, List<Term> terms, int head, Object... dependentsAndLabels) {
+        for (int i = 0; i < dependentsAndLabels.length; i += 2) {
+            document.newDep(terms.get(head), terms.get((Integer) dependentsAndLabels[i]),
+                    (String) dependentsAndLabels[i + 1]);
+        }
+    }
+
+    private static Entity newEntity(KAFDocument document, String type, Term... terms) {
+        List<Span<Term>> mentions = new ArrayList<Span<Term>>();
+        mentions.add(headSpan(terms[terms.length - 1], terms));
+        Entity entity = document.newEntity(mentions);
+        entity.setType(type);
+        entity.setNamed(true);
+        return entity;
+    }
+
+    private static Predicate newPredicate(KAFDocument document, Term term, String roleset) {
+        Predicate predicate = document.newPredicate(headSpan(term));
+        predicate.addExternalRef(document.newExternalRef("PropBank", roleset));
+        return predicate;
+    }
+
+}
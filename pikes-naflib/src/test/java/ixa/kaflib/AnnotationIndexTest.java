@@ -0,0 +1,151 @@
+package ixa.kaflib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the indexes of {@link AnnotationContainer}, built when first queried, follow the changes of the
+ * annotations they are built from: the spans of time expressions and the holder, target and expression of
+ * opinions.
+ */
+
+public class AnnotationIndexTest {
+
+    @Test
+    public void timexSpanSetAfterQuery() {
+        KAFDocument document = createDocument();
+        WF wf1 = document.getWFsBySent(1).get(0);
+        WF wf2 = document.getWFsBySent(2).get(1);
+        Timex3 timex = document.newTimex3("DATE"); // as read by ReadWriteManager, span set after the timex is added
+        Assert.assertTrue(document.getTimeExsBySent(1).isEmpty());
+        Assert.assertTrue(document.getTimeExsByWF(wf2).isEmpty());
+
+        timex.setSpan(KAFDocument.newWFSpan(Arrays.asList(wf2)));
+        Assert.assertEquals(Collections.singletonList(timex), document.getTimeExsBySent(2));
+        Assert.assertEquals(Collections.singletonList(timex), document.getTimeExsByWF(wf2));
+        Assert.assertTrue(document.getTimeExsBySent(1).isEmpty());
+
+        timex.setSpan(KAFDocument.newWFSpan(Arrays.asList(wf1)));
+        Assert.assertEquals(Collections.singletonList(timex), document.getTimeExsBySent(1));
+        Assert.assertEquals(Collections.singletonList(timex), document.getTimeExsByWF(wf1));
+        Assert.assertTrue(document.getTimeExsBySent(2).isEmpty());
+        Assert.assertTrue(document.getTimeExsByWF(wf2).isEmpty());
+
+        document.removeAnnotations(Collections.singletonList(timex));
+        Assert.assertTrue(document.getTimeExsBySent(1).isEmpty());
+        timex.setSpan(KAFDocument.newWFSpan(Arrays.asList(wf2))); // no longer in the document
+        Assert.assertTrue(document.getTimeExsBySent(2).isEmpty());
+    }
+
+    @Test
+    public void opinionPartsSetAfterQuery() {
+        KAFDocument document = createDocument();
+        AnnotationContainer container = document.getAnnotationContainer();
+        List<Term> terms = document.getTerms();
+        Opinion opinion = document.newOpinion();
+        for (Term term : terms) {
+            Assert.assertTrue(container.getOpinionsByTerm(term).isEmpty());
+        }
+
+        opinion.createOpinionExpression(KAFDocument.newTermSpan(Arrays.asList(terms.get(1))));
+        assertOpinionTerms(document, opinion, terms.get(1));
+
+        opinion.setTargetSpan(KAFDocument.newTermSpan(Arrays.asList(terms.get(2))));
+        assertOpinionTerms(document, opinion, terms.get(1), terms.get(2));
+
+        Opinion.OpinionHolder holder = opinion.createOpinionHolder(KAFDocument.newTermSpan());
+        holder.addTerm(terms.get(0));
+        assertOpinionTerms(document, opinion, terms.get(0), terms.get(1), terms.get(2));
+
+        opinion.getOpinionExpression().setSpan(KAFDocument.newTermSpan(Arrays.asList(terms.get(5))));
+        assertOpinionTerms(document, opinion, terms.get(0), terms.get(2), terms.get(5));
+
+        opinion.removeOpinionTarget();
+        opinion.setHolderSpan(null);
+        holder.addTerm(terms.get(3)); // no longer part of the opinion
+        assertOpinionTerms(document, opinion, terms.get(5));
+
+        document.removeAnnotations(Collections.singletonList(opinion));
+        assertOpinionTerms(document, null);
+    }
+
+    @Test
+    public void changesOfFrozenDocumentsAreRejected() {
+        KAFDocument document = createDocument();
+        Timex3 timex = document.newTimex3("DATE");
+        Opinion opinion = document.newOpinion();
+        document.freeze();
+        try {
+            timex.setSpan(KAFDocument.newWFSpan(Arrays.asList(document.getWFs().get(0))));
+            Assert.fail("Time expressions of frozen documents should not change");
+        } catch (IllegalStateException ex) {
+            Assert.assertFalse(timex.hasSpan());
+        }
+        try {
+            opinion.setPolarity("positive");
+            Assert.fail("Opinions of frozen documents should not change");
+        } catch (IllegalStateException ex) {
+            Assert.assertNull(opinion.getOpinionExpression());
+        }
+    }
+
+    @Test
+    public void changesAreTrackedAfterDeserialization() throws Exception {
+        KAFDocument document = createDocument();
+        document.newTimex3("DATE");
+        document.newOpinion().createOpinionTarget(KAFDocument.newTermSpan());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(document.getAnnotationContainer());
+        }
+        AnnotationContainer container;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            container = (AnnotationContainer) in.readObject();
+        }
+        Timex3 timex = container.getTimeExs().get(0);
+        Opinion opinion = container.getOpinions().get(0);
+        WF wf = container.getText().get(0);
+        Term term = container.getTerms().get(0);
+        Assert.assertTrue(container.getTimeExsByWF(wf).isEmpty());
+        Assert.assertTrue(container.getOpinionsByTerm(term).isEmpty());
+        timex.setSpan(KAFDocument.newWFSpan(Arrays.asList(wf)));
+        opinion.getOpinionTarget().addTerm(term);
+        Assert.assertEquals(Collections.singletonList(timex), container.getTimeExsByWF(wf));
+        Assert.assertEquals(Collections.singletonList(opinion), container.getOpinionsByTerm(term));
+    }
+
+    private static KAFDocument createDocument() {
+        KAFDocument document = new KAFDocument("en", "v3");
+        int offset = 0;
+        for (int sentence = 1; sentence <= 2; ++sentence) {
+            for (String form : new String[] { "It", "rained", "today", "." }) {
+                WF wf = document.newWF(form, offset, sentence);
+                wf.setLength(form.length());
+                offset += form.length() + 1;
+                document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+            }
+        }
+        return document;
+    }
+
+    // Checks the index of opinions by term against the terms of the opinion (null for no opinion)
+    private static void assertOpinionTerms(KAFDocument document, Opinion opinion, Term... opinionTerms) {
+        for (Term term : document.getTerms()) {
+            List<Opinion> expected = new ArrayList<Opinion>();
+            if (Arrays.asList(opinionTerms).contains(term)) {
+                expected.add(opinion);
+            }
+            Assert.assertEquals(term.getId(), expected, document.getAnnotationContainer().getOpinionsByTerm(term));
+        }
+    }
+
+}
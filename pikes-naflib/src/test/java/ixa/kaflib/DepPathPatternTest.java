@@ -0,0 +1,253 @@
+package ixa.kaflib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that dependency path patterns matched with {@link DepPathPattern} give the same results of the regular
+ * expressions previously used, and that the dependency tree of {@link DependencyIndex} matches the dependencies of
+ * the document, also after they change.
+ */
+
+public class DepPathPatternTest {
+
+    private static final String[] LABELS = { "SUB", "OBJ", "NMOD", "AMOD", "PMOD", "COORD", "CONJ", "VC", "IM",
+            "OPRD", "TMP", "LOC", "TITLE", "P", "NMOD-LOC", "COORD-CONJ", "TMP-PMOD" };
+
+    private static final String[] PATTERNS = { //
+            "(NMOD|AMOD|TMP|LOC|TITLE) PMOD? (COORD CONJ?)* PMOD?", // modifiers, as in RDFGenerator
+            "SUB? (COORD CONJ?)* (PMOD (COORD CONJ?)*)? ((VC OPRD?)|(IM OPRD?))*", // participation
+            "", "SUB", "SUB?", "NMOD*", "NMOD+", "(COORD CONJ)+ PMOD?", "(SUB|OBJ) NMOD*", "LOC", "CONJ PMOD",
+            "-SUB", "-NMOD* -SUB?", "-(COORD|CONJ)+", "-SUB OBJ", ".*", "NMOD .*", ".* PMOD" };
+
+    // Patterns not supported by the automaton, matched with regular expressions
+    private static final String[] UNSUPPORTED_PATTERNS = { "SUB|OBJ", "NMOD{2}", "NMOD*?", "SUB .", "[SUB]" };
+
+    @Test
+    public void patternsMatchAsRegularExpressions() {
+        for (int shape = 0; shape < 3; ++shape) {
+            KAFDocument document = createDocument(new Random(shape), shape);
+            for (String pattern : PATTERNS) {
+                DepPathPattern compiled = DepPathPattern.compile(pattern);
+                assertMatchesRegex(document, pattern, compiled);
+            }
+        }
+    }
+
+    @Test
+    public void unsupportedPatternsFallBackToRegularExpressions() {
+        KAFDocument document = createDocument(new Random(3), 0);
+        for (String pattern : UNSUPPORTED_PATTERNS) {
+            try {
+                DepPathPattern.compile(pattern);
+                Assert.fail("Pattern should not be supported: " + pattern);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+            assertMatchesRegex(document, pattern, null);
+        }
+    }
+
+    @Test
+    public void dependencyTreeMatchesDependencies() {
+        for (int shape = 0; shape < 2; ++shape) {
+            KAFDocument document = createDocument(new Random(4 + shape), shape);
+            assertTree(document);
+        }
+    }
+
+    @Test
+    public void dependencyTreeFollowsChangedDependencies() {
+        KAFDocument document = createDocument(new Random(6), 0);
+        List<Term> terms = document.getTermsBySent(1);
+        assertTree(document); // builds the index
+
+        // move the subtree of a leaf's head under the root of another sentence, and relabel a dependency
+        Term leaf = null;
+        for (Term term : terms) {
+            if (document.getDepsFromTerm(term).isEmpty() && document.getDepToTerm(term) != null) {
+                leaf = term;
+            }
+        }
+        Dep dep = document.getDepToTerm(leaf);
+        Term oldHead = dep.getFrom();
+        Term newHead = document.getTermsBySent(2).get(0);
+        dep.setFrom(newHead);
+        Assert.assertSame(newHead, document.getDepToTerm(leaf).getFrom());
+        Assert.assertFalse(document.getDepsFromTerm(oldHead).contains(dep));
+        Assert.assertTrue(document.getDepsFromTerm(newHead).contains(dep));
+        Assert.assertTrue(document.getDepsByTerm(newHead).contains(dep));
+        Assert.assertFalse(document.getDepsByTerm(oldHead).contains(dep));
+        assertTree(document);
+
+        dep.setRfunc("TITLE");
+        Assert.assertEquals(Collections.singleton(leaf),
+                document.getTermsByDepAncestors(Collections.singleton(newHead), "TITLE"));
+        Assert.assertEquals(Collections.singleton(newHead),
+                document.getTermsByDepDescendants(Collections.singleton(leaf), "-TITLE"));
+
+        Term other = terms.get(terms.size() - 1) == leaf ? terms.get(0) : terms.get(terms.size() - 1);
+        dep.setTo(other);
+        Assert.assertTrue(document.getDepsByTerm(other).contains(dep));
+        Assert.assertFalse(document.getDepsByTerm(leaf).contains(dep));
+        assertTree(document);
+
+        document.freeze();
+        try {
+            dep.setRfunc("SUB");
+            Assert.fail("Dependencies of frozen documents should not change");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("TITLE", dep.getRfunc());
+        }
+    }
+
+    /**
+     * Returns a document of some sentences, each with a random dependency tree. With shape 1 a term of each sentence
+     * also has a second head, with shape 2 the heads of the last sentence also form a cycle.
+     */
+    private static KAFDocument createDocument(Random random, int shape) {
+        KAFDocument document = new KAFDocument("en", "v3");
+        int offset = 0;
+        for (int sentence = 1; sentence <= 4; ++sentence) {
+            List<Term> terms = new ArrayList<Term>();
+            int size = 5 + random.nextInt(12);
+            for (int i = 0; i < size; ++i) {
+                String form = "t" + sentence + "_" + i;
+                WF wf = document.newWF(form, offset, sentence);
+                wf.setLength(form.length());
+                offset += form.length() + 1;
+                terms.add(document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf))));
+            }
+            List<Term> shuffled = new ArrayList<Term>(terms);
+            Collections.shuffle(shuffled, random);
+            for (int i = 1; i < shuffled.size(); ++i) {
+                document.newDep(shuffled.get(random.nextInt(i)), shuffled.get(i), label(random));
+            }
+            if (shape > 0) {
+                document.newDep(shuffled.get(size - 1), shuffled.get(1 + random.nextInt(size - 1)), label(random));
+                if (shape > 1 && sentence == 4) {
+                    document.newDep(shuffled.get(size - 1), shuffled.get(0), label(random)); // cycle
+                }
+            }
+        }
+        return document;
+    }
+
+    private static String label(Random random) {
+        return LABELS[random.nextInt(LABELS.length)];
+    }
+
+    private static void assertMatchesRegex(KAFDocument document, String pattern, DepPathPattern compiled) {
+        for (int sentence = 1; sentence <= document.getNumSentences(); ++sentence) {
+            List<Term> terms = document.getTermsBySent(sentence);
+            for (Term from : terms) {
+                Set<Term> reachableDown = getReachable(document, from, true);
+                Set<Term> reachableUp = getReachable(document, from, false);
+                Set<Term> descendants = new HashSet<Term>();
+                Set<Term> ancestors = new HashSet<Term>();
+                for (Term to : terms) {
+                    List<Dep> path = document.getDepPath(from, to);
+                    if (path == null) {
+                        continue;
+                    }
+                    boolean expected = regexMatches(from, path, pattern);
+                    String message = pattern + " on " + KAFDocument.getDepPathString(from, path);
+                    Assert.assertEquals(message, expected, document.matchDepPath(from, path, pattern));
+                    if (compiled != null) {
+                        Assert.assertEquals(message, expected, compiled.matches(from, path));
+                    }
+                    if (expected && reachableDown.contains(to)) {
+                        descendants.add(to);
+                    }
+                    if (expected && reachableUp.contains(to)) {
+                        ancestors.add(to);
+                    }
+                }
+                Assert.assertEquals(pattern, descendants,
+                        document.getTermsByDepAncestors(Collections.singleton(from), pattern));
+                Assert.assertEquals(pattern, ancestors,
+                        document.getTermsByDepDescendants(Collections.singleton(from), pattern));
+            }
+        }
+    }
+
+    private static boolean regexMatches(Term from, List<Dep> path, String pattern) {
+        return KAFDocument.getDepPathRegex(pattern).matcher(KAFDocument.getDepPathString(from, path)).matches();
+    }
+
+    // Returns the terms reached from a term following all the dependencies of the document, down or up
+    private static Set<Term> getReachable(KAFDocument document, Term term, boolean down) {
+        Set<Term> reached = new HashSet<Term>(Collections.singleton(term));
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (Dep dep : document.getDeps()) {
+                if (reached.contains(down ? dep.getFrom() : dep.getTo())) {
+                    changed |= reached.add(down ? dep.getTo() : dep.getFrom());
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Asserts that the dependency tree of a document gives the same heads, dependents, depths and common ancestors
+     * computed by scanning all its dependencies.
+     */
+    private static void assertTree(KAFDocument document) {
+        List<Term> terms = document.getTerms();
+        for (Term term : terms) {
+            Assert.assertSame(firstHeadDep(document, term), document.getDepToTerm(term));
+            List<Dep> children = new ArrayList<Dep>();
+            for (Dep dep : document.getDeps()) {
+                if (dep.getFrom() == term) {
+                    children.add(dep);
+                }
+            }
+            Assert.assertEquals(children, document.getDepsFromTerm(term));
+            Assert.assertEquals(getAncestors(document, term).size() - 1, document.getDepDepth(term));
+        }
+        for (Term term1 : terms) {
+            List<Term> ancestors1 = getAncestors(document, term1);
+            for (Term term2 : terms) {
+                List<Term> ancestors2 = getAncestors(document, term2);
+                Term expected = null;
+                for (Term ancestor : ancestors1) {
+                    if (ancestors2.contains(ancestor)) {
+                        expected = ancestor;
+                        break;
+                    }
+                }
+                Assert.assertSame(expected, document.getDepCommonAncestor(term1, term2));
+            }
+        }
+    }
+
+    private static Dep firstHeadDep(KAFDocument document, Term term) {
+        for (Dep dep : document.getDeps()) {
+            if (dep.getTo() == term) {
+                return dep;
+            }
+        }
+        return null;
+    }
+
+    // Returns a term followed by its heads up to the root
+    private static List<Term> getAncestors(KAFDocument document, Term term) {
+        List<Term> ancestors = new ArrayList<Term>();
+        for (Term t = term; t != null; ) {
+            ancestors.add(t);
+            Dep dep = firstHeadDep(document, t);
+            t = dep == null ? null : dep.getFrom();
+        }
+        return ancestors;
+    }
+
+}
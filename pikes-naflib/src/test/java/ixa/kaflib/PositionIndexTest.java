@@ -0,0 +1,143 @@
+package ixa.kaflib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the positions of word forms and terms returned by {@link KAFDocument}, kept by {@link PositionIndex},
+ * are the ones found by scanning the lists of the document, while terms and word forms are added and removed
+ * through the document and directly on its lists.
+ */
+
+public class PositionIndexTest {
+
+    @Test
+    public void positionsFollowAddedAndRemovedElements() {
+        for (int seed = 0; seed < 5; ++seed) {
+            Random random = new Random(seed);
+            KAFDocument document = new KAFDocument("en", "v3");
+            List<Term> removed = new ArrayList<Term>();
+            int offset = 0;
+            for (int step = 0; step < 400; ++step) {
+                List<WF> wfs = document.getWFs();
+                List<Term> terms = document.getTerms();
+                int operation = random.nextInt(10);
+                if (operation < 4 || wfs.isEmpty()) {
+                    // append a word form and a term for it
+                    String form = "w" + step;
+                    WF wf = document.newWF(form, offset, 1 + offset / 50);
+                    wf.setLength(form.length());
+                    offset += form.length() + 1;
+                    document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+                } else if (operation < 6) {
+                    // insert a term at a random position
+                    WF wf = wfs.get(random.nextInt(wfs.size()));
+                    document.newTerm("t_" + step, KAFDocument.newWFSpan(Arrays.asList(wf)),
+                            random.nextInt(terms.size() + 1));
+                } else if (operation < 8 && !terms.isEmpty()) {
+                    Term term = terms.get(random.nextInt(terms.size()));
+                    document.removeAnnotation(term);
+                    removed.add(term);
+                } else if (operation < 9 && !terms.isEmpty()) {
+                    // the lists are exposed, so they may also be changed behind the back of the index
+                    Term term = terms.remove(random.nextInt(terms.size()));
+                    terms.add(random.nextInt(terms.size() + 1), term);
+                    if (random.nextBoolean() && !removed.isEmpty()) {
+                        terms.add(random.nextInt(terms.size() + 1), removed.remove(0));
+                    }
+                } else {
+                    Collections.swap(wfs, random.nextInt(wfs.size()), random.nextInt(wfs.size()));
+                }
+                if (random.nextInt(4) == 0) {
+                    assertPositions(document, removed, random);
+                }
+            }
+            assertPositions(document, removed, random);
+        }
+    }
+
+    @Test
+    public void positionsAreRebuiltAfterLayerRemoval() {
+        KAFDocument document = new KAFDocument("en", "v3");
+        for (int i = 0; i < 10; ++i) {
+            WF wf = document.newWF("w" + i, 3 * i, 1);
+            wf.setLength(2);
+            document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+        }
+        List<Term> oldTerms = new ArrayList<Term>(document.getTerms());
+        assertPositions(document, Collections.<Term>emptyList(), new Random(0));
+        document.removeLayer(KAFDocument.Layer.terms);
+        WF wf = document.getWFs().get(5);
+        Term term = document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+        Assert.assertEquals(0, document.getTermIndex(term));
+        assertPositions(document, oldTerms, new Random(1));
+    }
+
+    @Test
+    public void componentsHaveNoPosition() {
+        KAFDocument document = new KAFDocument("en", "v3");
+        WF wf = document.newWF("w", 0, 1);
+        Term term = document.newTerm(KAFDocument.newWFSpan(Arrays.asList(wf)));
+        Term component = document.newTerm("t_c", KAFDocument.newWFSpan(Arrays.asList(wf)), true);
+        Assert.assertEquals(0, document.getTermIndex(term));
+        Assert.assertEquals(-1, document.getTermIndex(component));
+        Assert.assertArrayEquals(new int[] { 0 }, document.getTermIndexes(Arrays.asList(component, term, term)));
+    }
+
+    /**
+     * Asserts that the positions of the word forms and terms of the document, of some terms no longer in it and of a
+     * random subset of terms are the ones given by a linear scan of the lists of the document.
+     */
+    private static void assertPositions(KAFDocument document, List<Term> removed, Random random) {
+        List<WF> wfs = document.getWFs();
+        for (WF wf : wfs) {
+            Assert.assertEquals(indexOf(wfs, wf), document.getWFIndex(wf));
+        }
+        List<Term> terms = document.getTerms();
+        for (Term term : terms) {
+            Assert.assertEquals(indexOf(terms, term), document.getTermIndex(term));
+        }
+        for (Term term : removed) {
+            Assert.assertEquals(indexOf(terms, term), document.getTermIndex(term));
+        }
+        List<Term> subset = new ArrayList<Term>();
+        for (Term term : terms) {
+            if (random.nextInt(3) == 0) {
+                subset.add(term);
+            }
+        }
+        subset.addAll(removed);
+        Collections.shuffle(subset, random);
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (Term term : subset) {
+            int index = indexOf(terms, term);
+            if (index >= 0) {
+                expected.add(index);
+            }
+        }
+        int[] actual = document.getTermIndexes(subset);
+        Assert.assertEquals(expected.size(), actual.length);
+        int i = 0;
+        for (int index : expected) {
+            Assert.assertEquals(index, actual[i++]);
+        }
+    }
+
+    // Identity-based, as done by the index, while List.indexOf() uses equals()
+    private static <T> int indexOf(List<T> list, T element) {
+        for (int i = 0; i < list.size(); ++i) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -93,9 +93,7 @@ public abstract class Extractor {
         doFilter(document);
 
         // Remove all the opinions for the output label
-        for (final Opinion opinion : document.getOpinions(outLabel)) {
-            document.removeAnnotation(opinion);
-        }
+        document.removeAnnotations(document.getOpinions(outLabel));
 
         // Process the document one sentence at a time
         final int numSentences = document.getNumSentences() + 1;
@@ -31,7 +31,7 @@ public final class Opinions {
     }
 
     public static boolean deduplicate(final KAFDocument document, final Iterable<Opinion> opinions) {
-        boolean modified = false;
+        final List<Opinion> removed = Lists.newArrayList();
         final List<Opinion> seen = Lists.newArrayList();
         outer: for (final Opinion o : opinions) {
             for (final Opinion s : seen) {
@@ -40,14 +40,14 @@ public final class Opinions {
                         && sameSpan(o.getExpressionSpan(), s.getExpressionSpan())
                         && sameSpan(o.getHolderSpan(), s.getHolderSpan())
                         && sameSpan(o.getTargetSpan(), s.getTargetSpan())) {
-                    document.removeAnnotation(o);
-                    modified = true;
+                    removed.add(o);
                     continue outer;
                 }
             }
             seen.add(o);
         }
-        return modified;
+        document.removeAnnotations(removed);
+        return !removed.isEmpty();
     }
 
     private static boolean sameSpan(final Span<Term> span1, final Span<Term> span2) {
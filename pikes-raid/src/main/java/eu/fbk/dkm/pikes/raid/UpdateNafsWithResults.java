@@ -3,6 +3,7 @@ package eu.fbk.dkm.pikes.raid;
 import eu.fbk.dkm.pikes.naflib.Corpus;
 import eu.fbk.dkm.pikes.raid.mdfsa.APIManager;
 import eu.fbk.dkm.pikes.resources.mpqa.CorpusAnnotator;
+import eu.fbk.rdfpro.util.IO;
 import eu.fbk.utils.core.CommandLine;
 import ixa.kaflib.KAFDocument;
 import ixa.kaflib.Opinion;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.file.Path;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
@@ -154,15 +156,19 @@ public class UpdateNafsWithResults {
 			LOGGER.info("Total tokens in the test: {}", j + 1);
 			reader.close();
 
+			// Only terms and existing opinions are needed; the other layers are copied as they are when saving
+			EnumSet<KAFDocument.Layer> savedLayers = EnumSet.of(KAFDocument.Layer.opinions);
+			Corpus testCorpus = corpuses[1].withLayers(EnumSet.of(KAFDocument.Layer.terms, KAFDocument.Layer.opinions));
+
 			j = -1;
-			for (Path file : corpuses[1].files()) {
+			for (Path file : testCorpus.files()) {
 
 				String baseFileName = file.toFile().getName();
 				String outputFile = outputFolder.getAbsolutePath() + File.separator + baseFileName;
 
 				LOGGER.debug(baseFileName);
 
-				KAFDocument document = corpuses[1].get(file);
+				KAFDocument document = testCorpus.get(file);
 				List<Term> terms = document.getTerms();
 				for (int i = 0; i < terms.size(); i++) {
 					j++;
@@ -280,7 +286,10 @@ public class UpdateNafsWithResults {
 				}
 
 				if (!fakeMode) {
-					document.save(outputFile);
+					try (InputStream in = IO.buffer(IO.read(file.toString()));
+							OutputStream out = IO.buffer(IO.write(outputFile))) {
+						document.saveLayers(in, out, savedLayers);
+					}
 				}
 			}
 			LOGGER.info("Total tokens in the NAFs: {}", j + 1);
@@ -83,7 +83,7 @@ public final class SpanLabeller {
             int startIndex = Integer.MAX_VALUE;
             int endIndex = Integer.MIN_VALUE;
             for (final Term term : terms) {
-                final int index = document.getTerms().indexOf(term);
+                final int index = document.getTermIndex(term);
                 startIndex = Math.min(startIndex, index);
                 endIndex = Math.max(endIndex, index);
             }
@@ -241,7 +241,7 @@ public final class SpanLabeller {
         builder.set("_cluster." + document.getPublic().uri);
 
         // Add term index (not used for training / classification)
-        builder.set("_index", document.getTerms().indexOf(childTerm));
+        builder.set("_index", document.getTermIndex(childTerm));
         builder.set("depth" + depth);
 
         // Add features related to relative span positions
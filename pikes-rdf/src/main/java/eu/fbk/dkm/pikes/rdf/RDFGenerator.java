@@ -1,7 +1,16 @@
 package eu.fbk.dkm.pikes.rdf;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
@@ -11,13 +20,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.HashMultimap;
@@ -26,12 +42,17 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.openrdf.model.BNode;
 import org.openrdf.model.Literal;
@@ -49,7 +70,11 @@ import org.openrdf.model.vocabulary.OWL;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
 import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -98,6 +123,7 @@ import eu.fbk.rdfpro.RDFSource;
 import eu.fbk.rdfpro.RDFSources;
 import eu.fbk.rdfpro.util.Environment;
 import eu.fbk.rdfpro.util.Hash;
+import eu.fbk.rdfpro.util.IO;
 import eu.fbk.rdfpro.util.Options;
 import eu.fbk.rdfpro.util.QuadModel;
 import eu.fbk.rdfpro.util.Statements;
@@ -146,8 +172,24 @@ public final class RDFGenerator {
 
     private static final String DEFAULT_OWLTIME_NAMESPACE = "http://www.newsreader-project.eu/time/";
 
+    // minimum number of sentences per partition for processing a frozen document in parallel
+    private static final int MIN_PARTITION_SENTENCES = 20;
+
+    private static final ProcessorASNorm NORMALIZER = new ProcessorASNorm("fact:");
+
+    @Nullable
+    private static ExecutorService executor;
+
     public static final RDFGenerator DEFAULT = RDFGenerator.builder().build();
 
+    /** The NAF layers read by the generator and by the NAF filtering applied before it. */
+    public static final Set<KAFDocument.Layer> LAYERS = Sets.immutableEnumSet(
+            KAFDocument.Layer.text, KAFDocument.Layer.terms, KAFDocument.Layer.deps,
+            KAFDocument.Layer.entities, KAFDocument.Layer.coreferences,
+            KAFDocument.Layer.timeExpressions, KAFDocument.Layer.srl,
+            KAFDocument.Layer.factuality, KAFDocument.Layer.opinions,
+            KAFDocument.Layer.linkedEntities);
+
     private final Multimap<String, URI> typeMap;
 
     private final Map<String, String> namespaceMap;
@@ -207,6 +249,39 @@ public final class RDFGenerator {
         return new Builder();
     }
 
+    private static synchronized ExecutorService getExecutor() {
+        // not the rdfpro Environment pool, whose threads may be waiting for the partitions
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rdfgen-%d").build());
+        }
+        return executor;
+    }
+
+    private static String mintLocalName(final BiMap<String, String> mintedURIs, final String id,
+            @Nullable final String suggestedLocalName) {
+        String localName = mintedURIs.get(id);
+        if (localName == null) {
+            final String name = MoreObjects.firstNonNull(suggestedLocalName, id);
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < name.length(); ++i) {
+                final char c = name.charAt(i);
+                builder.append(Character.isWhitespace(c) ? '_' : c);
+            }
+            final String base = builder.toString();
+            int counter = 1;
+            while (true) {
+                localName = base + (counter == 1 ? "" : "_" + counter);
+                if (!mintedURIs.inverse().containsKey(localName)) {
+                    mintedURIs.put(id, localName);
+                    break;
+                }
+                ++counter;
+            }
+        }
+        return localName;
+    }
+
     public static final class Builder {
 
         @Nullable
@@ -299,27 +374,190 @@ public final class RDFGenerator {
 
         private final boolean intermediate;
 
+        private final boolean sharded;
+
+        private final boolean concatenate;
+
         private Runner(final Corpus corpus, final RDFGenerator generator, final File outputFile,
-                final boolean split) {
+                final boolean split, final boolean sharded, final boolean concatenate) {
             this.corpus = corpus;
             this.generator = generator;
             this.outputFile = outputFile.getAbsoluteFile();
             this.intermediate = split;
+            this.sharded = sharded || concatenate;
+            this.concatenate = concatenate;
         }
 
         static Runner create(final String name, final String... args) {
             final Options options = Options.parse(
-                    "r,recursive|o,output!|m,merge|n,normalize|i,intermediate|+", args);
+                    "r,recursive|o,output!|m,merge|n,normalize|i,intermediate|s,shards|c,concatenate|+",
+                    args);
             final File outputFile = options.getOptionArg("o", File.class);
             final boolean recursive = options.hasOption("r");
             final boolean merge = options.hasOption("m");
             final boolean normalize = options.hasOption("n");
             final boolean intermediate = options.hasOption("i");
-            final Corpus corpus = Corpus.create(recursive, options.getPositionalArgs(File.class));
+            final boolean sharded = options.hasOption("s");
+            final boolean concatenate = options.hasOption("c");
+            if (intermediate && (sharded || concatenate)) {
+                throw new IllegalArgumentException(
+                        "Options -i and -s/-c cannot be used together");
+            }
+            if (concatenate && !isLineBased(outputFile)) {
+                throw new IllegalArgumentException("Cannot concatenate shards in the format of "
+                        + outputFile + ": use a line-based format (N-Triples, N-Quads, TQL), "
+                        + "uncompressed or compressed with gzip, bzip2 or xz");
+            }
+            final Corpus corpus = Corpus.create(recursive, options.getPositionalArgs(File.class))
+                    .withLayers(LAYERS);
             final RDFGenerator generator = RDFGenerator.builder()
                     .withProperties(Util.PROPERTIES, "eu.fbk.dkm.pikes.rdf.RDFGenerator")
                     .withMerging(merge).withNormalization(normalize).build();
-            return new Runner(corpus, generator, outputFile, intermediate);
+            return new Runner(corpus, generator, outputFile, intermediate, sharded, concatenate);
+        }
+
+        static boolean isLineBased(final File file) {
+            // 7z is an archive format, whose files cannot be concatenated like compressed streams
+            final String name = withoutCompression(file.getName());
+            return name.endsWith(".nt") || name.endsWith(".nq") || name.endsWith(".tql");
+        }
+
+        private static String withoutCompression(final String name) {
+            for (final String extension : new String[] { ".gz", ".bz2", ".xz" }) {
+                if (name.endsWith(extension)) {
+                    return name.substring(0, name.length() - extension.length());
+                }
+            }
+            return name;
+        }
+
+        /**
+         * Returns the file of a shard, obtained by adding the shard number before the extensions
+         * of the output file (e.g., {@code output.3.tql.gz}). Shards to be concatenated are not
+         * compressed (e.g., {@code output.3.tql}), so that the output is compressed only once.
+         */
+        File shardFile(final int shard) {
+            String name = this.outputFile.getName();
+            if (this.concatenate) {
+                name = withoutCompression(name);
+            }
+            final int index = name.indexOf('.') < 0 ? name.length() : name.indexOf('.');
+            return new File(this.outputFile.getParentFile(), name.substring(0, index) + "." + shard
+                    + name.substring(index));
+        }
+
+        /**
+         * Appends the shards to the output file, compressing them if required, and deletes them.
+         * Line-based RDF formats can be concatenated as they are, without parsing them.
+         */
+        private void concatenateShards(final int numShards) throws IOException {
+            try (OutputStream out = IO.buffer(write(this.outputFile))) {
+                for (int shard = 0; shard < numShards; ++shard) {
+                    final File file = shardFile(shard);
+                    Files.copy(file, out);
+                    java.nio.file.Files.delete(file.toPath());
+                }
+            }
+        }
+
+        /**
+         * Opens a file for writing like {@link IO#write(String)}, compressing it with the same
+         * external gzip, bzip2, xz or lz4 command (configurable via the rdfpro.cmd.* properties).
+         * Unlike {@code IO.write}, closing the returned stream waits for the compressor to exit,
+         * so that the file is complete when {@code close()} returns.
+         */
+        static OutputStream write(final File file) throws IOException {
+            final String name = file.getName();
+            String command = null;
+            if (name.endsWith(".gz")) {
+                command = Environment.getProperty("rdfpro.cmd.gzip", "gzip");
+            } else if (name.endsWith(".bz2")) {
+                command = Environment.getProperty("rdfpro.cmd.bzip2", "bzip2");
+            } else if (name.endsWith(".xz")) {
+                command = Environment.getProperty("rdfpro.cmd.xz", "xz");
+            } else if (name.endsWith(".lz4")) {
+                command = Environment.getProperty("rdfpro.cmd.lz4", "lz4");
+            }
+            if (command == null) {
+                return new FileOutputStream(file);
+            }
+            final List<String> args = Lists.newArrayList((command + " -c -9").trim().split("\\s+"));
+            LOGGER.debug("Writing file {} using {}", file, args);
+            final Process process = new ProcessBuilder(args).redirectOutput(file)
+                    .redirectError(Redirect.INHERIT).start();
+            return new FilterOutputStream(process.getOutputStream()) {
+
+                @Override
+                public void write(final byte[] buffer, final int offset, final int length)
+                        throws IOException {
+                    this.out.write(buffer, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        final int exitCode;
+                        try {
+                            exitCode = process.waitFor();
+                        } catch (final InterruptedException ex) {
+                            process.destroy();
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while compressing " + file, ex);
+                        }
+                        if (exitCode != 0) {
+                            throw new IOException("Compression of " + file + " failed: "
+                                    + args.get(0) + " exited with code " + exitCode);
+                        }
+                    }
+                }
+
+            };
+        }
+
+        /**
+         * Returns a writer of the RDF file, in the format of its extensions, as done by {@link
+         * RDFHandlers#write(org.openrdf.rio.WriterConfig, int, String...)}. The file is complete
+         * when {@code endRDF()} returns.
+         */
+        private static RDFHandler newWriter(final File file) throws IOException {
+            final RDFFormat format = Statements.toRDFFormat(file.getName());
+            final Closeable stream;
+            final RDFWriter writer;
+            if (Statements.isRDFFormatTextBased(format)) {
+                final Writer out = IO.buffer(new OutputStreamWriter(write(file), Charsets.UTF_8));
+                stream = out;
+                writer = Rio.createWriter(format, out);
+            } else {
+                final OutputStream out = IO.buffer(write(file));
+                stream = out;
+                writer = Rio.createWriter(format, out);
+            }
+            return new RDFHandlerBase() {
+
+                @Override
+                public void startRDF() throws RDFHandlerException {
+                    writer.startRDF();
+                }
+
+                @Override
+                public synchronized void handleStatement(final Statement statement)
+                        throws RDFHandlerException {
+                    writer.handleStatement(statement);
+                }
+
+                @Override
+                public void endRDF() throws RDFHandlerException {
+                    writer.endRDF();
+                    try {
+                        stream.close();
+                    } catch (final IOException ex) {
+                        throw new RDFHandlerException("Could not complete " + file, ex);
+                    }
+                }
+
+            };
         }
 
         @Override
@@ -331,29 +569,33 @@ public final class RDFGenerator {
                     .withProperties(Util.PROPERTIES, "eu.fbk.dkm.pikes.rdf.NAFFilter")
                     .withSRLPreprocess(true, true, true).build();
 
-            final RDFHandler writer;
+            // Either a writer shared by all the threads, or a writer (shard) for each thread
+            final int numThreads = Environment.getCores();
+            final RDFHandler[] writers = new RDFHandler[this.sharded ? numThreads : 1];
             if (!this.intermediate) {
                 try {
                     Files.createParentDirs(this.outputFile);
-                    writer = RDFHandlers.write(null, 1, Runner.this.outputFile.getAbsolutePath());
-                    writer.startRDF();
+                    for (int i = 0; i < writers.length; ++i) {
+                        final File file = this.sharded ? shardFile(i) : this.outputFile;
+                        writers[i] = newWriter(file);
+                        writers[i].startRDF();
+                    }
                 } catch (final Throwable ex) {
                     throw new RuntimeException(ex);
                 }
-            } else {
-                writer = null;
             }
 
             final Tracker tracker = new Tracker(LOGGER, null, //
                     "Processed %d NAF files (%d NAF/s avg)", //
                     "Processed %d NAF files (%d NAF/s, %d NAF/s avg)");
 
-            final int numThreads = Environment.getCores();
             final CountDownLatch latch = new CountDownLatch(numThreads);
             final AtomicInteger counter = new AtomicInteger(0);
             final AtomicInteger succeeded = new AtomicInteger(0);
             tracker.start();
             for (int i = 0; i < numThreads; ++i) {
+                final RDFHandler writer = this.intermediate ? null
+                        : writers[this.sharded ? i : 0];
                 Environment.getPool().submit(new Runnable() {
 
                     @Override
@@ -401,15 +643,21 @@ public final class RDFGenerator {
                                     docName = document.getPublic().publicId;
                                     MDC.put("context", docName);
                                     filter.filter(document);
-                                    final RDFSource source = RDFSources.wrap(Runner.this.generator
-                                            .generate(document, null));
 
                                     if (!Runner.this.intermediate) {
-                                        source.emit(RDFHandlers.ignoreMethods(writer,
-                                                RDFHandlers.METHOD_START_RDF
-                                                        | RDFHandlers.METHOD_END_RDF
-                                                        | RDFHandlers.METHOD_CLOSE), 1);
+                                        // statements are written only if the whole document
+                                        // is processed, buffering them in a list (already
+                                        // deduplicated) rather than in a model
+                                        final List<Statement> statements = Lists.newArrayList();
+                                        Runner.this.generator.generate(document, null,
+                                                RDFHandlers.wrap(statements));
+                                        for (final Statement statement : statements) {
+                                            writer.handleStatement(statement);
+                                        }
                                     } else {
+                                        final RDFSource source = RDFSources
+                                                .wrap(Runner.this.generator.generate(document,
+                                                        null));
                                         java.nio.file.Files.createDirectories(output.getParent());
                                         source.emit(RDFHandlers.write(null, 1, output
                                                 .toAbsolutePath().toString()), 1);
@@ -434,11 +682,16 @@ public final class RDFGenerator {
             try {
                 latch.await();
                 if (!this.intermediate) {
-                    writer.endRDF();
+                    for (final RDFHandler writer : writers) {
+                        writer.endRDF();
+                    }
+                    if (this.concatenate) {
+                        concatenateShards(writers.length);
+                    }
                 }
             } catch (final InterruptedException ex) {
                 Thread.currentThread().interrupt();
-            } catch (final RDFHandlerException ex) {
+            } catch (final RDFHandlerException | IOException ex) {
                 throw new RuntimeException(ex);
             }
             tracker.end();
@@ -465,7 +718,24 @@ public final class RDFGenerator {
 
         private final String documentText;
 
-        private final Map<String, Annotation> annotations;
+        private Map<String, Annotation> annotations;
+
+        // Fingerprints of the statements already emitted, if streaming them to the handler
+        @Nullable
+        private final Fingerprints fingerprints;
+
+        // Handler of the OWL-Time statements, which are neither merged nor normalized
+        private final RDFHandler timeHandler;
+
+        // Fields used when processing a partition of the sentences, see runPartitioned()
+
+        @Nullable
+        private final List<Statement> handledStatements;
+
+        @Nullable
+        private final List<MintedURI> mintLog;
+
+        private int position;
 
         public Extractor(final String baseURI, final RDFHandler handler,
                 final KAFDocument document, final boolean[] sentenceIDs) {
@@ -493,15 +763,220 @@ public final class RDFGenerator {
             this.documentText = builder.toString();
 
             this.annotations = Maps.newHashMap();
+            this.fingerprints = RDFGenerator.this.merging || RDFGenerator.this.normalization ? null
+                    : new Fingerprints();
+            this.timeHandler = newTimeHandler();
+            this.handledStatements = null;
+            this.mintLog = null;
+        }
+
+        /**
+         * Creates an extractor for a partition of the sentences of a document, whose statements
+         * are collected and merged by the parent extractor. URIs are minted starting from the
+         * names already in the supplied map.
+         */
+        private Extractor(final Extractor parent, final boolean[] sentenceIDs,
+                final BiMap<String, String> mintedURIs) {
+            this.baseURI = parent.baseURI;
+            this.handledStatements = Lists.newArrayList();
+            this.handler = RDFHandlers.wrap(this.handledStatements);
+            this.statements = QuadModel.create();
+            this.mintedURIs = mintedURIs;
+            this.document = parent.document;
+            this.documentURI = parent.documentURI;
+            this.sentenceIDs = sentenceIDs;
+            this.documentText = parent.documentText;
+            this.annotations = Maps.newHashMap();
+            this.fingerprints = null;
+            this.timeHandler = newTimeHandler();
+            this.mintLog = Lists.newArrayList();
         }
 
         public void run() throws RDFHandlerException {
 
+            // Statements are sent to the handler as soon as produced, unless they have to be
+            // merged or normalized first
+            if (this.fingerprints != null) {
+                this.handler.startRDF();
+            }
+
             // 0. Process NAF metadata
             processMetadata();
 
+            if (!runPartitioned()) {
+                processInstances();
+                processFactualities();
+                processModifiers(this.annotations.values());
+                processCorefs();
+                processRoles();
+                processOpinions();
+            }
+
+            // 9. Finalize
+            if (this.fingerprints != null) {
+                this.handler.endRDF();
+                return;
+            }
+            // merged statements are normalized as they are produced, in a single pass
+            final RDFHandler handler = RDFGenerator.this.normalization ? NORMALIZER
+                    .wrapInMemory(this.handler) : this.handler;
+            handler.startRDF();
+            if (RDFGenerator.this.merging) {
+                merge(this.statements, handler);
+            } else {
+                for (final Statement statement : this.statements) {
+                    handler.handleStatement(statement);
+                }
+            }
+            handler.endRDF();
+        }
+
+        /**
+         * Processes the sentences of a frozen document in parallel, split in partitions of
+         * consecutive sentences, producing the same statements as sequential processing. Steps 1-5
+         * and 7 work on the instances of a partition; URIs minted there are checked against the
+         * ones sequential processing would mint and partitions are processed again with the right
+         * URIs in case of conflicts. Coreferences and opinions (steps 6, 8), which may span
+         * sentences, are processed afterwards. Returns false if the document has to be processed
+         * sequentially instead.
+         */
+        private boolean runPartitioned() throws RDFHandlerException {
+
+            // Split the selected sentences based on their terms, if there are enough of them
+            final List<Integer> sentences = Lists.newArrayList();
+            for (int i = 1; i < this.sentenceIDs.length; ++i) {
+                if (this.sentenceIDs[i]) {
+                    sentences.add(i);
+                }
+            }
+            final int numPartitions = Math.min(Runtime.getRuntime().availableProcessors(),
+                    sentences.size() / MIN_PARTITION_SENTENCES);
+            if (!this.document.isFrozen() || numPartitions < 2) {
+                return false;
+            }
+            final List<boolean[]> partitions = Lists.newArrayList();
+            final int numTerms = this.document.getTerms().size();
+            int terms = 0;
+            boolean[] partition = null;
+            for (final Integer sentence : sentences) {
+                if (partition == null || partitions.size() < numPartitions
+                        && terms >= (long) numTerms * partitions.size() / numPartitions) {
+                    partition = new boolean[this.sentenceIDs.length];
+                    partitions.add(partition);
+                }
+                partition[sentence] = true;
+                terms += this.document.getTermsBySent(sentence).size();
+            }
+
+            // 1-3. Process instances in each partition, minting URIs independently
+            final List<Extractor> extractors = Lists.newArrayList();
+            for (final boolean[] p : partitions) {
+                extractors.add(new Extractor(this, p, HashBiMap.<String, String>create()));
+            }
+            runParallel(extractors, (final Extractor e) -> e.processInstances());
+
+            // Mint URIs in the order of sequential processing, and redo partitions where they
+            // differ from the ones minted there
+            final List<MintedURI> log = Lists.newArrayList();
+            for (final Extractor extractor : extractors) {
+                log.addAll(extractor.mintLog);
+            }
+            Collections.sort(log); // stable, so the order of URIs of the same annotation is kept
+            final BiMap<String, String> mintedURIs = HashBiMap.create();
+            final Set<Extractor> redo = Sets.newHashSet();
+            for (final MintedURI minted : log) {
+                if (!mintLocalName(mintedURIs, minted.id, minted.suggestedLocalName).equals(
+                        minted.localName)) {
+                    redo.add(minted.extractor);
+                }
+            }
+            if (!redo.isEmpty()) {
+                final List<Extractor> redone = Lists.newArrayList();
+                for (int i = 0; i < extractors.size(); ++i) {
+                    if (redo.contains(extractors.get(i))) {
+                        extractors.set(i, new Extractor(this, partitions.get(i),
+                                HashBiMap.create(mintedURIs)));
+                        redone.add(extractors.get(i));
+                    }
+                }
+                runParallel(redone, (final Extractor e) -> e.processInstances());
+            }
+
+            // Collect instances; an instance found in multiple partitions (due to annotations
+            // spanning multiple sentences) requires sequential processing
+            final Map<String, Annotation> annotations = Maps.newHashMap();
+            for (final Extractor extractor : extractors) {
+                for (final Map.Entry<String, Annotation> entry : extractor.annotations.entrySet()) {
+                    if (annotations.put(entry.getKey(), entry.getValue()) != null) {
+                        LOGGER.debug("Processing sentences sequentially: term {} annotated in "
+                                + "multiple partitions", entry.getKey());
+                        return false;
+                    }
+                }
+            }
+            this.annotations = annotations;
+            this.mintedURIs.putAll(mintedURIs);
+
+            // 4, 5, 7. Process factualities, modifiers and roles of the instances of each partition
+            runParallel(extractors, (final Extractor e) -> {
+                final Collection<Annotation> instances = e.annotations.values();
+                e.annotations = annotations;
+                e.processFactualities();
+                e.processModifiers(instances);
+                e.processRoles();
+            });
+
+            // Merge the statements of all the partitions
+            for (final Extractor extractor : extractors) {
+                for (final Statement statement : extractor.handledStatements) {
+                    emitUnprocessed(statement);
+                }
+                for (final Statement statement : extractor.statements) {
+                    emit(statement);
+                }
+            }
+
+            // 6, 8. Process coreferences and opinions over the whole document
+            processCorefs();
+            processOpinions();
+            return true;
+        }
+
+        private void runParallel(final List<Extractor> extractors, final Step step)
+                throws RDFHandlerException {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (final Extractor extractor : extractors) {
+                futures.add(getExecutor().submit(() -> {
+                    step.run(extractor);
+                    return null;
+                }));
+            }
+            try {
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RDFHandlerException("Interrupted", ex);
+            } catch (final ExecutionException ex) {
+                Throwables.propagateIfPossible(ex.getCause(), RDFHandlerException.class);
+                throw new RDFHandlerException(ex.getCause());
+            } finally {
+                for (final Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        private void processInstances() throws RDFHandlerException {
+
+            // The position of each annotation in the lists of timexes, entities and predicates
+            // tells the order URIs are minted in when processing sentences sequentially
+            this.position = 0;
+
             // 1. Process <timex3> annotations
             for (final Timex3 timex : this.document.getTimeExs()) {
+                ++this.position;
                 if (timex.getSpan() == null
                         || this.sentenceIDs[timex.getSpan().getFirstTarget().getSent()]) {
                     try {
@@ -515,6 +990,7 @@ public final class RDFGenerator {
 
             // 2. Process <entity> annotations
             for (final Entity entity : this.document.getEntities()) {
+                ++this.position;
                 for (final Span<Term> span : entity.getSpans()) {
                     if (this.sentenceIDs[span.getFirstTarget().getSent()]) {
                         try {
@@ -530,6 +1006,7 @@ public final class RDFGenerator {
 
             // 3. Process <predicate> annotations; must be done after 1, 2
             outer: for (final Predicate predicate : this.document.getPredicates()) {
+                ++this.position;
                 if (this.sentenceIDs[predicate.getSpan().getFirstTarget().getSent()]) {
                     // TODO: the code below is madness... :-(
                     for (final ExternalRef ref : predicate.getExternalRefs()) {
@@ -573,6 +1050,10 @@ public final class RDFGenerator {
                 }
             }
 
+        }
+
+        private void processFactualities() throws RDFHandlerException {
+
             // 4. Process <factvalue> annotations; must be done after 3
             for (final Factuality factuality : this.document.getFactualities()) {
                 if (this.sentenceIDs[factuality.getWord().getSent()]) {
@@ -584,8 +1065,13 @@ public final class RDFGenerator {
                 }
             }
 
+        }
+
+        private void processModifiers(final Iterable<Annotation> annotations)
+                throws RDFHandlerException {
+
             // 5. Process <term> acting as modifiers; must be done after 1, 2, 3
-            for (final Annotation ann : this.annotations.values()) {
+            for (final Annotation ann : annotations) {
                 final URI uri = ann.predicateURI != null ? ann.predicateURI : ann.objectURI;
                 if (uri != null) {
                     final Set<Term> forbiddenTerms = Sets.newHashSet();
@@ -619,6 +1105,10 @@ public final class RDFGenerator {
                 }
             }
 
+        }
+
+        private void processCorefs() throws RDFHandlerException {
+
             // 6. Process <coref> annotations; must be done after 1, 2, 3
             for (final Coref coref : this.document.getCorefs()) {
                 if ("event".equalsIgnoreCase(coref.getType())) {
@@ -639,6 +1129,10 @@ public final class RDFGenerator {
                 }
             }
 
+        }
+
+        private void processRoles() throws RDFHandlerException {
+
             // 7. Process head <term>s in <role> annotations; must be done after 1, 2, 3
             for (final Predicate predicate : this.document.getPredicates()) {
                 if (this.sentenceIDs[predicate.getSpan().getFirstTarget().getSent()]) {
@@ -691,6 +1185,10 @@ public final class RDFGenerator {
                 }
             }
 
+        }
+
+        private void processOpinions() throws RDFHandlerException {
+
             // 8. Process <opinion>s; must be done after 1, 2, 3
             for (final Opinion opinion : this.document.getOpinions()) {
                 if (opinion.getOpinionExpression() == null
@@ -706,18 +1204,6 @@ public final class RDFGenerator {
                     }
                 }
             }
-
-            // 9. Finalize
-            Iterable<Statement> statements = RDFGenerator.this.merging ? merge(this.statements)
-                    : this.statements;
-            if (RDFGenerator.this.normalization) {
-                statements = new ProcessorASNorm("fact:").wrap(RDFSources.wrap(statements));
-            }
-            this.handler.startRDF();
-            for (final Statement statement : statements) {
-                this.handler.handleStatement(statement);
-            }
-            this.handler.endRDF();
         }
 
         private void processMetadata() throws RDFHandlerException {
@@ -831,7 +1317,7 @@ public final class RDFGenerator {
                     final OWLTime.Interval interval = OWLTime.Interval
                             .parseTimex(timex.getValue());
                     if (interval != null) {
-                        timexURI = interval.toRDF(this.handler,
+                        timexURI = interval.toRDF(this.timeHandler,
                                 RDFGenerator.this.owltimeNamespace, null);
                     } else {
                         LOGGER.debug("Could not represent date/time value '" + timex.getValue()
@@ -843,7 +1329,7 @@ public final class RDFGenerator {
                     if (duration != null) {
                         timexURI = FACTORY.createURI(RDFGenerator.this.owltimeNamespace,
                                 duration.toString());
-                        final URI durationURI = duration.toRDF(this.handler,
+                        final URI durationURI = duration.toRDF(this.timeHandler,
                                 RDFGenerator.this.owltimeNamespace, null);
                         emitFact(timexURI, OWLTIME.HAS_DURATION_DESCRIPTION, durationURI,
                                 mentionURI, null);
@@ -1384,7 +1870,7 @@ public final class RDFGenerator {
             }
         }
 
-        private void processOpinion(final Opinion opinion) {
+        private void processOpinion(final Opinion opinion) throws RDFHandlerException {
 
             // Identify the sentence where the opinion occurs (for normalization purposes)
             final int sentenceID = opinion.getOpinionExpression().getTerms().get(0).getSent();
@@ -1431,7 +1917,7 @@ public final class RDFGenerator {
 
         private void emitOpinionArgument(final URI opinionID, @Nullable final URI spanProperty,
                 @Nullable final URI headProperty, @Nullable final Span<Term> span,
-                @Nullable final Set<Term> heads) {
+                @Nullable final Set<Term> heads) throws RDFHandlerException {
 
             if (span != null) {
                 outer: for (final Term term : span.getTargets()) {
@@ -1572,7 +2058,7 @@ public final class RDFGenerator {
         }
 
         @Nullable
-        private URI emitMention(final Iterable<Term> terms) {
+        private URI emitMention(final Iterable<Term> terms) throws RDFHandlerException {
 
             final List<Term> sortedTerms = Ordering.from(Term.OFFSET_COMPARATOR).sortedCopy(terms);
             final int numTerms = sortedTerms.size();
@@ -1659,7 +2145,7 @@ public final class RDFGenerator {
             return mentionID;
         }
 
-        private URI emitTerm(final Term head) {
+        private URI emitTerm(final Term head) throws RDFHandlerException {
 
             final ExternalRef synsetRef = NAFUtils.getRef(head, NAFUtils.RESOURCE_WN_SYNSET, null);
             final String headSynsetID = synsetRef == null ? null : synsetRef.getReference();
@@ -1778,21 +2264,10 @@ public final class RDFGenerator {
         private URI mintURI(final String id, @Nullable final String suggestedLocalName) {
             String localName = this.mintedURIs.get(id);
             if (localName == null) {
-                final String name = MoreObjects.firstNonNull(suggestedLocalName, id);
-                final StringBuilder builder = new StringBuilder();
-                for (int i = 0; i < name.length(); ++i) {
-                    final char c = name.charAt(i);
-                    builder.append(Character.isWhitespace(c) ? '_' : c);
-                }
-                final String base = builder.toString();
-                int counter = 1;
-                while (true) {
-                    localName = base + (counter == 1 ? "" : "_" + counter);
-                    if (!this.mintedURIs.inverse().containsKey(localName)) {
-                        this.mintedURIs.put(id, localName);
-                        break;
-                    }
-                    ++counter;
+                localName = mintLocalName(this.mintedURIs, id, suggestedLocalName);
+                if (this.mintLog != null) {
+                    this.mintLog.add(new MintedURI(this, this.position, id, suggestedLocalName,
+                            localName));
                 }
             }
             return FACTORY.createURI(Util.cleanIRI(this.baseURI + "#" + localName));
@@ -1812,27 +2287,25 @@ public final class RDFGenerator {
         }
 
         private void emitMeta(@Nullable final URI subject, @Nullable final URI property,
-                @Nullable final Object objects) {
+                @Nullable final Object objects) throws RDFHandlerException {
             if (subject != null && property != null) {
                 for (final Value object : extract(Value.class, objects,
                         RDF.TYPE.equals(property) ? RDFGenerator.this.typeMap : null)) {
-                    this.statements.add(FACTORY.createStatement(subject, property, object));
+                    emit(FACTORY.createStatement(subject, property, object));
                 }
             }
         }
 
         private void emitFact(@Nullable final URI subject, @Nullable final URI property,
                 @Nullable final Object objects, @Nullable final URI mention,
-                @Nullable final Object confidence) {
+                @Nullable final Object confidence) throws RDFHandlerException {
             if (subject != null && property != null) {
                 for (final Value object : extract(Value.class, objects,
                         RDF.TYPE.equals(property) ? RDFGenerator.this.typeMap : null)) {
                     final URI factURI = hash(subject, property, object);
-                    this.statements.add(FACTORY
-                            .createStatement(subject, property, object, factURI));
+                    emit(FACTORY.createStatement(subject, property, object, factURI));
                     if (mention != null) {
-                        this.statements.add(FACTORY.createStatement(factURI, KS.EXPRESSED_BY,
-                                mention));
+                        emit(FACTORY.createStatement(factURI, KS.EXPRESSED_BY, mention));
                     }
                     if (confidence instanceof Number) {
                         final double confidenceValue = ((Number) confidence).doubleValue();
@@ -1845,7 +2318,36 @@ public final class RDFGenerator {
             }
         }
 
-        private Iterable<Statement> merge(final Iterable<Statement> stmts)
+        private void emit(final Statement statement) throws RDFHandlerException {
+            if (this.fingerprints == null) {
+                this.statements.add(statement);
+            } else if (this.fingerprints.add(statement)) {
+                this.handler.handleStatement(statement);
+            }
+        }
+
+        private void emitUnprocessed(final Statement statement) throws RDFHandlerException {
+            // bypass merging and normalization, but not the deduplication of streamed statements
+            if (this.fingerprints == null) {
+                this.handler.handleStatement(statement);
+            } else {
+                emit(statement);
+            }
+        }
+
+        private RDFHandler newTimeHandler() {
+            return new RDFHandlerBase() {
+
+                @Override
+                public void handleStatement(final Statement statement)
+                        throws RDFHandlerException {
+                    emitUnprocessed(statement);
+                }
+
+            };
+        }
+
+        private void merge(final Iterable<Statement> stmts, final RDFHandler handler)
                 throws RDFHandlerException {
 
             final List<Statement> smushedStmts = Lists.newArrayList();
@@ -1862,9 +2364,24 @@ public final class RDFGenerator {
                 }
             }
 
-            final List<Statement> output = Lists.newArrayList();
-            final Multimap<Resource, Statement> groupProps = HashMultimap.create();
-            final Multimap<Resource, Statement> groupRels = HashMultimap.create();
+            // Index statements about composites by subject and object. Statements relating two
+            // composites are indexed under both and processed once, when the first is merged.
+            // Output is deduplicated by fingerprint, as Statement.equals() ignores contexts
+            final Fingerprints fingerprints = new Fingerprints();
+            final RDFHandler output = new RDFHandlerBase() {
+
+                @Override
+                public void handleStatement(final Statement statement)
+                        throws RDFHandlerException {
+                    if (fingerprints.add(statement)) {
+                        handler.handleStatement(statement);
+                    }
+                }
+
+            };
+            final ListMultimap<Resource, Statement> groupProps = ArrayListMultimap.create();
+            final ListMultimap<Resource, Statement> groupRels = ArrayListMultimap.create();
+            final Set<Statement> mergedRels = Sets.newIdentityHashSet();
             for (final Statement stmt : smushedStmts) {
                 final Resource subj = stmt.getSubject();
                 final Value obj = stmt.getObject();
@@ -1881,7 +2398,7 @@ public final class RDFGenerator {
                 } else if (objIsGroup) {
                     groupProps.put((Resource) obj, stmt);
                 } else {
-                    output.add(stmt);
+                    output.handleStatement(stmt);
                 }
             }
 
@@ -1893,30 +2410,33 @@ public final class RDFGenerator {
                         && ((URI) composite).getNamespace().equals("http://dbpedia.org/resource/")
                         || named.contains(composite);
                 if (isNamed) {
-                    output.addAll(groupProps.get(composite));
-                    for (final Statement stmt : groupRels.removeAll(composite)) {
-                        if (stmt.getSubject().equals(composite)) {
-                            groupRels.remove(stmt.getObject(), stmt);
+                    for (final Statement stmt : groupProps.get(composite)) {
+                        output.handleStatement(stmt);
+                    }
+                    for (final Statement stmt : groupRels.get(composite)) {
+                        if (!mergedRels.add(stmt)) {
+                            continue;
+                        } else if (stmt.getSubject().equals(composite)) {
                             groupProps.put((Resource) stmt.getObject(), stmt);
                         } else {
-                            groupRels.remove(stmt.getSubject(), stmt);
                             groupProps.put(stmt.getSubject(), stmt);
                         }
                     }
                 } else {
-                    for (final Statement stmt : groupRels.removeAll(composite)) {
+                    for (final Statement stmt : groupRels.get(composite)) {
+                        if (!mergedRels.add(stmt)) {
+                            continue;
+                        }
                         final Resource subj = stmt.getSubject();
                         final URI pred = stmt.getPredicate();
                         final Value obj = stmt.getObject();
                         final Resource ctx = stmt.getContext();
                         if (subj.equals(composite)) {
-                            groupRels.remove(obj, stmt);
                             for (final Resource component : components) {
                                 groupProps.put((Resource) obj,
                                         vf.createStatement(component, pred, obj, ctx));
                             }
                         } else {
-                            groupRels.remove(subj, stmt);
                             for (final Resource component : components) {
                                 groupProps.put(subj,
                                         vf.createStatement(subj, pred, component, ctx));
@@ -1939,15 +2459,13 @@ public final class RDFGenerator {
                         }
                         for (final Resource subj : subjs) {
                             for (final Value obj : objs) {
-                                output.add(Statements.VALUE_FACTORY.createStatement(subj, pred,
-                                        obj, ctx));
+                                output.handleStatement(vf.createStatement(subj, pred, obj,
+                                        ctx));
                             }
                         }
                     }
                 }
             }
-
-            return output;
         }
 
         @SuppressWarnings("unchecked")
@@ -1978,27 +2496,120 @@ public final class RDFGenerator {
         }
 
         private URI hash(final Resource subject, final URI predicate, final Value object) {
-            final List<String> list = Lists.newArrayList();
-            for (final Value value : new Value[] { subject, predicate, object }) {
-                if (value instanceof URI) {
-                    list.add("\u0001");
-                    list.add(value.stringValue());
-                } else if (value instanceof BNode) {
-                    list.add("\u0002");
-                    list.add(((BNode) value).getID());
-                } else if (value instanceof Literal) {
-                    final Literal l = (Literal) value;
-                    list.add("\u0003");
-                    list.add(l.getLabel());
-                    if (l.getDatatype() != null) {
-                        list.add(l.getDatatype().stringValue());
-                    } else if (l.getLanguage() != null) {
-                        list.add(l.getLanguage());
+            return ProcessorASNorm.hash("fact:", subject, predicate, object);
+        }
+
+    }
+
+    private interface Step {
+
+        void run(Extractor extractor) throws RDFHandlerException;
+
+    }
+
+    private static final class MintedURI implements Comparable<MintedURI> {
+
+        final Extractor extractor;
+
+        final int position;
+
+        final String id;
+
+        @Nullable
+        final String suggestedLocalName;
+
+        final String localName;
+
+        MintedURI(final Extractor extractor, final int position, final String id,
+                @Nullable final String suggestedLocalName, final String localName) {
+            this.extractor = extractor;
+            this.position = position;
+            this.id = id;
+            this.suggestedLocalName = suggestedLocalName;
+            this.localName = localName;
+        }
+
+        @Override
+        public int compareTo(final MintedURI other) {
+            return Integer.compare(this.position, other.position);
+        }
+
+    }
+
+    /**
+     * A set of 128 bit fingerprints of statements, used in place of a model to detect statements
+     * already emitted. Fingerprints are stored in an open addressing table of longs, taking 32-64
+     * bytes per statement; colliding statements are unlikely and would be considered duplicates.
+     */
+    private static final class Fingerprints {
+
+        private static final HashFunction FUNCTION = Hashing.murmur3_128();
+
+        private long[] table = new long[2 * 1024];
+
+        private int size = 0;
+
+        boolean add(final Statement statement) {
+            final Hasher hasher = FUNCTION.newHasher();
+            put(hasher, statement.getSubject());
+            put(hasher, statement.getPredicate());
+            put(hasher, statement.getObject());
+            put(hasher, statement.getContext());
+            final ByteBuffer code = ByteBuffer.wrap(hasher.hash().asBytes());
+            final long high = code.getLong();
+            final long low = code.getLong() | 1L;
+
+            if (2 * this.size >= this.table.length / 2) {
+                final long[] oldTable = this.table;
+                this.table = new long[oldTable.length * 2];
+                for (int i = 0; i < oldTable.length; i += 2) {
+                    if (oldTable[i + 1] != 0L) {
+                        insert(oldTable[i], oldTable[i + 1]);
                     }
                 }
             }
-            final String id = Hash.murmur3(list.toArray(new String[list.size()])).toString();
-            return FACTORY.createURI("fact:" + id);
+            if (insert(high, low)) {
+                ++this.size;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean insert(final long high, final long low) {
+            // low is never 0, which marks empty slots
+            final int mask = this.table.length / 2 - 1;
+            for (int slot = (int) high & mask;; slot = slot + 1 & mask) {
+                final int index = 2 * slot;
+                if (this.table[index + 1] == 0L) {
+                    this.table[index] = high;
+                    this.table[index + 1] = low;
+                    return true;
+                } else if (this.table[index] == high && this.table[index + 1] == low) {
+                    return false;
+                }
+            }
+        }
+
+        private static void put(final Hasher hasher, @Nullable final Value value) {
+            if (value == null) {
+                hasher.putByte((byte) 0);
+            } else if (value instanceof URI) {
+                put(hasher.putByte((byte) 1), value.stringValue());
+            } else if (value instanceof BNode) {
+                put(hasher.putByte((byte) 2), ((BNode) value).getID());
+            } else {
+                final Literal l = (Literal) value;
+                put(hasher.putByte((byte) 3), l.getLabel());
+                if (l.getDatatype() != null) {
+                    put(hasher.putByte((byte) 4), l.getDatatype().stringValue());
+                } else if (l.getLanguage() != null) {
+                    put(hasher.putByte((byte) 5), l.getLanguage());
+                }
+            }
+        }
+
+        private static void put(final Hasher hasher, final String string) {
+            hasher.putInt(string.length()).putUnencodedChars(string);
         }
 
     }
@@ -1,11 +1,17 @@
 package eu.fbk.dkm.pikes.rdf.util;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import org.openrdf.model.BNode;
 import org.openrdf.model.Literal;
@@ -15,9 +21,11 @@ import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
 
 import eu.fbk.utils.svm.Util;
 import eu.fbk.rdfpro.Mapper;
+import eu.fbk.rdfpro.RDFHandlers;
 import eu.fbk.rdfpro.RDFProcessor;
 import eu.fbk.rdfpro.RDFProcessors;
 import eu.fbk.rdfpro.Reducer;
@@ -58,63 +66,111 @@ public final class ProcessorASNorm implements RDFProcessor {
                         .wrap(handler));
     }
 
+    /**
+     * Returns a handler that normalizes in memory the statements it receives, emitting to the
+     * supplied handler the statements {@link #wrap(RDFHandler)} would emit for them. Statements
+     * are indexed by the annotation ID they contain and the two map-reduce passes become two
+     * scans of the index at {@code endRDF()}, without sorting or serializing statements.
+     */
+    public RDFHandler wrapInMemory(final RDFHandler handler) {
+        return new Index(true, this.factReducer, new Index(false, this.metaReducer, handler));
+    }
+
+    /**
+     * Normalizes the supplied statements in memory, returning the statements the processor would
+     * emit for them.
+     *
+     * @see #wrapInMemory(RDFHandler)
+     */
+    public List<Statement> normalize(final Iterable<Statement> statements)
+            throws RDFHandlerException {
+        final List<Statement> output = Lists.newArrayList();
+        final RDFHandler handler = wrapInMemory(RDFHandlers.wrap(output));
+        handler.startRDF();
+        for (final Statement statement : statements) {
+            handler.handleStatement(statement);
+        }
+        handler.endRDF();
+        return output;
+    }
+
+    /**
+     * Returns the URI of the fact with the subject, predicate and object specified, in the
+     * supplied namespace, as assigned by the processor.
+     */
+    public static URI hash(final String namespace, final Resource subject, final URI predicate,
+            final Value object) {
+        final Murmur3 hash = new Murmur3();
+        add(hash, subject);
+        add(hash, predicate);
+        add(hash, object);
+        return Statements.VALUE_FACTORY.createURI(namespace, hash.get().toString());
+    }
+
     private boolean match(final Value value) {
         return value instanceof URI && ((URI) value).getNamespace().equals(this.namespace);
     }
 
-    private URI hash(final Resource subject, final URI predicate, final Value object) {
-        final List<String> list = Lists.newArrayList();
-        for (final Value value : new Value[] { subject, predicate, object }) {
-            if (value instanceof URI) {
-                list.add("\u0001");
-                list.add(value.stringValue());
-            } else if (value instanceof BNode) {
-                list.add("\u0002");
-                list.add(((BNode) value).getID());
-            } else if (value instanceof Literal) {
-                final Literal l = (Literal) value;
-                list.add("\u0003");
-                list.add(l.getLabel());
-                if (l.getDatatype() != null) {
-                    list.add(l.getDatatype().stringValue());
-                } else if (l.getLanguage() != null) {
-                    list.add(l.getLanguage());
+    @Nullable
+    private Value key(final Statement statement, final boolean checked) {
+        // annotation ID in the statement, checking there is only one if requested
+        final String message = "Multiple annotation IDs in same statement";
+        Value key = null;
+        for (final Value value : new Value[] { statement.getSubject(), statement.getContext(),
+                statement.getObject(), statement.getPredicate() }) {
+            if (match(value)) {
+                if (!checked) {
+                    return value;
                 }
+                Preconditions.checkArgument(key == null, message);
+                key = value;
             }
         }
-        final String hash = Hash.murmur3(list.toArray(new String[list.size()])).toString();
-        return Statements.VALUE_FACTORY.createURI(this.namespace, hash);
+        return key;
     }
 
-    private URI hash(final URI id, final Iterable<Statement> statements) {
-        final List<String> list = Lists.newArrayList();
+    private URI hash(final Resource subject, final URI predicate, final Value object) {
+        return hash(this.namespace, subject, predicate, object);
+    }
+
+    private URI hash(final URI id, final List<Statement> statements) {
+        final Murmur3 hash = new Murmur3();
         for (final Statement stmt : statements) {
-            for (final Value value : new Value[] { stmt.getSubject(), stmt.getPredicate(),
-                    stmt.getObject(), stmt.getContext() }) {
-                if (value == null) {
-                    list.add("\u0004");
-                } else if (value.equals(id)) {
-                    list.add("\u0005");
-                } else if (value instanceof URI) {
-                    list.add("\u0001");
-                    list.add(value.stringValue());
-                } else if (value instanceof BNode) {
-                    list.add("\u0002");
-                    list.add(((BNode) value).getID());
-                } else if (value instanceof Literal) {
-                    final Literal l = (Literal) value;
-                    list.add("\u0003");
-                    list.add(l.getLabel());
-                    if (l.getDatatype() != null) {
-                        list.add(l.getDatatype().stringValue());
-                    } else if (l.getLanguage() != null) {
-                        list.add(l.getLanguage());
-                    }
-                }
+            add(hash, stmt.getSubject(), id);
+            add(hash, stmt.getPredicate(), id);
+            add(hash, stmt.getObject(), id);
+            add(hash, stmt.getContext(), id);
+        }
+        return Statements.VALUE_FACTORY.createURI(this.namespace, hash.get().toString());
+    }
+
+    // The strings identifying a value are hashed as they are produced, as hashing is done for
+    // every statement
+
+    private static void add(final Murmur3 hash, @Nullable final Value value, final URI id) {
+        if (value == null) {
+            hash.add("\u0004");
+        } else if (value.equals(id)) {
+            hash.add("\u0005");
+        } else {
+            add(hash, value);
+        }
+    }
+
+    private static void add(final Murmur3 hash, final Value value) {
+        if (value instanceof URI) {
+            hash.add("\u0001").add(value.stringValue());
+        } else if (value instanceof BNode) {
+            hash.add("\u0002").add(((BNode) value).getID());
+        } else if (value instanceof Literal) {
+            final Literal l = (Literal) value;
+            hash.add("\u0003").add(l.getLabel());
+            if (l.getDatatype() != null) {
+                hash.add(l.getDatatype().stringValue());
+            } else if (l.getLanguage() != null) {
+                hash.add(l.getLanguage());
             }
         }
-        final String hash = Hash.murmur3(list.toArray(new String[list.size()])).toString();
-        return Statements.VALUE_FACTORY.createURI(this.namespace, hash);
     }
 
     @SuppressWarnings("unchecked")
@@ -162,27 +218,8 @@ public final class ProcessorASNorm implements RDFProcessor {
 
         @Override
         public Value[] map(final Statement statement) throws RDFHandlerException {
-            final String message = "Multiple annotation IDs in same statement";
-            Value key = null;
-            if (match(statement.getSubject())) {
-                key = statement.getSubject();
-            }
-            if (match(statement.getContext())) {
-                Preconditions.checkArgument(key == null, message);
-                key = statement.getContext();
-            }
-            if (match(statement.getObject())) {
-                Preconditions.checkArgument(key == null, message);
-                key = statement.getObject();
-            }
-            if (match(statement.getPredicate())) {
-                Preconditions.checkArgument(key == null, message);
-                key = statement.getPredicate();
-            }
-            if (key == null) {
-                key = Mapper.BYPASS_KEY;
-            }
-            return new Value[] { key };
+            final Value key = key(statement, true);
+            return new Value[] { key != null ? key : Mapper.BYPASS_KEY };
         }
 
     }
@@ -191,17 +228,62 @@ public final class ProcessorASNorm implements RDFProcessor {
 
         @Override
         public Value[] map(final Statement statement) throws RDFHandlerException {
-            if (match(statement.getSubject())) {
-                return new Value[] { statement.getSubject() };
-            } else if (match(statement.getContext())) {
-                return new Value[] { statement.getContext() };
-            } else if (match(statement.getObject())) {
-                return new Value[] { statement.getObject() };
-            } else if (match(statement.getPredicate())) {
-                return new Value[] { statement.getPredicate() };
+            final Value key = key(statement, false);
+            return new Value[] { key != null ? key : eu.fbk.rdfpro.Mapper.BYPASS_KEY };
+        }
+
+    }
+
+    private final class Index extends RDFHandlerBase {
+
+        private final boolean checked;
+
+        private final Reducer reducer;
+
+        private final RDFHandler handler;
+
+        // statements of each group, indexed by their values as Statement.equals() ignores contexts
+        private final Map<Value, Map<List<Value>, Statement>> groups;
+
+        Index(final boolean checked, final Reducer reducer, final RDFHandler handler) {
+            this.checked = checked;
+            this.reducer = reducer;
+            this.handler = handler;
+            this.groups = Maps.newLinkedHashMap();
+        }
+
+        @Override
+        public void startRDF() throws RDFHandlerException {
+            this.groups.clear();
+            this.handler.startRDF();
+        }
+
+        @Override
+        public void handleStatement(final Statement statement) throws RDFHandlerException {
+            final Value key = key(statement, this.checked);
+            if (key == null) {
+                this.handler.handleStatement(statement);
             } else {
-                return new Value[] { eu.fbk.rdfpro.Mapper.BYPASS_KEY };
+                Map<List<Value>, Statement> group = this.groups.get(key);
+                if (group == null) {
+                    group = Maps.newLinkedHashMap(); // map-reduce deduplication
+                    this.groups.put(key, group);
+                }
+                group.putIfAbsent(Arrays.asList(statement.getSubject(), statement.getPredicate(),
+                        statement.getObject(), statement.getContext()), statement);
+            }
+        }
+
+        @Override
+        public void endRDF() throws RDFHandlerException {
+            for (final Map.Entry<Value, Map<List<Value>, Statement>> entry : this.groups
+                    .entrySet()) {
+                final Collection<Statement> group = entry.getValue().values();
+                this.reducer.reduce(entry.getKey(), group.toArray(new Statement[group.size()]),
+                        this.handler);
             }
+            this.groups.clear();
+            this.handler.endRDF();
         }
 
     }
@@ -263,4 +345,94 @@ public final class ProcessorASNorm implements RDFProcessor {
 
     }
 
+    /**
+     * Computes the same hash of {@link Hash#murmur3(CharSequence...)} for the strings added one
+     * at a time, without collecting them in an array. As there, characters are mixed in blocks of
+     * eight and a last partial block is mixed only if the last string added is not empty.
+     */
+    private static final class Murmur3 {
+
+        private static final long C1 = 0x87c37b91114253d5L;
+
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private long h1;
+
+        private long h2;
+
+        private long k1;
+
+        private long k2;
+
+        private long k;
+
+        private int index;
+
+        private int length;
+
+        private boolean lastEmpty;
+
+        Murmur3 add(final String string) {
+            final int size = string.length();
+            for (int i = 0; i < size; ++i) {
+                this.k |= (string.charAt(i) & 0xFFFFL) << this.index % 4 * 16;
+                if (this.index == 3) {
+                    this.k1 = this.k;
+                    this.k = 0L;
+                    ++this.index;
+                } else if (this.index == 7) {
+                    this.k2 = this.k;
+                    this.k = 0L;
+                    mix();
+                } else {
+                    ++this.index;
+                }
+            }
+            this.lastEmpty = size == 0;
+            return this;
+        }
+
+        Hash get() {
+            if (!this.lastEmpty && this.index > 0) {
+                if (this.index < 4) {
+                    this.k1 = this.k;
+                } else if (this.index > 4) {
+                    this.k2 = this.k;
+                }
+                this.k = 0L;
+                mix();
+            }
+            long h1 = this.h1 ^ this.length;
+            long h2 = this.h2 ^ this.length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+            return Hash.fromLongs(h1, h2);
+        }
+
+        private void mix() {
+            this.h1 ^= Long.rotateLeft(this.k1 * C1, 31) * C2;
+            this.h1 = (Long.rotateLeft(this.h1, 27) + this.h2) * 5 + 0x52dce729;
+            this.h2 ^= Long.rotateLeft(this.k2 * C2, 33) * C1;
+            this.h2 = (Long.rotateLeft(this.h2, 31) + this.h1) * 5 + 0x38495ab5;
+            this.length += 16;
+            this.k1 = 0L;
+            this.k2 = 0L;
+            this.index = 0;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+    }
+
 }
@@ -0,0 +1,70 @@
+package eu.fbk.dkm.pikes.rdf;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.openrdf.model.Statement;
+
+import ixa.kaflib.KAFDocument;
+
+import eu.fbk.dkm.pikes.naflib.Benchmark;
+import eu.fbk.dkm.pikes.rdf.util.ProcessorASNorm;
+import eu.fbk.dkm.pikes.resources.NAFFilter;
+import eu.fbk.rdfpro.RDFHandlers;
+import eu.fbk.rdfpro.RDFSources;
+
+/**
+ * Measures the cost of merging and normalization in {@link RDFGenerator} on the NAF files given
+ * on the command line, which should be representative of the processed documents. The time
+ * needed to generate RDF without and with merging and normalization is reported, together with
+ * the time of normalizing the merged statements in memory and with the map-reduce passes of
+ * {@link ProcessorASNorm}. That the two normalizations agree is checked by
+ * {@link RDFGeneratorTest}.
+ * <p>
+ * Usage: RDFGeneratorMergeBenchmark file.naf...
+ */
+public class RDFGeneratorMergeBenchmark {
+
+    private static final int RUNS = 10;
+
+    public static void main(final String[] args) throws Exception {
+        final RDFGenerator plain = RDFGenerator.builder().build();
+        final RDFGenerator merging = RDFGenerator.builder().withMerging(true).build();
+        final RDFGenerator full = RDFGenerator.builder().withMerging(true)
+                .withNormalization(true).build();
+        final ProcessorASNorm normalizer = new ProcessorASNorm("fact:");
+
+        for (final String arg : args) {
+            final KAFDocument document = KAFDocument.createFromFile(new File(arg));
+            NAFFilter.DEFAULT.filter(document);
+
+            final Benchmark benchmark = new Benchmark() //
+                    .add("generation", () -> plain.generate(document, null)) //
+                    .add("with merging and normalization", () -> full.generate(document, null)) //
+                    .add("normalization indexed", () -> merge(merging, document),
+                            (final List<Statement> merged) -> normalizer.normalize(merged)) //
+                    .add("map-reduce", () -> merge(merging, document),
+                            (final List<Statement> merged) -> {
+                                final List<Statement> mapReduced = Lists.newArrayList();
+                                normalizer.wrap(RDFSources.wrap(merged)).emit(
+                                        RDFHandlers.wrap(mapReduced), 1);
+                                return mapReduced;
+                            }) //
+                    .run(RUNS);
+
+            System.out.println(String.format("%s: %d statements; %s", arg,
+                    ((Collection<?>) benchmark.result(1)).size(), benchmark));
+        }
+    }
+
+    private static List<Statement> merge(final RDFGenerator generator,
+            final KAFDocument document) throws Exception {
+        final List<Statement> merged = Lists.newArrayList();
+        generator.generate(document, null, merged);
+        return merged;
+    }
+
+}
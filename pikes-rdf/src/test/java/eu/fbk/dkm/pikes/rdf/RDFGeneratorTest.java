@@ -0,0 +1,201 @@
+package eu.fbk.dkm.pikes.rdf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+
+import ixa.kaflib.KAFDocument;
+
+import eu.fbk.dkm.pikes.naflib.TestDocuments;
+import eu.fbk.dkm.pikes.rdf.util.ProcessorASNorm;
+import eu.fbk.dkm.pikes.resources.NAFFilter;
+import eu.fbk.rdfpro.RDFHandlers;
+import eu.fbk.rdfpro.RDFSources;
+import eu.fbk.rdfpro.util.Statements;
+
+/**
+ * Tests the statements generated by {@link RDFGenerator} and written by the rdfgen command.
+ */
+public class RDFGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concatenationRequiresLineBasedFormat() throws IOException {
+        Assert.assertTrue(RDFGenerator.Runner.isLineBased(new File("out.tql.gz")));
+        Assert.assertTrue(RDFGenerator.Runner.isLineBased(new File("out.nq.bz2")));
+        Assert.assertTrue(RDFGenerator.Runner.isLineBased(new File("out.nt.xz")));
+        Assert.assertTrue(RDFGenerator.Runner.isLineBased(new File("out.nt")));
+        Assert.assertFalse(RDFGenerator.Runner.isLineBased(new File("out.tql.7z")));
+        Assert.assertFalse(RDFGenerator.Runner.isLineBased(new File("out.ttl.gz")));
+        Assert.assertFalse(RDFGenerator.Runner.isLineBased(new File("out.trig")));
+        for (final String output : new String[] { "out.tql.7z", "out.ttl.gz" }) {
+            try {
+                RDFGenerator.Runner.create("rdfgen", "-c", "-o",
+                        new File(this.folder.getRoot(), output).getPath(),
+                        this.folder.getRoot().getPath());
+                Assert.fail("-c accepted for " + output);
+            } catch (final IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void concatenatedShardsMatchSharedWriter() throws Exception {
+        final File input = this.folder.newFolder("naf");
+        for (int i = 1; i <= 3; ++i) {
+            writeNAF(new File(input, "doc" + i + ".naf"), i);
+        }
+        final File shared = new File(this.folder.getRoot(), "shared.tql");
+        final File concatenated = new File(this.folder.getRoot(), "concatenated.tql");
+        RDFGenerator.Runner.create("rdfgen", "-r", "-o", shared.getPath(), input.getPath())
+                .run();
+        RDFGenerator.Runner.create("rdfgen", "-r", "-c", "-o", concatenated.getPath(),
+                input.getPath()).run();
+        final Set<String> expected = quads(read(shared));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, quads(read(concatenated)));
+        Assert.assertFalse(new File(this.folder.getRoot(), "concatenated.0.tql").exists());
+    }
+
+    @Test
+    public void compressedShardsAreCompleteAfterRun() throws Exception {
+        final File input = this.folder.newFolder("naf");
+        for (int i = 1; i <= 3; ++i) {
+            writeNAF(new File(input, "doc" + i + ".naf"), i);
+        }
+        final File shared = new File(this.folder.getRoot(), "shared.tql");
+        final File sharded = new File(this.folder.getRoot(), "sharded.tql.gz");
+        RDFGenerator.Runner.create("rdfgen", "-r", "-o", shared.getPath(), input.getPath())
+                .run();
+        final RDFGenerator.Runner runner = RDFGenerator.Runner.create("rdfgen", "-r", "-s",
+                "-o", sharded.getPath(), input.getPath());
+        runner.run();
+
+        // shards are read with GZIPInputStream, which fails on a truncated gzip stream
+        final Set<String> quads = Sets.newHashSet();
+        for (int shard = 0; runner.shardFile(shard).exists(); ++shard) {
+            final List<Statement> statements = Lists.newArrayList();
+            try (InputStream in = new GZIPInputStream(new FileInputStream(runner
+                    .shardFile(shard)))) {
+                final RDFParser parser = Rio.createParser(Statements.toRDFFormat("shard.tql"));
+                parser.setRDFHandler(new StatementCollector(statements));
+                parser.parse(in, "");
+            }
+            quads.addAll(quads(statements));
+        }
+        Assert.assertEquals(quads(read(shared)), quads);
+    }
+
+    @Test
+    public void streamedStatementsAreUnique() throws RDFHandlerException {
+        // the two timexes produce the same OWL-Time statements
+        final KAFDocument document = TestDocuments.create("http://example.org/doc", 3);
+        for (final int sentence : new int[] { 2, 4 }) {
+            TestDocuments.newTimex(document, document.getTermsBySent(sentence).get(2), "DATE",
+                    "2015-10-21");
+        }
+        filter(document);
+        final List<Statement> statements = Lists.newArrayList();
+        RDFGenerator.DEFAULT.generate(document, null, RDFHandlers.wrap(statements));
+        final Set<String> streamed = Sets.newHashSet();
+        for (final Statement statement : statements) {
+            Assert.assertTrue(streamed.add(statement.getSubject() + " "
+                    + statement.getPredicate() + " " + statement.getObject() + " "
+                    + statement.getContext()));
+        }
+        Assert.assertTrue(Iterables.any(streamed, q -> q.contains("2015-10-21")));
+    }
+
+    @Test
+    public void mergedStatementsNormalizeAsMapReduce() throws RDFHandlerException {
+        // merged statements include the same triples in different contexts
+        final KAFDocument document = filter(TestDocuments.create("http://example.org/doc", 6));
+        final List<Statement> merged = Lists.newArrayList();
+        RDFGenerator.builder().withMerging(true).build().generate(document, null, merged);
+        Assert.assertTrue(quads(merged).size() > Sets.newHashSet(merged).size());
+
+        final ProcessorASNorm normalizer = new ProcessorASNorm("fact:");
+        final List<Statement> mapReduced = Lists.newArrayList();
+        normalizer.wrap(RDFSources.wrap(merged)).emit(RDFHandlers.wrap(mapReduced), 1);
+        final Set<String> expected = quads(mapReduced);
+        Assert.assertEquals(expected, quads(normalizer.normalize(merged)));
+        Assert.assertEquals(expected, quads(RDFGenerator.builder().withMerging(true)
+                .withNormalization(true).build().generate(document, null)));
+    }
+
+    @Test
+    public void frozenDocumentMatchesSequentialProcessing() {
+        // frozen documents are split in partitions processed in parallel, given two or more
+        // cores and 20 selected sentences per partition
+        final KAFDocument document = filter(TestDocuments.create("http://example.org/doc", 22));
+        final List<Integer> sentences = ContiguousSet.create(Range.closed(3, 42),
+                DiscreteDomain.integers()).asList();
+        for (final RDFGenerator generator : new RDFGenerator[] { RDFGenerator.DEFAULT,
+                RDFGenerator.builder().withMerging(true).withNormalization(true).build() }) {
+            final KAFDocument frozen = TestDocuments.copy(document).freeze();
+            Assert.assertEquals(quads(generator.generate(document, null)),
+                    quads(generator.generate(frozen, null)));
+            Assert.assertEquals(quads(generator.generate(document, sentences)),
+                    quads(generator.generate(frozen, sentences)));
+        }
+    }
+
+    static KAFDocument filter(final KAFDocument document) {
+        NAFFilter.DEFAULT.filter(document);
+        return document;
+    }
+
+    private static void writeNAF(final File file, final int copies) throws IOException {
+        final String uri = "http://example.org/" + file.getName().replace(".naf", "");
+        Files.write(TestDocuments.create(uri, copies).toString(), file, StandardCharsets.UTF_8);
+    }
+
+    private static List<Statement> read(final File file) throws RDFHandlerException {
+        final List<Statement> statements = Lists.newArrayList();
+        RDFSources.read(false, true, null, null, file.getAbsolutePath()).emit(
+                RDFHandlers.wrap(statements), 1);
+        return statements;
+    }
+
+    /**
+     * Returns the statements as strings that include their context, as Statement.equals()
+     * ignores it. Plain literals and xsd:string literals, which are the same in RDF 1.1, are
+     * written in the same way.
+     */
+    static Set<String> quads(final Iterable<? extends Statement> statements) {
+        final Set<String> quads = Sets.newHashSet();
+        for (final Statement statement : statements) {
+            final Statement s = Statements.normalize(statement);
+            quads.add(s.getSubject() + " " + s.getPredicate() + " " + s.getObject() + " "
+                    + s.getContext());
+        }
+        return quads;
+    }
+
+}
@@ -0,0 +1,100 @@
+package eu.fbk.dkm.pikes.rdf;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.io.Files;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import eu.fbk.dkm.pikes.naflib.Benchmark;
+import eu.fbk.dkm.pikes.naflib.Corpus;
+import eu.fbk.rdfpro.RDFSources;
+
+/**
+ * Compares the throughput of the rdfgen command with a single writer shared by all the threads,
+ * with one output shard per thread (-s) and with shards concatenated at the end (-c). The NAF
+ * files or folders given on the command line (searched recursively) are converted in the three
+ * modes to gzipped TQL, reporting the NAF files converted per second and the number of statements
+ * written, which should be the same. Times include waiting for the gzip processes and are
+ * taken after a warm-up conversion in each mode.
+ * <p>
+ * Usage: RDFGeneratorThroughput [-m] [-n] file.naf|folder...
+ */
+public class RDFGeneratorThroughput {
+
+    private static final String[] MODES = { "shared", "-s", "-c" };
+
+    public static void main(final String[] args) throws Exception {
+        final File folder = Files.createTempDir();
+        try {
+            final Benchmark benchmark = new Benchmark();
+            for (final String mode : MODES) {
+                final File output = new File(folder, "out" + mode + ".tql.gz");
+                String[] options = new String[] { "-r", "-o", output.getAbsolutePath() };
+                if (!mode.equals("shared")) {
+                    options = ObjectArrays.concat(options, mode);
+                }
+                final String[] runnerArgs = ObjectArrays.concat(options, args, String.class);
+                benchmark.add(mode, () -> RDFGenerator.Runner.create("rdfgen", runnerArgs),
+                        (final RDFGenerator.Runner runner) -> {
+                            runner.run();
+                            return runner;
+                        });
+            }
+            benchmark.run(1);
+
+            final int numFiles = countFiles(args);
+            for (int i = 0; i < MODES.length; ++i) {
+                final RDFGenerator.Runner runner = (RDFGenerator.Runner) benchmark.result(i);
+                final List<File> files = Lists.newArrayList();
+                if (MODES[i].equals("-s")) {
+                    for (int shard = 0; runner.shardFile(shard).exists(); ++shard) {
+                        files.add(runner.shardFile(shard));
+                    }
+                } else {
+                    files.add(new File(folder, "out" + MODES[i] + ".tql.gz"));
+                }
+                final AtomicLong statements = new AtomicLong();
+                long bytes = 0;
+                for (final File file : files) {
+                    bytes += file.length();
+                    RDFSources.read(false, true, null, null, file.getAbsolutePath()).emit(
+                            new RDFHandlerBase() {
+
+                                @Override
+                                public void handleStatement(final Statement statement) {
+                                    statements.incrementAndGet();
+                                }
+
+                            }, 1);
+                }
+
+                System.out.println(String.format(
+                        "%s writer: %.1f s, %.1f NAF/s, %d statements, %d bytes in %d files",
+                        MODES[i], benchmark.millis(i) / 1000, numFiles * 1000
+                                / benchmark.millis(i), statements.get(), bytes, files.size()));
+            }
+        } finally {
+            for (final File file : folder.listFiles()) {
+                file.delete();
+            }
+            folder.delete();
+        }
+    }
+
+    private static int countFiles(final String[] args) {
+        final List<File> files = Lists.newArrayList();
+        for (final String arg : args) {
+            if (!arg.startsWith("-")) {
+                files.add(new File(arg));
+            }
+        }
+        return Corpus.create(true, files).size();
+    }
+
+}
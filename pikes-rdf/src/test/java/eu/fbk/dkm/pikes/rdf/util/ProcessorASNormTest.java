@@ -0,0 +1,135 @@
+package eu.fbk.dkm.pikes.rdf.util;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.rio.RDFHandlerException;
+
+import eu.fbk.rdfpro.RDFHandlers;
+import eu.fbk.rdfpro.RDFSources;
+import eu.fbk.rdfpro.util.Hash;
+import eu.fbk.rdfpro.util.Statements;
+
+/**
+ * Tests that {@link ProcessorASNorm#normalize(Iterable)} emits the same statements as the
+ * map-reduce processor, and that fact URIs are hashed as before.
+ */
+public class ProcessorASNormTest {
+
+    private static final ProcessorASNorm NORMALIZER = new ProcessorASNorm("fact:");
+
+    @Test
+    public void keepsStatementsDifferingOnlyInContext() throws RDFHandlerException {
+        // the same metadata statement in the default graph and in a named graph, for two facts
+        // with the same triple; Statement.equals() would consider the two metadata equal
+        final List<Statement> input = ImmutableList.of(
+                statement("ex:s", "ex:p", uri("ex:o"), "fact:1"),
+                statement("fact:1", "ex:source", uri("ex:doc"), null),
+                statement("fact:1", "ex:source", uri("ex:doc"), "ex:graph"),
+                statement("ex:s", "ex:p", uri("ex:o"), "fact:2"),
+                statement("fact:2", "ex:confidence", Statements.VALUE_FACTORY.createLiteral(0.5),
+                        null));
+        final Set<String> expected = mapReduce(input);
+        Assert.assertEquals(expected, quads(NORMALIZER.normalize(input)));
+        Assert.assertEquals(4, expected.size());
+    }
+
+    @Test
+    public void removesDuplicates() throws RDFHandlerException {
+        final Statement fact = statement("ex:s", "ex:p", uri("ex:o"), "fact:1");
+        final Statement meta = statement("fact:1", "ex:source", uri("ex:doc"), "ex:graph");
+        final Statement other = statement("ex:s", "ex:q", uri("ex:o"), "ex:graph");
+        final List<Statement> input = ImmutableList.of(fact, meta, other, fact, meta, other);
+        final List<Statement> output = NORMALIZER.normalize(input);
+        Assert.assertEquals(mapReduce(input), quads(output));
+        Assert.assertEquals(3, Sets.newHashSet(output).size());
+    }
+
+    @Test
+    public void hashesAsMurmur3OfStrings() {
+        // strings of any length, including empty ones, split in blocks of eight characters
+        final Random random = new Random(0);
+        for (int i = 0; i < 1000; ++i) {
+            final URI subject = uri("ex:" + string(random, 0));
+            final URI predicate = uri("ex:" + string(random, 0));
+            final String label = string(random, 20);
+            final Value object;
+            final String[] args;
+            switch (random.nextInt(4)) {
+            case 0:
+                object = uri("ex:" + label);
+                args = new String[] { "\u0001", "ex:" + label };
+                break;
+            case 1:
+                object = Statements.VALUE_FACTORY.createLiteral(label);
+                args = new String[] { "\u0003", label, XMLSchema.STRING.stringValue() };
+                break;
+            case 2:
+                object = Statements.VALUE_FACTORY.createLiteral(label, XMLSchema.INT);
+                args = new String[] { "\u0003", label, XMLSchema.INT.stringValue() };
+                break;
+            default:
+                object = Statements.VALUE_FACTORY.createBNode("b" + label);
+                args = new String[] { "\u0002", "b" + label };
+            }
+            final String[] expected = ObjectArrays.concat(new String[] { "\u0001",
+                    subject.stringValue(), "\u0001", predicate.stringValue() }, args,
+                    String.class);
+            Assert.assertEquals("fact:" + Hash.murmur3(expected), ProcessorASNorm.hash("fact:",
+                    subject, predicate, object).stringValue());
+        }
+    }
+
+    private static Set<String> mapReduce(final Iterable<Statement> statements)
+            throws RDFHandlerException {
+        final List<Statement> output = Lists.newArrayList();
+        NORMALIZER.wrap(RDFSources.wrap(statements)).emit(RDFHandlers.wrap(output), 1);
+        return quads(output);
+    }
+
+    private static Set<String> quads(final Iterable<Statement> statements) {
+        final Set<String> quads = Sets.newHashSet();
+        for (final Statement statement : statements) {
+            quads.add(statement.getSubject() + " " + statement.getPredicate() + " "
+                    + statement.getObject() + " " + statement.getContext());
+        }
+        return quads;
+    }
+
+    // Returns a random string, empty with the given probability (in percent)
+    private static String string(final Random random, final int emptyPercent) {
+        final int length = random.nextInt(100) < emptyPercent ? 0 : 1 + random.nextInt(40);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            builder.append((char) (random.nextInt(4) == 0 ? random.nextInt(0x3000) : 'a'
+                    + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+    private static Statement statement(final String subject, final String predicate,
+            final Value object, final String context) {
+        final Resource ctx = context == null ? null : uri(context);
+        return ctx == null ? Statements.VALUE_FACTORY.createStatement(uri(subject),
+                uri(predicate), object) : Statements.VALUE_FACTORY.createStatement(uri(subject),
+                uri(predicate), object, ctx);
+    }
+
+    private static URI uri(final String string) {
+        return Statements.VALUE_FACTORY.createURI(string);
+    }
+
+}
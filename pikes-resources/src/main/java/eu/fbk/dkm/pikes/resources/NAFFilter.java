@@ -442,7 +442,9 @@ public final class NAFFilter implements Consumer<KAFDocument> {
 
     private void applyEntitySpanFixing(final KAFDocument document) {
 
-        // Filter or remove entities consisting of invalid terms
+        // Filter or remove entities consisting of invalid terms; old entities are removed at the
+        // end in a single pass, which gives the same layer as removing them one at a time
+        final List<Entity> removedEntities = Lists.newArrayList();
         for (final Entity entity : ImmutableList.copyOf(document.getEntities())) {
 
             // Remove initial determiners and prepositions, plus all the terms not containing at
@@ -453,7 +455,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
             }
 
             // Remove the old entity
-            document.removeAnnotation(entity);
+            removedEntities.add(entity);
 
             // If some term remained, add the filtered entity, reusing old type, named flag and
             // external references
@@ -475,18 +477,22 @@ public final class NAFFilter implements Consumer<KAFDocument> {
                                 + NAFUtils.toString(newEntity)));
             }
         }
+        document.removeAnnotations(removedEntities);
     }
 
     private void applyEntityRemoveOverlaps(final KAFDocument document) {
 
-        // Consider all the entities in the document
-        outer: for (final Entity entity : ImmutableList.copyOf(document.getEntities())) {
+        // Consider all the entities in the document; removed entities are collected and dropped
+        // at the end, ignoring them when checking the following ones
+        final Set<Entity> removedEntities = Sets.newIdentityHashSet();
+        outer: for (final Entity entity : document.getEntities()) {
             for (final Term term : entity.getTerms()) {
 
                 // Remove entities whose span is contained in the span of another entity
                 for (final Entity entity2 : document.getEntitiesByTerm(term)) {
-                    if (entity2 != entity && entity2.getTerms().containsAll(entity.getTerms())) {
-                        document.removeAnnotation(entity);
+                    if (entity2 != entity && !removedEntities.contains(entity2)
+                            && entity2.getTerms().containsAll(entity.getTerms())) {
+                        removedEntities.add(entity);
                         if (LOGGER.isDebugEnabled()) {
                             LOGGER.debug("Removed " + NAFUtils.toString(entity)
                                     + " overlapping with " + NAFUtils.toString(entity2));
@@ -499,7 +505,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
                 for (final WF wf : term.getWFs()) {
                     final List<Timex3> timex = document.getTimeExsByWF(wf);
                     if (!timex.isEmpty()) {
-                        document.removeAnnotation(entity);
+                        removedEntities.add(entity);
                         if (LOGGER.isDebugEnabled()) {
                             LOGGER.debug("Removed " + NAFUtils.toString(entity)
                                     + " overlapping with TIMEX3 '" + NAFUtils.toString(timex));
@@ -509,6 +515,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
                 }
             }
         }
+        document.removeAnnotations(removedEntities);
     }
 
     private void applyEntityAddition(final KAFDocument document) {
@@ -714,6 +721,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
     private void applyCorefSpanFixing(final KAFDocument document) {
 
         // Process each <coref> element in the NAF document
+        final List<Coref> removedCorefs = Lists.newArrayList();
         for (final Coref coref : ImmutableList.copyOf(document.getCorefs())) {
 
             // Remove spans without valid head
@@ -813,10 +821,11 @@ public final class NAFFilter implements Consumer<KAFDocument> {
 
             // Drop coref in case no span remains.
             if (coref.getSpans().isEmpty()) {
-                document.removeAnnotation(coref);
+                removedCorefs.add(coref);
                 LOGGER.debug("Removed empty coref set {}", NAFUtils.toString(coref));
             }
         }
+        document.removeAnnotations(removedCorefs);
     }
 
     private void applyCorefForRoleDependencies(final KAFDocument document) {
@@ -915,12 +924,13 @@ public final class NAFFilter implements Consumer<KAFDocument> {
         final Map<Term, Predicate> semaforPredicates = Maps.newHashMap();
 
         // Remove predicates with invalid head
-        for (final Predicate predicate : ImmutableList.copyOf(document.getPredicates())) {
+        document.removeAnnotations(Predicate.class, (final Predicate predicate) -> {
             if (NAFUtils.extractHead(document, predicate.getSpan()) == null) {
-                document.removeAnnotation(predicate);
                 LOGGER.debug("Removed {} without valid head term", predicate);
+                return true;
             }
-        }
+            return false;
+        });
 
         // TODO: remove once fixed - normalize Semafor roles
         //        if (this.srlEnableSemafor) {
@@ -953,11 +963,12 @@ public final class NAFFilter implements Consumer<KAFDocument> {
         //        }
 
         // Remove predicates from non-enabled tools (Mate, Semafor)
-        for (final Predicate predicate : Lists.newArrayList(document.getPredicates())) {
+        final List<Predicate> removedPredicates = Lists.newArrayList();
+        for (final Predicate predicate : document.getPredicates()) {
             final boolean isSemafor = predicate.getId().startsWith("f_pr")
                     || "semafor".equalsIgnoreCase(predicate.getSource());
             if (isSemafor && !this.srlEnableSemafor || !isSemafor && !this.srlEnableMate) {
-                document.removeAnnotation(predicate);
+                removedPredicates.add(predicate);
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Removed " + NAFUtils.toString(predicate) + " (disabled)");
                 }
@@ -1019,7 +1030,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
                 }
 
                 // Delete original Mate predicate
-                document.removeAnnotation(matePredicate);
+                removedPredicates.add(matePredicate);
 
                 // Log operation
                 if (LOGGER.isDebugEnabled()) {
@@ -1030,6 +1041,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
 
             }
         }
+        document.removeAnnotations(removedPredicates);
     }
 
     private void applySRLRemoveWrongRefs(final KAFDocument document) {
@@ -1089,7 +1101,8 @@ public final class NAFFilter implements Consumer<KAFDocument> {
     private void applySRLRemoveUnknownPredicates(final KAFDocument document) {
 
         // Scan all predicates in the SRL layer
-        for (final Predicate predicate : Lists.newArrayList(document.getPredicates())) {
+        final List<Predicate> removedPredicates = Lists.newArrayList();
+        for (final Predicate predicate : document.getPredicates()) {
 
             // Determine whether the predicate is a verb and thus which resource to check for>
             final Term head = document.getTermsHead(predicate.getTerms());
@@ -1101,7 +1114,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
                 final String roleset = ref.getReference();
                 if (isVerb && PropBank.getRoleset(roleset) == null || !isVerb
                         && NomBank.getRoleset(roleset) == null) {
-                    document.removeAnnotation(predicate);
+                    removedPredicates.add(predicate);
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("Removed " + NAFUtils.toString(predicate)
                                 + " with unknown sense '" + roleset + "' in resource " + resource);
@@ -1110,6 +1123,7 @@ public final class NAFFilter implements Consumer<KAFDocument> {
                 }
             }
         }
+        document.removeAnnotations(removedPredicates);
     }
 
     private void applySRLPredicateAddition(final KAFDocument document) {
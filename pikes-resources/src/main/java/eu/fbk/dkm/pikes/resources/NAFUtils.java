@@ -1,9 +1,9 @@
 package eu.fbk.dkm.pikes.resources;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
@@ -519,8 +519,7 @@ public final class NAFUtils {
         final List<Range> ranges = Lists.newArrayList();
         int startIndex = -1;
         int lastIndex = -2;
-        for (final Term term : Ordering.from(Term.OFFSET_COMPARATOR).sortedCopy(terms)) {
-            final int termIndex = document.getTerms().indexOf(term);
+        for (final int termIndex : document.getTermIndexes(terms)) {
             if (termIndex - lastIndex > 1) {
                 if (startIndex >= 0) {
                     ranges.add(Range.create(startIndex, lastIndex + 1));
@@ -542,7 +541,7 @@ public final class NAFUtils {
         int termIndex = -2;
         for (final Term term : Ordering.from(Term.OFFSET_COMPARATOR).sortedCopy(terms)) {
             final int lastTermIndex = termIndex;
-            termIndex = document.getTerms().indexOf(term);
+            termIndex = document.getTermIndex(term);
             if (termIndex - lastTermIndex > 1) {
                 if (startOffset != -1) {
                     ranges.add(Range.create(startOffset, endOffset));
@@ -824,31 +823,49 @@ public final class NAFUtils {
 
     // End
 
+    /**
+     * Reads a document in XML or binary NAF format (see {@link KAFDocument#saveBinary}) from a
+     * file, possibly compressed, or from standard input if the path is null.
+     */
     public static KAFDocument readDocument(@Nullable final Path path) throws IOException {
         final KAFDocument document;
         if (path == null) {
-            document = KAFDocument.createFromStream(IO.utf8Reader(IO.buffer(System.in)));
+            document = KAFDocument.createFromStream(IO.buffer(System.in));
             document.getPublic().publicId = "";
         } else {
-            try (BufferedReader reader = Files.newBufferedReader(path)) {
-                document = KAFDocument.createFromStream(reader);
+            try (InputStream stream = IO.buffer(IO.read(path.toString()))) {
+                document = KAFDocument.createFromStream(stream);
                 document.getPublic().publicId = path.toString();
             }
         }
         return document;
     }
 
+    /**
+     * Writes a document to a file, possibly compressed, or to standard output if the location is
+     * null. The binary NAF format is used if the file name contains {@code .nafb} (e.g.,
+     * {@code doc.nafb.gz}), XML otherwise.
+     */
     public static void writeDocument(final KAFDocument document, @Nullable final Path location)
             throws IOException {
         if (location == null) {
             System.out.write(document.toString().getBytes(Charsets.UTF_8));
+        } else if (isBinaryLocation(location)) {
+            try (OutputStream stream = IO.buffer(IO.write(location.toString()))) {
+                document.saveBinary(stream);
+            }
         } else {
             try (Writer writer = IO.utf8Writer(IO.buffer(IO.write(location.toString())))) {
-                writer.write(document.toString());
+                document.save(writer);
             }
         }
     }
 
+    private static boolean isBinaryLocation(final Path location) {
+        final String name = location.getFileName().toString();
+        return name.endsWith(".nafb") || name.contains(".nafb.");
+    }
+
     public static Term syntacticToSRLHead(final KAFDocument document, final Term term) {
         for (final Dep dep : document.getDepsFromTerm(term)) {
             final String func = dep.getRfunc();
@@ -949,7 +966,7 @@ public final class NAFUtils {
                     descendants);
             final int[] indexes = new int[sortedTerms.size()];
             for (int i = 0; i < sortedTerms.size(); ++i) {
-                indexes[i] = document.getTerms().indexOf(sortedTerms.get(i));
+                indexes[i] = document.getTermIndex(sortedTerms.get(i));
             }
             final int h = sortedTerms.indexOf(head);
             boolean filtered = false;
@@ -0,0 +1,75 @@
+package eu.fbk.dkm.pikes.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import ixa.kaflib.Entity;
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Predicate;
+
+import eu.fbk.dkm.pikes.naflib.Benchmark;
+
+/**
+ * Measures the time spent by {@link NAFFilter} on the NAF files given on the command line,
+ * which should contain thousands of entities and predicates to make removal costs visible. The
+ * time needed to remove half of the entities and predicates one at a time is compared with the
+ * time of a bulk removal. Parsing the documents is not timed.
+ * <p>
+ * Usage: NAFFilterBenchmark file.naf...
+ */
+public class NAFFilterBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(final String[] args) throws Exception {
+        for (final String arg : args) {
+            final String xml = KAFDocument.createFromFile(new File(arg)).toString();
+
+            final int[] counts = new int[2];
+            final Benchmark benchmark = new Benchmark() //
+                    .add("filter", () -> parse(xml), (final KAFDocument document) -> {
+                        counts[0] = document.getEntities().size();
+                        counts[1] = document.getPredicates().size();
+                        NAFFilter.DEFAULT.filter(document);
+                        return document;
+                    }) //
+                    .add("removal of half of them one at a time", () -> parse(xml),
+                            (final KAFDocument document) -> {
+                                for (final Object annotation : everyOther(document)) {
+                                    document.removeAnnotation(annotation);
+                                }
+                                return document;
+                            }) //
+                    .add("in bulk", () -> parse(xml), (final KAFDocument document) -> {
+                        document.removeAnnotations(everyOther(document));
+                        return document;
+                    }) //
+                    .run(RUNS);
+
+            System.out.println(String.format("%s: %d entities, %d predicates; %s", arg, counts[0],
+                    counts[1], benchmark));
+        }
+    }
+
+    private static KAFDocument parse(final String xml) throws IOException {
+        return KAFDocument.createFromStream(new StringReader(xml));
+    }
+
+    private static List<Object> everyOther(final KAFDocument document) {
+        final List<Object> result = Lists.newArrayList();
+        final List<Entity> entities = document.getEntities();
+        for (int i = 0; i < entities.size(); i += 2) {
+            result.add(entities.get(i));
+        }
+        final List<Predicate> predicates = document.getPredicates();
+        for (int i = 0; i < predicates.size(); i += 2) {
+            result.add(predicates.get(i));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,73 @@
+package eu.fbk.dkm.pikes.resources;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import eu.fbk.utils.core.Range;
+
+/**
+ * Tests {@link NAFUtils#termRangesFor(KAFDocument, Iterable)} against the ranges found by scanning the terms of the
+ * document, while terms are inserted and removed.
+ */
+public class NAFUtilsTest {
+
+    @Test
+    public void termRangesMatchLinearScan() {
+        final Random random = new Random(0);
+        final KAFDocument document = new KAFDocument("en", "v3");
+        final List<Term> removed = Lists.newArrayList();
+        for (int step = 0; step < 300; ++step) {
+            final List<Term> terms = document.getTerms();
+            if (terms.size() < 5 || random.nextInt(3) > 0) {
+                final String form = "w" + step;
+                final WF wf = document.newWF(form, 3 * step, 1);
+                wf.setLength(form.length());
+                document.newTerm("t_" + step, KAFDocument.newWFSpan(Arrays.asList(wf)),
+                        random.nextInt(terms.size() + 1));
+            } else {
+                final Term term = terms.get(random.nextInt(terms.size()));
+                document.removeAnnotation(term);
+                removed.add(term);
+            }
+
+            final List<Term> selection = Lists.newArrayList();
+            for (final Term term : terms) {
+                if (random.nextBoolean()) {
+                    selection.add(term);
+                }
+            }
+            selection.addAll(removed.subList(0, random.nextInt(removed.size() + 1)));
+            Collections.shuffle(selection, random);
+            Assert.assertEquals(scanRanges(terms, selection),
+                    NAFUtils.termRangesFor(document, selection));
+        }
+    }
+
+    // Ranges of consecutive positions of the selected terms in the document, found scanning all its terms
+    private static List<Range> scanRanges(final List<Term> terms, final List<Term> selection) {
+        final List<Range> ranges = Lists.newArrayList();
+        int begin = -1;
+        for (int i = 0; i <= terms.size(); ++i) {
+            final boolean selected = i < terms.size() && selection.contains(terms.get(i));
+            if (selected && begin < 0) {
+                begin = i;
+            } else if (!selected && begin >= 0) {
+                ranges.add(Range.create(begin, i));
+                begin = -1;
+            }
+        }
+        return ranges;
+    }
+
+}
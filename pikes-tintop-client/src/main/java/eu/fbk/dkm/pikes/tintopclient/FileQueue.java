@@ -0,0 +1,345 @@
+package eu.fbk.dkm.pikes.tintopclient;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Producer/consumer queue of the files to be processed by an orchestrator. The input folder is scanned in parallel
+ * (one fork/join task per sub-folder) and the accepted files are put in a bounded queue, so that scanning blocks
+ * when the workers are behind. Failed files are moved to a separate retry queue, where they wait with an
+ * exponential backoff before being handed out again, up to {@code maxAttempts} times.
+ * <p>
+ * Workers call {@link #take()} until it returns {@code null}, and then either {@link #done(File)},
+ * {@link #failed(File)} or, if the file could not be processed for reasons unrelated to it (e.g., a busy server),
+ * {@link #requeue(File)} for each file they got.
+ */
+
+public class FileQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileQueue.class);
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final int DEFAULT_SCAN_THREADS = 4;
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+    public static final long DEFAULT_MAX_RETRY_DELAY = 60000;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final XMLInputFactory XML_FACTORY;
+
+    static {
+        XML_FACTORY = XMLInputFactory.newInstance();
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Decides whether a scanned file has to be processed. It is called concurrently by the scanner threads.
+     */
+    public interface Filter {
+
+        boolean accept(File file) throws Exception;
+    }
+
+    private final File input;
+    private final String[] extensions;
+    private final Filter filter;
+    private final int scanThreads;
+    private final int maxAttempts;
+    private final BlockingQueue<File> queue;
+    private final DelayQueue<Retry> retries = new DelayQueue<>();
+    private final ConcurrentHashMap<File, Integer> attempts = new ConcurrentHashMap<>();
+
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+    private long maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+
+    private volatile boolean scanned = false;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong completedBytes = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong requeued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long start = System.nanoTime();
+
+    private ScheduledExecutorService reporter = null;
+
+    public FileQueue(File input, String[] extensions, Filter filter, int capacity, int scanThreads,
+            int maxAttempts) {
+        this.input = input;
+        this.extensions = extensions;
+        this.filter = filter;
+        this.scanThreads = Math.max(1, scanThreads);
+        this.maxAttempts = maxAttempts;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    public void setRetryDelay(long retryDelay, long maxRetryDelay) {
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * Starts scanning the input folder in background.
+     */
+    public void start() {
+        final ForkJoinPool pool = new ForkJoinPool(scanThreads);
+        Thread scanner = new Thread(() -> {
+            try {
+                pool.invoke(new ScanTask(input.toPath()));
+            } catch (Throwable e) {
+                LOGGER.error("Error scanning " + input + ": " + e.getMessage(), e);
+            } finally {
+                pool.shutdown();
+                scanned = true;
+                LOGGER.info("Scan completed: {} files found, {} to be processed", found.get(), accepted.get());
+            }
+        }, "scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * Logs the progress every {@code seconds} seconds, until {@link #close()} is called.
+     */
+    public void startReporting(int seconds) {
+        if (seconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("queue-reporter").build());
+        final long[] last = { System.nanoTime(), 0, 0 };
+        reporter.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            long files = completed.get();
+            long bytes = completedBytes.get();
+            double elapsed = Math.max(1, now - last[0]) / 1e9;
+            LOGGER.info(String.format(Locale.ROOT, "%.1f files/s, %.1f KB/s; %s",
+                    (files - last[1]) / elapsed, (bytes - last[2]) / elapsed / 1024, this));
+            last[0] = now;
+            last[1] = files;
+            last[2] = bytes;
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the next file to be processed, waiting if needed, or {@code null} if all the files have been
+     * processed (or dropped after too many failures).
+     */
+    public File take() throws InterruptedException {
+        while (true) {
+            Retry retry = retries.poll();
+            File file = retry != null ? retry.file : queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (file != null) {
+                inFlight.incrementAndGet();
+                return file;
+            }
+            // Files being processed by other workers are still pending, as they may fail and be retried
+            if (scanned && pending.get() == 0) {
+                return null;
+            }
+        }
+    }
+
+    public void done(File file) {
+        attempts.remove(file);
+        completed.incrementAndGet();
+        completedBytes.addAndGet(file.length());
+        inFlight.decrementAndGet();
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Schedules a failed file for retry, with a delay doubling at each attempt.
+     */
+    public void failed(File file) {
+        try {
+            int attempt = attempts.merge(file, 1, Integer::sum);
+            if (attempt > maxAttempts) {
+                attempts.remove(file);
+                dropped.incrementAndGet();
+                pending.decrementAndGet();
+                LOGGER.warn(String.format("File %s skipped, more than %d errors", file, maxAttempts));
+                return;
+            }
+            long delay = Math.min(maxRetryDelay, retryDelay << Math.min(attempt - 1, 30));
+            LOGGER.info("Retrying {} in {} ms (attempt {})", file, delay, attempt + 1);
+            retries.add(new Retry(file, delay));
+            retried.incrementAndGet();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a file out again as soon as possible, without counting it as a failed attempt.
+     */
+    public void requeue(File file) {
+        try {
+            retries.add(new Retry(file, 0));
+            requeued.incrementAndGet();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getRetryDepth() {
+        return retries.size();
+    }
+
+    @Override
+    public String toString() {
+        double elapsed = Math.max(1, System.nanoTime() - start) / 1e9;
+        return String.format(Locale.ROOT,
+                "found=%d%s, accepted=%d, completed=%d (%.1f files/s, %.1f KB/s overall), queue=%d, retry=%d, "
+                        + "in progress=%d, retried=%d, requeued=%d, dropped=%d", found.get(), scanned ? "" : "+",
+                accepted.get(), completed.get(), completed.get() / elapsed, completedBytes.get() / elapsed / 1024,
+                queue.size(), retries.size(), inFlight.get(), retried.get(), requeued.get(), dropped.get());
+    }
+
+    /**
+     * Checks whether a NAF file has no raw text, reading it only up to the end of the {@code raw} element, without
+     * building the document tree.
+     */
+    public static boolean hasEmptyRawText(File file) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = XML_FACTORY.createXMLStreamReader(stream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("raw")) {
+                        int event;
+                        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+                            if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)
+                                    && !reader.isWhiteSpace() && reader.getText().trim().length() > 0) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }
+                return true;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid NAF file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private boolean matchesExtension(String name) {
+        if (extensions == null) {
+            return true;
+        }
+        for (String extension : extensions) {
+            if (name.endsWith("." + extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class ScanTask extends RecursiveAction {
+
+        private final Path folder;
+
+        ScanTask(Path folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path path : stream) {
+                    if (Files.isDirectory(path)) {
+                        ScanTask subtask = new ScanTask(path);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else if (matchesExtension(path.getFileName().toString())) {
+                        found.incrementAndGet();
+                        File file = path.toFile();
+                        try {
+                            if (filter == null || filter.accept(file)) {
+                                accepted.incrementAndGet();
+                                pending.incrementAndGet();
+                                queue.put(file);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            LOGGER.error("Error checking file " + file + ": " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("Error listing folder " + folder + ": " + e.getMessage());
+            }
+            for (ScanTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+
+    private static final class Retry implements Delayed {
+
+        final File file;
+        final long due;
+
+        Retry(File file, long delayMillis) {
+            this.file = file;
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
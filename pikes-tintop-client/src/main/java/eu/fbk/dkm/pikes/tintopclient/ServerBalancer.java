@@ -0,0 +1,182 @@
+package eu.fbk.dkm.pikes.tintopclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the server each request is sent to. Among the servers that are up and have less than
+ * {@code maxOutstanding} requests in progress, the one with the lowest expected completion time is chosen, i.e.,
+ * the least outstanding requests weighted by the (moving average) latency of the server.
+ * <p>
+ * Each server has a circuit breaker: after {@code maxFailures} consecutive failures it is excluded for a cooldown
+ * time, doubling at each new opening up to {@code maxCooldown}; after the cooldown a single trial request is sent,
+ * which closes the circuit if it succeeds.
+ */
+
+public class ServerBalancer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerBalancer.class);
+
+    public static final int DEFAULT_MAX_FAILURES = 3;
+
+    // Weight of the last request in the moving average of the latency
+    private static final double ALPHA = 0.2;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final int maxOutstanding;
+    private final int maxFailures;
+    private final long cooldown;
+    private final long maxCooldown;
+
+    public ServerBalancer(List<TintopServer> servers, int maxOutstanding, int maxFailures, long cooldown,
+            long maxCooldown) {
+        for (TintopServer server : servers) {
+            nodes.add(new Node(server));
+        }
+        this.maxOutstanding = Math.max(1, maxOutstanding);
+        this.maxFailures = Math.max(1, maxFailures);
+        this.cooldown = cooldown;
+        this.maxCooldown = Math.max(cooldown, maxCooldown);
+    }
+
+    /**
+     * Returns the server for the next request, waiting until one is available.
+     */
+    synchronized public Node acquire() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Node best = null;
+            double bestCost = Double.MAX_VALUE;
+            long nextOpening = Long.MAX_VALUE;
+            for (Node node : nodes) {
+                if (node.openUntil > now) {
+                    nextOpening = Math.min(nextOpening, node.openUntil);
+                    continue;
+                }
+                boolean halfOpen = node.openUntil > 0;
+                if (halfOpen ? node.outstanding > 0 : node.outstanding >= maxOutstanding) {
+                    continue;
+                }
+                // Servers with no latency measure yet count as the fastest, so that they are tried soon
+                double cost = (node.outstanding + 1) * (node.latency > 0 ? node.latency : 1);
+                if (cost < bestCost) {
+                    best = node;
+                    bestCost = cost;
+                }
+            }
+            if (best != null) {
+                best.outstanding++;
+                return best;
+            }
+            if (nextOpening == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait(Math.max(1, nextOpening - now));
+            }
+        }
+    }
+
+    synchronized public void success(Node node, long nanos, long bytes) {
+        node.outstanding--;
+        node.completed++;
+        node.bytes += bytes;
+        node.nanos += nanos;
+        double millis = nanos / 1e6;
+        node.latency = node.latency > 0 ? ALPHA * millis + (1 - ALPHA) * node.latency : millis;
+        if (node.openUntil > 0) {
+            LOGGER.info("Server {} is back", node.server.getShortName());
+        }
+        node.failures = 0;
+        node.openUntil = 0;
+        node.openings = 0;
+        notifyAll();
+    }
+
+    /**
+     * Gives back a server used for a request that failed for reasons not depending on the server (e.g., a rejected
+     * document), without affecting its statistics and state.
+     */
+    synchronized public void release(Node node) {
+        node.outstanding--;
+        notifyAll();
+    }
+
+    /**
+     * Records a failed request. If {@code retryAfter} is positive (the server is up but busy), the server is excluded
+     * for that time only; otherwise its circuit opens after too many consecutive failures.
+     */
+    synchronized public void failure(Node node, long retryAfter) {
+        node.outstanding--;
+        node.failed++;
+        node.failures++;
+        long now = System.currentTimeMillis();
+        if (retryAfter > 0) {
+            node.openUntil = now + retryAfter;
+            LOGGER.info("Server {} is busy, retrying in {} ms", node.server.getShortName(), retryAfter);
+        } else if (node.openUntil > now) {
+            // Already excluded: a request sent before the circuit opened
+        } else if (node.failures >= maxFailures || node.openUntil > 0) {
+            long time = Math.min(maxCooldown, cooldown << Math.min(node.openings, 30));
+            node.openings++;
+            node.openUntil = now + time;
+            LOGGER.warn("Server {} excluded for {} ms after {} consecutive failures", node.server.getShortName(),
+                    time, node.failures);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns one line per server with its state, the throughput since the last call and the overall statistics.
+     */
+    synchronized public String report() {
+        StringBuilder builder = new StringBuilder();
+        long now = System.nanoTime();
+        for (Node node : nodes) {
+            double elapsed = Math.max(1, now - node.lastReport) / 1e9;
+            builder.append(String.format(Locale.ROOT,
+                    "%s: %s, outstanding=%d, %.2f files/s, %.1f KB/s, latency=%.0f ms (mean %d ms), "
+                            + "completed=%d, failed=%d\n", node.server.getShortName(),
+                    node.openUntil > System.currentTimeMillis() ? "excluded" : node.openUntil > 0 ? "trial" : "up",
+                    node.outstanding, (node.completed - node.lastCompleted) / elapsed,
+                    (node.bytes - node.lastBytes) / elapsed / 1024, node.latency,
+                    node.completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(node.nanos / node.completed),
+                    node.completed, node.failed));
+            node.lastReport = now;
+            node.lastCompleted = node.completed;
+            node.lastBytes = node.bytes;
+        }
+        return builder.toString();
+    }
+
+    public static final class Node {
+
+        private final TintopServer server;
+
+        // All fields are guarded by the balancer lock
+        private int outstanding = 0;
+        private int failures = 0;
+        private int openings = 0;
+        private long openUntil = 0;
+        private double latency = 0;
+        private long completed = 0;
+        private long failed = 0;
+        private long bytes = 0;
+        private long nanos = 0;
+        private long lastReport = System.nanoTime();
+        private long lastCompleted = 0;
+        private long lastBytes = 0;
+
+        Node(TintopServer server) {
+            this.server = server;
+        }
+
+        public TintopServer getServer() {
+            return server;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package eu.fbk.dkm.pikes.tintopclient;
+
+import com.google.common.io.Files;
+import eu.fbk.rdfpro.util.IO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects the files of a {@link TintopSession} that have to be annotated, as done by both the remote and the local
+ * orchestrators. Files are skipped if their output already exists, if they match a skip pattern of the session, or if
+ * they are bigger than {@code maxSize} bytes (when positive). Small files with no raw text are copied to the output
+ * as they are, without annotating them. Called by the scanner threads of a {@link FileQueue}, so it is thread-safe.
+ */
+
+public class SessionFilter implements FileQueue.Filter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionFilter.class);
+
+    private static final int EMPTY_CHECK_SIZE = 1000;
+
+    private final TintopSession session;
+    private final int maxSize;
+    private final AtomicInteger skipped;
+
+    /**
+     * Creates a filter for the given session; files skipped because too big or unreadable are counted in {@code
+     * skipped}.
+     */
+    public SessionFilter(TintopSession session, int maxSize, AtomicInteger skipped) {
+        this.session = session;
+        this.maxSize = maxSize;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Returns the gzipped output file of an input file, at the same path relative to the output folder of the
+     * session.
+     */
+    public static File getOutputFile(File inputFile, TintopSession session) {
+        String outputFile = session.getOutput().getAbsolutePath() + inputFile.getAbsolutePath()
+                .substring(session.getInput().getAbsolutePath().length());
+        return new File(outputFile + ".gz");
+    }
+
+    @Override
+    public boolean accept(File file) throws IOException {
+
+        File outputFile = getOutputFile(file, session);
+
+        if (outputFile.exists()) {
+            LOGGER.debug("Skipping file (it exists): " + file);
+            return false;
+        }
+
+        if (session.getSkipPatterns() != null) {
+            for (String p : session.getSkipPatterns()) {
+                if (file.toString().contains(p)) {
+                    LOGGER.debug("Skipping file (skip pattern): " + file);
+                    return false;
+                }
+            }
+        }
+
+        long length = file.length();
+        if (maxSize > 0 && length > maxSize) {
+            LOGGER.debug("Skipping file (too big, " + length + "): " + file);
+            skipped.incrementAndGet();
+            return false;
+        }
+
+        // File is empty: copy it as it is, without annotating it
+        if (length < EMPTY_CHECK_SIZE) {
+            boolean empty;
+            try {
+                empty = FileQueue.hasEmptyRawText(file);
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage());
+                skipped.incrementAndGet();
+                return false;
+            }
+            if (empty) {
+                LOGGER.info("File is empty: " + file);
+                LOGGER.info("Writing empty file " + outputFile);
+                Files.createParentDirs(outputFile);
+                try (OutputStream out = IO.buffer(IO.write(outputFile.getAbsolutePath()))) {
+                    Files.copy(file, out);
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
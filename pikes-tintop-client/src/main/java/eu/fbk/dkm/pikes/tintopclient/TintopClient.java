@@ -2,31 +2,40 @@ package eu.fbk.dkm.pikes.tintopclient;
 
 import eu.fbk.utils.core.CommandLine;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Created by alessio on 02/03/15.
+ * <p>
+ * Clients share a pooled, keep-alive HTTP client (see {@link #createHttpClient(int)}); responses are accepted
+ * gzip-compressed, and requests can be compressed too with {@link #setGzip(boolean)}.
  */
 
 public class TintopClient {
@@ -34,18 +43,80 @@ public class TintopClient {
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(TintopClient.class);
 
     static public Integer DEFAULT_TIMEOUT = 60000;
+    static public int DEFAULT_MAX_CONNECTIONS = 20;
+
+    private static CloseableHttpClient sharedHttpClient = null;
 
     protected TintopServer server;
+    private final CloseableHttpClient httpClient;
+    private final URI uri;
     private Integer timeout;
     private boolean fake = false;
+    private boolean gzip = false;
+
+    /**
+     * Thrown when the server rejects a request because of the request itself (HTTP 4xx), so that the failure is not
+     * a problem of the server.
+     */
+    public static class RequestException extends IOException {
+
+        public RequestException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when the server is up but refuses the request because it is overloaded (HTTP 503).
+     */
+    public static class ServerBusyException extends IOException {
+
+        private final int retryAfter;
+
+        public ServerBusyException(String message, int retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * Returns the number of seconds suggested by the server before retrying, or -1 if not given.
+         */
+        public int getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * Creates an HTTP client keeping up to {@code maxConnections} connections open, to be shared by all the clients
+     * (and threads) talking to the servers.
+     */
+    public static CloseableHttpClient createHttpClient(int maxConnections) {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(maxConnections);
+        manager.setDefaultMaxPerRoute(maxConnections);
+        return HttpClients.custom()
+                .setConnectionManager(manager)
+                .setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .build();
+    }
+
+    synchronized public static CloseableHttpClient getSharedHttpClient() {
+        if (sharedHttpClient == null) {
+            sharedHttpClient = createHttpClient(DEFAULT_MAX_CONNECTIONS);
+        }
+        return sharedHttpClient;
+    }
 
     public void setFake(boolean fake) {
         this.fake = fake;
     }
 
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
     public TintopClient(String serverUrl) throws MalformedURLException {
-        URL url = new URL(serverUrl);
-        this.server = new TintopServer(url);
+        this(new TintopServer(new URL(serverUrl)));
     }
 
     public TintopClient(TintopServer server) {
@@ -53,51 +124,81 @@ public class TintopClient {
     }
 
     public TintopClient(TintopServer server, Integer timeout) {
+        this(server, timeout, getSharedHttpClient());
+    }
+
+    public TintopClient(TintopServer server, Integer timeout, CloseableHttpClient httpClient) {
         this.server = server;
         this.timeout = timeout;
+        this.httpClient = httpClient;
+        try {
+            this.uri = new URIBuilder()
+                    .setScheme(server.getProtocol())
+                    .setHost(server.getHost())
+                    .setPort(server.getPort())
+                    .setPath(server.getPath())
+                    .build();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid server " + server.getShortName(), e);
+        }
     }
 
-    public String call(String text) throws URISyntaxException, IOException {
+    public TintopServer getServer() {
+        return server;
+    }
 
-        RequestConfig defaultRequestConfig = RequestConfig.custom()
-                .setSocketTimeout(timeout)
-                .setConnectTimeout(timeout)
-                .setConnectionRequestTimeout(timeout)
-                .build();
+    public String call(String text) throws URISyntaxException, IOException {
 
-        CloseableHttpClient httpclient = HttpClients.custom().setDefaultRequestConfig(defaultRequestConfig).build();
-        URI uri = new URIBuilder()
-                .setScheme(server.getProtocol())
-                .setHost(server.getHost())
-                .setPort(server.getPort())
-                .setPath(server.getPath())
-                .build();
         logger.debug("Calling URI " + uri.toString());
 
         if (!fake) {
             HttpPost httpPost = new HttpPost(uri);
+            httpPost.setConfig(RequestConfig.custom()
+                    .setSocketTimeout(timeout)
+                    .setConnectTimeout(timeout)
+                    .setConnectionRequestTimeout(timeout)
+                    .build());
 
             List<NameValuePair> nameValuePairs = new ArrayList<>(1);
             nameValuePairs.add(new BasicNameValuePair("naf", text));
-            UrlEncodedFormEntity form = new UrlEncodedFormEntity(nameValuePairs, "UTF-8");
+            HttpEntity form = new UrlEncodedFormEntity(nameValuePairs, "UTF-8");
+            if (gzip) {
+                form = new GzipCompressingEntity(form);
+            }
             httpPost.setEntity(form);
 
-            try (CloseableHttpResponse response = httpclient.execute(httpPost)) {
+            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
                 int statusCode = response.getStatusLine().getStatusCode();
                 logger.debug("Status code: " + statusCode);
 
+                // Always read the body, so that the connection can be reused
+                HttpEntity entity = response.getEntity();
+                String body = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : null;
+
+                if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                    int retryAfter = -1;
+                    Header header = response.getFirstHeader("Retry-After");
+                    if (header != null) {
+                        try {
+                            retryAfter = Integer.parseInt(header.getValue().trim());
+                        } catch (NumberFormatException e) {
+                            // ignore
+                        }
+                    }
+                    throw new ServerBusyException(String.format("%d: %s", statusCode,
+                            response.getStatusLine().getReasonPhrase()), retryAfter);
+                }
+
                 if (statusCode != 200) {
                     logger.error(uri.toString());
-                    throw new IOException(
-                            String.format("%d: %s", statusCode, response.getStatusLine().getReasonPhrase()));
+                    String message = String.format("%d: %s", statusCode, response.getStatusLine().getReasonPhrase());
+                    throw statusCode >= 400 && statusCode < 500 ? new RequestException(message)
+                            : new IOException(message);
                 }
 
-                HttpEntity entity = response.getEntity();
-                if (entity != null) {
-                    try (InputStream instream = entity.getContent()) {
-                        logger.info("NAF retrieved");
-                        return IOUtils.toString(instream);
-                    }
+                if (body != null) {
+                    logger.info("NAF retrieved");
+                    return body;
                 }
             }
         }
@@ -1,27 +1,23 @@
 package eu.fbk.dkm.pikes.tintopclient;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import eu.fbk.rdfpro.util.IO;
 import eu.fbk.utils.core.CommandLine;
-import eu.fbk.utils.core.FrequencyHashSet;
-import ixa.kaflib.KAFDocument;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.jdom2.JDOMException;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by alessio on 25/02/15.
+ * <p>
+ * Files are taken from a {@link FileQueue} by a pool of workers, and each request is sent to the server chosen by a
+ * {@link ServerBalancer}, so that faster servers get more work and failing ones are excluded for a while.
  */
 
 public class TintopOrchestrator {
@@ -29,67 +25,103 @@ public class TintopOrchestrator {
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(TintopOrchestrator.class);
     static final private int DEFAULT_MAX_ERR_ON_FILE = 5;
     static final private int DEFAULT_MAX_SIZE = 50000;
-    static final private int DEFAULT_SLEEPING_TIME = 60000;
+    static final private int DEFAULT_SLEEPING_TIME = 10000;
+    static final private int DEFAULT_CONCURRENCY = 2;
+    static final private int DEFAULT_REPORT_INTERVAL = 60;
 
     private ArrayList<TintopServer> servers;
     private boolean fake;
-    private String fileCache = null;
     public static String[] DEFAULT_EXTENSIONS = new String[] { "xml", "naf" };
 
-    private int skipped = 0;
-
-    private FrequencyHashSet<String> fileOnError = new FrequencyHashSet<>();
+    private AtomicInteger skipped = new AtomicInteger();
 
     private int maxErrOnFile = DEFAULT_MAX_ERR_ON_FILE;
     private int maxSize = DEFAULT_MAX_SIZE;
     private int timeout = TintopClient.DEFAULT_TIMEOUT;
     private int sleepingTime = DEFAULT_SLEEPING_TIME;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int reportInterval = DEFAULT_REPORT_INTERVAL;
+    private boolean gzip = false;
 
-    public class RunnableTintopClient extends TintopClient implements Runnable {
+    public class RunnableTintopClient implements Runnable {
 
         TintopSession session;
+        FileQueue queue;
+        ServerBalancer balancer;
+        Map<TintopServer, TintopClient> clients;
 
-        public RunnableTintopClient(TintopServer server, TintopSession session) {
-            this(server, session, false);
-        }
-
-        public RunnableTintopClient(TintopServer server, TintopSession session, boolean fake) {
-            super(server);
-            super.setFake(fake);
+        public RunnableTintopClient(TintopSession session, FileQueue queue, ServerBalancer balancer,
+                Map<TintopServer, TintopClient> clients) {
             this.session = session;
-            setTimeout(timeout);
+            this.queue = queue;
+            this.balancer = balancer;
+            this.clients = clients;
         }
 
         @Override
         public void run() {
-            Thread.currentThread().setName(server.getId() + " - " + server.getShortName());
-
             while (true) {
-                String filename = null;
+                File file;
                 try {
-                    filename = getNextFile(session);
-                    if (filename == null) {
+                    file = queue.take();
+                    if (file == null) {
                         break;
                     }
+                } catch (InterruptedException e) {
+                    break;
+                }
 
-                    File file = new File(filename);
-                    if (!file.exists()) {
-                        break;
-                    }
-
-                    File outputFile = getOutputFile(file, session);
-
-                    // todo: use parameters
-                    outputFile = new File(outputFile.getAbsolutePath() + ".gz");
+                // Errors reading or writing local files are not counted against the servers
+                File outputFile = SessionFilter.getOutputFile(file, session);
+                logger.debug("Output file: " + outputFile);
+                String whole;
+                try {
+                    logger.info("Loading file: " + file);
+                    whole = Files.toString(file, Charsets.UTF_8);
+                } catch (final Throwable ex) {
+                    logger.error("Unable to read " + file + " --- " + ex.getMessage());
+                    queue.failed(file);
+                    continue;
+                }
 
-                    logger.debug("Output file: " + outputFile);
+                ServerBalancer.Node node;
+                try {
+                    node = balancer.acquire();
+                } catch (InterruptedException e) {
+                    break;
+                }
 
-                    logger.info("Loading file: " + filename);
-                    BufferedReader reader = new BufferedReader(new FileReader(filename));
-                    String whole = IOUtils.toString(reader);
-                    reader.close();
+                long start = System.nanoTime();
+                String naf;
+                try {
+                    naf = clients.get(node.getServer()).call(whole);
+                    balancer.success(node, System.nanoTime() - start, file.length());
+                } catch (final IOException ex) {
+                    logger.error(node.getServer().getShortName() + " - " + file + " --- " + ex.getMessage());
+                    if (ex instanceof TintopClient.ServerBusyException) {
+                        // The file is fine: the server is excluded for a while and the file goes to another one
+                        int seconds = ((TintopClient.ServerBusyException) ex).getRetryAfter();
+                        balancer.failure(node, seconds > 0 ? seconds * 1000L : sleepingTime);
+                        queue.requeue(file);
+                        continue;
+                    }
+                    if (ex instanceof TintopClient.RequestException) {
+                        // The server works, but rejected this file
+                        balancer.release(node);
+                    } else {
+                        // Connection errors, timeouts and server errors
+                        balancer.failure(node, -1);
+                    }
+                    queue.failed(file);
+                    continue;
+                } catch (final Throwable ex) {
+                    logger.error(node.getServer().getShortName() + " - " + file + " --- " + ex.getMessage());
+                    balancer.release(node);
+                    queue.failed(file);
+                    continue;
+                }
 
-                    String naf = call(whole);
+                try {
                     logger.debug(naf);
                     if (naf != null) {
                         logger.info("Writing file " + outputFile);
@@ -98,17 +130,10 @@ public class TintopOrchestrator {
                             w.write(naf);
                         }
                     }
-
+                    queue.done(file);
                 } catch (final Throwable ex) {
-                    logger.error(filename + " --- " + ex.getMessage());
-                    markFileAsNotDone(filename);
-
-                    try {
-                        logger.info("Sleeping...");
-                        Thread.sleep(sleepingTime);
-                    } catch (Exception e) {
-                        logger.error(e.getMessage());
-                    }
+                    logger.error("Unable to write " + outputFile + " --- " + ex.getMessage());
+                    queue.failed(file);
                 }
             }
         }
@@ -152,98 +177,64 @@ public class TintopOrchestrator {
         this.sleepingTime = sleepingTime;
     }
 
-    private File getOutputFile(File inputFile, TintopSession session) {
-        String outputFile = session.getOutput().getAbsolutePath() + inputFile.getAbsolutePath()
-                .substring(session.getInput().getAbsolutePath().length());
-        return new File(outputFile);
+    public int getConcurrency() {
+        return concurrency;
     }
 
-    synchronized public void markFileAsNotDone(String filename) {
-        fileOnError.add(filename);
-        if (fileOnError.get(filename) <= maxErrOnFile) {
-            fileCache = filename;
-
-        } else {
-            logger.warn(String.format("File %s skipped, more than %d errors", filename, DEFAULT_MAX_ERR_ON_FILE));
-        }
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
     }
 
-    synchronized public String getNextFile(TintopSession session) {
-
-        fIter:
-        while (fileCache != null || session.getFileIterator().hasNext()) {
-
-            File file;
-            if (fileCache != null) {
-                file = new File(fileCache);
-                fileCache = null;
-            } else {
-                file = session.getFileIterator().next();
-            }
-
-            File outputFile = getOutputFile(file, session);
-
-            // todo: use parameters
-            outputFile = new File(outputFile.getAbsolutePath() + ".gz");
-
-            logger.debug("Output file: " + outputFile);
-
-            if (outputFile.exists()) {
-                logger.debug("Skipping file (it exists): " + file);
-                continue fIter;
-            }
-
-            for (String p : session.getSkipPatterns()) {
-                if (file.toString().contains(p)) {
-                    logger.debug("Skipping file (skip pattern): " + file);
-                    continue fIter;
-                }
-            }
-
-            if (maxSize > 0 && file.length() > maxSize) {
-                logger.debug("Skipping file (too big, " + file.length() + "): " + file);
-                skipped++;
-                continue fIter;
-            }
+    public int getReportInterval() {
+        return reportInterval;
+    }
 
-            // File is empty
-            if (file.length() < 1000) {
-                try {
-                    KAFDocument document = KAFDocument.createFromFile(file);
-                    if (document.getRawText() == null || document.getRawText().trim().length() == 0) {
-                        logger.info("File is empty: " + file);
-                        logger.info("Writing empty file " + outputFile);
-                        Files.createParentDirs(outputFile);
-                        try (Writer w = IO.utf8Writer(IO.buffer(IO.write(outputFile.getAbsolutePath())))) {
-                            w.write(document.toString());
-                        }
-                        continue fIter;
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    skipped++;
-                    continue fIter;
-                } catch (JDOMException e) {
-                    e.printStackTrace();
-                    skipped++;
-                    continue fIter;
-                }
-            }
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
+    }
 
-            return file.getAbsolutePath();
-        }
+    public boolean isGzip() {
+        return gzip;
+    }
 
-        return null;
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
     }
 
     public void run(TintopSession session) {
-        logger.info(String.format("Started process with %d server(s)", servers.size()));
+        int size = servers.size() * concurrency;
+        logger.info(String.format("Started process with %d server(s), %d thread(s)", servers.size(), size));
+
+        SessionFilter filter = new SessionFilter(session, maxSize, skipped);
+        FileQueue queue = new FileQueue(session.getInput(), DEFAULT_EXTENSIONS, filter,
+                FileQueue.DEFAULT_CAPACITY, FileQueue.DEFAULT_SCAN_THREADS, maxErrOnFile);
+        ServerBalancer balancer = new ServerBalancer(servers, concurrency, ServerBalancer.DEFAULT_MAX_FAILURES,
+                sleepingTime, sleepingTime * 30L);
+
+        // A single pool of keep-alive connections, shared by all the workers
+        CloseableHttpClient httpClient = TintopClient.createHttpClient(size);
+        Map<TintopServer, TintopClient> clients = new HashMap<>();
+        for (TintopServer server : servers) {
+            TintopClient client = new TintopClient(server, timeout, httpClient);
+            client.setFake(fake);
+            client.setGzip(gzip);
+            clients.put(server, client);
+        }
+
+        queue.start();
+        queue.startReporting(reportInterval);
 
         final ThreadFactory factory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("client-%02d").build();
-        final ExecutorService executor = Executors.newCachedThreadPool(factory);
+        final ExecutorService executor = Executors.newFixedThreadPool(size, factory);
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("server-reporter").build());
+        if (reportInterval > 0) {
+            reporter.scheduleAtFixedRate(() -> logger.info("Servers:\n{}", balancer.report()), reportInterval,
+                    reportInterval, TimeUnit.SECONDS);
+        }
         try {
-            for (TintopServer server : servers) {
-                executor.submit(new RunnableTintopClient(server, session, fake));
+            for (int i = 0; i < size; i++) {
+                executor.submit(new RunnableTintopClient(session, queue, balancer, clients));
             }
 
             executor.shutdown();
@@ -254,6 +245,15 @@ public class TintopOrchestrator {
 
         } finally {
             executor.shutdownNow();
+            reporter.shutdownNow();
+            queue.close();
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
+            }
+            logger.info("Completed: {}", queue);
+            logger.info("Servers:\n{}", balancer.report());
         }
 
     }
@@ -283,8 +283,16 @@ public class TintopOrchestrator {
                             String.format("Timeout in ms (default %d)", TintopClient.DEFAULT_TIMEOUT),
                             "INT", CommandLine.Type.INTEGER, true, false, false)
                     .withOption(null, "sleeping-time",
-                            String.format("Sleeping time for servers in ms (default %d)", DEFAULT_SLEEPING_TIME),
+                            String.format("Time a failing server is excluded in ms, doubled on repeated failures "
+                                    + "(default %d)", DEFAULT_SLEEPING_TIME),
+                            "INT", CommandLine.Type.INTEGER, true, false, false)
+                    .withOption("c", "concurrency",
+                            String.format("Max concurrent requests per server (default %d)", DEFAULT_CONCURRENCY),
                             "INT", CommandLine.Type.INTEGER, true, false, false)
+                    .withOption(null, "report",
+                            String.format("Seconds between progress reports, 0 to disable (default %d)",
+                                    DEFAULT_REPORT_INTERVAL), "INT", CommandLine.Type.INTEGER, true, false, false)
+                    .withOption(null, "gzip", "Send gzip-compressed requests")
                     .withOption("F", "fake", "Fake execution")
                     .withLogger(LoggerFactory.getLogger("eu.fbk")).parse(args);
 
@@ -297,6 +305,9 @@ public class TintopOrchestrator {
             Integer maxSize = cmd.getOptionValue("max-size", Integer.class, DEFAULT_MAX_SIZE);
             Integer timeout = cmd.getOptionValue("timeout", Integer.class, TintopClient.DEFAULT_TIMEOUT);
             Integer sleepingTime = cmd.getOptionValue("sleeping-time", Integer.class, DEFAULT_SLEEPING_TIME);
+            Integer concurrency = cmd.getOptionValue("concurrency", Integer.class, DEFAULT_CONCURRENCY);
+            Integer report = cmd.getOptionValue("report", Integer.class, DEFAULT_REPORT_INTERVAL);
+            boolean gzip = cmd.hasOption("gzip");
 
             boolean fake = cmd.hasOption("fake");
 
@@ -339,19 +350,21 @@ public class TintopOrchestrator {
                 }
             }
 
-            String[] extensions = DEFAULT_EXTENSIONS;
-            Iterator<File> fileIterator = FileUtils.iterateFiles(input, extensions, true);
-
             TintopOrchestrator orchestrator = new TintopOrchestrator(tintopServers, fake);
             orchestrator.setMaxErrOnFile(maxFail);
             orchestrator.setMaxSize(maxSize);
             orchestrator.setTimeout(timeout);
             orchestrator.setSleepingTime(sleepingTime);
+            orchestrator.setConcurrency(concurrency);
+            orchestrator.setReportInterval(report);
+            orchestrator.setGzip(gzip);
 
-            TintopSession session = new TintopSession(input, output, fileIterator, skipPatterns);
+            // Files are listed by the scanner of the orchestrator
+            TintopSession session = new TintopSession(input, output, Collections.<File>emptyIterator(),
+                    skipPatterns);
             orchestrator.run(session);
 
-            logger.info("Skipped: {}", orchestrator.skipped);
+            logger.info("Skipped: {}", orchestrator.skipped.get());
 
         } catch (Exception e) {
             CommandLine.fail(e);
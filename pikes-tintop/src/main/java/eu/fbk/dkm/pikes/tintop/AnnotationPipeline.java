@@ -20,6 +20,7 @@ import eu.fbk.dkm.pikes.resources.ontonotes.VerbNetStatisticsExtractor;
 import eu.fbk.dkm.pikes.tintop.annotators.AnnotatorUtils;
 import eu.fbk.dkm.pikes.tintop.annotators.Defaults;
 import eu.fbk.dkm.pikes.tintop.annotators.PikesAnnotations;
+import eu.fbk.dkm.pikes.tintop.annotators.models.*;
 import eu.fbk.dkm.pikes.tintop.annotators.raw.Semafor;
 import eu.fbk.dkm.pikes.tintop.util.NER2SSTtagset;
 import eu.fbk.dkm.pikes.tintop.util.NerEntity;
@@ -35,6 +36,7 @@ import se.lth.cs.srl.corpus.Word;
 import javax.annotation.Nullable;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Created with IntelliJ IDEA.
@@ -59,6 +61,8 @@ public class AnnotationPipeline {
 
     private Map<String, String> nerMap = new HashMap<>();
 
+    private StanfordPipelinePool pipelinePool;
+
     public AnnotationPipeline(@Nullable File configFile, @Nullable Properties additionalProperties) throws IOException {
         defaultConfig = new Properties();
         if (configFile != null) {
@@ -72,6 +76,11 @@ public class AnnotationPipeline {
         }
         Defaults.setNotPresent(defaultConfig);
 
+        pipelinePool = new StanfordPipelinePool(
+                Defaults.getInteger(defaultConfig.getProperty("stanford_pool_size"), Defaults.STANFORD_POOL_SIZE),
+                Defaults.getInteger(defaultConfig.getProperty("stanford_pool_warm"), Defaults.STANFORD_POOL_WARM),
+                Defaults.getInteger(defaultConfig.getProperty("stanford_pool_keys"), Defaults.STANFORD_POOL_KEYS));
+
         for (Models model : Models.values()) {
             modelsLoaded.put(model, false);
         }
@@ -89,6 +98,10 @@ public class AnnotationPipeline {
         return defaultConfig;
     }
 
+    public StanfordPipelinePool getPipelinePool() {
+        return pipelinePool;
+    }
+
     public static void addHeads(Tree node) {
         addHeads(node, null, null);
     }
@@ -126,7 +139,11 @@ public class AnnotationPipeline {
         logger.info("Loading Stanford CoreNLP");
 
         Properties stanfordFromConfig = PropertiesUtils.dotConvertedProperties(properties, "stanford");
-        StanfordCoreNLP stanfordPipeline = new StanfordCoreNLP(stanfordFromConfig);
+        if (Defaults.getBoolean(properties.getProperty("preload_models"), false)) {
+            preloadModels(stanfordFromConfig,
+                    Defaults.getInteger(properties.getProperty("preload_threads"), Defaults.PRELOAD_THREADS));
+        }
+        pipelinePool.warm(stanfordFromConfig);
 
         // Predicate Matrix
 
@@ -157,6 +174,41 @@ public class AnnotationPipeline {
         }
     }
 
+    // Loads in parallel the models of the enabled annotators, before the pipeline builds them one after the other
+    private void preloadModels(Properties stanfordProperties, int threads) throws InterruptedException {
+        Set<String> annotators = new HashSet<>();
+        for (String annotator : stanfordProperties.getProperty("annotators", "").split(",")) {
+            annotators.add(annotator.trim());
+        }
+
+        List<Callable<?>> loaders = new ArrayList<>();
+        if (annotators.contains("mate")) {
+            String model = stanfordProperties.getProperty("mate.model", Defaults.MATE_MODEL);
+            String modelBe = stanfordProperties.getProperty("mate.model_be", Defaults.MATE_MODEL_BE);
+            loaders.add(() -> MateSrlModel.getInstance(new File(model)));
+            loaders.add(() -> MateSrlBeModel.getInstance(new File(modelBe)));
+        }
+        if (annotators.contains("semafor")) {
+            String modelDir = stanfordProperties.getProperty("semafor.model_dir", Defaults.SEMAFOR_MODEL_DIR);
+            loaders.add(() -> SemaforModel.getInstance(modelDir));
+        }
+        if (annotators.contains("conll_parse")) {
+            String model = stanfordProperties.getProperty("conll_parse.model", Defaults.ANNA_PARSE_MODEL);
+            loaders.add(() -> AnnaParseModel.getInstance(new File(model)));
+        }
+        if (annotators.contains("anna_pos")) {
+            String model = stanfordProperties.getProperty("anna_pos.model", Defaults.ANNA_POS_MODEL);
+            loaders.add(() -> AnnaPosModel.getInstance(new File(model)));
+        }
+        if (annotators.contains("ukb")) {
+            Properties ukbProperties = PropertiesUtils.dotConvertedProperties(stanfordProperties, "ukb");
+            loaders.add(() -> UKBModel.getInstance(ukbProperties));
+        }
+
+        logger.info("Preloading " + loaders.size() + " models with " + threads + " threads");
+        ModelRegistry.getInstance().preload(loaders, threads);
+    }
+
     public void annotateStanford(Properties properties, Annotation document, KAFDocument NAFdocument)
             throws IOException {
 
@@ -939,8 +991,7 @@ public class AnnotationPipeline {
         Properties stanfordConfig = PropertiesUtils.dotConvertedProperties(properties, "stanford");
 
         // Load pipeline
-        Properties thisSessionProps = new Properties(stanfordConfig);
-        StanfordCoreNLP thisPipeline = new StanfordCoreNLP(thisSessionProps);
+        StanfordCoreNLP thisPipeline = pipelinePool.borrow(stanfordConfig);
 
         // Stanford
         logger.info("Annotating with Stanford CoreNLP");
@@ -948,8 +999,13 @@ public class AnnotationPipeline {
         linguisticProcessor.setBeginTimestamp();
         Annotation document = new Annotation(text);
         document.set(CoreAnnotations.DocDateAnnotation.class, NAFdocument.getFileDesc().creationtime);
-        thisPipeline.annotate(document);
-        logger.info(thisPipeline.timingInformation());
+        try {
+            thisPipeline.annotate(document);
+            logger.info(thisPipeline.timingInformation());
+        } finally {
+            pipelinePool.release(thisPipeline);
+        }
+        logger.info("Stanford pipeline pool: " + pipelinePool);
         linguisticProcessor.setEndTimestamp();
         NAFdocument.addLinguisticProcessor(linguisticProcessor.getLayer(), linguisticProcessor);
 
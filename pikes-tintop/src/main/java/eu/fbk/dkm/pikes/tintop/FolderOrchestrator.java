@@ -1,30 +1,33 @@
 package eu.fbk.dkm.pikes.tintop;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.fbk.dkm.pikes.tintopclient.FileQueue;
+import eu.fbk.dkm.pikes.tintopclient.SessionFilter;
 import eu.fbk.dkm.pikes.tintopclient.TintopSession;
 import eu.fbk.utils.core.CommandLine;
-import eu.fbk.utils.core.FrequencyHashSet;
 import eu.fbk.rdfpro.util.IO;
 import ixa.kaflib.KAFDocument;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.jdom2.JDOMException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by alessio on 19/01/16.
+ * <p>
+ * Files are found by a parallel scan of the input folder and handed to the annotation threads through a bounded
+ * {@link FileQueue}; files that fail are retried later with an exponential backoff.
  */
 
 public class FolderOrchestrator {
@@ -33,13 +36,16 @@ public class FolderOrchestrator {
     static final private int DEFAULT_MAX_ERR_ON_FILE = 5;
     static final private int DEFAULT_MAX_SIZE = 50000;
     static final private int DEFAULT_SIZE = 10;
-    static final private int DEFAULT_SLEEPING_TIME = 60000;
+    static final private int DEFAULT_QUEUE_SIZE = FileQueue.DEFAULT_CAPACITY;
+    static final private int DEFAULT_SCAN_THREADS = FileQueue.DEFAULT_SCAN_THREADS;
+    static final private int DEFAULT_REPORT_INTERVAL = 60;
 
     private int maxErrOnFile = DEFAULT_MAX_ERR_ON_FILE;
     private int maxSize = DEFAULT_MAX_SIZE;
-    private FrequencyHashSet<String> fileOnError = new FrequencyHashSet<>();
-    private String fileCache = null;
-    private int skipped = 0;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int scanThreads = DEFAULT_SCAN_THREADS;
+    private int reportInterval = DEFAULT_REPORT_INTERVAL;
+    private AtomicInteger skipped = new AtomicInteger();
     public static String[] DEFAULT_EXTENSIONS = new String[] { "xml", "naf" };
 
     public FolderOrchestrator() {
@@ -61,52 +67,62 @@ public class FolderOrchestrator {
         this.maxSize = maxSize;
     }
 
-    synchronized public void markFileAsNotDone(String filename) {
-        fileOnError.add(filename);
-        if (fileOnError.get(filename) <= maxErrOnFile) {
-            fileCache = filename;
+    public int getQueueSize() {
+        return queueSize;
+    }
 
-        } else {
-            logger.warn(String.format("File %s skipped, more than %d errors", filename, DEFAULT_MAX_ERR_ON_FILE));
-        }
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    public int getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
     }
 
     public class LocalTintopClient implements Runnable {
 
         TintopSession session;
         AnnotationPipeline pipeline;
+        FileQueue queue;
 
-        public LocalTintopClient(TintopSession session, AnnotationPipeline pipeline) {
+        public LocalTintopClient(TintopSession session, AnnotationPipeline pipeline, FileQueue queue) {
             this.session = session;
             this.pipeline = pipeline;
+            this.queue = queue;
         }
 
         @Override
         public void run() {
             while (true) {
-                String filename = null;
+                File file;
                 try {
-                    filename = getNextFile(session);
-                    if (filename == null) {
-                        break;
-                    }
-
-                    File file = new File(filename);
-                    if (!file.exists()) {
-                        break;
-                    }
-
-                    File outputFile = getOutputFile(file, session);
+                    file = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (file == null) {
+                    break;
+                }
 
-                    // todo: use parameters
-                    outputFile = new File(outputFile.getAbsolutePath() + ".gz");
+                try {
+                    File outputFile = SessionFilter.getOutputFile(file, session);
 
                     logger.debug("Output file: " + outputFile);
 
-                    logger.info("Loading file: " + filename);
-                    BufferedReader reader = new BufferedReader(new FileReader(filename));
-                    String whole = IOUtils.toString(reader);
-                    reader.close();
+                    logger.info("Loading file: " + file);
+                    String whole = Files.toString(file, Charsets.UTF_8);
 
                     KAFDocument doc;
 
@@ -127,105 +143,31 @@ public class FolderOrchestrator {
                             w.write(naf);
                         }
                     }
+                    queue.done(file);
 
                 } catch (final Throwable ex) {
-                    logger.error(filename + " --- " + ex.getMessage());
-                    markFileAsNotDone(filename);
-
-                    try {
-                        logger.info("Sleeping...");
-                        Thread.sleep(DEFAULT_SLEEPING_TIME);
-                    } catch (Exception e) {
-                        logger.error(e.getMessage());
-                    }
+                    logger.error(file + " --- " + ex.getMessage());
+                    queue.failed(file);
                 }
             }
         }
 
     }
 
-    private File getOutputFile(File inputFile, TintopSession session) {
-        String outputFile = session.getOutput().getAbsolutePath() + inputFile.getAbsolutePath()
-                .substring(session.getInput().getAbsolutePath().length());
-        return new File(outputFile);
-    }
-
-    synchronized public String getNextFile(TintopSession session) {
-
-        fIter:
-        while (fileCache != null || session.getFileIterator().hasNext()) {
-
-            File file;
-            if (fileCache != null) {
-                file = new File(fileCache);
-                fileCache = null;
-            } else {
-                file = session.getFileIterator().next();
-            }
-
-            File outputFile = getOutputFile(file, session);
-
-            // todo: use parameters
-            outputFile = new File(outputFile.getAbsolutePath() + ".gz");
-
-            logger.debug("Output file: " + outputFile);
-
-            if (outputFile.exists()) {
-                logger.debug("Skipping file (it exists): " + file);
-                continue fIter;
-            }
-
-            for (String p : session.getSkipPatterns()) {
-                if (file.toString().contains(p)) {
-                    logger.debug("Skipping file (skip pattern): " + file);
-                    continue fIter;
-                }
-            }
-
-            if (maxSize > 0 && file.length() > maxSize) {
-                logger.debug("Skipping file (too big, " + file.length() + "): " + file);
-                skipped++;
-                continue fIter;
-            }
-
-            // File is empty
-            if (file.length() < 1000) {
-                try {
-                    KAFDocument document = KAFDocument.createFromFile(file);
-                    if (document.getRawText() == null || document.getRawText().trim().length() == 0) {
-                        logger.info("File is empty: " + file);
-                        logger.info("Writing empty file " + outputFile);
-                        Files.createParentDirs(outputFile);
-                        try (Writer w = IO.utf8Writer(IO.buffer(IO.write(outputFile.getAbsolutePath())))) {
-                            w.write(document.toString());
-                        }
-                        continue fIter;
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    skipped++;
-                    continue fIter;
-                } catch (JDOMException e) {
-                    e.printStackTrace();
-                    skipped++;
-                    continue fIter;
-                }
-            }
-
-            return file.getAbsolutePath();
-        }
-
-        return null;
-    }
-
     public void run(TintopSession session, AnnotationPipeline pipeline, int size) {
         logger.info(String.format("Started process with %d server(s)", size));
 
+        SessionFilter filter = new SessionFilter(session, maxSize, skipped);
+        FileQueue queue = new FileQueue(session.getInput(), DEFAULT_EXTENSIONS, filter,
+                queueSize, scanThreads, maxErrOnFile);
+        queue.start();
+        queue.startReporting(reportInterval);
+
         final ThreadFactory factory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("client-%02d").build();
-        final ExecutorService executor = Executors.newCachedThreadPool(factory);
+        final ExecutorService executor = Executors.newFixedThreadPool(size, factory);
         try {
             for (int i = 0; i < size; i++) {
-                executor.submit(new LocalTintopClient(session, pipeline));
+                executor.submit(new LocalTintopClient(session, pipeline, queue));
             }
 
             executor.shutdown();
@@ -236,6 +178,8 @@ public class FolderOrchestrator {
 
         } finally {
             executor.shutdownNow();
+            queue.close();
+            logger.info("Completed: {}", queue);
         }
 
     }
@@ -261,6 +205,15 @@ public class FolderOrchestrator {
                     .withOption("s", "size",
                             String.format("Number of threads (default %d)", DEFAULT_SIZE),
                             "INT", CommandLine.Type.INTEGER, true, false, false)
+                    .withOption(null, "queue-size",
+                            String.format("Max number of files waiting to be annotated (default %d)",
+                                    DEFAULT_QUEUE_SIZE), "INT", CommandLine.Type.INTEGER, true, false, false)
+                    .withOption(null, "scan-threads",
+                            String.format("Number of threads scanning the input folder (default %d)",
+                                    DEFAULT_SCAN_THREADS), "INT", CommandLine.Type.INTEGER, true, false, false)
+                    .withOption(null, "report",
+                            String.format("Seconds between progress reports, 0 to disable (default %d)",
+                                    DEFAULT_REPORT_INTERVAL), "INT", CommandLine.Type.INTEGER, true, false, false)
                     .withOption("c", "config", "Configuration file", "FILE", CommandLine.Type.FILE_EXISTING, true,
                             false, false)
                     .withOption(null, "properties", "Additional properties", "PROPS", CommandLine.Type.STRING, true,
@@ -275,6 +228,9 @@ public class FolderOrchestrator {
             Integer maxFail = cmd.getOptionValue("max-fail", Integer.class, DEFAULT_MAX_ERR_ON_FILE);
             Integer maxSize = cmd.getOptionValue("max-size", Integer.class, DEFAULT_MAX_SIZE);
             Integer size = cmd.getOptionValue("size", Integer.class, DEFAULT_SIZE);
+            Integer queueSize = cmd.getOptionValue("queue-size", Integer.class, DEFAULT_QUEUE_SIZE);
+            Integer scanThreads = cmd.getOptionValue("scan-threads", Integer.class, DEFAULT_SCAN_THREADS);
+            Integer report = cmd.getOptionValue("report", Integer.class, DEFAULT_REPORT_INTERVAL);
 
             List<String> addProperties = cmd.getOptionValues("properties", String.class);
             Properties additionalProps = new Properties();
@@ -322,14 +278,16 @@ public class FolderOrchestrator {
             FolderOrchestrator orchestrator = new FolderOrchestrator();
             orchestrator.setMaxErrOnFile(maxFail);
             orchestrator.setMaxSize(maxSize);
+            orchestrator.setQueueSize(queueSize);
+            orchestrator.setScanThreads(scanThreads);
+            orchestrator.setReportInterval(report);
 
-            String[] extensions = DEFAULT_EXTENSIONS;
-            Iterator<File> fileIterator = FileUtils.iterateFiles(input, extensions, true);
-
-            TintopSession session = new TintopSession(input, output, fileIterator, skipPatterns);
+            // Files are listed by the scanner of the orchestrator
+            TintopSession session = new TintopSession(input, output, Collections.<File>emptyIterator(),
+                    skipPatterns);
             orchestrator.run(session, pipeline, size);
 
-            logger.info("Skipped: {}", orchestrator.skipped);
+            logger.info("Skipped: {}", orchestrator.skipped.get());
 
 //            String naf = request.getParameter("naf");
 //            KAFDocument doc;
@@ -0,0 +1,303 @@
+package eu.fbk.dkm.pikes.tintop;
+
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keyed pool of fully built {@link StanfordCoreNLP} pipelines.
+ * <p>
+ * Pipelines are keyed on the annotator configuration, i.e., the "annotators" property and the properties of the
+ * listed annotators (see {@link #key(Properties)}), so that sessions sharing the same annotators reuse the same
+ * instances instead of constructing a new pipeline (annotator lookup, property parsing, requirement checks) for
+ * every document, whatever other properties they set. At most {@code maxPerKey} pipelines are built for each key;
+ * when all of them are in use, further requests wait for one to be returned. When a key is first requested, {@code
+ * warmPerKey} pipelines are built for it. At most {@code maxKeys} keys are kept: the least recently used one is
+ * evicted when a new key is requested, and its pipelines are dropped as soon as the requests using them are done.
+ * <p>
+ * Pooled pipelines are not isolated from each other: {@code new StanfordCoreNLP(props)} takes its annotators from
+ * the static {@code AnnotatorPool} of CoreNLP, which keeps one instance per annotator signature for the lifetime of
+ * the JVM, so all the pipelines of a key (and the ones of other keys with the same annotator properties) share the
+ * same annotator instances. Pooling saves the construction of the pipeline wrapper, not of the annotators, and
+ * {@code maxPerKey} bounds how many documents use those shared annotators at the same time. This is safe because
+ * the CoreNLP annotators support concurrent calls (as in the "threads" mode of CoreNLP), and so do the PIKES
+ * annotators: NER, UKB (through its pool of processes) and the MST client are thread-safe, while the annotators
+ * holding models that are not (Anna, Mate, Semafor, TreeTagger) lock them while in use.
+ */
+
+public class StanfordPipelinePool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StanfordPipelinePool.class);
+
+    // Properties read by an annotator that are not prefixed by its name
+    private static final Map<String, List<String>> NESTED_PREFIXES = Collections.singletonMap("ner",
+            Collections.singletonList("sutime"));
+
+    private final int maxPerKey;
+    private final int warmPerKey;
+    private final int maxKeys;
+
+    // Access ordered, so that the eldest entry is the least recently used key
+    private final LinkedHashMap<Map<String, String>, KeyPool> pools = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<StanfordCoreNLP, KeyPool> lent = new IdentityHashMap<>();
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong returned = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public StanfordPipelinePool(int maxPerKey, int warmPerKey, int maxKeys) {
+        this.maxPerKey = Math.max(1, maxPerKey);
+        this.warmPerKey = Math.max(0, Math.min(warmPerKey, this.maxPerKey));
+        this.maxKeys = Math.max(1, maxKeys);
+    }
+
+    public int getMaxPerKey() {
+        return maxPerKey;
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * Makes sure that the pool for the given configuration exists, building its first pipelines if it does not.
+     * Calling this method again with the same configuration does not build further instances.
+     */
+    public void warm(Properties stanfordProperties) {
+        getPool(stanfordProperties);
+    }
+
+    /**
+     * Returns a pipeline for the given configuration, building it if the pool for that configuration is not full,
+     * or waiting for another request to return one otherwise. The pipeline must be given back with {@link
+     * #release(StanfordCoreNLP)}.
+     */
+    public StanfordCoreNLP borrow(Properties stanfordProperties) throws InterruptedException {
+        KeyPool pool = getPool(stanfordProperties);
+        StanfordCoreNLP pipeline = pool.take();
+        synchronized (lent) {
+            lent.put(pipeline, pool);
+        }
+        borrowed.incrementAndGet();
+        return pipeline;
+    }
+
+    /**
+     * Gives back a pipeline obtained with {@link #borrow(Properties)}. The pipeline is dropped if its key has been
+     * evicted and no other request is waiting for it.
+     */
+    public void release(StanfordCoreNLP pipeline) {
+        KeyPool pool;
+        synchronized (lent) {
+            pool = lent.remove(pipeline);
+        }
+        if (pool == null) {
+            return;
+        }
+        returned.incrementAndGet();
+        pool.give(pipeline);
+    }
+
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    public long getReturned() {
+        return returned.get();
+    }
+
+    public long getWaited() {
+        return waited.get();
+    }
+
+    public long getWaitMillis() {
+        return waitNanos.get() / 1000000;
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public int getIdle() {
+        List<KeyPool> current;
+        synchronized (pools) {
+            current = new ArrayList<>(pools.values());
+        }
+        int idle = 0;
+        for (KeyPool pool : current) {
+            idle += pool.getIdle();
+        }
+        return idle;
+    }
+
+    public int getKeys() {
+        synchronized (pools) {
+            return pools.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("keys=%d/%d, created=%d, idle=%d, borrowed=%d, returned=%d, waited=%d (%d ms), "
+                        + "evicted=%d", getKeys(), getMaxKeys(), getCreated(), getIdle(), getBorrowed(),
+                getReturned(), getWaited(), getWaitMillis(), getEvicted());
+    }
+
+    private KeyPool getPool(Properties stanfordProperties) {
+        Map<String, String> key = key(stanfordProperties);
+        KeyPool pool;
+        synchronized (pools) {
+            pool = pools.get(key);
+            if (pool != null) {
+                return pool;
+            }
+            pool = new KeyPool(key);
+            pools.put(key, pool);
+            Iterator<KeyPool> iterator = pools.values().iterator();
+            while (pools.size() > maxKeys) {
+                KeyPool eldest = iterator.next();
+                iterator.remove();
+                evicted.incrementAndGet();
+                eldest.evict();
+                LOGGER.info("Evicted Stanford pipelines for configuration {}", eldest.key.hashCode());
+            }
+        }
+        pool.warm();
+        return pool;
+    }
+
+    /**
+     * Returns the annotator configuration in the given properties (including the defaults of chained Properties
+     * objects): the "annotators" property and, for each listed annotator, its "customAnnotatorClass" property and the
+     * properties prefixed by its name.
+     */
+    static Map<String, String> key(Properties properties) {
+        Set<String> prefixes = new HashSet<>();
+        String annotators = properties.getProperty("annotators", "");
+        for (String annotator : annotators.split("[\\s,]+")) {
+            if (!annotator.isEmpty()) {
+                prefixes.add(annotator + ".");
+                prefixes.add("customAnnotatorClass." + annotator);
+                if (NESTED_PREFIXES.containsKey(annotator)) {
+                    for (String prefix : NESTED_PREFIXES.get(annotator)) {
+                        prefixes.add(prefix + ".");
+                    }
+                }
+            }
+        }
+        Map<String, String> key = new TreeMap<>();
+        key.put("annotators", annotators);
+        for (String name : properties.stringPropertyNames()) {
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix) && (prefix.endsWith(".") || name.length() == prefix.length())) {
+                    key.put(name, properties.getProperty(name));
+                    break;
+                }
+            }
+        }
+        return key;
+    }
+
+    private final class KeyPool {
+
+        final Map<String, String> key;
+        final Deque<StanfordCoreNLP> idle = new ArrayDeque<>();
+        int created = 0;
+        int waiting = 0;
+        boolean evicted = false;
+
+        KeyPool(Map<String, String> key) {
+            this.key = key;
+        }
+
+        void warm() {
+            List<StanfordCoreNLP> pipelines = new ArrayList<>();
+            synchronized (this) {
+                if (created >= warmPerKey) {
+                    return;
+                }
+                created += warmPerKey;
+            }
+            try {
+                for (int i = 0; i < warmPerKey; ++i) {
+                    pipelines.add(build());
+                }
+            } finally {
+                synchronized (this) {
+                    created -= warmPerKey - pipelines.size();
+                    idle.addAll(pipelines);
+                    notifyAll();
+                }
+            }
+        }
+
+        StanfordCoreNLP take() throws InterruptedException {
+            synchronized (this) {
+                if (idle.isEmpty() && created >= maxPerKey) {
+                    waited.incrementAndGet();
+                    long start = System.nanoTime();
+                    ++waiting;
+                    try {
+                        while (idle.isEmpty() && created >= maxPerKey) {
+                            wait();
+                        }
+                    } finally {
+                        --waiting;
+                        waitNanos.addAndGet(System.nanoTime() - start);
+                    }
+                }
+                if (!idle.isEmpty()) {
+                    return idle.poll();
+                }
+                ++created;
+            }
+            try {
+                return build();
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    --created;
+                    notify();
+                }
+                throw e;
+            }
+        }
+
+        synchronized void give(StanfordCoreNLP pipeline) {
+            if (evicted && waiting == 0) {
+                --created; // keep the pipeline only for requests already waiting for it
+                return;
+            }
+            idle.add(pipeline);
+            notify();
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            created -= idle.size();
+            idle.clear();
+        }
+
+        synchronized int getIdle() {
+            return idle.size();
+        }
+
+        private StanfordCoreNLP build() {
+            Properties properties = new Properties();
+            properties.putAll(key);
+            StanfordCoreNLP pipeline = new StanfordCoreNLP(properties);
+            long total = StanfordPipelinePool.this.created.incrementAndGet();
+            LOGGER.info("Built Stanford pipeline #{} for configuration {}", total, key.hashCode());
+            return pipeline;
+        }
+    }
+}
@@ -73,7 +73,8 @@ public class AnnaParseAnnotator implements Annotator {
 				localSentenceData091.setPPos(poss.toArray(new String[poss.size()]));
 
 				SentenceData09 localSentenceData092;
-				synchronized (this) {
+				// The parser of a model is shared by all the annotators (and pipelines) using it
+				synchronized (parser) {
 					localSentenceData092 = parser.apply(localSentenceData091);
 				}
 
@@ -44,7 +44,10 @@ public class AnnaPosAnnotator implements Annotator {
 
 				SentenceData09 instance = new SentenceData09();
 				instance.init(annaTokens);
-				tagger.apply(instance);
+				// The tagger of a model is shared by all the annotators (and pipelines) using it, and is not thread-safe
+				synchronized (tagger) {
+					tagger.apply(instance);
+				}
 
 				for (int i = 0, sz = tokens.size(); i < sz; i++) {
 					CoreLabel thisToken = tokens.get(i);
@@ -78,11 +78,24 @@ public class Defaults {
     public static final String MODEL_FOLDER = "models" + File.separator;
     public static final String DEFAULT_URI = "http://untitled/";
     public static final int MAXLEN = 200;
+    /** Default of {@code mate.copies} and {@code semafor.copies}, see {@link LabelerPool}. */
+    public static final int LABELER_COPIES = 1;
     public static final int MAX_TEXT_LEN = 1000;
+    public static final int SERVER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int SERVER_QUEUE_SIZE = 50;
+    public static final int SERVER_RETRY_AFTER = 10;
+    public static final int SERVER_COMPRESSION_MIN_SIZE = 1024;
+    public static final int PRELOAD_THREADS = 4;
+    public static final int STANFORD_POOL_SIZE = 4;
+    public static final int STANFORD_POOL_WARM = 1;
+    public static final int STANFORD_POOL_KEYS = 4;
     public static final String ANNOTATORS = "tokenize, ssplit, dbps, pos, simple_pos, lemma, ukb, ner_custom, parse, conll_parse, mst_fake, mate, semafor, dcoref";
 
     public static final int UKB_MAX_NUM_OF_RESTARTS = 50;
     public static final int UKB_MAX_INSTANCES = 10;
+    public static final int UKB_TIMEOUT = 10000;
+    public static final int UKB_IDLE_TIMEOUT = 600;
+    public static final int UKB_MIN_BATCH = 20;
     public static final String UKB_FOLDER = "ukb" + File.separator;
     public static final String UKB_MODEL = MODEL_FOLDER + "wnet30_wnet30g_rels.bin";
     public static final String UKB_DICT = MODEL_FOLDER + "wnet30_dict.txt";
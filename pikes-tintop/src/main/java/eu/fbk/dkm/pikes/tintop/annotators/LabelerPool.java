@@ -0,0 +1,133 @@
+package eu.fbk.dkm.pikes.tintop.annotators;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Set of labeler instances used by the annotators that process sentences in parallel, together with the {@code
+ * threads} threads running them. There is a single pool for each model, shared by all the annotator instances using
+ * that model (e.g., by pooled pipelines), as copies of a model are shared too. If the labeler is thread-safe, a single
+ * instance is shared by all threads; otherwise each thread borrows one of {@code copies} separate copies of the model
+ * (numbered from 0, copy 0 being also the one used by annotators in sequential mode, which is why annotators lock
+ * copies that are not thread-safe while using them), created lazily on first use. Pools live as long as the models
+ * they use; their size is the one requested first.
+ * <p>
+ * The annotators using a pool ({@code mate}, {@code semafor}) read three properties, which only make sense together:
+ * <ul>
+ * <li>{@code <annotator>.parallel}: number of threads labelling the sentences of a document; 0 or 1 (the default)
+ * label them sequentially;</li>
+ * <li>{@code <annotator>.copies}: number of copies of the model to load, {@link Defaults#LABELER_COPIES} by default;
+ * each copy of a Mate or Semafor model takes as much heap as the model itself (several GB), so copies are never
+ * added implicitly;</li>
+ * <li>{@code <annotator>.thread_safe}: whether a single labeler may be used by all the threads (false by default, as
+ * neither Mate nor Semafor is documented as thread-safe), in which case {@code copies} is ignored.</li>
+ * </ul>
+ * A labeler that is not thread-safe cannot run on more threads than there are copies, so {@link #threads(String, int,
+ * int, boolean)} reduces {@code parallel} to {@code copies} with a warning: with the default single copy, setting
+ * {@code parallel} alone keeps the annotator sequential.
+ */
+
+public class LabelerPool<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LabelerPool.class);
+
+    private static final ConcurrentHashMap<String, LabelerPool<?>> POOLS = new ConcurrentHashMap<>();
+
+    private final T shared;
+    private final BlockingQueue<T> instances;
+    private final IntFunction<T> factory;
+    private final int copies;
+    private final ForkJoinPool executor;
+    private int created = 0;
+
+    /**
+     * Returns the number of threads the annotator with the given name can use to label sentences, given its {@code
+     * parallel}, {@code copies} and {@code thread_safe} properties: {@code parallel}, reduced to {@code copies} (with a
+     * warning) if the labeler is not thread-safe. Parallel mode is enabled only if the result is greater than 1.
+     */
+    public static int threads(String annotatorName, int parallel, int copies, boolean threadSafe) {
+        if (parallel <= 1 || threadSafe || parallel <= copies) {
+            return parallel;
+        }
+        int threads = Math.max(1, copies);
+        LOGGER.warn("{}.parallel = {} but the labeler is not thread-safe and {}.copies = {}: {}", annotatorName,
+                parallel, annotatorName, copies, threads > 1 ? "using " + threads + " threads"
+                        : "labelling sentences sequentially (raise " + annotatorName + ".copies to run in parallel)");
+        return threads;
+    }
+
+    /**
+     * Returns the pool for the model with the given key, creating it if needed. Copy {@code n} of the model is
+     * obtained with {@code factory.apply(n)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> LabelerPool<T> get(String key, int threads, int copies, boolean threadSafe,
+            IntFunction<T> factory) {
+        return (LabelerPool<T>) POOLS.computeIfAbsent(key,
+                k -> new LabelerPool<>(threads, copies, threadSafe, factory));
+    }
+
+    private LabelerPool(int threads, int copies, boolean threadSafe, IntFunction<T> factory) {
+        this.copies = Math.max(1, copies);
+        this.executor = new ForkJoinPool(threads);
+        if (threadSafe) {
+            this.shared = factory.apply(0);
+            this.factory = null;
+            this.instances = null;
+        } else {
+            this.shared = null;
+            this.factory = factory;
+            this.instances = new ArrayBlockingQueue<>(this.copies);
+        }
+    }
+
+    /**
+     * Runs the given tasks on the threads of the pool, waiting for their completion.
+     */
+    public <V> List<Future<V>> invokeAll(Collection<? extends Callable<V>> tasks) {
+        return executor.invokeAll(tasks);
+    }
+
+    public T borrow() throws InterruptedException {
+        if (shared != null) {
+            return shared;
+        }
+        T labeler = instances.poll();
+        if (labeler != null) {
+            return labeler;
+        }
+        int index = -1;
+        synchronized (this) {
+            if (created < copies) {
+                index = created++;
+            }
+        }
+        if (index < 0) {
+            return instances.take();
+        }
+        try {
+            return factory.apply(index);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                created--;
+            }
+            throw e;
+        }
+    }
+
+    public void release(T labeler) {
+        if (shared == null && labeler != null) {
+            instances.add(labeler);
+        }
+    }
+}
@@ -13,14 +13,22 @@ import se.lth.cs.srl.corpus.Sentence;
 import se.lth.cs.srl.corpus.Word;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static eu.fbk.dkm.pikes.depparseannotation.DepparseAnnotations.CONLLPARSE_REQUIREMENT;
 
 /**
  * Created by alessio on 06/05/15.
+ * <p>
+ * Sentences are labelled in parallel according to {@code mate.parallel}, {@code mate.copies} and {@code
+ * mate.thread_safe}, described in {@link LabelerPool}; the same settings apply to the model for "be".
  */
 
 public class MateSrlAnnotator implements Annotator {
@@ -28,6 +36,11 @@ public class MateSrlAnnotator implements Annotator {
     private SemanticRoleLabeler labeler;
     private SemanticRoleLabeler labelerBe = null;
     int maxLen;
+    private boolean threadSafe;
+
+    // Sentence-parallel mode (enabled when parallel > 1)
+    private LabelerPool<SemanticRoleLabeler> labelers = null;
+    private LabelerPool<SemanticRoleLabeler> labelersBe = null;
 
     public MateSrlAnnotator(String annotatorName, Properties props) {
 
@@ -40,6 +53,19 @@ public class MateSrlAnnotator implements Annotator {
         if (modelBe != null) {
             labelerBe = MateSrlBeModel.getInstance(new File(modelBe)).getLabeler();
         }
+
+        threadSafe = Defaults.getBoolean(props.getProperty(annotatorName + ".thread_safe"), false);
+        int copies = Defaults.getInteger(props.getProperty(annotatorName + ".copies"), Defaults.LABELER_COPIES);
+        int parallel = LabelerPool.threads(annotatorName,
+                Defaults.getInteger(props.getProperty(annotatorName + ".parallel"), 0), copies, threadSafe);
+        if (parallel > 1) {
+            labelers = LabelerPool.get(MateSrlModel.key(new File(model)), parallel, copies, threadSafe,
+                    copy -> MateSrlModel.getInstance(new File(model), copy).getLabeler());
+            if (labelerBe != null) {
+                labelersBe = LabelerPool.get(MateSrlBeModel.key(new File(modelBe)), parallel, copies, threadSafe,
+                        copy -> MateSrlBeModel.getInstance(new File(modelBe), copy).getLabeler());
+            }
+        }
     }
 
     public static Sentence createMateSentence(CoreMap stanfordSentence) {
@@ -78,9 +104,82 @@ public class MateSrlAnnotator implements Annotator {
         return ret;
     }
 
+    private static void addLabels(CoreMap stanfordSentence, Sentence sentence) {
+        for (Word word : sentence) {
+            int tokenID = word.getIdx() - 1;
+            if (tokenID < 0) {
+                continue;
+            }
+            try {
+                stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID)
+                        .set(PikesAnnotations.MateTokenAnnotation.class, word);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+        }
+
+        for (Predicate predicate : sentence.getPredicates()) {
+            int tokenID = predicate.getIdx() - 1;
+            try {
+                stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID)
+                        .set(PikesAnnotations.MateAnnotation.class, predicate);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void addBeLabels(CoreMap stanfordSentence, Sentence sentenceBe) {
+        for (Predicate predicate : sentenceBe.getPredicates()) {
+            int tokenID = predicate.getIdx() - 1;
+            String lemma = stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID).get(
+                    CoreAnnotations.LemmaAnnotation.class);
+            if (lemma.equals("be")) {
+                try {
+                    stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID)
+                            .set(PikesAnnotations.MateAnnotation.class, predicate);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Labels a sentence with a copy of the model. Unless thread-safe, a copy is locked while in use, as copy 0 is
+     * shared by all the annotator instances (and pooled pipelines) using the model, in sequential and parallel mode.
+     */
+    private void label(SemanticRoleLabeler labeler, Sentence sentence) {
+        if (threadSafe) {
+            labeler.parseSentence(sentence);
+        } else {
+            synchronized (labeler) {
+                labeler.parseSentence(sentence);
+            }
+        }
+    }
+
+    private Callable<Sentence> labelTask(LabelerPool<SemanticRoleLabeler> labelers, Sentence sentence) {
+        return () -> {
+            SemanticRoleLabeler thisLabeler = labelers.borrow();
+            try {
+                label(thisLabeler, sentence);
+            } finally {
+                labelers.release(thisLabeler);
+            }
+            return sentence;
+        };
+    }
+
     @Override
     public void annotate(Annotation annotation) {
         if (annotation.has(CoreAnnotations.SentencesAnnotation.class)) {
+            if (labelers != null) {
+                annotateParallel(annotation.get(CoreAnnotations.SentencesAnnotation.class));
+                return;
+            }
+
             for (CoreMap stanfordSentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
 
                 Sentence sentence;
@@ -91,49 +190,13 @@ public class MateSrlAnnotator implements Annotator {
                     continue;
                 }
 
-                labeler.parseSentence(sentence);
-
-                for (Word word : sentence) {
-                    int tokenID = word.getIdx() - 1;
-                    if (tokenID < 0) {
-                        continue;
-                    }
-                    try {
-                        stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID)
-                                .set(PikesAnnotations.MateTokenAnnotation.class, word);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-
-                }
-
-                for (Predicate predicate : sentence.getPredicates()) {
-                    int tokenID = predicate.getIdx() - 1;
-                    try {
-                        stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID)
-                                .set(PikesAnnotations.MateAnnotation.class, predicate);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+                label(labeler, sentence);
+                addLabels(stanfordSentence, sentence);
 
                 if (labelerBe != null) {
                     Sentence sentenceBe = createMateSentence(stanfordSentence);
-                    labelerBe.parseSentence(sentenceBe);
-
-                    for (Predicate predicate : sentenceBe.getPredicates()) {
-                        int tokenID = predicate.getIdx() - 1;
-                        String lemma = stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID).get(
-                                CoreAnnotations.LemmaAnnotation.class);
-                        if (lemma.equals("be")) {
-                            try {
-                                stanfordSentence.get(CoreAnnotations.TokensAnnotation.class).get(tokenID)
-                                        .set(PikesAnnotations.MateAnnotation.class, predicate);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
+                    label(labelerBe, sentenceBe);
+                    addBeLabels(stanfordSentence, sentenceBe);
                 }
             }
         } else {
@@ -142,6 +205,50 @@ public class MateSrlAnnotator implements Annotator {
 
     }
 
+    /**
+     * Labels all the sentences (both the primary and the "be" pass) in parallel, then copies the labels to the
+     * Stanford sentences one sentence at a time and in document order, as in the sequential mode.
+     */
+    private void annotateParallel(List<CoreMap> stanfordSentences) {
+        List<CoreMap> labeled = new ArrayList<>();
+        List<Callable<Sentence>> tasks = new ArrayList<>();
+        List<Callable<Sentence>> tasksBe = new ArrayList<>();
+
+        for (CoreMap stanfordSentence : stanfordSentences) {
+            Sentence sentence;
+            try {
+                sentence = createMateSentence(stanfordSentence);
+            } catch (Exception e) {
+                // NullPointerException
+                continue;
+            }
+            labeled.add(stanfordSentence);
+            tasks.add(labelTask(labelers, sentence));
+            if (labelerBe != null) {
+                tasksBe.add(labelTask(labelersBe, createMateSentence(stanfordSentence)));
+            }
+        }
+
+        List<Callable<Sentence>> allTasks = new ArrayList<>(tasks);
+        allTasks.addAll(tasksBe);
+        List<Future<Sentence>> results = labelers.invokeAll(allTasks);
+
+        for (int i = 0; i < labeled.size(); i++) {
+            CoreMap stanfordSentence = labeled.get(i);
+            try {
+                addLabels(stanfordSentence, results.get(i).get());
+                if (labelerBe != null) {
+                    addBeLabels(stanfordSentence, results.get(labeled.size() + i).get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while running Mate", e);
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
     @Override
     public Set<Requirement> requirementsSatisfied() {
         return Collections.singleton(PikesAnnotations.SRL_REQUIREMENT);
@@ -8,6 +8,7 @@ import edu.stanford.nlp.util.CoreMap;
 import eu.fbk.dkm.pikes.depparseannotation.DepParseInfo;
 import eu.fbk.dkm.pikes.depparseannotation.DepparseAnnotations;
 import eu.fbk.dkm.pikes.tintop.annotators.raw.MstServerParser;
+import eu.fbk.dkm.pikes.tintop.annotators.raw.SocketConnectionPool;
 
 import java.util.*;
 
@@ -26,34 +27,53 @@ public class MstServerParserAnnotator implements Annotator {
 		if (props.containsKey(annotatorName + ".maxlen")) {
 			maxLen = Integer.parseInt(props.getProperty(annotatorName + ".maxlen"));
 		}
-		parser = new MstServerParser(server, port);
+		int poolSize = Defaults.getInteger(props.getProperty(annotatorName + ".pool_size"),
+				SocketConnectionPool.DEFAULT_SIZE);
+		int connectTimeout = Defaults.getInteger(props.getProperty(annotatorName + ".connect_timeout"),
+				SocketConnectionPool.DEFAULT_CONNECT_TIMEOUT);
+		int readTimeout = Defaults.getInteger(props.getProperty(annotatorName + ".timeout"),
+				SocketConnectionPool.DEFAULT_READ_TIMEOUT);
+		parser = new MstServerParser(server, port, poolSize, connectTimeout, readTimeout);
 	}
 
 	@Override
 	public void annotate(Annotation annotation) {
 		if (annotation.has(CoreAnnotations.SentencesAnnotation.class)) {
+
+			// All the sentences of the document are sent with a single request
+			List<CoreMap> sentences = new ArrayList<>();
+			List<List<String>> forms = new ArrayList<>();
+			List<List<String>> poss = new ArrayList<>();
+
 			for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
 				List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
 				if (maxLen > 0 && tokens.size() > maxLen) {
 					continue;
 				}
 
-				ArrayList<String> forms = new ArrayList<>();
-				ArrayList<String> poss = new ArrayList<>();
+				ArrayList<String> sentenceForms = new ArrayList<>();
+				ArrayList<String> sentencePoss = new ArrayList<>();
 				for (CoreLabel stanfordToken : tokens) {
 					String form = stanfordToken.get(CoreAnnotations.TextAnnotation.class);
 					String pos = stanfordToken.get(CoreAnnotations.PartOfSpeechAnnotation.class);
-					forms.add(form);
-					poss.add(pos);
+					sentenceForms.add(form);
+					sentencePoss.add(pos);
 
 				}
-				try {
-					DepParseInfo depParseInfo = parser.tag(forms, poss);
-					sentence.set(DepparseAnnotations.MstParserAnnotation.class, depParseInfo);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+				sentences.add(sentence);
+				forms.add(sentenceForms);
+				poss.add(sentencePoss);
+			}
 
+			try {
+				List<DepParseInfo> depParseInfos = parser.tagAll(forms, poss);
+				if (depParseInfos != null) {
+					for (int i = 0; i < sentences.size(); i++) {
+						sentences.get(i).set(DepparseAnnotations.MstParserAnnotation.class, depParseInfos.get(i));
+					}
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
 		}
 		else {
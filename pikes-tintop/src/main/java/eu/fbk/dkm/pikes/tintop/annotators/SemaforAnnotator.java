@@ -14,26 +14,48 @@ import eu.fbk.dkm.pikes.depparseannotation.DepparseAnnotations;
 import eu.fbk.dkm.pikes.tintop.annotators.models.SemaforModel;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Created by alessio on 06/05/15.
+ * <p>
+ * Sentences are labelled in parallel according to {@code semafor.parallel}, {@code semafor.copies} and {@code
+ * semafor.thread_safe}, described in {@link LabelerPool}.
  */
 
 public class SemaforAnnotator implements Annotator {
 
     private Semafor parser;
     int maxLen;
+    private boolean threadSafe;
+
+    // Sentence-parallel mode (enabled when parallel > 1)
+    private LabelerPool<Semafor> parsers = null;
 
     public SemaforAnnotator(String annotatorName, Properties props) {
         String semaforModelDir = props.getProperty(annotatorName + ".model_dir", Defaults.SEMAFOR_MODEL_DIR);
         maxLen = Defaults.getInteger(props.getProperty(annotatorName + ".model_dir"), Defaults.MAXLEN);
         parser = SemaforModel.getInstance(semaforModelDir).getParser();
+
+        threadSafe = Defaults.getBoolean(props.getProperty(annotatorName + ".thread_safe"), false);
+        int copies = Defaults.getInteger(props.getProperty(annotatorName + ".copies"), Defaults.LABELER_COPIES);
+        int parallel = LabelerPool.threads(annotatorName,
+                Defaults.getInteger(props.getProperty(annotatorName + ".parallel"), 0), copies, threadSafe);
+        if (parallel > 1) {
+            parsers = LabelerPool.get(SemaforModel.key(semaforModelDir), parallel, copies, threadSafe,
+                    copy -> SemaforModel.getInstance(semaforModelDir, copy).getParser());
+        }
     }
 
     @Override
     public void annotate(Annotation annotation) {
 
         if (annotation.has(CoreAnnotations.SentencesAnnotation.class)) {
+            List<CoreMap> stanfordSentences = new ArrayList<>();
+            List<Sentence> sentences = new ArrayList<>();
+
             for (CoreMap stanfordSentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
 
                 List<CoreLabel> tokens = stanfordSentence.get(CoreAnnotations.TokensAnnotation.class);
@@ -62,11 +84,19 @@ public class SemaforAnnotator implements Annotator {
                     sentenceTokens.add(fnToken);
                 }
 
-                Sentence sentence = new Sentence(sentenceTokens);
+                stanfordSentences.add(stanfordSentence);
+                sentences.add(new Sentence(sentenceTokens));
+            }
+
+            if (parsers != null) {
+                annotateParallel(stanfordSentences, sentences);
+                return;
+            }
 
+            for (int i = 0; i < sentences.size(); i++) {
                 try {
-                    SemaforParseResult results = parser.parseSentence(sentence);
-                    stanfordSentence.set(PikesAnnotations.SemaforAnnotation.class, results);
+                    SemaforParseResult results = parse(parser, sentences.get(i));
+                    stanfordSentences.get(i).set(PikesAnnotations.SemaforAnnotation.class, results);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -77,6 +107,46 @@ public class SemaforAnnotator implements Annotator {
 
     }
 
+    /**
+     * Parses a sentence with a copy of the model. Unless thread-safe, a copy is locked while in use, as copy 0 is
+     * shared by all the annotator instances (and pooled pipelines) using the model, in sequential and parallel mode.
+     */
+    private SemaforParseResult parse(Semafor parser, Sentence sentence) throws Exception {
+        if (threadSafe) {
+            return parser.parseSentence(sentence);
+        }
+        synchronized (parser) {
+            return parser.parseSentence(sentence);
+        }
+    }
+
+    // Sentences are parsed in parallel, results are then stored in document order
+    private void annotateParallel(List<CoreMap> stanfordSentences, List<Sentence> sentences) {
+        List<Callable<SemaforParseResult>> tasks = new ArrayList<>();
+        for (Sentence sentence : sentences) {
+            tasks.add(() -> {
+                Semafor thisParser = parsers.borrow();
+                try {
+                    return parse(thisParser, sentence);
+                } finally {
+                    parsers.release(thisParser);
+                }
+            });
+        }
+
+        List<Future<SemaforParseResult>> results = parsers.invokeAll(tasks);
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                stanfordSentences.get(i).set(PikesAnnotations.SemaforAnnotation.class, results.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while running Semafor", e);
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
     @Override
     public Set<Requirement> requirementsSatisfied() {
         return Collections.singleton(PikesAnnotations.SEMAFOR_REQUIREMENT);
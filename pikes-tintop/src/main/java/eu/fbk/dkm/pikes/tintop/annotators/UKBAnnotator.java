@@ -35,6 +35,11 @@ public class UKBAnnotator implements Annotator {
 	@Override
 	public void annotate(Annotation annotation) {
 		if (annotation.has(CoreAnnotations.SentencesAnnotation.class)) {
+
+			// All the sentences of the document are disambiguated with a single batch
+			List<List<CoreLabel>> sentenceTokens = new ArrayList<>();
+			List<ArrayList<HashMap<String, String>>> sentenceTerms = new ArrayList<>();
+
 			for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
 				List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
 				if (maxLen > 0 && tokens.size() > maxLen) {
@@ -51,12 +56,19 @@ public class UKBAnnotator implements Annotator {
 					terms.add(term);
 				}
 
-				try {
-					tagger.run(terms);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				sentenceTokens.add(tokens);
+				sentenceTerms.add(terms);
+			}
+
+			try {
+				tagger.runBatch(sentenceTerms);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 
+			for (int s = 0; s < sentenceTokens.size(); s++) {
+				List<CoreLabel> tokens = sentenceTokens.get(s);
+				ArrayList<HashMap<String, String>> terms = sentenceTerms.get(s);
 				for (int i = 0, sz = tokens.size(); i < sz; i++) {
 					CoreLabel thisToken = tokens.get(i);
 					String wn = terms.get(i).get("wordnet");
@@ -26,39 +26,42 @@ public class UKBResourcePool extends ResourcePool<Process> {
         this.baseDir = baseDir;
     }
 
-    @Override public Process createResource() {
+    @Override protected boolean validateResource(Process process) {
+        return process != null && process.isAlive();
+    }
+
+    @Override protected void destroyResource(Process process) {
+        process.destroy();
+    }
+
+    @Override public Process createResource() throws IOException {
         String[] command = { "./ukb_wsd", "--ppr", "-K", model, "-D", dict, "--allranks", "-" };
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.directory(new File(baseDir));
 //        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
 
-        try {
-            Process process = pb.start();
-            BufferedReader brCleanUp = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line = brCleanUp.readLine();
+        Process process = pb.start();
+        BufferedReader brCleanUp = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = brCleanUp.readLine();
 
-            final BufferedReader err = new BufferedReader(new InputStreamReader(
-                    process.getErrorStream()));
+        final BufferedReader err = new BufferedReader(new InputStreamReader(
+                process.getErrorStream()));
 
-            Environment.getPool().submit(new Runnable() {
+        Environment.getPool().submit(new Runnable() {
 
-                @Override
-                public void run() {
-                    String line;
-                    try {
-                        while ((line = err.readLine()) != null) {
-                            LOGGER.debug("[UKB] " + line);
-                        }
-                    } catch (final IOException ex) {
-                        LOGGER.error("[UKB] " + ex.getMessage(), ex);
+            @Override
+            public void run() {
+                String line;
+                try {
+                    while ((line = err.readLine()) != null) {
+                        LOGGER.debug("[UKB] " + line);
                     }
+                } catch (final IOException ex) {
+                    LOGGER.error("[UKB] " + ex.getMessage(), ex);
                 }
+            }
 
-            });
-            return process;
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
+        });
+        return process;
     }
 }
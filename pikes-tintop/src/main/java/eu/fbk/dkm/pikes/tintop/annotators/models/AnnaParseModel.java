@@ -13,7 +13,6 @@ import java.io.File;
 
 public class AnnaParseModel {
 
-	private static AnnaParseModel instance;
 	private Parser parser;
 	private static final Logger LOGGER = LoggerFactory.getLogger(AnnaParseModel.class);
 
@@ -24,12 +23,12 @@ public class AnnaParseModel {
 		parser = new Parser(localOptions);
 	}
 
-	public static AnnaParseModel getInstance(File posModel) {
-		if (instance == null) {
-			instance = new AnnaParseModel(posModel);
-		}
+	public static String key(File posModel) {
+		return "anna_parse:" + posModel.getAbsolutePath();
+	}
 
-		return instance;
+	public static AnnaParseModel getInstance(File posModel) {
+		return ModelRegistry.getInstance().get(key(posModel), () -> new AnnaParseModel(posModel));
 	}
 
 	public Parser getParser() {
@@ -13,7 +13,6 @@ import java.io.File;
 
 public class AnnaPosModel {
 
-	private static AnnaPosModel instance;
 	private Tagger tagger;
 	private static final Logger LOGGER = LoggerFactory.getLogger(AnnaPosModel.class);
 
@@ -22,12 +21,12 @@ public class AnnaPosModel {
 		tagger = BohnetHelper.getTagger(posModel);
 	}
 
-	public static AnnaPosModel getInstance(File posModel) {
-		if (instance == null) {
-			instance = new AnnaPosModel(posModel);
-		}
+	public static String key(File posModel) {
+		return "anna_pos:" + posModel.getAbsolutePath();
+	}
 
-		return instance;
+	public static AnnaPosModel getInstance(File posModel) {
+		return ModelRegistry.getInstance().get(key(posModel), () -> new AnnaPosModel(posModel));
 	}
 
 	public Tagger getTagger() {
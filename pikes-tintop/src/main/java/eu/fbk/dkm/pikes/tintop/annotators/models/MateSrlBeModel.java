@@ -15,7 +15,6 @@ import java.util.zip.ZipFile;
 
 public class MateSrlBeModel {
 
-	private static MateSrlBeModel instance;
 	private SemanticRoleLabeler labeler;
 	private static final Logger LOGGER = LoggerFactory.getLogger(MateSrlBeModel.class);
 
@@ -34,12 +33,23 @@ public class MateSrlBeModel {
 		Language.setLanguage(Language.L.valueOf("eng"));
 	}
 
+	public static String key(File posModel) {
+		return "mate_be:" + posModel.getAbsolutePath();
+	}
+
 	public static MateSrlBeModel getInstance(File posModel) {
-		if (instance == null) {
-			instance = new MateSrlBeModel(posModel);
-		}
+		return ModelRegistry.getInstance().get(key(posModel), () -> new MateSrlBeModel(posModel));
+	}
 
-		return instance;
+	/**
+	 * Returns a separate copy of the model, for labelers that cannot be shared among threads. Copy 0 is the
+	 * instance returned by {@link #getInstance(File)}.
+	 */
+	public static MateSrlBeModel getInstance(File posModel, int copy) {
+		if (copy == 0) {
+			return getInstance(posModel);
+		}
+		return ModelRegistry.getInstance().get(key(posModel) + "#" + copy, () -> new MateSrlBeModel(posModel));
 	}
 
 	public SemanticRoleLabeler getLabeler() {
@@ -15,7 +15,6 @@ import java.util.zip.ZipFile;
 
 public class MateSrlModel {
 
-	private static MateSrlModel instance;
 	private SemanticRoleLabeler labeler;
 	private static final Logger LOGGER = LoggerFactory.getLogger(MateSrlModel.class);
 
@@ -34,12 +33,23 @@ public class MateSrlModel {
 		Language.setLanguage(Language.L.valueOf("eng"));
 	}
 
+	public static String key(File posModel) {
+		return "mate:" + posModel.getAbsolutePath();
+	}
+
 	public static MateSrlModel getInstance(File posModel) {
-		if (instance == null) {
-			instance = new MateSrlModel(posModel);
-		}
+		return ModelRegistry.getInstance().get(key(posModel), () -> new MateSrlModel(posModel));
+	}
 
-		return instance;
+	/**
+	 * Returns a separate copy of the model, for labelers that cannot be shared among threads. Copy 0 is the
+	 * instance returned by {@link #getInstance(File)}.
+	 */
+	public static MateSrlModel getInstance(File posModel, int copy) {
+		if (copy == 0) {
+			return getInstance(posModel);
+		}
+		return ModelRegistry.getInstance().get(key(posModel) + "#" + copy, () -> new MateSrlModel(posModel));
 	}
 
 	public SemanticRoleLabeler getLabeler() {
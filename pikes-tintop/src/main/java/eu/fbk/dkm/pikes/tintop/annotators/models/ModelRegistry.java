@@ -0,0 +1,180 @@
+package eu.fbk.dkm.pikes.tintop.annotators.models;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by alessio on 25/05/15.
+ * <p>
+ * Registry of the annotator models, keyed by model type and path (or configuration). Each model is loaded at most
+ * once even if requested concurrently: the first caller loads it, the others wait for the result. Models are not
+ * reference counted: the annotators using them are cached by CoreNLP (in the static annotator pool of
+ * StanfordCoreNLP) for the lifetime of the process, so there is no point where their users go away. A model can be
+ * unloaded explicitly with {@link #unload(String)}. Load time and, for models loaded while no other model was
+ * loading, an estimate of the heap they use are recorded.
+ */
+
+public final class ModelRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelRegistry.class);
+
+    private static final ModelRegistry INSTANCE = new ModelRegistry();
+
+    private final ConcurrentHashMap<String, Entry<?>> entries = new ConcurrentHashMap<>();
+
+    public static ModelRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private ModelRegistry() {
+    }
+
+    /**
+     * Returns the model with the given key, loading it with {@code loader} if needed. Concurrent calls with the same
+     * key share a single load.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Callable<T> loader) {
+        Entry<T> entry = new Entry<>(key, loader);
+        Entry<T> previous = (Entry<T>) entries.putIfAbsent(key, entry);
+        if (previous != null) {
+            entry = previous;
+        }
+        try {
+            return entry.get();
+        } catch (RuntimeException e) {
+            entries.remove(key, entry);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes a model from the registry, so that the next request loads it again and the old copy can be garbage
+     * collected once the annotators holding it are dropped. Whether the model is still used is not checked.
+     */
+    public boolean unload(String key) {
+        Entry<?> entry = entries.get(key);
+        if (entry != null && entries.remove(key, entry)) {
+            LOGGER.info("Unloaded model {}", key);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Runs the given loading actions (typically calls to the {@code getInstance} methods of the model classes) in
+     * parallel, using up to {@code threads} threads, and waits for all of them. The heap used by models loaded
+     * concurrently cannot be told apart, so it is recorded only when {@code threads} is 1.
+     */
+    public void preload(List<Callable<?>> loaders, int threads) throws InterruptedException {
+        if (loaders.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, loaders.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Callable<?> loader : loaders) {
+                futures.add(executor.submit(loader));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOGGER.error("Error preloading model: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        LOGGER.info("Loaded models:\n{}", this);
+    }
+
+    public boolean isLoaded(String key) {
+        Entry<?> entry = entries.get(key);
+        return entry != null && entry.isDone();
+    }
+
+    public Set<String> getKeys() {
+        return new TreeSet<>(entries.keySet());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String key : getKeys()) {
+            Entry<?> entry = entries.get(key);
+            if (entry != null) {
+                builder.append(entry).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static final class Entry<T> {
+
+        // Models being loaded, and loads started so far, to detect overlapping loads
+        private static final AtomicInteger LOADING = new AtomicInteger();
+        private static final AtomicLong LOADS = new AtomicLong();
+
+        private final String key;
+        private final FutureTask<T> task;
+        private volatile long loadMillis = -1;
+        private volatile long heapBytes = -1;
+
+        Entry(String key, final Callable<T> loader) {
+            this.key = key;
+            this.task = new FutureTask<>(() -> {
+                LOGGER.info("Loading model {}", Entry.this.key);
+                Runtime runtime = Runtime.getRuntime();
+                boolean alone = LOADING.incrementAndGet() == 1;
+                long loadsBefore = LOADS.incrementAndGet();
+                long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+                long start = System.currentTimeMillis();
+                T model;
+                try {
+                    model = loader.call();
+                } finally {
+                    loadMillis = System.currentTimeMillis() - start;
+                    // The heap is shared: a delta is meaningful only if no other model loaded meanwhile
+                    alone &= LOADS.get() == loadsBefore;
+                    LOADING.decrementAndGet();
+                }
+                if (alone) {
+                    heapBytes = Math.max(0, runtime.totalMemory() - runtime.freeMemory() - usedBefore);
+                    LOGGER.info("Loaded model {} in {} ms (~{} MB)", Entry.this.key, loadMillis, heapBytes >> 20);
+                } else {
+                    LOGGER.info("Loaded model {} in {} ms", Entry.this.key, loadMillis);
+                }
+                return model;
+            });
+        }
+
+        T get() {
+            // The first caller runs the load; FutureTask ignores later calls to run()
+            task.run();
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading model " + key, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to load model " + key, e.getCause());
+            }
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: load=%d ms, heap=%s", key, loadMillis,
+                    heapBytes < 0 ? "n/a" : "~" + (heapBytes >> 20) + " MB");
+        }
+    }
+}
@@ -4,13 +4,14 @@ import edu.cmu.cs.lti.ark.fn.Semafor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+
 /**
  * Created by alessio on 25/05/15.
  */
 
 public class SemaforModel {
 
-    private static SemaforModel instance;
     private Semafor parser;
     private static final Logger LOGGER = LoggerFactory.getLogger(SemaforModel.class);
 
@@ -23,12 +24,23 @@ public class SemaforModel {
         }
     }
 
+    public static String key(String modelDir) {
+        return "semafor:" + new File(modelDir).getAbsolutePath();
+    }
+
     public static SemaforModel getInstance(String modelDir) {
-        if (instance == null) {
-            instance = new SemaforModel(modelDir);
-        }
+        return ModelRegistry.getInstance().get(key(modelDir), () -> new SemaforModel(modelDir));
+    }
 
-        return instance;
+    /**
+     * Returns a separate copy of the model, for labelers that cannot be shared among threads. Copy 0 is the
+     * instance returned by {@link #getInstance(String)}.
+     */
+    public static SemaforModel getInstance(String modelDir, int copy) {
+        if (copy == 0) {
+            return getInstance(modelDir);
+        }
+        return ModelRegistry.getInstance().get(key(modelDir) + "#" + copy, () -> new SemaforModel(modelDir));
     }
 
     public Semafor getParser() {
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 /**
  * Created by alessio on 27/05/15.
@@ -15,7 +16,6 @@ import java.util.Properties;
 
 public class UKBModel {
 
-	private static UKBModel instance;
 	private UKB_MT tagger;
 	private static final Logger LOGGER = LoggerFactory.getLogger(UKBModel.class);
 
@@ -23,13 +23,19 @@ public class UKBModel {
 		tagger = new UKB_MT(properties);
 	}
 
+	public static String key(Properties properties) {
+		return "ukb:" + new TreeMap<>(properties);
+	}
+
 	public static UKBModel getInstance(Properties properties) throws IOException {
-		if (instance == null) {
-			LOGGER.info("Loading model for UKB");
-			instance = new UKBModel(properties);
+		try {
+			return ModelRegistry.getInstance().get(key(properties), () -> new UKBModel(properties));
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
 		}
-
-		return instance;
 	}
 
 	public UKB_MT getTagger() {
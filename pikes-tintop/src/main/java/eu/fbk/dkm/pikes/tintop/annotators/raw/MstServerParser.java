@@ -5,9 +5,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -22,21 +22,24 @@ import java.util.List;
 public class MstServerParser {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MstServerParser.class);
-    private int port;
-    private String server;
+
+    private final SocketConnectionPool pool;
 
     public MstServerParser(String server, int port) {
-        this.port = port;
-        this.server = server;
+        this(server, port, SocketConnectionPool.DEFAULT_SIZE, SocketConnectionPool.DEFAULT_CONNECT_TIMEOUT,
+                SocketConnectionPool.DEFAULT_READ_TIMEOUT);
     }
 
-    public DepParseInfo tag(List<String> tokens, List<String> poss) throws Exception {
-        if (tokens.size() != poss.size()) {
-            LOGGER.error("The token and pos collections must have the same size");
-            return null;
-        }
+    public MstServerParser(String server, int port, int poolSize, int connectTimeout, int readTimeout) {
+        this.pool = SocketConnectionPool.getInstance(server, port, poolSize, connectTimeout, readTimeout);
+    }
 
-        StringBuffer sb = new StringBuffer();
+    public SocketConnectionPool getPool() {
+        return pool;
+    }
+
+    private static String toText(List<String> tokens, List<String> poss) {
+        StringBuilder sb = new StringBuilder();
 
         for (int i = 0; i < tokens.size(); i++) {
             String token = tokens.get(i);
@@ -48,27 +51,91 @@ public class MstServerParser {
             sb.append(" ");
         }
 
-        return tag(sb.toString().trim());
+        return sb.toString().trim();
+    }
+
+    public DepParseInfo tag(List<String> tokens, List<String> poss) throws Exception {
+        if (tokens.size() != poss.size()) {
+            LOGGER.error("The token and pos collections must have the same size");
+            return null;
+        }
+
+        return tag(toText(tokens, poss));
+    }
+
+    public DepParseInfo tag(String text) throws Exception {
+        List<DepParseInfo> result = request(Collections.singletonList(text));
+        return result.isEmpty() ? new DepParseInfo(new HashMap<>(), new HashMap<>()) : result.get(0);
+    }
+
+    /**
+     * Parses all the given sentences (lists of tokens and of POS tags) with a single request, one sentence per
+     * line. If the server does not return one parse per sentence, sentences are parsed one at a time.
+     */
+    public List<DepParseInfo> tagAll(List<List<String>> tokens, List<List<String>> poss) throws Exception {
+        if (tokens.size() != poss.size()) {
+            LOGGER.error("The token and pos collections must have the same size");
+            return null;
+        }
+
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).size() != poss.get(i).size()) {
+                LOGGER.error("The token and pos collections must have the same size");
+                return null;
+            }
+            texts.add(toText(tokens.get(i), poss.get(i)));
+        }
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<DepParseInfo> result = request(texts);
+        if (result.size() == texts.size()) {
+            return result;
+        }
+
+        LOGGER.debug("Got {} parses for {} sentences, parsing sentences one at a time", result.size(),
+                texts.size());
+        result = new ArrayList<>();
+        for (String text : texts) {
+            result.add(tag(text));
+        }
+        return result;
     }
 
-    synchronized public DepParseInfo tag(String text) throws Exception {
+    private List<DepParseInfo> request(List<String> texts) throws Exception {
 
+        List<DepParseInfo> result = new ArrayList<>();
         String modifiedSentence;
 
-        Socket clientSocket = new Socket(server, port);
-        OutputStreamWriter writer = new OutputStreamWriter(clientSocket.getOutputStream());
-        BufferedReader inFromServer = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        writer.write(text + '\n' + '*' + '\n');
-        writer.flush();
+        // The server closes the connection after its answer, so connections are never given back to the pool
+        SocketConnectionPool.Connection connection = pool.getResource(pool.getMaxWaitMillis());
+        long begin = System.nanoTime();
 
         HashMap<Integer, Integer> depParents = new HashMap<>();
         HashMap<Integer, String> depLabels = new HashMap<>();
 
         try {
+            Writer writer = connection.getWriter();
+            for (String text : texts) {
+                writer.write(text);
+                writer.write('\n');
+            }
+            writer.write('*');
+            writer.write('\n');
+            writer.flush();
+
+            BufferedReader inFromServer = connection.getReader();
             while ((modifiedSentence = inFromServer.readLine()) != null) {
 
                 modifiedSentence = modifiedSentence.trim();
                 if (modifiedSentence.length() == 0) {
+                    if (!depParents.isEmpty()) {
+                        result.add(new DepParseInfo(depParents, depLabels));
+                        depParents = new HashMap<>();
+                        depLabels = new HashMap<>();
+                    }
                     continue;
                 }
 
@@ -81,13 +148,19 @@ public class MstServerParser {
                 }
             }
         } catch (Exception e) {
-            LOGGER.error("Error in text: {}", text);
+            LOGGER.error("Error in text: {}", texts);
             e.printStackTrace();
         } finally {
-            clientSocket.close();
+            pool.invalidateResource(connection);
+            pool.getLatency().record(System.nanoTime() - begin);
+        }
+
+        if (!depParents.isEmpty() || result.isEmpty()) {
+            result.add(new DepParseInfo(depParents, depLabels));
         }
+        LOGGER.debug("MST pool: {}", pool);
 
-        return new DepParseInfo(depParents, depLabels);
+        return result;
     }
 
     public static void main(String[] args) {
@@ -7,11 +7,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.Socket;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Properties;
 
 /**
  * Created with IntelliJ IDEA.
@@ -23,8 +22,6 @@ import java.util.Properties;
 
 public class Semafor {
 
-    //todo: add timeout as a parameter
-
     public static HashMap<String, String> conversionMap = new HashMap<>();
     static {
         conversionMap.put("TMP", "ADV");
@@ -139,39 +136,61 @@ public class Semafor {
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Semafor.class);
-    private int port;
-    private String server;
+
+    private final SocketConnectionPool pool;
 
     public Semafor(String server, int port) {
-        this.port = port;
-        this.server = server;
+        this(server, port, SocketConnectionPool.DEFAULT_SIZE, SocketConnectionPool.DEFAULT_CONNECT_TIMEOUT,
+                SocketConnectionPool.DEFAULT_READ_TIMEOUT);
     }
 
-    public SemaforResponse tag(String text) throws Exception {
-
-        String modifiedSentence;
-        ObjectMapper mapper = new ObjectMapper();
-
-//        Socket clientSocket = new Socket(server, port);
-//        clientSocket.setSoTimeout(2000);
-//        DataOutputStream outToServer = new DataOutputStream(clientSocket.getOutputStream());
-//        BufferedReader inFromServer = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-//        outToServer.writeBytes(text + '\n');
-//        modifiedSentence = inFromServer.readLine();
+    public Semafor(String server, int port, int poolSize, int connectTimeout, int readTimeout) {
+        this.pool = SocketConnectionPool.getInstance(server, port, poolSize, connectTimeout, readTimeout);
+    }
 
-        Socket clientSocket = new Socket(server, port);
-        clientSocket.setSoTimeout(20000);
-        Writer outToServer = new OutputStreamWriter(clientSocket.getOutputStream(), Charsets.UTF_8);
-        BufferedReader inFromServer = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        outToServer.write(text + '\n');
-        outToServer.flush();
-        modifiedSentence = inFromServer.readLine();
+    public SocketConnectionPool getPool() {
+        return pool;
+    }
 
-        SemaforResponse response = mapper.readValue(modifiedSentence, SemaforResponse.class);
-        clientSocket.close();
+    /**
+     * Parses a sentence over a new connection, which is closed after reading the response (one line). A connection
+     * that cannot be established is retried once; failures after the sentence has been sent are not retried.
+     */
+    public SemaforResponse tag(String text) throws Exception {
+        SocketConnectionPool.Connection connection = connect();
+        long begin = System.nanoTime();
+        try {
+            Writer outToServer = connection.getWriter();
+            outToServer.write(text + '\n');
+            outToServer.flush();
+            String modifiedSentence = connection.getReader().readLine();
+            if (modifiedSentence == null) {
+                throw new EOFException("Connection closed by Semafor server");
+            }
+            return new ObjectMapper().readValue(modifiedSentence, SemaforResponse.class);
+        } finally {
+            pool.invalidateResource(connection);
+            pool.getLatency().record(System.nanoTime() - begin);
+        }
+    }
 
-        return response;
+    public List<SemaforResponse> tagAll(List<String> texts) throws Exception {
+        List<SemaforResponse> responses = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            responses.add(tag(text));
+        }
+        LOGGER.debug("Semafor pool: {}", pool);
+        return responses;
+    }
 
+    private SocketConnectionPool.Connection connect() throws Exception {
+        try {
+            return pool.getResource(pool.getMaxWaitMillis());
+        } catch (IOException e) {
+            // Only raised when connecting: nothing has been sent yet
+            LOGGER.debug("Retrying connection to Semafor server: {}", e.getMessage());
+            return pool.getResource(pool.getMaxWaitMillis());
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,135 @@
+package eu.fbk.dkm.pikes.tintop.annotators.raw;
+
+import com.google.common.base.Charsets;
+import eu.fbk.dkm.pikes.tintop.server.ResourcePool;
+import eu.fbk.dkm.pikes.tintop.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of connections to a line-based socket server (Semafor, MST parser), shared by all the clients of the same
+ * endpoint with the same settings. Besides bounding the number of concurrent connections, it can keep them open
+ * between requests when the protocol allows it (the Semafor and MST clients use a connection per request, as their
+ * original clients did), and collects the request latencies of the endpoint.
+ */
+
+public class SocketConnectionPool extends ResourcePool<SocketConnectionPool.Connection> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocketConnectionPool.class);
+
+    public static final int DEFAULT_SIZE = 10;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 20000;
+
+    private static final ConcurrentHashMap<String, SocketConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+    private final String server;
+    private final int port;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Returns the pool for the given endpoint and settings, creating it if it does not exist yet.
+     */
+    public static SocketConnectionPool getInstance(String server, int port, int size, int connectTimeout,
+            int readTimeout) {
+        String key = server + ":" + port + " (size " + size + ", connect timeout " + connectTimeout
+                + " ms, read timeout " + readTimeout + " ms)";
+        SocketConnectionPool pool = POOLS.get(key);
+        if (pool == null) {
+            pool = new SocketConnectionPool(server, port, size, connectTimeout, readTimeout);
+            SocketConnectionPool previous = POOLS.putIfAbsent(key, pool);
+            if (previous != null) {
+                pool = previous;
+            } else {
+                LOGGER.info("Created connection pool for {}", key);
+            }
+        }
+        return pool;
+    }
+
+    private SocketConnectionPool(String server, int port, int size, int connectTimeout, int readTimeout) {
+        super(size);
+        this.server = server;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    protected Connection createResource() throws IOException {
+        Socket socket = new Socket();
+        socket.setKeepAlive(true);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(readTimeout);
+        socket.connect(new InetSocketAddress(server, port), connectTimeout);
+        return new Connection(socket);
+    }
+
+    @Override
+    protected boolean validateResource(Connection connection) {
+        return connection != null && connection.isOpen();
+    }
+
+    @Override
+    protected void destroyResource(Connection connection) {
+        connection.close();
+    }
+
+    public String getEndpoint() {
+        return server + ":" + port;
+    }
+
+    public long getMaxWaitMillis() {
+        return connectTimeout + readTimeout;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return getEndpoint() + " [" + super.toString() + "; latency " + latency + "]";
+    }
+
+    public static final class Connection {
+
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8));
+        }
+
+        public BufferedReader getReader() {
+            return reader;
+        }
+
+        public Writer getWriter() {
+            return writer;
+        }
+
+        boolean isOpen() {
+            return socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown()
+                    && !socket.isOutputShutdown();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing socket: {}", e.getMessage());
+            }
+        }
+    }
+}
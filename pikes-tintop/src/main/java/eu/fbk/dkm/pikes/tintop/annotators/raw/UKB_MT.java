@@ -1,14 +1,20 @@
 package eu.fbk.dkm.pikes.tintop.annotators.raw;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import eu.fbk.dkm.pikes.tintop.annotators.Defaults;
 import eu.fbk.dkm.pikes.tintop.annotators.UKBResourcePool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Properties;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created with IntelliJ IDEA.
@@ -22,11 +28,23 @@ public class UKB_MT {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UKB_MT.class);
 
+    // Context used to detect the end of the output of a batch
+    private static final String END_CONTEXT = "ctx_end";
+    private static final String END_TOKENS = "be#v#workaround#1";
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // Used both to run batch parts in parallel and to feed UKB while its output is being read
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ukb-%d").build());
+
     private UKBResourcePool resourcePool = null;
     private Properties config;
 
-    private int numOfRestarts = 0;
+    private final AtomicInteger numOfRestarts = new AtomicInteger();
     private int maxNumOfRestarts;
+    private long maxWaitMillis;
+    private int minBatchSize;
 
     public UKB_MT(Properties properties) throws IOException {
         this.config = properties;
@@ -43,12 +61,30 @@ public class UKB_MT {
         String dict = config.getProperty("dict", Defaults.UKB_DICT);
         int numResources = Defaults.getInteger(config.getProperty("instances"), Defaults.UKB_MAX_INSTANCES);
         maxNumOfRestarts = Defaults.getInteger(config.getProperty("restarts"), Defaults.UKB_MAX_NUM_OF_RESTARTS);
+        maxWaitMillis = Defaults.getInteger(config.getProperty("timeout"), Defaults.UKB_TIMEOUT);
+        int prewarm = Defaults.getInteger(config.getProperty("prewarm"), 0);
+        minBatchSize = Math.max(1, Defaults.getInteger(config.getProperty("min_batch"), Defaults.UKB_MIN_BATCH));
 
         LOGGER.info("Loading UKB with {} instances", numResources);
         resourcePool = new UKBResourcePool(model, dict, baseDir, numResources);
+        resourcePool.setIdleTimeoutMillis(
+                Defaults.getInteger(config.getProperty("idle_timeout"), Defaults.UKB_IDLE_TIMEOUT) * 1000L);
+        resourcePool.setMinIdle(prewarm);
+        if (prewarm > 0) {
+            try {
+                resourcePool.prewarm(prewarm);
+                LOGGER.info("Started {} UKB instances", resourcePool.getIdle());
+            } catch (Exception e) {
+                throw new IOException("Unable to start UKB", e);
+            }
+        }
+    }
+
+    public UKBResourcePool getResourcePool() {
+        return resourcePool;
     }
 
-    private static void addTokenToContext(HashMap<String, String> term, char pos, int index, StringBuffer sb,
+    private static void addTokenToContext(HashMap<String, String> term, char pos, int index, StringBuilder sb,
             HashMap<String, HashMap<String, String>> backupTerms) {
         String thisID = "w" + index;
         sb.append(term.get("lemma").toLowerCase().replace(' ', '-').replace('#', '.'));
@@ -61,31 +97,28 @@ public class UKB_MT {
         backupTerms.put(thisID, term);
     }
 
-    public void run(ArrayList<HashMap<String, String>> terms) throws IOException {
-
-        HashMap<String, HashMap<String, String>> backupTerms = new HashMap<>();
-
-        StringBuffer sb = new StringBuffer();
-        sb.append("ctx_01\n");
+    @Nullable
+    private static Context buildContext(String name, List<HashMap<String, String>> terms) {
+        Context context = new Context(name);
 
-        StringBuffer sbTokens = new StringBuffer();
+        StringBuilder sbTokens = new StringBuilder();
         int index = 0;
         for (HashMap<String, String> t : terms) {
             switch (t.get("simple_pos").toLowerCase()) {
             case "n":
-                addTokenToContext(t, 'n', ++index, sbTokens, backupTerms);
+                addTokenToContext(t, 'n', ++index, sbTokens, context.terms);
                 break;
             case "r":
-                addTokenToContext(t, 'n', ++index, sbTokens, backupTerms);
+                addTokenToContext(t, 'n', ++index, sbTokens, context.terms);
                 break;
             case "v":
-                addTokenToContext(t, 'v', ++index, sbTokens, backupTerms);
+                addTokenToContext(t, 'v', ++index, sbTokens, context.terms);
                 break;
             case "a":
-                addTokenToContext(t, 'r', ++index, sbTokens, backupTerms);
+                addTokenToContext(t, 'r', ++index, sbTokens, context.terms);
                 break;
             case "g":
-                addTokenToContext(t, 'a', ++index, sbTokens, backupTerms);
+                addTokenToContext(t, 'a', ++index, sbTokens, context.terms);
                 break;
             default:
                 break;
@@ -93,89 +126,200 @@ public class UKB_MT {
         }
 
         if (sbTokens.toString().trim().length() == 0) {
+            return null;
+        }
+
+        context.text = name + "\n" + sbTokens + "\n";
+        return context;
+    }
+
+    public void run(ArrayList<HashMap<String, String>> terms) throws IOException {
+        runBatch(Collections.singletonList(terms));
+    }
+
+    /**
+     * Disambiguates several sentences (possibly from different documents) at once. Each sentence is sent to UKB
+     * as a numbered context; sentences are split in contiguous parts that are processed in parallel by the pooled
+     * UKB instances, each part with a single write to the process.
+     */
+    public void runBatch(List<? extends List<HashMap<String, String>>> sentences) throws IOException {
+
+        List<Context> contexts = new ArrayList<>();
+        for (int i = 0; i < sentences.size(); i++) {
+            Context context = buildContext("ctx_" + i, sentences.get(i));
+            if (context != null) {
+                contexts.add(context);
+            }
+        }
+        if (contexts.isEmpty()) {
             return;
         }
 
-        sb.append(sbTokens.toString());
+        int numParts = Math.min(resourcePool.getMaxResources(),
+                (contexts.size() + minBatchSize - 1) / minBatchSize);
+        int partSize = (contexts.size() + numParts - 1) / numParts;
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = partSize; i < contexts.size(); i += partSize) {
+            final List<Context> part = contexts.subList(i, Math.min(i + partSize, contexts.size()));
+            futures.add(EXECUTOR.submit(() -> process(part)));
+        }
+        process(contexts.subList(0, Math.min(partSize, contexts.size())));
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for UKB", e);
+            } catch (ExecutionException e) {
+                LOGGER.warn(e.getMessage());
+            }
+        }
+    }
 
-        sb.append("\n");
+    private void process(List<Context> contexts) {
+
+        StringBuilder sb = new StringBuilder();
+        Map<String, Context> contextsByName = new HashMap<>();
+        for (Context context : contexts) {
+            sb.append(context.text);
+            contextsByName.put(context.name, context);
+        }
 
         // Workaround to get last line to read in the output
-        sb.append("ctx_02\n");
-        sb.append("be#v#workaround#1\n");
+        sb.append(END_CONTEXT).append("\n").append(END_TOKENS).append("\n");
 
         String transformedStr = sb.toString();
         LOGGER.debug(transformedStr);
+        final byte[] bytes = transformedStr.getBytes(CHARSET);
 
         Process process = null;
 
         try {
-            process = resourcePool.getResource(10000);
-            if (process == null) {
-                throw new NullPointerException("Process is null");
-            }
-
-            OutputStream stdin = process.getOutputStream();
-            InputStream stdout = process.getInputStream();
+            process = resourcePool.getResource(maxWaitMillis);
 
             try {
-                stdin.write(transformedStr.getBytes());
-                stdin.flush();
+                exchange(process, bytes, contextsByName);
             } catch (IOException e) {
-                if (maxNumOfRestarts <= 0 || numOfRestarts < maxNumOfRestarts) {
-                    numOfRestarts++;
+                int restarts = numOfRestarts.incrementAndGet();
+                if (maxNumOfRestarts <= 0 || restarts <= maxNumOfRestarts) {
                     if (maxNumOfRestarts > 0) {
-                        LOGGER.info(String.format("Trying to restart UKB [%d/%d]", numOfRestarts, maxNumOfRestarts));
+                        LOGGER.info(String.format("Trying to restart UKB [%d/%d]", restarts, maxNumOfRestarts));
                     } else {
-                        LOGGER.info(String.format("Trying to restart UKB [%d]", numOfRestarts));
+                        LOGGER.info(String.format("Trying to restart UKB [%d]", restarts));
                     }
-                    process = resourcePool.createResource();
 
-                    stdin = process.getOutputStream();
-                    stdout = process.getInputStream();
-                    stdin.write(transformedStr.getBytes());
-                    stdin.flush();
-                }
-            }
-
-            BufferedReader brCleanUp = new BufferedReader(new InputStreamReader(stdout));
-            String line;
-            while ((line = brCleanUp.readLine()) != null) {
-                LOGGER.trace(line);
-                String[] parts = line.split("\\s+");
-                String context = parts[0];
-                if (context.equals("ctx_02")) {
-                    break;
-                }
-
-                String tokenID = parts[1];
-                HashMap<String, String> thisTerm = backupTerms.get(tokenID);
-                if (thisTerm == null) {
-                    continue;
-                }
-
-                for (int i = 2; i < parts.length; i++) {
-                    String[] scores = parts[i].split("/");
-                    if (scores.length < 2) {
-                        break;
-                    }
-                    String wn = scores[0];
-
-                    thisTerm.put("wordnet", wn);
-
-                    break;
+                    // Drop the broken process: the pool replaces it with a fresh one
+                    Process broken = process;
+                    process = null;
+                    resourcePool.invalidateResource(broken);
+                    process = resourcePool.getResource(maxWaitMillis);
 
+                    exchange(process, bytes, contextsByName);
+                } else {
+                    throw e;
                 }
             }
 
         } catch (Exception e) {
             LOGGER.warn(e.getMessage());
             e.printStackTrace();
+            if (process != null) {
+                resourcePool.invalidateResource(process);
+                process = null;
+            }
         } finally {
             if (process != null) {
                 resourcePool.returnResource(process);
             }
+            LOGGER.debug("UKB pool: {}", resourcePool);
+        }
+    }
+
+    private static void exchange(Process process, final byte[] bytes, Map<String, Context> contexts)
+            throws IOException {
+
+        // Input is written while output is consumed, so that UKB never blocks on a full pipe
+        final OutputStream stdin = process.getOutputStream();
+        Future<?> writer = EXECUTOR.submit(() -> {
+            stdin.write(bytes);
+            stdin.flush();
+            return null;
+        });
+
+        BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), CHARSET));
+        boolean ended = false;
+        String line;
+        while ((line = stdout.readLine()) != null) {
+            LOGGER.trace(line);
+
+            // Format: context token sense/score [sense/score ...] [!! lemma]
+            int contextEnd = line.indexOf(' ');
+            if (contextEnd < 0) {
+                continue;
+            }
+            String contextName = line.substring(0, contextEnd);
+            if (contextName.equals(END_CONTEXT)) {
+                ended = true;
+                break;
+            }
+            Context context = contexts.get(contextName);
+            if (context == null) {
+                continue;
+            }
+
+            int tokenStart = skipSpaces(line, contextEnd);
+            int tokenEnd = nextSpace(line, tokenStart);
+            HashMap<String, String> thisTerm = context.terms.get(line.substring(tokenStart, tokenEnd));
+            if (thisTerm == null) {
+                continue;
+            }
+
+            int senseStart = skipSpaces(line, tokenEnd);
+            int senseEnd = nextSpace(line, senseStart);
+            int slash = line.indexOf('/', senseStart);
+            if (slash > senseStart && slash < senseEnd) {
+                thisTerm.put("wordnet", line.substring(senseStart, slash));
+            }
+        }
+
+        try {
+            writer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing to UKB", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to write to UKB", e.getCause());
         }
 
+        if (!ended) {
+            throw new IOException("UKB output ended unexpectedly");
+        }
+    }
+
+    private static int skipSpaces(String line, int index) {
+        while (index < line.length() && Character.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int nextSpace(String line, int index) {
+        while (index < line.length() && !Character.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static final class Context {
+
+        final String name;
+        final HashMap<String, HashMap<String, String>> terms = new HashMap<>();
+        String text;
+
+        Context(String name) {
+            this.name = name;
+        }
     }
 }
@@ -31,7 +31,7 @@ public class AbstractHandler extends HttpHandler {
 	protected AnnotationPipeline pipeline;
 
 //	protected HashSet<String> annotators = new HashSet<>();
-	protected HashMap<String, String> meta = new HashMap<>();
+	public final static String META_ATTRIBUTE = "pikes.meta";
 
 	static Logger logger = Logger.getLogger(AbstractHandler.class.getName());
 
@@ -45,6 +45,9 @@ public class AbstractHandler extends HttpHandler {
 		request.setCharacterEncoding("UTF-8");
 		response.setCharacterEncoding("UTF-8");
 
+		// Meta are kept per request, as handlers are shared by concurrent requests
+		HashMap<String, String> meta = new HashMap<>();
+		request.setAttribute(META_ATTRIBUTE, meta);
 
 		for (String parameterLabel : request.getParameterMap().keySet()) {
 
@@ -67,6 +70,12 @@ public class AbstractHandler extends HttpHandler {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	public HashMap<String, String> getMeta(Request request) {
+		HashMap<String, String> meta = (HashMap<String, String>) request.getAttribute(META_ATTRIBUTE);
+		return meta != null ? meta : new HashMap<String, String>();
+	}
+
 	public void writeOutput(Response response, String contentType, String output) throws IOException {
 		response.setContentType(contentType);
 		response.addHeader("Access-Control-Allow-Origin", "*");
@@ -0,0 +1,250 @@
+package eu.fbk.dkm.pikes.tintop.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the annotation handlers of the server outside the Grizzly worker threads.
+ * <p>
+ * Requests are admitted into a bounded queue served by a fixed number of annotation threads. When the queue is
+ * full the request is rejected immediately with a 503 status and a Retry-After header. If a timeout is set, each
+ * request has a deadline counted from its admission: requests still waiting in the queue at their deadline are
+ * rejected without being processed, while running ones are interrupted. Interrupted requests give their Stanford
+ * pipeline back to the pool like the others: its annotators are shared by all the pipelines and cannot be rebuilt
+ * (see {@link eu.fbk.dkm.pikes.tintop.StanfordPipelinePool}).
+ */
+
+public class AnnotationExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnnotationExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final long timeoutMillis;
+    private final int retryAfterSeconds;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    private final AtomicLong serviceNanos = new AtomicLong();
+    private final AtomicLong maxServiceNanos = new AtomicLong();
+
+    public AnnotationExecutor(int threads, int queueSize, long timeoutMillis, int retryAfterSeconds) {
+        this.timeoutMillis = timeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new ThreadFactoryBuilder().setNameFormat("annotation-%d").build());
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("annotation-timer").setDaemon(true).build());
+    }
+
+    /**
+     * Returns a handler that runs {@code handler} on this executor, suspending the Grizzly response in the
+     * meantime.
+     */
+    public HttpHandler wrap(final HttpHandler handler) {
+        return new HttpHandler() {
+
+            @Override
+            public void service(Request request, Response response) throws Exception {
+                execute(handler, request, response);
+            }
+        };
+    }
+
+    public void execute(final HttpHandler handler, final Request request, final Response response) {
+        final long admission = System.nanoTime();
+        response.suspend();
+
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    process(handler, request, response, admission);
+                }
+            });
+            admitted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOGGER.warn("Rejecting request {}: annotation queue is full", request.getRequestURI());
+            unavailable(response, "Server is busy, please retry later");
+            response.resume();
+        }
+    }
+
+    private void process(HttpHandler handler, Request request, Response response, long admission) {
+        final long start = System.nanoTime();
+        queueNanos.addAndGet(start - admission);
+
+        try {
+            final long remaining = timeoutMillis > 0 ?
+                    timeoutMillis - TimeUnit.NANOSECONDS.toMillis(start - admission) :
+                    Long.MAX_VALUE;
+            if (remaining <= 0) {
+                expired.incrementAndGet();
+                LOGGER.warn("Request {} expired while waiting in the annotation queue", request.getRequestURI());
+                unavailable(response, "Request timed out while waiting, please retry later");
+                return;
+            }
+
+            // Clear an interrupt left by a previous request, which would abort this one
+            Thread.interrupted();
+            final Deadline deadline = timeoutMillis > 0 ? new Deadline(Thread.currentThread(), remaining) : null;
+            try {
+                handler.service(request, response);
+                completed.incrementAndGet();
+            } catch (Throwable ex) {
+                if (deadline != null && deadline.isExpired()) {
+                    expired.incrementAndGet();
+                    LOGGER.warn("Request {} interrupted after {} ms", request.getRequestURI(), timeoutMillis);
+                    unavailable(response, "Request timed out, please retry later");
+                } else {
+                    failed.incrementAndGet();
+                    LOGGER.error("Error processing request " + request.getRequestURI(), ex);
+                    error(response, ex);
+                }
+            } finally {
+                if (deadline != null) {
+                    deadline.cancel();
+                }
+            }
+
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            serviceNanos.addAndGet(elapsed);
+            long max;
+            while (elapsed > (max = maxServiceNanos.get()) && !maxServiceNanos.compareAndSet(max, elapsed)) {
+                // retry
+            }
+            response.resume();
+        }
+    }
+
+    private void unavailable(Response response, String message) {
+        try {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE_503);
+            response.setHeader("Retry-After", Integer.toString(retryAfterSeconds));
+            response.setContentType("text/plain");
+            response.getWriter().write(message);
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.debug("Unable to send 503 response: {}", e.getMessage());
+        }
+    }
+
+    private void error(Response response, Throwable ex) {
+        try {
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+                response.setContentType("text/plain");
+                response.getWriter().write("Error: " + ex.getMessage());
+            }
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.debug("Unable to send 500 response: {}", e.getMessage());
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getAverageQueueMillis() {
+        long processed = executor.getCompletedTaskCount();
+        return processed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(queueNanos.get() / processed);
+    }
+
+    public long getAverageServiceMillis() {
+        long processed = executor.getCompletedTaskCount();
+        return processed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(serviceNanos.get() / processed);
+    }
+
+    public long getMaxServiceMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxServiceNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "queue=%d, active=%d, admitted=%d, rejected=%d, expired=%d, completed=%d, failed=%d, "
+                        + "avg_queue_ms=%d, avg_service_ms=%d, max_service_ms=%d", getQueueDepth(), getActive(),
+                getAdmitted(), getRejected(), getExpired(), getCompleted(), getFailed(), getAverageQueueMillis(),
+                getAverageServiceMillis(), getMaxServiceMillis());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        timer.shutdownNow();
+    }
+
+    private final class Deadline implements Runnable {
+
+        private final Thread thread;
+        private final ScheduledFuture<?> future;
+        private boolean expired = false;
+        private boolean finished = false;
+
+        Deadline(Thread thread, long millis) {
+            this.thread = thread;
+            this.future = timer.schedule(this, millis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!finished) {
+                expired = true;
+                thread.interrupt();
+            }
+        }
+
+        synchronized boolean isExpired() {
+            return expired;
+        }
+
+        void cancel() {
+            synchronized (this) {
+                finished = true;
+            }
+            future.cancel(false);
+            // Clear a possible interrupt so that it does not leak into the next request
+            Thread.interrupted();
+        }
+    }
+}
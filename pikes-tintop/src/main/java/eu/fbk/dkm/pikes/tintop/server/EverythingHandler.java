@@ -56,7 +56,7 @@ public class EverythingHandler extends AbstractHandler {
 		LOGGER.info("Host: {}", host);
 		LOGGER.info("Text: {}", text);
 
-		KAFDocument doc = text2naf(text, meta);
+		KAFDocument doc = text2naf(text, getMeta(request));
 
 		doc = pipeline.parseFromString(doc.toString());
 
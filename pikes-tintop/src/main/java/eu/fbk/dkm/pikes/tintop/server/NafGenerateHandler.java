@@ -25,7 +25,7 @@ public class NafGenerateHandler extends AbstractHandler {
 		super.service(request, response);
 
 		String text = request.getParameter("text");
-		KAFDocument doc = text2naf(text, meta);
+		KAFDocument doc = text2naf(text, getMeta(request));
 
 		writeOutput(response, "text/xml", doc.toString());
 	}
@@ -1,6 +1,7 @@
 package eu.fbk.dkm.pikes.tintop.server;
 
 import eu.fbk.dkm.pikes.tintop.AnnotationPipeline;
+import eu.fbk.dkm.pikes.tintop.annotators.Defaults;
 import eu.fbk.utils.core.CommandLine;
 import org.glassfish.grizzly.http.server.CLStaticHttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
@@ -45,6 +46,7 @@ public class PipelineServer {
         try {
             pipeline = new AnnotationPipeline(configFile, additionalProperties);
             pipeline.loadModels();
+            logger.info("Stanford pipeline pool: " + pipeline.getPipelinePool());
         } catch (Exception e) {
             e.printStackTrace();
             logger.error(e.getMessage());
@@ -66,14 +68,32 @@ public class PipelineServer {
         NetworkListener nl = new NetworkListener("pikes-web", host, port);
         httpServer.addListener(nl);
 
+        // Responses are gzip-compressed for clients accepting it (a negative size disables compression)
+        Properties config = pipeline.getDefaultConfig();
+        int compressionMinSize = Defaults.getInteger(config.getProperty("server_compression_min_size"),
+                Defaults.SERVER_COMPRESSION_MIN_SIZE);
+        if (compressionMinSize >= 0) {
+            nl.setCompression("on");
+            nl.setCompressionMinSize(compressionMinSize);
+        }
+
+        // Annotation requests are run on a dedicated, bounded executor
+        int threads = Defaults.getInteger(config.getProperty("server_threads"), Defaults.SERVER_THREADS);
+        int queueSize = Defaults.getInteger(config.getProperty("server_queue_size"), Defaults.SERVER_QUEUE_SIZE);
+        int retryAfter = Defaults.getInteger(config.getProperty("server_retry_after"), Defaults.SERVER_RETRY_AFTER);
+        AnnotationExecutor executor = new AnnotationExecutor(threads, queueSize,
+                timeoutInSeconds > 0 ? timeoutInSeconds * 1000L : -1, retryAfter);
+        logger.info("Annotation executor: {} threads, queue size {}", threads, queueSize);
+
         httpServer.getServerConfiguration().setSessionTimeoutSeconds(timeoutInSeconds);
         httpServer.getServerConfiguration().setMaxPostSize(4194304);
-        httpServer.getServerConfiguration().addHttpHandler(new NafHandler(pipeline), "/naf");
-        httpServer.getServerConfiguration().addHttpHandler(new NafVisualizeHandler(pipeline), "/view");
+        httpServer.getServerConfiguration().addHttpHandler(executor.wrap(new NafHandler(pipeline)), "/naf");
+        httpServer.getServerConfiguration().addHttpHandler(executor.wrap(new NafVisualizeHandler(pipeline)), "/view");
         httpServer.getServerConfiguration().addHttpHandler(new NafGenerateHandler(pipeline), "/text");
-        httpServer.getServerConfiguration().addHttpHandler(new EverythingHandler(pipeline), "/all");
-        httpServer.getServerConfiguration().addHttpHandler(new Text2NafHandler(pipeline), "/text2naf");
-        httpServer.getServerConfiguration().addHttpHandler(new TriplesHandler(pipeline), "/text2rdf");
+        httpServer.getServerConfiguration().addHttpHandler(executor.wrap(new EverythingHandler(pipeline)), "/all");
+        httpServer.getServerConfiguration().addHttpHandler(executor.wrap(new Text2NafHandler(pipeline)), "/text2naf");
+        httpServer.getServerConfiguration().addHttpHandler(executor.wrap(new TriplesHandler(pipeline)), "/text2rdf");
+        httpServer.getServerConfiguration().addHttpHandler(new StatsHandler(pipeline, executor), "/stats");
 
         httpServer.getServerConfiguration().addHttpHandler(
                 new CLStaticHttpHandler(HttpServer.class.getClassLoader(), "webdemo/"), "/");
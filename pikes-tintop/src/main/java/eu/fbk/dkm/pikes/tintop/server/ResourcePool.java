@@ -1,58 +1,301 @@
 package eu.fbk.dkm.pikes.tintop.server;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.annotation.Nullable;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by alessio on 16/12/15.
+ * <p>
+ * Bounded pool of expensive resources (e.g., external processes). At most {@code maxResources} resources exist at
+ * any time; a borrower that cannot get one within the given wait time fails with a {@link TimeoutException}.
+ * Resources are validated on borrow and on return, and invalid ones are destroyed and replaced. Resources left idle
+ * for more than the idle timeout are destroyed, keeping at least {@code minIdle} of them; idle resources are checked
+ * periodically, so that the pool shrinks also when it is not used.
  */
 
 public abstract class ResourcePool<T> {
 
-    abstract protected T createResource();
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourcePool.class);
+
+    // Shared by all the pools to periodically destroy idle resources
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("resource-pool-evictor").setDaemon(true).build());
+
+    private static final long MIN_EVICTION_PERIOD_MILLIS = 1000;
+
+    abstract protected T createResource() throws Exception;
+
+    /**
+     * Checks whether a resource can still be used. The default implementation only checks for {@code null}.
+     */
+    protected boolean validateResource(T res) {
+        return res != null;
+    }
+
+    /**
+     * Releases a resource that is removed from the pool. The default implementation does nothing.
+     */
+    protected void destroyResource(T res) {
+    }
 
     static public int MAX_RESOURCES = 10;
+    static public long DEFAULT_IDLE_TIMEOUT = -1;
+
+    private final int maxResources;
+    private final Semaphore sem;
+    private final LinkedBlockingDeque<Idle<T>> resources = new LinkedBlockingDeque<>();
 
-    private Semaphore sem;
-    private final Queue<T> resources = new ConcurrentLinkedQueue<T>();
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT;
+    private int minIdle = 0;
+    private ScheduledFuture<?> eviction = null;
+
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
 
     public ResourcePool() {
         this(MAX_RESOURCES);
     }
 
     public ResourcePool(@Nullable Integer numResources) {
-        if (numResources == null) {
+        if (numResources == null || numResources <= 0) {
             numResources = MAX_RESOURCES;
         }
+        maxResources = numResources;
         sem = new Semaphore(numResources, true);
     }
 
-    public T getResource(long maxWaitMillis) throws Exception {
+    public int getMaxResources() {
+        return maxResources;
+    }
 
-        // First, get permission to take or create a resource
-        sem.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
 
-        // Then, actually take one if available...
-        T res = resources.poll();
-        if (res != null) {
-            return res;
+    /**
+     * Sets after how long an unused resource is destroyed; a non-positive value disables idle shrinking. Idle
+     * resources are checked every half timeout (at least every second) until the pool is closed.
+     */
+    public synchronized void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        if (eviction != null) {
+            eviction.cancel(false);
+            eviction = null;
+        }
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(idleTimeoutMillis / 2, MIN_EVICTION_PERIOD_MILLIS);
+            eviction = EVICTOR.scheduleWithFixedDelay(this::evictIdleQuietly, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = Math.min(minIdle, maxResources);
+    }
+
+    /**
+     * Creates resources until {@code count} of them (at most the pool size) are alive.
+     */
+    public void prewarm(int count) throws Exception {
+        count = Math.min(count, maxResources);
+        while (getAlive() < count) {
+            if (!sem.tryAcquire()) {
+                break;
+            }
+            try {
+                resources.addFirst(new Idle<>(create()));
+            } finally {
+                sem.release();
+            }
+        }
+    }
+
+    public T getResource(long maxWaitMillis) throws Exception {
+
+        // First, get permission to take or create a resource, failing if none is available in time
+        if (!sem.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            timeouts.incrementAndGet();
+            throw new TimeoutException(
+                    String.format("No resource available after %d ms (%d in use)", maxWaitMillis, borrowed.get()));
         }
 
-        // ...or create one if none available
         try {
-            return createResource();
+            // Then, actually take a healthy one if available...
+            Idle<T> idle;
+            while ((idle = resources.pollFirst()) != null) {
+                if (validateResource(idle.resource)) {
+                    return borrowed(idle.resource);
+                }
+                LOGGER.warn("Evicting invalid resource {}", idle.resource);
+                destroy(idle.resource);
+            }
+
+            // ...or create one if none available
+            return borrowed(create());
+
         } catch (Exception e) {
             // Don't hog the permit if we failed to create a resource!
             sem.release();
-            throw new Exception(e);
+            throw e;
         }
     }
 
     public void returnResource(T res) {
-        resources.add(res);
-        sem.release();
+        borrowed.decrementAndGet();
+        try {
+            if (validateResource(res)) {
+                resources.addFirst(new Idle<>(res));
+            } else {
+                destroy(res);
+            }
+        } finally {
+            sem.release();
+        }
+        evictIdle();
+    }
+
+    /**
+     * Gives back a borrowed resource that must not be reused, e.g., because it failed.
+     */
+    public void invalidateResource(T res) {
+        borrowed.decrementAndGet();
+        try {
+            destroy(res);
+        } finally {
+            sem.release();
+        }
+    }
+
+    /**
+     * Destroys the resources that have not been used for more than the idle timeout, keeping at least
+     * {@code minIdle} of them.
+     */
+    public void evictIdle() {
+        if (idleTimeoutMillis <= 0) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - idleTimeoutMillis;
+
+        // Least recently used resources are at the tail
+        Iterator<Idle<T>> iterator = resources.descendingIterator();
+        while (iterator.hasNext() && resources.size() > minIdle) {
+            Idle<T> idle = iterator.next();
+            if (idle.since < limit && resources.remove(idle)) {
+                LOGGER.debug("Destroying resource idle for more than {} ms", idleTimeoutMillis);
+                destroy(idle.resource);
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+        }
+        Idle<T> idle;
+        while ((idle = resources.pollFirst()) != null) {
+            destroy(idle.resource);
+        }
+    }
+
+    public int getBorrowed() {
+        return borrowed.get();
+    }
+
+    public int getIdle() {
+        return resources.size();
+    }
+
+    public long getAlive() {
+        return created.get() - destroyed.get();
+    }
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getDestroyed() {
+        return destroyed.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("max=%d, borrowed=%d, idle=%d, created=%d, destroyed=%d, borrows=%d, timeouts=%d",
+                maxResources, getBorrowed(), getIdle(), getCreated(), getDestroyed(), getBorrows(), getTimeouts());
+    }
+
+    private void evictIdleQuietly() {
+        try {
+            evictIdle();
+        } catch (Throwable e) {
+            // an exception would stop the periodic eviction
+            LOGGER.warn("Error evicting idle resources", e);
+        }
+    }
+
+    private T borrowed(T res) {
+        borrowed.incrementAndGet();
+        borrows.incrementAndGet();
+        return res;
+    }
+
+    private T create() throws Exception {
+        T res = createResource();
+        if (res == null) {
+            throw new IllegalStateException("Unable to create resource");
+        }
+        created.incrementAndGet();
+        return res;
+    }
+
+    private void destroy(T res) {
+        if (res == null) {
+            return;
+        }
+        destroyed.incrementAndGet();
+        try {
+            destroyResource(res);
+        } catch (Exception e) {
+            LOGGER.warn("Error destroying resource: {}", e.getMessage());
+        }
+    }
+
+    private static final class Idle<T> {
+
+        final T resource;
+        final long since = System.currentTimeMillis();
+
+        Idle(T resource) {
+            this.resource = resource;
+        }
     }
 }
@@ -0,0 +1,34 @@
+package eu.fbk.dkm.pikes.tintop.server;
+
+import eu.fbk.dkm.pikes.tintop.AnnotationPipeline;
+import eu.fbk.dkm.pikes.tintop.annotators.models.ModelRegistry;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+
+/**
+ * Reports the state of the annotation executor, of the Stanford pipeline pool and of the loaded models, as plain
+ * text.
+ */
+
+public class StatsHandler extends AbstractHandler {
+
+	private final AnnotationExecutor executor;
+
+	public StatsHandler(AnnotationPipeline pipeline, AnnotationExecutor executor) {
+		super(pipeline);
+		this.executor = executor;
+	}
+
+	@Override
+	public void service(Request request, Response response) throws Exception {
+
+		super.service(request, response);
+
+		StringBuilder builder = new StringBuilder();
+		builder.append("executor: ").append(executor).append("\n");
+		builder.append("stanford_pool: ").append(pipeline.getPipelinePool()).append("\n");
+		builder.append("models:\n").append(ModelRegistry.getInstance());
+
+		writeOutput(response, "text/plain", builder.toString());
+	}
+}
@@ -25,7 +25,7 @@ public class Text2NafHandler extends AbstractHandler {
 		super.service(request, response);
 
 		String text = request.getParameter("text");
-		KAFDocument doc = text2naf(text, meta);
+		KAFDocument doc = text2naf(text, getMeta(request));
 		doc = pipeline.parseFromNAF(doc);
 
 		writeOutput(response, "text/xml", doc.toString());
@@ -59,7 +59,7 @@ public class TriplesHandler extends AbstractHandler {
 		LOGGER.info("Host: {}", host);
 		LOGGER.info("Text: {}", text);
 
-		KAFDocument doc = text2naf(text, meta);
+		KAFDocument doc = text2naf(text, getMeta(request));
 
 		doc = pipeline.parseFromString(doc.toString());
 
@@ -89,6 +89,7 @@ public class TriplesHandler extends AbstractHandler {
 			StringWriter writer = new StringWriter();
 			RDFWriter rdfWriter = Rio.createWriter(RDFFormat.TRIG, writer);
 			filter.filter(doc);
+			doc.freeze(); // lets the generator process sentences in parallel
 			List<Statement> statementList = new ArrayList<>();
 
 			generator.generate(doc, null, statementList);